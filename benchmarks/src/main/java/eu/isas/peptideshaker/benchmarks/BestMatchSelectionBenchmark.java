@@ -0,0 +1,104 @@
+package eu.isas.peptideshaker.benchmarks;
+
+import com.compomics.util.experiment.identification.PeptideAssumption;
+import com.compomics.util.experiment.identification.SearchParameters;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import eu.isas.peptideshaker.scoring.psm_scoring.BestMatchSelection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the selection of the best hit among equally scoring peptide
+ * assumptions. Every protein has a distinct peptide count so that the
+ * selection is resolved by the protein count, the later stages of the
+ * selection need the spectra and are not covered.
+ *
+ * @author Marc Vaudel
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BestMatchSelectionBenchmark {
+
+    /**
+     * The number of spectra drawn, must be a power of two.
+     */
+    private static final int N_SPECTRA = 1024;
+    /**
+     * The number of equally scoring hits per spectrum.
+     */
+    @Param({"1", "2", "5", "10"})
+    public int nHits;
+    /**
+     * The number of proteins per peptide.
+     */
+    @Param({"1", "5"})
+    public int nProteins;
+    /**
+     * The keys of the spectra.
+     */
+    private String[] spectrumKeys;
+    /**
+     * The equally scoring hits of every spectrum.
+     */
+    private ArrayList<ArrayList<PeptideAssumption>> firstHits;
+    /**
+     * The number of peptides for every protein.
+     */
+    private HashMap<String, Integer> proteinCount;
+    /**
+     * The sequence matching preferences.
+     */
+    private SequenceMatchingPreferences sequenceMatchingPreferences;
+    /**
+     * The index of the next spectrum.
+     */
+    private int spectrumIndex = 0;
+
+    /**
+     * Generates the synthetic hits and protein counts.
+     */
+    @Setup(Level.Trial)
+    public void generateData() {
+        SyntheticData syntheticData = new SyntheticData(0, 2, 4, 1);
+        int totalProteins = 10 * nHits * nProteins;
+        proteinCount = syntheticData.nextProteinCount(totalProteins);
+        spectrumKeys = new String[N_SPECTRA];
+        firstHits = new ArrayList<ArrayList<PeptideAssumption>>(N_SPECTRA);
+        for (int i = 0; i < N_SPECTRA; i++) {
+            spectrumKeys[i] = SyntheticData.getSpectrumKey(SyntheticData.getSpectrumFileName(0), i);
+            firstHits.add(syntheticData.nextFirstHits(nHits, nProteins, totalProteins));
+        }
+        sequenceMatchingPreferences = SequenceMatchingPreferences.getDefaultSequenceMatching(new SearchParameters());
+    }
+
+    /**
+     * Selects the best hit of the next spectrum.
+     *
+     * @return the best hit
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * selecting the best hit
+     */
+    @Benchmark
+    public PeptideAssumption getBestHit() throws Exception {
+        int i = spectrumIndex++ & (N_SPECTRA - 1);
+        return BestMatchSelection.getBestHit(spectrumKeys[i], firstHits.get(i), proteinCount, sequenceMatchingPreferences, null, null, null);
+    }
+}
@@ -0,0 +1,130 @@
+package eu.isas.peptideshaker.benchmarks;
+
+import eu.isas.peptideshaker.scoring.InputMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the addition of search engine results to the input map, alone
+ * and from concurrent importer threads.
+ *
+ * @author Marc Vaudel
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class InputMapBenchmark {
+
+    /**
+     * The number of entries to add.
+     */
+    @Param({"100000", "1000000"})
+    public int nPsms;
+    /**
+     * The number of decoy hits per target hit.
+     */
+    @Param({"1.0"})
+    public double decoyRatio;
+    /**
+     * The number of search engines.
+     */
+    @Param({"1", "3"})
+    public int nAlgorithms;
+    /**
+     * The number of spectrum files.
+     */
+    @Param({"1", "10"})
+    public int nFiles;
+    /**
+     * The search engine of every entry.
+     */
+    private int[] algorithms;
+    /**
+     * The spectrum file of every entry.
+     */
+    private String[] files;
+    /**
+     * The e-value of every entry.
+     */
+    private double[] eValues;
+    /**
+     * The decoy status of every entry.
+     */
+    private boolean[] decoys;
+    /**
+     * The map shared by the threads of the concurrent benchmark.
+     */
+    private InputMap sharedInputMap;
+    /**
+     * The index of the next entry to add to the shared map.
+     */
+    private int sharedIndex = 0;
+
+    /**
+     * Generates the synthetic entries.
+     */
+    @Setup(Level.Trial)
+    public void generateData() {
+        SyntheticData syntheticData = new SyntheticData(decoyRatio, 2, 4, nFiles);
+        algorithms = new int[nPsms];
+        files = new String[nPsms];
+        eValues = new double[nPsms];
+        decoys = new boolean[nPsms];
+        for (int i = 0; i < nPsms; i++) {
+            algorithms[i] = syntheticData.nextInt(nAlgorithms);
+            files[i] = SyntheticData.getSpectrumFileName(syntheticData.nextFileIndex());
+            decoys[i] = syntheticData.nextDecoy();
+            eValues[i] = syntheticData.nextScore(decoys[i]);
+        }
+    }
+
+    /**
+     * Creates a new shared map for every iteration.
+     */
+    @Setup(Level.Iteration)
+    public void createSharedMap() {
+        sharedInputMap = new InputMap();
+    }
+
+    /**
+     * Adds all entries to a new input map.
+     *
+     * @return the input map
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public InputMap addEntries() {
+        InputMap inputMap = new InputMap();
+        for (int i = 0; i < nPsms; i++) {
+            inputMap.addEntry(algorithms[i], files[i], eValues[i], decoys[i]);
+        }
+        return inputMap;
+    }
+
+    /**
+     * Adds an entry to a map shared between four threads, as done by the
+     * concurrent PSM importers.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(4)
+    public void addEntryConcurrently() {
+        int i = (sharedIndex++ & Integer.MAX_VALUE) % nPsms;
+        sharedInputMap.addEntry(algorithms[i], files[i], eValues[i], decoys[i]);
+    }
+}
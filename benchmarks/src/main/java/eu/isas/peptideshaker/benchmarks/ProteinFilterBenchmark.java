@@ -0,0 +1,156 @@
+package eu.isas.peptideshaker.benchmarks;
+
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.identifications.Ms2Identification;
+import eu.isas.peptideshaker.filtering.ProteinFilter;
+import eu.isas.peptideshaker.myparameters.PSParameter;
+import eu.isas.peptideshaker.scoring.MatchValidationLevel;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.swing.RowFilter.ComparisonType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the validation of protein matches by a protein filter on the
+ * validation level, score and confidence. The protein parameters are stored in
+ * a temporary identification database.
+ *
+ * @author Marc Vaudel
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ProteinFilterBenchmark {
+
+    /**
+     * The number of protein matches in the database.
+     */
+    @Param({"1000", "10000"})
+    public int nProteins;
+    /**
+     * The number of decoy hits per target hit.
+     */
+    @Param({"1.0"})
+    public double decoyRatio;
+    /**
+     * The folder of the temporary database.
+     */
+    private File dbFolder;
+    /**
+     * The identification containing the protein matches.
+     */
+    private Identification identification;
+    /**
+     * The filter to apply.
+     */
+    private ProteinFilter proteinFilter;
+    /**
+     * The keys of the protein matches.
+     */
+    private String[] proteinKeys;
+    /**
+     * The index of the next protein match.
+     */
+    private int proteinIndex = 0;
+
+    /**
+     * Creates the database, stores synthetic protein parameters and sets up
+     * the filter.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * setting up the database
+     */
+    @Setup(Level.Trial)
+    public void generateData() throws Exception {
+        dbFolder = File.createTempFile("peptideshaker_benchmark", "");
+        if (!dbFolder.delete() || !dbFolder.mkdirs()) {
+            throw new IOException("Impossible to create the database folder " + dbFolder.getAbsolutePath() + ".");
+        }
+        identification = new Ms2Identification("benchmark");
+        identification.establishConnection(dbFolder.getAbsolutePath(), true, new ObjectsCache());
+
+        SyntheticData syntheticData = new SyntheticData(decoyRatio, 2, 4, 1);
+        MatchValidationLevel[] validationLevels = MatchValidationLevel.values();
+        proteinKeys = new String[nProteins];
+        for (int i = 0; i < nProteins; i++) {
+            String proteinKey = SyntheticData.getProteinAccession(i);
+            proteinKeys[i] = proteinKey;
+            double probability = syntheticData.nextScore(syntheticData.nextDecoy());
+            PSParameter psParameter = new PSParameter();
+            psParameter.setProteinProbabilityScore(probability);
+            psParameter.setProteinProbability(probability);
+            psParameter.setMatchValidationLevel(validationLevels[syntheticData.nextInt(validationLevels.length)]);
+            identification.addProteinMatchParameter(proteinKey, psParameter);
+        }
+
+        proteinFilter = new ProteinFilter("benchmark");
+        proteinFilter.setValidationLevel(MatchValidationLevel.doubtful.getIndex());
+        proteinFilter.setValidationComparison(ComparisonType.AFTER);
+        proteinFilter.setProteinScore(10.0);
+        proteinFilter.setProteinScoreComparison(ComparisonType.AFTER);
+        proteinFilter.setProteinConfidence(90.0);
+        proteinFilter.setProteinConfidenceComparison(ComparisonType.AFTER);
+    }
+
+    /**
+     * Closes and deletes the database.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * closing the database
+     */
+    @TearDown(Level.Trial)
+    public void closeDatabase() throws Exception {
+        identification.close();
+        deleteFolder(dbFolder);
+    }
+
+    /**
+     * Deletes a folder and its content.
+     *
+     * @param folder the folder to delete
+     */
+    private static void deleteFolder(File folder) {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteFolder(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        folder.delete();
+    }
+
+    /**
+     * Validates the next protein match.
+     *
+     * @return a boolean indicating whether the protein match is validated
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * reading the database
+     */
+    @Benchmark
+    public boolean isValidated() throws Exception {
+        int i = proteinIndex++ % nProteins;
+        return ProteinFilter.isValidated(proteinKeys[i], proteinFilter, identification, null, null);
+    }
+}
@@ -0,0 +1,114 @@
+package eu.isas.peptideshaker.benchmarks;
+
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import eu.isas.peptideshaker.scoring.PsmSpecificMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the probability lookup of the PSM specific map, the map being
+ * grouped and estimated beforehand from synthetic PSMs spread across charges
+ * and files.
+ *
+ * @author Marc Vaudel
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PsmSpecificMapBenchmark {
+
+    /**
+     * The number of queries drawn, must be a power of two.
+     */
+    private static final int N_QUERIES = 4096;
+    /**
+     * The number of PSMs in the map.
+     */
+    @Param({"10000", "1000000"})
+    public int nPsms;
+    /**
+     * The number of decoy hits per target hit.
+     */
+    @Param({"1.0"})
+    public double decoyRatio;
+    /**
+     * The largest charge, the smallest being 1.
+     */
+    @Param({"2", "6"})
+    public int maxCharge;
+    /**
+     * The number of spectrum files.
+     */
+    @Param({"1", "10"})
+    public int nFiles;
+    /**
+     * The map to query.
+     */
+    private PsmSpecificMap psmSpecificMap;
+    /**
+     * The files of the queries.
+     */
+    private String[] queryFiles;
+    /**
+     * The charges of the queries.
+     */
+    private int[] queryCharges;
+    /**
+     * The scores of the queries.
+     */
+    private double[] queryScores;
+    /**
+     * The index of the next query.
+     */
+    private int queryIndex = 0;
+
+    /**
+     * Fills the map with synthetic PSMs, estimates the probabilities and draws
+     * the queries.
+     */
+    @Setup(Level.Trial)
+    public void generateData() {
+        SyntheticData syntheticData = new SyntheticData(decoyRatio, 1, maxCharge, nFiles);
+        psmSpecificMap = new PsmSpecificMap();
+        for (int i = 0; i < nPsms; i++) {
+            boolean decoy = syntheticData.nextDecoy();
+            String file = SyntheticData.getSpectrumFileName(syntheticData.nextFileIndex());
+            psmSpecificMap.addPoint(syntheticData.nextScore(decoy), syntheticData.nextCharge(), file, decoy);
+        }
+        psmSpecificMap.clean();
+        psmSpecificMap.estimateProbabilities(new WaitingHandlerCLIImpl());
+        queryFiles = new String[N_QUERIES];
+        queryCharges = new int[N_QUERIES];
+        queryScores = new double[N_QUERIES];
+        for (int i = 0; i < N_QUERIES; i++) {
+            queryFiles[i] = SyntheticData.getSpectrumFileName(syntheticData.nextFileIndex());
+            queryCharges[i] = syntheticData.nextCharge();
+            queryScores[i] = syntheticData.nextScore(syntheticData.nextDecoy());
+        }
+    }
+
+    /**
+     * Returns the probability of the next query.
+     *
+     * @return the probability
+     */
+    @Benchmark
+    public double getProbability() {
+        int i = queryIndex++ & (N_QUERIES - 1);
+        return psmSpecificMap.getProbability(queryFiles[i], queryCharges[i], queryScores[i]);
+    }
+}
@@ -0,0 +1,243 @@
+package eu.isas.peptideshaker.benchmarks;
+
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.PeptideAssumption;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Generator of synthetic identification data for the benchmarks. The data is
+ * generated from a seeded random number generator so that runs with the same
+ * parameters are comparable.
+ *
+ * @author Marc Vaudel
+ */
+public class SyntheticData {
+
+    /**
+     * The default seed of the random number generator.
+     */
+    public static final long DEFAULT_SEED = 42;
+    /**
+     * The amino acids used to build the synthetic sequences.
+     */
+    private static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+    /**
+     * The random number generator.
+     */
+    private final Random random;
+    /**
+     * The number of decoy hits per target hit.
+     */
+    private final double decoyRatio;
+    /**
+     * The smallest charge to generate.
+     */
+    private final int minCharge;
+    /**
+     * The largest charge to generate.
+     */
+    private final int maxCharge;
+    /**
+     * The number of spectrum files to spread the PSMs on.
+     */
+    private final int nFiles;
+
+    /**
+     * Constructor.
+     *
+     * @param decoyRatio the number of decoy hits per target hit
+     * @param minCharge the smallest charge to generate
+     * @param maxCharge the largest charge to generate
+     * @param nFiles the number of spectrum files to spread the PSMs on
+     */
+    public SyntheticData(double decoyRatio, int minCharge, int maxCharge, int nFiles) {
+        this(DEFAULT_SEED, decoyRatio, minCharge, maxCharge, nFiles);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param seed the seed of the random number generator
+     * @param decoyRatio the number of decoy hits per target hit
+     * @param minCharge the smallest charge to generate
+     * @param maxCharge the largest charge to generate
+     * @param nFiles the number of spectrum files to spread the PSMs on
+     */
+    public SyntheticData(long seed, double decoyRatio, int minCharge, int maxCharge, int nFiles) {
+        this.random = new Random(seed);
+        this.decoyRatio = decoyRatio;
+        this.minCharge = minCharge;
+        this.maxCharge = maxCharge;
+        this.nFiles = nFiles;
+    }
+
+    /**
+     * Returns the name of the synthetic spectrum file of the given index.
+     *
+     * @param fileIndex the index of the file
+     *
+     * @return the name of the synthetic spectrum file
+     */
+    public static String getSpectrumFileName(int fileIndex) {
+        return "synthetic_" + fileIndex + ".mgf";
+    }
+
+    /**
+     * Returns the key of the synthetic spectrum of the given index in the
+     * given file.
+     *
+     * @param fileName the name of the spectrum file
+     * @param spectrumIndex the index of the spectrum
+     *
+     * @return the key of the synthetic spectrum
+     */
+    public static String getSpectrumKey(String fileName, int spectrumIndex) {
+        return Spectrum.getSpectrumKey(fileName, "spectrum_" + spectrumIndex);
+    }
+
+    /**
+     * Returns the accession of the synthetic protein of the given index.
+     *
+     * @param proteinIndex the index of the protein
+     *
+     * @return the accession of the synthetic protein
+     */
+    public static String getProteinAccession(int proteinIndex) {
+        return "SYN" + proteinIndex;
+    }
+
+    /**
+     * Draws whether the next hit is a decoy according to the decoy ratio.
+     *
+     * @return a boolean indicating whether the next hit is a decoy
+     */
+    public boolean nextDecoy() {
+        return random.nextDouble() < decoyRatio / (1 + decoyRatio);
+    }
+
+    /**
+     * Draws a probability score, lower is better, for a target or decoy hit.
+     * Decoy scores are uniformly distributed while half of the target scores
+     * are drawn from a log-normal distribution of good scores.
+     *
+     * @param decoy a boolean indicating whether the hit is a decoy
+     *
+     * @return a synthetic score
+     */
+    public double nextScore(boolean decoy) {
+        if (decoy || random.nextBoolean()) {
+            return random.nextDouble();
+        }
+        return Math.pow(10, -3 + 1.5 * random.nextGaussian());
+    }
+
+    /**
+     * Draws a charge, the lower charges being more frequent.
+     *
+     * @return a synthetic charge
+     */
+    public int nextCharge() {
+        int charge = minCharge;
+        while (charge < maxCharge && random.nextBoolean()) {
+            charge++;
+        }
+        return charge;
+    }
+
+    /**
+     * Draws the index of a spectrum file.
+     *
+     * @return the index of a spectrum file
+     */
+    public int nextFileIndex() {
+        return random.nextInt(nFiles);
+    }
+
+    /**
+     * Draws an integer between zero (inclusive) and the given bound
+     * (exclusive).
+     *
+     * @param bound the bound
+     *
+     * @return a random integer
+     */
+    public int nextInt(int bound) {
+        return random.nextInt(bound);
+    }
+
+    /**
+     * Draws a tryptic-like peptide sequence of the given length.
+     *
+     * @param length the length of the sequence
+     *
+     * @return a synthetic sequence
+     */
+    public String nextSequence(int length) {
+        StringBuilder sequence = new StringBuilder(length);
+        for (int i = 0; i < length - 1; i++) {
+            sequence.append(AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length())));
+        }
+        sequence.append(random.nextBoolean() ? 'K' : 'R');
+        return sequence.toString();
+    }
+
+    /**
+     * Generates a list of equally scoring peptide assumptions as given to the
+     * best match selection. The parent proteins are set on the peptides so
+     * that no protein mapping is needed, every hit gets its own proteins.
+     *
+     * @param nHits the number of peptide assumptions
+     * @param nProteins the number of proteins per peptide
+     * @param totalProteins the total number of synthetic proteins, must be at
+     * least nHits x nProteins
+     *
+     * @return a list of synthetic peptide assumptions
+     */
+    public ArrayList<PeptideAssumption> nextFirstHits(int nHits, int nProteins, int totalProteins) {
+        ArrayList<Integer> proteinIndexes = new ArrayList<Integer>(totalProteins);
+        for (int i = 0; i < totalProteins; i++) {
+            proteinIndexes.add(i);
+        }
+        Collections.shuffle(proteinIndexes, random);
+        Charge charge = new Charge(Charge.PLUS, nextCharge());
+        double score = nextScore(false);
+        ArrayList<PeptideAssumption> firstHits = new ArrayList<PeptideAssumption>(nHits);
+        for (int i = 0; i < nHits; i++) {
+            Peptide peptide = new Peptide(nextSequence(8 + random.nextInt(12)), new ArrayList<ModificationMatch>());
+            ArrayList<String> parentProteins = new ArrayList<String>(nProteins);
+            for (int j = 0; j < nProteins; j++) {
+                parentProteins.add(getProteinAccession(proteinIndexes.get(i * nProteins + j)));
+            }
+            peptide.setParentProteins(parentProteins);
+            firstHits.add(new PeptideAssumption(peptide, 1, Advocate.peptideShaker.getIndex(), charge, score));
+        }
+        return firstHits;
+    }
+
+    /**
+     * Generates a protein count map where every protein has a distinct count.
+     *
+     * @param totalProteins the total number of synthetic proteins
+     *
+     * @return a map of the number of peptides for every protein
+     */
+    public HashMap<String, Integer> nextProteinCount(int totalProteins) {
+        ArrayList<Integer> counts = new ArrayList<Integer>(totalProteins);
+        for (int i = 1; i <= totalProteins; i++) {
+            counts.add(i);
+        }
+        Collections.shuffle(counts, random);
+        HashMap<String, Integer> proteinCount = new HashMap<String, Integer>(totalProteins);
+        for (int i = 0; i < totalProteins; i++) {
+            proteinCount.put(getProteinAccession(i), counts.get(i));
+        }
+        return proteinCount;
+    }
+}
@@ -0,0 +1,97 @@
+package eu.isas.peptideshaker.benchmarks;
+
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the posterior error probability estimation of the target decoy
+ * maps.
+ *
+ * @author Marc Vaudel
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TargetDecoyMapBenchmark {
+
+    /**
+     * The number of PSMs in the map.
+     */
+    @Param({"10000", "100000", "1000000"})
+    public int nPsms;
+    /**
+     * The number of decoy hits per target hit.
+     */
+    @Param({"0.5", "1.0"})
+    public double decoyRatio;
+    /**
+     * The scores of the PSMs.
+     */
+    private double[] scores;
+    /**
+     * The decoy status of the PSMs.
+     */
+    private boolean[] decoys;
+    /**
+     * The map to estimate the probabilities of.
+     */
+    private TargetDecoyMap targetDecoyMap;
+    /**
+     * The waiting handler.
+     */
+    private WaitingHandler waitingHandler;
+
+    /**
+     * Generates the synthetic PSMs.
+     */
+    @Setup(Level.Trial)
+    public void generateData() {
+        SyntheticData syntheticData = new SyntheticData(decoyRatio, 2, 4, 1);
+        scores = new double[nPsms];
+        decoys = new boolean[nPsms];
+        for (int i = 0; i < nPsms; i++) {
+            decoys[i] = syntheticData.nextDecoy();
+            scores[i] = syntheticData.nextScore(decoys[i]);
+        }
+        waitingHandler = new WaitingHandlerCLIImpl();
+    }
+
+    /**
+     * Fills a new map with the synthetic PSMs before every estimation.
+     */
+    @Setup(Level.Invocation)
+    public void fillMap() {
+        targetDecoyMap = new TargetDecoyMap();
+        for (int i = 0; i < nPsms; i++) {
+            targetDecoyMap.put(scores[i], decoys[i]);
+        }
+    }
+
+    /**
+     * Estimates the probabilities of the map.
+     *
+     * @return the map
+     */
+    @Benchmark
+    public TargetDecoyMap estimateProbabilities() {
+        targetDecoyMap.estimateProbabilities(waitingHandler);
+        return targetDecoyMap;
+    }
+}
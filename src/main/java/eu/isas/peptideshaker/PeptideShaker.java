@@ -11,11 +11,10 @@ import com.compomics.util.experiment.identification.*;
 import com.compomics.util.experiment.identification.identifications.Ms2Identification;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
-import com.compomics.util.experiment.identification.tags.Tag;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.personalization.UrParameter;
+import com.compomics.util.gui.filehandling.TempFilesManager;
 import com.compomics.util.io.ConfigurationFile;
-import com.compomics.util.memory.MemoryConsumptionStatus;
 import eu.isas.peptideshaker.fileimport.FileImporter;
 import com.compomics.util.waiting.WaitingHandler;
 import com.compomics.util.messages.FeedBack;
@@ -36,7 +35,10 @@ import eu.isas.peptideshaker.scoring.*;
 import eu.isas.peptideshaker.scoring.psm_scoring.BestMatchSelection;
 import eu.isas.peptideshaker.scoring.psm_scoring.PsmScorer;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
+import eu.isas.peptideshaker.utils.MemoryGovernor;
 import eu.isas.peptideshaker.utils.Metrics;
+import eu.isas.peptideshaker.utils.ParameterWriteBuffer;
+import eu.isas.peptideshaker.utils.ProcessingProfile;
 import eu.isas.peptideshaker.validation.MatchesValidator;
 
 import java.io.File;
@@ -44,7 +46,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 
 /**
@@ -84,6 +85,10 @@ public class PeptideShaker {
      * The sequence factory.
      */
     private SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+    /**
+     * The memory governor.
+     */
+    private MemoryGovernor memoryGovernor = MemoryGovernor.getInstance();
     /**
      * The XML file containing the enzymes.
      */
@@ -118,6 +123,11 @@ public class PeptideShaker {
      * not set.
      */
     private static String SERIALIZATION_PARENT_DIRECTORY = "resources";
+    /**
+     * The prefix of the project directories created in the matches directory
+     * parent.
+     */
+    private static final String PROJECT_DIRECTORY_PREFIX = "project_";
     /**
      * The name of the serialized experiment
      */
@@ -130,6 +140,10 @@ public class PeptideShaker {
      * Metrics to be picked when loading the identification.
      */
     private Metrics metrics = new Metrics();
+    /**
+     * The profile of the resources used by the processing steps.
+     */
+    private ProcessingProfile processingProfile = new ProcessingProfile();
     /**
      * An identification features generator which will compute figures on the
      * identification matches and keep some of them in memory.
@@ -147,6 +161,17 @@ public class PeptideShaker {
      * If true, a warning will be displayed when encountering memory issues.
      */
     private boolean memoryWarning = true;
+    /**
+     * The number of PSMs passed at a time from the identification files to
+     * the database. If 0, all PSMs of a file are processed in one go.
+     */
+    private int importChunkSize = FileImporter.DEFAULT_IMPORT_CHUNK_SIZE;
+    /**
+     * The directory of this project. Contains the matches folder where the
+     * identification database is stored. Null until the files are imported
+     * if not set.
+     */
+    private File projectDirectory = null;
 
     /**
      * Empty constructor for instantiation purposes.
@@ -215,6 +240,10 @@ public class PeptideShaker {
 
         objectsCache = new ObjectsCache();
         objectsCache.setAutomatedMemoryManagement(true);
+        memoryGovernor.setObjectsCache(objectsCache);
+        matchesValidator.setObjectsCache(objectsCache);
+        memoryGovernor.setMetrics(metrics);
+        memoryGovernor.clearStatistics();
 
         ProteomicAnalysis analysis = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber);
         analysis.addIdentificationResults(IdentificationMethod.MS2_IDENTIFICATION, new Ms2Identification(getIdentificationReference()));
@@ -222,6 +251,7 @@ public class PeptideShaker {
         identification.setIsDB(true);
 
         fileImporter = new FileImporter(this, waitingHandler, analysis, shotgunProtocol, identificationParameters, metrics);
+        fileImporter.setImportChunkSize(importChunkSize);
         fileImporter.importFiles(idFiles, spectrumFiles, processingPreferences, spectrumCountingPreferences, projectDetails, backgroundThread);
     }
 
@@ -234,6 +264,48 @@ public class PeptideShaker {
         return objectsCache;
     }
 
+    /**
+     * Returns the number of PSMs passed at a time from the identification
+     * files to the database.
+     *
+     * @return the number of PSMs passed at a time from the identification
+     * files to the database
+     */
+    public int getImportChunkSize() {
+        return importChunkSize;
+    }
+
+    /**
+     * Sets the number of PSMs passed at a time from the identification files
+     * to the database. If 0, all PSMs of a file are processed in one go.
+     *
+     * @param importChunkSize the number of PSMs passed at a time from the
+     * identification files to the database
+     */
+    public void setImportChunkSize(int importChunkSize) {
+        this.importChunkSize = importChunkSize;
+    }
+
+    /**
+     * Returns the directory of this project. Null if not set and no file was
+     * imported yet.
+     *
+     * @return the directory of this project
+     */
+    public File getProjectDirectory() {
+        return projectDirectory;
+    }
+
+    /**
+     * Sets the directory of this project. The identification database will be
+     * stored in its matches folder.
+     *
+     * @param projectDirectory the directory of this project
+     */
+    public void setProjectDirectory(File projectDirectory) {
+        this.projectDirectory = projectDirectory;
+    }
+
     /**
      * Returns the reference identifying the identification under process.
      *
@@ -280,17 +352,18 @@ public class PeptideShaker {
         }
 
         PsmScoringPreferences psmScoringPreferences = identificationParameters.getPsmScoringPreferences();
+        PsmScorer psmScorer = new PsmScorer();
 
         ArrayList<Integer> usedAlgorithms = projectDetails.getIdentificationAlgorithms();
         if (psmScoringPreferences.isScoringNeeded(usedAlgorithms)) {
 
-            PsmScorer psmScorer = new PsmScorer();
-
+            processingProfile.startStage("Estimating PSM scores.", identification.getSpectrumIdentificationSize());
             waitingHandler.appendReport("Estimating PSM scores.", true, true);
-            psmScorer.estimateIntermediateScores(identification, inputMap, processingPreferences, shotgunProtocol, identificationParameters, waitingHandler);
+            psmScorer.estimateIntermediateScores(identification, inputMap, processingPreferences, shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler);
 
             if (psmScoringPreferences.isTargetDecoyNeededForPsmScoring(usedAlgorithms)) {
                 if (sequenceFactory.concatenatedTargetDecoy()) {
+                    processingProfile.startStage("Estimating intermediate scores probabilities.");
                     waitingHandler.appendReport("Estimating intermediate scores probabilities.", true, true);
                     psmScorer.estimateIntermediateScoreProbabilities(identification, inputMap, processingPreferences, waitingHandler);
                 } else {
@@ -298,10 +371,12 @@ public class PeptideShaker {
                 }
             }
 
+            processingProfile.startStage("Scoring PSMs.", identification.getSpectrumIdentificationSize());
             waitingHandler.appendReport("Scoring PSMs.", true, true);
-            psmScorer.scorePsms(identification, inputMap, processingPreferences, identificationParameters, waitingHandler);
+            psmScorer.scorePsms(identification, inputMap, processingPreferences, identificationParameters, waitingHandler, exceptionHandler);
         }
 
+        processingProfile.startStage("Computing assumptions probabilities.");
         waitingHandler.appendReport("Computing assumptions probabilities.", true, true);
         if (sequenceFactory.concatenatedTargetDecoy()) {
             inputMap.estimateProbabilities(waitingHandler);
@@ -311,25 +386,26 @@ public class PeptideShaker {
             return;
         }
 
+        processingProfile.startStage("Saving assumptions probabilities.", identification.getSpectrumIdentificationSize());
         waitingHandler.appendReport("Saving assumptions probabilities.", true, true);
-        attachAssumptionsProbabilities(inputMap, identificationParameters.getSequenceMatchingPreferences(), waitingHandler);
+        psmScorer.attachAssumptionsProbabilities(identification, inputMap, processingPreferences, identificationParameters.getSequenceMatchingPreferences(), waitingHandler, exceptionHandler);
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
         }
 
+        processingProfile.startStage("Selecting best peptide per spectrum.", identification.getSpectrumIdentificationSize());
         waitingHandler.appendReport("Selecting best peptide per spectrum.", true, true);
         BestMatchSelection bestMatchSelection = new BestMatchSelection(identification, proteinCount, matchesValidator, metrics);
-        bestMatchSelection.selectBestHitAndFillPsmMap(inputMap, waitingHandler, shotgunProtocol, identificationParameters);
+        bestMatchSelection.selectBestHitAndFillPsmMap(inputMap, processingPreferences, waitingHandler, exceptionHandler, shotgunProtocol, identificationParameters);
         matchesValidator.getPsmMap().clean();
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
         }
-        if (MemoryConsumptionStatus.memoryUsed() > 0.9) {
-            metrics.clearSpectrumKeys();
-        }
+        memoryGovernor.release(waitingHandler);
 
+        processingProfile.startStage("Computing PSM probabilities.");
         waitingHandler.appendReport("Computing PSM probabilities.", true, true);
         matchesValidator.getPsmMap().estimateProbabilities(waitingHandler);
         if (waitingHandler.isRunCanceled()) {
@@ -342,17 +418,17 @@ public class PeptideShaker {
             report += " and " + ptmScoringPreferences.getSelectedProbabilisticScore().getName();
         }
         report += ")";
+        processingProfile.startStage(report, identification.getSpectrumIdentificationSize());
         waitingHandler.appendReport(report, true, true);
         ptmScorer.scorePsmPtms(identification, waitingHandler, exceptionHandler, identificationParameters, metrics, processingPreferences);
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
         }
-        if (MemoryConsumptionStatus.memoryUsed() > 0.9) {
-            metrics.clearSpectrumKeys();
-        }
+        memoryGovernor.release(waitingHandler);
 
         if (ptmScoringPreferences.isEstimateFlr()) {
+            processingProfile.startStage("Thresholding PTM localizations.");
             waitingHandler.appendReport("Thresholding PTM localizations.", true, true);
             PsmPTMMap psmPTMMap = ptmScorer.getPsmPTMMap();
             psmPTMMap.clean();
@@ -364,6 +440,7 @@ public class PeptideShaker {
             return;
         }
 
+        processingProfile.startStage("Resolving peptide inference issues.", identification.getSpectrumIdentificationSize());
         waitingHandler.appendReport("Resolving peptide inference issues.", true, true);
         ptmScorer.peptideInference(identification, identificationParameters, waitingHandler);
         waitingHandler.increasePrimaryProgressCounter();
@@ -371,9 +448,8 @@ public class PeptideShaker {
             return;
         }
 
-        if (MemoryConsumptionStatus.memoryUsed() > 0.9) {
-            metrics.clearSpectrumKeys(); // @TODO: use other ways of releasing emmory?
-        }
+        memoryGovernor.release(waitingHandler);
+        processingProfile.startStage("Saving probabilities, building peptides and proteins.", identification.getSpectrumIdentificationSize());
         waitingHandler.appendReport("Saving probabilities, building peptides and proteins.", true, true);
         attachSpectrumProbabilitiesAndBuildPeptidesAndProteins(identificationParameters.getSequenceMatchingPreferences(), waitingHandler); // @TODO: this is very slow if memory is full!!
         waitingHandler.increasePrimaryProgressCounter();
@@ -381,6 +457,7 @@ public class PeptideShaker {
             return;
         }
 
+        processingProfile.startStage("Simplifying protein groups.", identification.getProteinIdentification().size());
         waitingHandler.appendReport("Simplifying protein groups.", true, true);
         ProteinInference proteinInference = new ProteinInference();
         proteinInference.removeRedundantGroups(identification, shotgunProtocol, identificationParameters, waitingHandler);
@@ -389,33 +466,38 @@ public class PeptideShaker {
             return;
         }
 
+        processingProfile.startStage("Generating peptide map.", identification.getPeptideIdentification().size());
         waitingHandler.appendReport("Generating peptide map.", true, true); // slow?
-        matchesValidator.fillPeptideMaps(identification, metrics, waitingHandler, identificationParameters);
+        matchesValidator.fillPeptideMaps(identification, metrics, waitingHandler, exceptionHandler, identificationParameters, processingPreferences);
         matchesValidator.getPeptideMap().clean();
         if (waitingHandler.isRunCanceled()) {
             return;
         }
 
+        processingProfile.startStage("Computing peptide probabilities.");
         waitingHandler.appendReport("Computing peptide probabilities.", true, true); // should be fast
         matchesValidator.getPeptideMap().estimateProbabilities(waitingHandler);
         if (waitingHandler.isRunCanceled()) {
             return;
         }
 
+        processingProfile.startStage("Saving peptide probabilities.", identification.getPeptideIdentification().size());
         waitingHandler.appendReport("Saving peptide probabilities.", true, true); // could be slow
-        matchesValidator.attachPeptideProbabilities(identification, waitingHandler);
+        matchesValidator.attachPeptideProbabilities(identification, waitingHandler, exceptionHandler, processingPreferences);
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
         }
 
+        processingProfile.startStage("Generating protein map.", identification.getProteinIdentification().size());
         waitingHandler.appendReport("Generating protein map.", true, true); // could be slow
-        matchesValidator.fillProteinMap(identification, waitingHandler);
+        matchesValidator.fillProteinMap(identification, waitingHandler, exceptionHandler, processingPreferences);
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
         }
 
+        processingProfile.startStage("Resolving protein inference issues, inferring peptide and protein PI status.", identification.getProteinIdentification().size());
         waitingHandler.appendReport("Resolving protein inference issues, inferring peptide and protein PI status.", true, true); // could be slow
         proteinInference.retainBestScoringGroups(identification, metrics, matchesValidator.getProteinMap(), shotgunProtocol, identificationParameters, waitingHandler);
         waitingHandler.increasePrimaryProgressCounter();
@@ -423,14 +505,16 @@ public class PeptideShaker {
             return;
         }
 
+        processingProfile.startStage("Correcting protein probabilities.");
         waitingHandler.appendReport("Correcting protein probabilities.", true, true);
         matchesValidator.getProteinMap().estimateProbabilities(waitingHandler);
         if (waitingHandler.isRunCanceled()) {
             return;
         }
 
+        processingProfile.startStage("Saving protein probabilities.", identification.getProteinIdentification().size());
         waitingHandler.appendReport("Saving protein probabilities.", true, true);
-        matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, processingPreferences);
+        matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, exceptionHandler, processingPreferences);
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
@@ -440,8 +524,10 @@ public class PeptideShaker {
         if (idMatchValidationPreferences.getDefaultPsmFDR() == 1
                 && idMatchValidationPreferences.getDefaultPeptideFDR() == 1
                 && idMatchValidationPreferences.getDefaultProteinFDR() == 1) {
+            processingProfile.startStage("Validating identifications at 1% FDR, quality control of matches.", identification.getSpectrumIdentificationSize());
             waitingHandler.appendReport("Validating identifications at 1% FDR, quality control of matches.", true, true);
         } else {
+            processingProfile.startStage("Validating identifications, quality control of matches.", identification.getSpectrumIdentificationSize());
             waitingHandler.appendReport("Validating identifications, quality control of matches.", true, true);
         }
         matchesValidator.validateIdentifications(identification, metrics, waitingHandler, exceptionHandler, shotgunProtocol, identificationParameters, identificationFeaturesGenerator, inputMap, spectrumCountingPreferences, processingPreferences);
@@ -451,20 +537,27 @@ public class PeptideShaker {
             return;
         }
 
+        processingProfile.startStage("Scoring PTMs in peptides.", identification.getPeptideIdentification().size());
         waitingHandler.appendReport("Scoring PTMs in peptides.", true, true);
-        ptmScorer.scorePeptidePtms(identification, waitingHandler, identificationParameters);
+        ptmScorer.scorePeptidePtms(identification, waitingHandler, exceptionHandler, identificationParameters, processingPreferences);
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
         }
 
+        processingProfile.startStage("Scoring PTMs in proteins.", identification.getProteinIdentification().size());
         waitingHandler.appendReport("Scoring PTMs in proteins.", true, true);
-        ptmScorer.scoreProteinPtms(identification, metrics, waitingHandler, shotgunProtocol, identificationParameters, identificationFeaturesGenerator);
+        ptmScorer.scoreProteinPtms(identification, metrics, waitingHandler, exceptionHandler, shotgunProtocol, identificationParameters, identificationFeaturesGenerator, processingPreferences);
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
         }
 
+        processingProfile.endStage();
+        if (memoryGovernor.getnReleases() > 0) {
+            waitingHandler.appendReport(memoryGovernor.getReport(), true, true);
+        }
+
         report = "Identification processing completed.";
 
         // get the detailed report
@@ -554,6 +647,7 @@ public class PeptideShaker {
      * @param identification the identification object containing the
      * identification matches
      * @param waitingHandler the waiting handler
+     * @param exceptionHandler handler for exceptions
      * @param processingPreferences the processing preferences
      * @param shotgunProtocol information on the protocol
      * @param identificationParameters the identification parameters
@@ -561,20 +655,20 @@ public class PeptideShaker {
      * @throws Exception exception thrown whenever it is attempted to attach
      * more than one identification per search engine per spectrum
      */
-    public void spectrumMapChanged(Identification identification, WaitingHandler waitingHandler, ProcessingPreferences processingPreferences,
+    public void spectrumMapChanged(Identification identification, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, ProcessingPreferences processingPreferences,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters) throws Exception {
         PeptideSpecificMap peptideMap = new PeptideSpecificMap();
         ProteinMap proteinMap = new ProteinMap();
         matchesValidator.setPeptideMap(peptideMap);
         matchesValidator.setProteinMap(proteinMap);
         attachSpectrumProbabilitiesAndBuildPeptidesAndProteins(identificationParameters.getSequenceMatchingPreferences(), waitingHandler);
-        matchesValidator.fillPeptideMaps(identification, metrics, waitingHandler, identificationParameters);
+        matchesValidator.fillPeptideMaps(identification, metrics, waitingHandler, exceptionHandler, identificationParameters, processingPreferences);
         peptideMap.clean();
         peptideMap.estimateProbabilities(waitingHandler);
-        matchesValidator.attachPeptideProbabilities(identification, waitingHandler);
-        matchesValidator.fillProteinMap(identification, waitingHandler);
+        matchesValidator.attachPeptideProbabilities(identification, waitingHandler, exceptionHandler, processingPreferences);
+        matchesValidator.fillProteinMap(identification, waitingHandler, exceptionHandler, processingPreferences);
         proteinMap.estimateProbabilities(waitingHandler);
-        matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, processingPreferences);
+        matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, exceptionHandler, processingPreferences);
         ProteinInference proteinInference = new ProteinInference();
         proteinInference.retainBestScoringGroups(identification, metrics, proteinMap, shotgunProtocol, identificationParameters, waitingHandler);
     }
@@ -585,6 +679,7 @@ public class PeptideShaker {
      * @param identification the identification object containing the
      * identification matches
      * @param waitingHandler the waiting handler
+     * @param exceptionHandler handler for exceptions
      * @param processingPreferences the processing preferences
      * @param shotgunProtocol information on the protocol
      * @param identificationParameters the identification parameters
@@ -592,14 +687,14 @@ public class PeptideShaker {
      * @throws Exception exception thrown whenever it is attempted to attach
      * more than one identification per search engine per spectrum
      */
-    public void peptideMapChanged(Identification identification, WaitingHandler waitingHandler, ProcessingPreferences processingPreferences,
+    public void peptideMapChanged(Identification identification, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, ProcessingPreferences processingPreferences,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters) throws Exception {
         ProteinMap proteinMap = new ProteinMap();
         matchesValidator.setProteinMap(proteinMap);
-        matchesValidator.attachPeptideProbabilities(identification, waitingHandler);
-        matchesValidator.fillProteinMap(identification, waitingHandler);
+        matchesValidator.attachPeptideProbabilities(identification, waitingHandler, exceptionHandler, processingPreferences);
+        matchesValidator.fillProteinMap(identification, waitingHandler, exceptionHandler, processingPreferences);
         proteinMap.estimateProbabilities(waitingHandler);
-        matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, processingPreferences);
+        matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, exceptionHandler, processingPreferences);
         ProteinInference proteinInference = new ProteinInference();
         proteinInference.retainBestScoringGroups(identification, metrics, proteinMap, shotgunProtocol, identificationParameters, waitingHandler);
     }
@@ -608,6 +703,7 @@ public class PeptideShaker {
      * Processes the identifications if a change occurred in the protein map.
      *
      * @param waitingHandler the waiting handler
+     * @param exceptionHandler handler for exceptions
      * @param processingPreferences the processing preferences
      *
      * @throws SQLException thrown if an SQLException occurs
@@ -615,152 +711,9 @@ public class PeptideShaker {
      * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
      * @throws InterruptedException thrown if an InterruptedException occurs
      */
-    public void proteinMapChanged(WaitingHandler waitingHandler, ProcessingPreferences processingPreferences) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+    public void proteinMapChanged(WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, ProcessingPreferences processingPreferences) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
-        matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, processingPreferences);
-    }
-
-    /**
-     * Attaches the spectrum posterior error probabilities to the peptide
-     * assumptions.
-     *
-     * @param inputMap map of the input scores
-     * @param sequenceMatchingPreferences the sequence matching preferences
-     * @param waitingHandler the handler displaying feedback to the user
-     */
-    private void attachAssumptionsProbabilities(InputMap inputMap, SequenceMatchingPreferences sequenceMatchingPreferences, WaitingHandler waitingHandler) throws Exception {
-
-        Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
-
-        if (waitingHandler != null) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
-            waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
-        }
-
-        for (String spectrumFileName : identification.getSpectrumFiles()) {
-
-            PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, null, true, waitingHandler);
-
-            while (psmIterator.hasNext()) {
-
-                SpectrumMatch spectrumMatch = psmIterator.next();
-                String spectrumKey = spectrumMatch.getKey();
-                HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = identification.getAssumptions(spectrumKey);
-
-                HashMap<Double, ArrayList<PSParameter>> pepToParameterMap = new HashMap<Double, ArrayList<PSParameter>>();
-
-                for (int searchEngine : assumptionsMap.keySet()) {
-
-                    HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> seMapping = assumptionsMap.get(searchEngine);
-                    ArrayList<Double> eValues = new ArrayList<Double>(seMapping.keySet());
-                    Collections.sort(eValues);
-                    double previousP = 0;
-                    ArrayList<PSParameter> previousAssumptionsParameters = new ArrayList<PSParameter>();
-                    SpectrumIdentificationAssumption previousAssumption = null;
-
-                    for (double eValue : eValues) {
-
-                        for (SpectrumIdentificationAssumption assumption : seMapping.get(eValue)) {
-                            PSParameter psParameter = new PSParameter();
-                            psParameter = (PSParameter) assumption.getUrParam(psParameter);
-                            if (psParameter == null) {
-                                psParameter = new PSParameter();
-                            }
-
-                            if (sequenceFactory.concatenatedTargetDecoy()) {
-
-                                double newP = inputMap.getProbability(searchEngine, eValue);
-                                double pep = previousP;
-
-                                if (newP > previousP) {
-                                    pep = newP;
-                                    previousP = newP;
-                                }
-
-                                psParameter.setSearchEngineProbability(pep);
-
-                                ArrayList<PSParameter> pSParameters = pepToParameterMap.get(pep);
-                                if (pSParameters == null) {
-                                    pSParameters = new ArrayList<PSParameter>(1);
-                                    pepToParameterMap.put(pep, pSParameters);
-                                }
-                                pSParameters.add(psParameter);
-
-                                if (previousAssumption != null) {
-                                    boolean same = false;
-                                    if ((assumption instanceof PeptideAssumption) && (previousAssumption instanceof PeptideAssumption)) {
-                                        Peptide newPeptide = ((PeptideAssumption) assumption).getPeptide();
-                                        Peptide previousPeptide = ((PeptideAssumption) previousAssumption).getPeptide();
-                                        if (newPeptide.isSameSequenceAndModificationStatus(previousPeptide, sequenceMatchingPreferences)) {
-                                            same = true;
-                                        }
-                                    } else if ((assumption instanceof TagAssumption) && (previousAssumption instanceof TagAssumption)) {
-                                        Tag newTag = ((TagAssumption) assumption).getTag();
-                                        Tag previousTag = ((TagAssumption) previousAssumption).getTag();
-                                        if (newTag.isSameSequenceAndModificationStatusAs(previousTag, sequenceMatchingPreferences)) {
-                                            same = true;
-                                        }
-                                    }
-
-                                    if (!same) {
-                                        for (PSParameter previousParameter : previousAssumptionsParameters) {
-                                            double deltaPEP = pep - previousParameter.getSearchEngineProbability();
-                                            previousParameter.setAlgorithmDeltaPEP(deltaPEP);
-                                        }
-                                        previousAssumptionsParameters.clear();
-                                    }
-                                }
-                                previousAssumption = assumption;
-                                previousAssumptionsParameters.add(psParameter);
-
-                            } else {
-                                psParameter.setSearchEngineProbability(1.0);
-                            }
-
-                            assumption.addUrParam(psParameter);
-                        }
-                    }
-
-                    for (PSParameter previousParameter : previousAssumptionsParameters) {
-                        double deltaPEP = 1 - previousParameter.getSearchEngineProbability();
-                        previousParameter.setAlgorithmDeltaPEP(deltaPEP);
-                    }
-                }
-
-                // Compute the delta pep score accross all search engines
-                Double previousPEP = null;
-                ArrayList<PSParameter> previousParameters = new ArrayList<PSParameter>();
-                ArrayList<Double> peps = new ArrayList<Double>(pepToParameterMap.keySet());
-                Collections.sort(peps);
-                for (double pep : peps) {
-                    if (previousPEP != null) {
-                        for (PSParameter previousParameter : previousParameters) {
-                            double delta = pep - previousPEP;
-                            previousParameter.setDeltaPEP(delta);
-                        }
-                    }
-                    previousParameters = pepToParameterMap.get(pep);
-                    previousPEP = pep;
-                }
-                for (PSParameter previousParameter : previousParameters) {
-                    double delta = 1 - previousParameter.getSearchEngineProbability();
-                    previousParameter.setDeltaPEP(delta);
-                }
-
-                identification.updateAssumptions(spectrumKey, assumptionsMap);
-
-                if (waitingHandler != null) {
-                    waitingHandler.increaseSecondaryProgressCounter();
-                    if (waitingHandler.isRunCanceled()) {
-                        return;
-                    }
-                }
-            }
-        }
-
-        if (waitingHandler != null) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
-        }
+        matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, exceptionHandler, processingPreferences);
     }
 
     /**
@@ -783,6 +736,7 @@ public class PeptideShaker {
         PSParameter psParameter = new PSParameter();
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
         parameters.add(psParameter);
+        ParameterWriteBuffer writeBuffer = new ParameterWriteBuffer(identification, objectsCache, matchesValidator.getBatchSize());
 
         for (String spectrumFileName : identification.getSpectrumFiles()) {
 
@@ -802,7 +756,7 @@ public class PeptideShaker {
                     psParameter.setPsmProbability(1.0);
                 }
 
-                identification.updateSpectrumMatchParameter(spectrumKey, psParameter);
+                writeBuffer.updateSpectrumMatchParameter(spectrumKey, psParameter);
                 identification.buildPeptidesAndProteins(spectrumKey, sequenceMatchingPreferences);
 
                 waitingHandler.increaseSecondaryProgressCounter();
@@ -811,6 +765,7 @@ public class PeptideShaker {
                 }
             }
         }
+        writeBuffer.flush(null);
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(true);
     }
@@ -824,6 +779,15 @@ public class PeptideShaker {
         return metrics;
     }
 
+    /**
+     * Returns the profile of the resources used by the processing steps.
+     *
+     * @return the profile of the resources used by the processing steps
+     */
+    public ProcessingProfile getProcessingProfile() {
+        return processingProfile;
+    }
+
     /**
      * Returns the identification features generator used when loading the
      * files.
@@ -974,14 +938,69 @@ public class PeptideShaker {
     /**
      * Returns the path to the match folder according to the user path settings.
      *
+     * @deprecated this folder is shared by all PeptideShaker instances, use
+     * createProjectDirectory and getSerializationDirectory(File) instead
+     *
      * @param jarFilePath the path to the jar file
      *
      * @return the path to the match folder according to the user path settings
      */
+    @Deprecated
     public static File getSerializationDirectory(String jarFilePath) {
         return new File(getMatchesDirectoryParent(jarFilePath), PeptideShaker.getMatchesDirectorySubPath());
     }
 
+    /**
+     * Returns the match folder of the given project directory.
+     *
+     * @param projectDirectory the project directory
+     *
+     * @return the match folder of the given project directory
+     */
+    public static File getSerializationDirectory(File projectDirectory) {
+        return new File(projectDirectory, PeptideShaker.getMatchesDirectorySubPath());
+    }
+
+    /**
+     * Creates a new project directory in the matches directory parent set in
+     * the user path settings. Every call returns a new directory, so that
+     * different projects, also in different processes, do not share their
+     * match folder. The directory is registered as temporary folder and will
+     * be deleted together with the other temporary folders.
+     *
+     * @param jarFilePath the path to the jar file
+     *
+     * @return the new project directory
+     *
+     * @throws IOException thrown if the directory could not be created
+     */
+    public static synchronized File createProjectDirectory(String jarFilePath) throws IOException {
+
+        File parentDirectory = getMatchesDirectoryParent(jarFilePath);
+        if (!parentDirectory.exists() && !parentDirectory.mkdirs() && !parentDirectory.exists()) {
+            throw new IOException("Impossible to create folder " + parentDirectory.getAbsolutePath() + ".");
+        }
+
+        // mkdir fails if the folder exists, also when created by another process
+        String baseName = PROJECT_DIRECTORY_PREFIX + System.currentTimeMillis();
+        File projectDirectory = new File(parentDirectory, baseName);
+        int suffix = 1;
+        while (!projectDirectory.mkdir()) {
+            if (suffix == 1000) {
+                throw new IOException("Impossible to create a project folder in " + parentDirectory.getAbsolutePath() + ".");
+            }
+            projectDirectory = new File(parentDirectory, baseName + "_" + suffix++);
+        }
+        TempFilesManager.registerTempFolder(projectDirectory);
+
+        File serializationDirectory = getSerializationDirectory(projectDirectory);
+        if (!serializationDirectory.mkdir()) {
+            throw new IOException("Impossible to create folder " + serializationDirectory.getAbsolutePath() + ".");
+        }
+
+        return projectDirectory;
+    }
+
     /**
      * Retrieves the version number set in the pom file.
      *
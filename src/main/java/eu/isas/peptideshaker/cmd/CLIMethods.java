@@ -12,6 +12,7 @@ import com.compomics.util.preferences.SequenceMatchingPreferences;
 import eu.isas.peptideshaker.PeptideShaker;
 import eu.isas.peptideshaker.export.MzIdentMLExport;
 import eu.isas.peptideshaker.followup.FastaExport;
+import eu.isas.peptideshaker.followup.FollowUpExporter;
 import eu.isas.peptideshaker.followup.InclusionListExport;
 import eu.isas.peptideshaker.followup.TrainingExport;
 import eu.isas.peptideshaker.followup.ProgenesisExport;
@@ -37,6 +38,49 @@ import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
  */
 public class CLIMethods {
 
+    /**
+     * Writes the recalibrated spectra, the spectrum export and the Progenesis
+     * export as specified in the follow-up input bean in a single pass over
+     * the spectra.
+     *
+     * @param followUpCLIInputBean the follow up input bean
+     * @param identification the identification
+     * @param identificationParameters the identification parameters
+     * @param waitingHandler a waiting handler to display progress
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the database
+     * @throws SQLException exception thrown whenever an SQL exception occurred
+     * while interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an exception
+     * occurred while deserializing an object
+     * @throws MzMLUnmarshallerException exception thrown whenever an exception
+     * occurred while reading an mzML file
+     */
+    public static void exportSpectrumFollowUp(FollowUpCLIInputBean followUpCLIInputBean, Identification identification, IdentificationParameters identificationParameters,
+            WaitingHandler waitingHandler) throws IOException, MzMLUnmarshallerException, SQLException, ClassNotFoundException, InterruptedException {
+        FollowUpExporter followUpExporter = new FollowUpExporter(identification, identificationParameters);
+        if (followUpCLIInputBean.recalibrationNeeded()) {
+            boolean ms1 = true;
+            boolean ms2 = true;
+            if (followUpCLIInputBean.getRecalibrationMode() == 1) {
+                ms2 = false;
+            } else if (followUpCLIInputBean.getRecalibrationMode() == 2) {
+                ms1 = false;
+            }
+            followUpExporter.planRecalibration(followUpCLIInputBean.getRecalibrationFolder(), ms1, ms2);
+        }
+        if (followUpCLIInputBean.spectrumExportNeeded()) {
+            followUpExporter.planSpectrumExport(followUpCLIInputBean.getSpectrumExportFolder(), SpectrumExporter.ExportType.getTypeFromIndex(followUpCLIInputBean.getSpectrumExportTypeIndex()));
+        }
+        if (followUpCLIInputBean.progenesisExportNeeded()) {
+            followUpExporter.planProgenesisExport(followUpCLIInputBean.getProgenesisExportFile(), ProgenesisExport.ExportType.getTypeFromIndex(followUpCLIInputBean.getProgenesisExportTypeIndex()), followUpCLIInputBean.getProgenesisTargetedPTMs());
+        }
+        followUpExporter.export(waitingHandler);
+    }
+
     /**
      * Recalibrates spectra as specified in the follow-up input bean.
      *
@@ -263,6 +307,7 @@ public class CLIMethods {
      * @param nSurroundingAA the number of amino acids to export on the side of
      * peptide sequences
      * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param nThreads the number of threads to use
      * @param waitingHandler waiting handler displaying feedback to the user
      *
      * @throws IOException exception thrown whenever an IO exception occurred
@@ -281,7 +326,7 @@ public class CLIMethods {
      */
     public static void exportReport(ReportCLIInputBean reportCLIInputBean, String reportType, String experiment, String sample, int replicateNumber,
             ProjectDetails projectDetails, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
-            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, int nSurroundingAA, SpectrumCountingPreferences spectrumCountingPreferences, WaitingHandler waitingHandler)
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, int nSurroundingAA, SpectrumCountingPreferences spectrumCountingPreferences, int nThreads, WaitingHandler waitingHandler)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException,
             InterruptedException, MzMLUnmarshallerException, MathException {
 
@@ -292,7 +337,7 @@ public class CLIMethods {
 
         //@TODO: allow format selection
         PSExportFactory.writeExport(exportScheme, reportFile, ExportFormat.text, experiment, sample, replicateNumber, projectDetails, identification, identificationFeaturesGenerator,
-                null, null, null, null, nSurroundingAA, shotgunProtocol, identificationParameters, spectrumCountingPreferences, waitingHandler);
+                null, null, null, null, nSurroundingAA, shotgunProtocol, identificationParameters, spectrumCountingPreferences, nThreads, waitingHandler);
     }
 
     /**
@@ -352,7 +397,7 @@ public class CLIMethods {
         MzIdentMLExport mzIdentMLExport = new MzIdentMLExport(PeptideShaker.getVersion(), cpsParent.getIdentification(), cpsParent.getProjectDetails(),
                 cpsParent.getProcessingPreferences(), cpsParent.getShotgunProtocol(), cpsParent.getIdentificationParameters(),
                 cpsParent.getSpectrumCountingPreferences(), cpsParent.getIdentificationFeaturesGenerator(),
-                mzidCLIInputBean.getOutputFile(), waitingHandler);
+                mzidCLIInputBean.getOutputFile(), mzidCLIInputBean.getCompressionLevel(), waitingHandler);
         mzIdentMLExport.createMzIdentMLFile(false);
     }
 }
@@ -2,7 +2,6 @@ package eu.isas.peptideshaker.cmd;
 
 import com.compomics.software.settings.PathKey;
 import com.compomics.software.settings.UtilitiesPathPreferences;
-import com.compomics.util.Util;
 import com.compomics.util.db.DerbyUtil;
 import com.compomics.util.experiment.biology.EnzymeFactory;
 import com.compomics.util.experiment.biology.PTMFactory;
@@ -182,24 +181,21 @@ public class FollowUpCLI extends CpsParent {
 
         loadGeneMappings(PeptideShaker.getJarFilePath(), waitingHandler);
 
-        // recalibrate spectra
-        if (followUpCLIInputBean.recalibrationNeeded()) {
+        // recalibrate spectra, export spectra and progenesis export in a single pass over the spectra
+        if (followUpCLIInputBean.recalibrationNeeded() || followUpCLIInputBean.spectrumExportNeeded() || followUpCLIInputBean.progenesisExportNeeded()) {
             try {
-                CLIMethods.recalibrateSpectra(followUpCLIInputBean, identification, identificationParameters, waitingHandler);
-                waitingHandler.appendReport("Recalibration process completed.", true, true);
-            } catch (Exception e) {
-                waitingHandler.appendReport("An error occurred while recalibrating the spectra.", true, true);
-                e.printStackTrace();
-            }
-        }
-
-        // export spectra
-        if (followUpCLIInputBean.spectrumExportNeeded()) {
-            try {
-                CLIMethods.exportSpectra(followUpCLIInputBean, identification, waitingHandler, identificationParameters.getSequenceMatchingPreferences());
-                waitingHandler.appendReport("Spectrum export completed.", true, true);
+                CLIMethods.exportSpectrumFollowUp(followUpCLIInputBean, identification, identificationParameters, waitingHandler);
+                if (followUpCLIInputBean.recalibrationNeeded()) {
+                    waitingHandler.appendReport("Recalibration process completed.", true, true);
+                }
+                if (followUpCLIInputBean.spectrumExportNeeded()) {
+                    waitingHandler.appendReport("Spectrum export completed.", true, true);
+                }
+                if (followUpCLIInputBean.progenesisExportNeeded()) {
+                    waitingHandler.appendReport("Progenesis export completed.", true, true);
+                }
             } catch (Exception e) {
-                waitingHandler.appendReport("An error occurred while exporting the spectra.", true, true);
+                waitingHandler.appendReport("An error occurred while recalibrating or exporting the spectra.", true, true);
                 e.printStackTrace();
             }
         }
@@ -226,17 +222,6 @@ public class FollowUpCLI extends CpsParent {
             }
         }
 
-        // progenesis export
-        if (followUpCLIInputBean.progenesisExportNeeded()) {
-            try {
-                CLIMethods.exportProgenesis(followUpCLIInputBean, identification, waitingHandler, identificationParameters.getSequenceMatchingPreferences());
-                waitingHandler.appendReport("Progenesis export completed.", true, true);
-            } catch (Exception e) {
-                waitingHandler.appendReport("An error occurred while exporting the Progenesis file.", true, true);
-                e.printStackTrace();
-            }
-        }
-
         // PepNovo training export
         if (followUpCLIInputBean.pepnovoTrainingExportNeeded()) {
             try {
@@ -303,14 +288,7 @@ public class FollowUpCLI extends CpsParent {
 
         DerbyUtil.closeConnection();
 
-        File matchFolder = PeptideShaker.getSerializationDirectory(PeptideShaker.getJarFilePath());
-        File[] tempFiles = matchFolder.listFiles();
-
-        if (tempFiles != null) {
-            for (File currentFile : tempFiles) {
-                Util.deleteDir(currentFile);
-            }
-        }
+        deleteProjectDirectory();
     }
 
     /**
@@ -2,7 +2,6 @@ package eu.isas.peptideshaker.cmd;
 
 import com.compomics.software.settings.PathKey;
 import com.compomics.software.settings.UtilitiesPathPreferences;
-import com.compomics.util.Util;
 import com.compomics.util.db.DerbyUtil;
 import com.compomics.util.experiment.biology.EnzymeFactory;
 import com.compomics.util.experiment.biology.PTMFactory;
@@ -11,6 +10,7 @@ import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.PeptideShaker;
+import eu.isas.peptideshaker.export.OutputFileWriter;
 import eu.isas.peptideshaker.preferences.PeptideShakerPathPreferences;
 import eu.isas.peptideshaker.utils.CpsParent;
 import java.io.File;
@@ -234,14 +234,7 @@ public class MzidCLI extends CpsParent {
 
         DerbyUtil.closeConnection();
 
-        File matchFolder = PeptideShaker.getSerializationDirectory(PeptideShaker.getJarFilePath());
-        File[] tempFiles = matchFolder.listFiles();
-
-        if (tempFiles != null) {
-            for (File currentFile : tempFiles) {
-                Util.deleteDir(currentFile);
-            }
-        }
+        deleteProjectDirectory();
     }
 
     /**
@@ -286,6 +279,25 @@ public class MzidCLI extends CpsParent {
             System.out.println("\n" + MzidCLIParams.CPS_FILE.description + " \'" + testFile.getAbsolutePath() + "\' not found.\n");
             return false;
         }
+        if (aLine.hasOption(MzidCLIParams.COMPRESSION_LEVEL.id)) {
+            String outputFileName = aLine.getOptionValue(MzidCLIParams.OUTPUT_FILE.id);
+            if (!OutputFileWriter.isGzipped(new File(outputFileName))) {
+                System.out.println("\nA compression level was given but the output file \'" + outputFileName + "\' does not end with "
+                        + OutputFileWriter.GZIP_EXTENSION + " and will not be gzipped.\n");
+                return false;
+            }
+            String levelTxt = aLine.getOptionValue(MzidCLIParams.COMPRESSION_LEVEL.id).trim();
+            try {
+                int level = new Integer(levelTxt);
+                if (level < 0 || level > 9) {
+                    System.out.println("\nCompression level \'" + levelTxt + "\' should be between 0 and 9.\n");
+                    return false;
+                }
+            } catch (NumberFormatException e) {
+                System.out.println("\nCompression level \'" + levelTxt + "\' could not be parsed as a number.\n");
+                return false;
+            }
+        }
 
         return true;
     }
@@ -59,6 +59,10 @@ public class MzidCLIInputBean {
      * The file where the mzIdentML export should be output.
      */
     private File outputFile;
+    /**
+     * The gzip compression level, null for the default level.
+     */
+    private Integer compressionLevel = null;
     /**
      * The path settings.
      */
@@ -111,6 +115,9 @@ public class MzidCLIInputBean {
         if (aLine.hasOption(MzidCLIParams.OUTPUT_FILE.id)) {
             outputFile = new File(aLine.getOptionValue(MzidCLIParams.OUTPUT_FILE.id));
         }
+        if (aLine.hasOption(MzidCLIParams.COMPRESSION_LEVEL.id)) {
+            compressionLevel = new Integer(aLine.getOptionValue(MzidCLIParams.COMPRESSION_LEVEL.id).trim());
+        }
 
         pathSettingsCLIInputBean = new PathSettingsCLIInputBean(aLine);
     }
@@ -223,6 +230,15 @@ public class MzidCLIInputBean {
         return outputFile;
     }
 
+    /**
+     * Returns the gzip compression level, null for the default level.
+     *
+     * @return the gzip compression level
+     */
+    public Integer getCompressionLevel() {
+        return compressionLevel;
+    }
+
     /**
      * Returns the path settings input.
      *
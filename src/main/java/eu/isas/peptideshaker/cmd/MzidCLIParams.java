@@ -19,7 +19,8 @@ public enum MzidCLIParams {
     ORGANIZATION_EMAIL("organization_email", "Organization e-mail.", true, true),
     ORGANIZATION_ADDRESS("organization_address", "Organization address.", true, true),
     ORGANIZATION_URL("organization_url", "Organization URL.", true, false),
-    OUTPUT_FILE("output_file", "Output file.", true, true);
+    OUTPUT_FILE("output_file", "Output file. The file is gzipped if its name ends with .gz, e.g. 'export.mzid.gz'.", true, true),
+    COMPRESSION_LEVEL("compression_level", "Gzip compression level between 0 (none) and 9 (best) when the output file is gzipped. Default is 6.", true, false);
 
     /**
      * Short Id for the CLI parameter.
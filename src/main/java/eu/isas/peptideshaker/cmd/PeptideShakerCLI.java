@@ -42,6 +42,7 @@ import eu.isas.peptideshaker.preferences.PeptideShakerPathPreferences;
 import eu.isas.peptideshaker.utils.CpsParent;
 import eu.isas.peptideshaker.preferences.ProjectDetails;
 import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences;
+import eu.isas.peptideshaker.utils.MemoryGovernor;
 import eu.isas.peptideshaker.utils.Properties;
 import eu.isas.peptideshaker.utils.PsZipUtils;
 import eu.isas.peptideshaker.utils.Tips;
@@ -215,22 +216,15 @@ public class PeptideShakerCLI extends CpsParent implements Callable {
             if (followUpCLIInputBean.followUpNeeded()) {
                 waitingHandler.appendReport("Starting follow up tasks.", true, true);
 
-                // recalibrate spectra
-                if (followUpCLIInputBean.recalibrationNeeded()) {
+                // recalibrate spectra, export spectra and progenesis export in a single pass over the spectra
+                if (followUpCLIInputBean.recalibrationNeeded() || followUpCLIInputBean.spectrumExportNeeded() || followUpCLIInputBean.progenesisExportNeeded()) {
                     try {
-                        CLIMethods.recalibrateSpectra(followUpCLIInputBean, identification, identificationParameters, waitingHandler);
-                    } catch (Exception e) {
-                        waitingHandler.appendReport("An error occurred while recalibrating the spectra.", true, true);
-                        e.printStackTrace();
-                    }
-                }
-
-                // export spectra
-                if (followUpCLIInputBean.spectrumExportNeeded()) {
-                    try {
-                        CLIMethods.exportSpectra(followUpCLIInputBean, identification, waitingHandler, identificationParameters.getSequenceMatchingPreferences());
+                        CLIMethods.exportSpectrumFollowUp(followUpCLIInputBean, identification, identificationParameters, waitingHandler);
+                        if (followUpCLIInputBean.progenesisExportNeeded()) {
+                            waitingHandler.appendReport("Progenesis export completed.", true, true);
+                        }
                     } catch (Exception e) {
-                        waitingHandler.appendReport("An error occurred while exporting the spectra.", true, true);
+                        waitingHandler.appendReport("An error occurred while recalibrating or exporting the spectra.", true, true);
                         e.printStackTrace();
                     }
                 }
@@ -255,17 +249,6 @@ public class PeptideShakerCLI extends CpsParent implements Callable {
                     }
                 }
 
-                // progenesis export
-                if (followUpCLIInputBean.progenesisExportNeeded()) {
-                    try {
-                        CLIMethods.exportProgenesis(followUpCLIInputBean, identification, waitingHandler, identificationParameters.getSequenceMatchingPreferences());
-                        waitingHandler.appendReport("Progenesis export completed.", true, true);
-                    } catch (Exception e) {
-                        waitingHandler.appendReport("An error occurred while exporting the Progenesis file.", true, true);
-                        e.printStackTrace();
-                    }
-                }
-
                 // de novo training export
                 if (followUpCLIInputBean.pepnovoTrainingExportNeeded()) {
                     try {
@@ -295,7 +278,7 @@ public class PeptideShakerCLI extends CpsParent implements Callable {
                     int nSurroundingAAs = 2; //@TODO: this shall not be hard coded //peptideShakerGUI.getDisplayPreferences().getnAASurroundingPeptides()
                     for (String reportType : reportCLIInputBean.getReportTypes()) {
                         try {
-                            CLIMethods.exportReport(reportCLIInputBean, reportType, experiment.getReference(), sample.getReference(), replicateNumber, projectDetails, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, nSurroundingAAs, spectrumCountingPreferences, waitingHandler);
+                            CLIMethods.exportReport(reportCLIInputBean, reportType, experiment.getReference(), sample.getReference(), replicateNumber, projectDetails, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, nSurroundingAAs, spectrumCountingPreferences, processingPreferences.getnThreads(), waitingHandler);
                         } catch (Exception e) {
                             waitingHandler.appendReport("An error occurred while exporting the " + reportType + ".", true, true);
                             e.printStackTrace();
@@ -703,6 +686,14 @@ public class PeptideShakerCLI extends CpsParent implements Callable {
 
         // create a shaker which will perform the analysis
         PeptideShaker peptideShaker = new PeptideShaker(experiment, sample, replicateNumber);
+        Integer importChunkSize = cliInputBean.getImportChunkSize();
+        if (importChunkSize != null) {
+            peptideShaker.setImportChunkSize(importChunkSize);
+        }
+        Integer memoryBudget = cliInputBean.getMemoryBudget();
+        if (memoryBudget != null) {
+            MemoryGovernor.getInstance().setBudget(1048576L * memoryBudget);
+        }
 
         // import the files
         peptideShaker.importFiles(waitingHandler, identificationFiles, spectrumFiles,
@@ -733,6 +724,21 @@ public class PeptideShakerCLI extends CpsParent implements Callable {
             // the cache used for identification
             objectsCache = peptideShaker.getCache();
 
+            // the directory where the project is stored
+            projectDirectory = peptideShaker.getProjectDirectory();
+
+            // the time and memory used by the processing steps
+            File profileFile = cliInputBean.getProfileFile();
+            if (profileFile != null) {
+                try {
+                    peptideShaker.getProcessingProfile().writeProfile(profileFile);
+                    waitingHandler.appendReport("Processing profile written to " + profileFile.getAbsolutePath() + ".", true, true);
+                } catch (IOException e) {
+                    waitingHandler.appendReport("An error occurred while writing the processing profile to " + profileFile.getAbsolutePath() + ".", true, true);
+                    e.printStackTrace();
+                }
+            }
+
             if (waitingHandler instanceof WaitingDialog) {
                 projectDetails.setReport(((WaitingDialog) waitingHandler).getReport(null));
                 ((WaitingDialog) waitingHandler).setRunNotFinished();
@@ -789,22 +795,7 @@ public class PeptideShakerCLI extends CpsParent implements Callable {
             e.printStackTrace();
         }
 
-        try {
-            File matchFolder = PeptideShaker.getSerializationDirectory(PeptideShaker.getJarFilePath());
-            File[] tempFiles = matchFolder.listFiles();
-
-            if (tempFiles != null) {
-                for (File currentFile : tempFiles) {
-                    boolean deleted = Util.deleteDir(currentFile);
-                    if (!deleted) {
-                        System.out.println(currentFile.getAbsolutePath() + " could not be deleted!"); // @TODO: better handling of this error?
-                    }
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
+        // the project directories are registered as temporary folders
         try {
             TempFilesManager.deleteTempFolders();
         } catch (Exception e) {
@@ -139,6 +139,18 @@ public class PeptideShakerCLIInputBean {
      * The number of threads to use.
      */
     private Integer nThreads = null;
+    /**
+     * The number of PSMs to import at a time, null if not set.
+     */
+    private Integer importChunkSize = null;
+    /**
+     * The memory budget of the caches in MB, null if not set.
+     */
+    private Integer memoryBudget = null;
+    /**
+     * File where to write the processing profile, null if not set.
+     */
+    private File profileFile = null;
 
     /**
      * Construct a PeptideShakerCLIInputBean from an Apache CLI instance.
@@ -276,6 +288,21 @@ public class PeptideShakerCLIInputBean {
             nThreads = new Integer(aLine.getOptionValue(PeptideShakerCLIParams.THREADS.id));
         }
 
+        // import chunk size
+        if (aLine.hasOption(PeptideShakerCLIParams.IMPORT_CHUNK_SIZE.id)) {
+            importChunkSize = new Integer(aLine.getOptionValue(PeptideShakerCLIParams.IMPORT_CHUNK_SIZE.id));
+        }
+
+        // memory budget
+        if (aLine.hasOption(PeptideShakerCLIParams.MEMORY_BUDGET.id)) {
+            memoryBudget = new Integer(aLine.getOptionValue(PeptideShakerCLIParams.MEMORY_BUDGET.id));
+        }
+
+        // processing profile
+        if (aLine.hasOption(PeptideShakerCLIParams.PROFILE.id)) {
+            profileFile = new File(aLine.getOptionValue(PeptideShakerCLIParams.PROFILE.id));
+        }
+
         followUpCLIInputBean = new FollowUpCLIInputBean(aLine);
         reportCLIInputBean = new ReportCLIInputBean(aLine);
         pathSettingsCLIInputBean = new PathSettingsCLIInputBean(aLine);
@@ -784,4 +811,32 @@ public class PeptideShakerCLIInputBean {
     public Integer getnThreads() {
         return nThreads;
     }
+
+    /**
+     * Returns the number of PSMs to import at a time. Null if not set.
+     *
+     * @return the number of PSMs to import at a time
+     */
+    public Integer getImportChunkSize() {
+        return importChunkSize;
+    }
+
+    /**
+     * Returns the memory budget of the caches in MB. Null if not set.
+     *
+     * @return the memory budget of the caches in MB
+     */
+    public Integer getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Returns the file where to write the processing profile. Null if not
+     * set.
+     *
+     * @return the file where to write the processing profile
+     */
+    public File getProfileFile() {
+        return profileFile;
+    }
 }
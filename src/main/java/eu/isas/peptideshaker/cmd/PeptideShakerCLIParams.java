@@ -38,7 +38,10 @@ public enum PeptideShakerCLIParams {
     SPECIES_TYPE("species_type", "The species type to use for the gene annotation. Supported species types are listed in the GUI.", false),
     SPECIES_UPDATE("species_update", "Check for new species information in Ensembl and update if possible. (1: true, 0: false, default is '0').", false),
     ZIP("zip", "Exports the entire project as a zip file in the file specified.", false),
-    THREADS("threads", "The number of threads to use. Defaults to the number of available CPUs.", false);
+    THREADS("threads", "The number of threads to use. Defaults to the number of available CPUs.", false),
+    IMPORT_CHUNK_SIZE("import_chunk_size", "The number of PSMs passed at a time from the identification files to the database, 0 to process the PSMs of a file in one go (default is '10000').", false),
+    MEMORY_BUDGET("memory_budget", "The heap in MB above which the caches are reduced, cannot exceed the memory given to Java (default is 90% of the memory given to Java).", false),
+    PROFILE("profile", "Writes the time and memory used by the processing steps to the file specified, as json if the file name ends with .json, as csv otherwise.", false);
 
     /**
      * Short Id for the CLI parameter.
@@ -101,6 +104,9 @@ public enum PeptideShakerCLIParams {
         aOptions.addOption(SPECIES_UPDATE.id, true, SPECIES_UPDATE.description);
         aOptions.addOption(ZIP.id, true, ZIP.description);
         aOptions.addOption(THREADS.id, true, THREADS.description);
+        aOptions.addOption(IMPORT_CHUNK_SIZE.id, true, IMPORT_CHUNK_SIZE.description);
+        aOptions.addOption(MEMORY_BUDGET.id, true, MEMORY_BUDGET.description);
+        aOptions.addOption(PROFILE.id, true, PROFILE.description);
 
         // follow-up options
         FollowUpCLIParams.createOptionsCLI(aOptions);
@@ -160,6 +166,9 @@ public enum PeptideShakerCLIParams {
 
         output += "\n\nOptional processing parameters:\n\n";
         output += "-" + String.format(formatter, THREADS.id) + THREADS.description + "\n";
+        output += "-" + String.format(formatter, IMPORT_CHUNK_SIZE.id) + IMPORT_CHUNK_SIZE.description + "\n";
+        output += "-" + String.format(formatter, MEMORY_BUDGET.id) + MEMORY_BUDGET.description + "\n";
+        output += "-" + String.format(formatter, PROFILE.id) + PROFILE.description + "\n";
 
         output += "\n\nOptional export parameters:\n\n";
         output += "-" + String.format(formatter, ZIP.id) + ZIP.description + "\n";
@@ -2,7 +2,6 @@ package eu.isas.peptideshaker.cmd;
 
 import com.compomics.software.settings.PathKey;
 import com.compomics.software.settings.UtilitiesPathPreferences;
-import com.compomics.util.Util;
 import com.compomics.util.db.DerbyUtil;
 import com.compomics.util.experiment.annotation.go.GOFactory;
 import com.compomics.util.experiment.biology.EnzymeFactory;
@@ -152,9 +151,9 @@ public class ReportCLI extends CpsParent {
             return 1;
         }
 
-        // load the spectrum files
+        // locate the spectrum files, they are only loaded if needed by the reports
         try {
-            if (!loadSpectrumFiles(waitingHandler)) {
+            if (!registerSpectrumFiles(null)) {
                 if (identification.getSpectrumFiles().size() > 1) {
                     waitingHandler.appendReport("The spectrum files were not found, please locate them using the GUI.", true, true);
                 } else {
@@ -168,7 +167,7 @@ public class ReportCLI extends CpsParent {
                 }
                 return 1;
             }
-            waitingHandler.appendReport("Spectrum file(s) successfully loaded.", true, true);
+            waitingHandler.appendReport("Spectrum file(s) successfully located.", true, true);
         } catch (Exception e) {
             waitingHandler.appendReport("An error occurred while loading the spectrum file(s).", true, true);
             e.printStackTrace();
@@ -186,9 +185,10 @@ public class ReportCLI extends CpsParent {
         // export report(s)
         if (reportCLIInputBean.exportNeeded()) {
             int nSurroundingAAs = 2; //@TODO: this shall not be hard coded
+            int nThreads = processingPreferences != null ? processingPreferences.getnThreads() : Runtime.getRuntime().availableProcessors();
             for (String reportType : reportCLIInputBean.getReportTypes()) {
                 try {
-                    CLIMethods.exportReport(reportCLIInputBean, reportType, experiment.getReference(), sample.getReference(), replicateNumber, projectDetails, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, nSurroundingAAs, spectrumCountingPreferences, waitingHandler);
+                    CLIMethods.exportReport(reportCLIInputBean, reportType, experiment.getReference(), sample.getReference(), replicateNumber, projectDetails, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, nSurroundingAAs, spectrumCountingPreferences, nThreads, waitingHandler);
                 } catch (Exception e) {
                     waitingHandler.appendReport("An error occurred while exporting the " + reportType + ".", true, true);
                     e.printStackTrace();
@@ -348,17 +348,9 @@ public class ReportCLI extends CpsParent {
         GOFactory.getInstance().closeFiles();
         identification.close();
 
-        File matchFolder = PeptideShaker.getSerializationDirectory(PeptideShaker.getJarFilePath());
-
         DerbyUtil.closeConnection();
 
-        File[] tempFiles = matchFolder.listFiles();
-
-        if (tempFiles != null) {
-            for (File currentFile : tempFiles) {
-                Util.deleteDir(currentFile);
-            }
-        }
+        deleteProjectDirectory();
     }
 
     /**
@@ -7,7 +7,6 @@ import com.compomics.util.experiment.identification.Advocate;
 import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.io.ExperimentIO;
 import com.compomics.util.waiting.WaitingHandler;
-import com.compomics.util.io.compression.TarUtils;
 import com.compomics.util.preferences.IdentificationParameters;
 import eu.isas.peptideshaker.PeptideShaker;
 import eu.isas.peptideshaker.preferences.DisplayPreferences;
@@ -16,6 +15,7 @@ import com.compomics.util.preferences.ProcessingPreferences;
 import eu.isas.peptideshaker.myparameters.PeptideShakerSettings;
 import eu.isas.peptideshaker.preferences.ProjectDetails;
 import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences;
+import eu.isas.peptideshaker.utils.CpsArchiveUtils;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesCache;
 import eu.isas.peptideshaker.utils.Metrics;
 import java.io.*;
@@ -47,7 +47,7 @@ public class CpsExporter {
      * @param objectsCache the object cache
      * @param emptyCache a boolean indicating whether the object cache should be
      * emptied
-     * @param jarFilePath the path to the jar file
+     * @param projectDirectory the directory of the project
      *
      * @throws IOException thrown of IOException occurs exception thrown
      * whenever an error occurred while reading or writing a file
@@ -62,10 +62,10 @@ public class CpsExporter {
      */
     public static void saveAs(File destinationFile, WaitingHandler waitingHandler, MsExperiment experiment, Identification identification, ShotgunProtocol shotgunProtocol,
             IdentificationParameters identificationParameters, SpectrumCountingPreferences spectrumCountingPreferences, ProjectDetails projectDetails, Metrics metrics,
-            ProcessingPreferences processingPreferences, IdentificationFeaturesCache identificationFeaturesCache, ObjectsCache objectsCache, boolean emptyCache, String jarFilePath)
+            ProcessingPreferences processingPreferences, IdentificationFeaturesCache identificationFeaturesCache, ObjectsCache objectsCache, boolean emptyCache, File projectDirectory)
             throws IOException, SQLException, ArchiveException, ClassNotFoundException, InterruptedException {
         saveAs(destinationFile, waitingHandler, experiment, identification, shotgunProtocol, identificationParameters, spectrumCountingPreferences, 
-                projectDetails, null, metrics, processingPreferences, identificationFeaturesCache, objectsCache, emptyCache, null, jarFilePath);
+                projectDetails, null, metrics, processingPreferences, identificationFeaturesCache, objectsCache, emptyCache, null, projectDirectory);
     }
 
     /**
@@ -87,7 +87,7 @@ public class CpsExporter {
      * @param objectsCache the object cache
      * @param emptyCache a boolean indicating whether the object cache should be
      * emptied
-     * @param jarFilePath the path to the jar file
+     * @param projectDirectory the directory of the project
      *
      * @throws IOException thrown of IOException occurs exception thrown
      * whenever an error occurred while reading or writing a file
@@ -103,7 +103,7 @@ public class CpsExporter {
     public static void saveAs(File destinationFile, WaitingHandler waitingHandler, MsExperiment experiment, Identification identification, ShotgunProtocol shotgunProtocol,
             IdentificationParameters identificationParameters, SpectrumCountingPreferences spectrumCountingPreferences, ProjectDetails projectDetails, FilterPreferences filterPreferences,
             Metrics metrics, ProcessingPreferences processingPreferences, IdentificationFeaturesCache identificationFeaturesCache, ObjectsCache objectsCache, boolean emptyCache,
-            DisplayPreferences displayPreferences, String jarFilePath) throws IOException, SQLException, ArchiveException, ClassNotFoundException, InterruptedException {
+            DisplayPreferences displayPreferences, File projectDirectory) throws IOException, SQLException, ArchiveException, ClassNotFoundException, InterruptedException {
 
         // save the user advocates
         projectDetails.setUserAdvocateMapping(Advocate.getUserAdvocates());
@@ -119,7 +119,7 @@ public class CpsExporter {
         // close connection
         identification.close();
 
-        File matchesFolder = PeptideShaker.getSerializationDirectory(jarFilePath);
+        File matchesFolder = PeptideShaker.getSerializationDirectory(projectDirectory);
 
         // transfer all files in the match directory
         if (waitingHandler != null && !waitingHandler.isRunCanceled()) {
@@ -131,9 +131,10 @@ public class CpsExporter {
 
         identification.restoreConnection(matchesFolder.getAbsolutePath(), false, objectsCache);
 
-        // tar everything in the current cps file
+        // compress everything in the current cps file
         if (waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            TarUtils.tarFolder(matchesFolder, destinationFile, waitingHandler);
+            int nThreads = processingPreferences != null ? processingPreferences.getnThreads() : Runtime.getRuntime().availableProcessors();
+            CpsArchiveUtils.archive(matchesFolder, destinationFile, nThreads, waitingHandler);
         }
     }
 }
@@ -48,6 +48,7 @@ import eu.isas.peptideshaker.scoring.PtmScoring;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyResults;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
+import eu.isas.peptideshaker.utils.SpectrumFileLoader;
 import java.io.*;
 import java.sql.SQLException;
 import java.text.DateFormat;
@@ -57,6 +58,14 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang3.StringEscapeUtils;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
@@ -68,10 +77,6 @@ import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
  */
 public class MzIdentMLExport {
 
-    /**
-     * The fileWriter.
-     */
-    private FileWriter r;
     /**
      * The buffered writer which will write the results in the desired file.
      */
@@ -133,10 +138,6 @@ public class MzIdentMLExport {
      * The identification feature generator.
      */
     private IdentificationFeaturesGenerator identificationFeaturesGenerator;
-    /**
-     * The peptide spectrum annotator.
-     */
-    private PeptideSpectrumAnnotator peptideSpectrumAnnotator;
     /**
      * The waiting handler.
      */
@@ -146,9 +147,13 @@ public class MzIdentMLExport {
      */
     private HashMap<String, String> pepEvidenceIds = new HashMap<String, String>();
     /**
-     * The spectrum IDs.
+     * The spectrum IDs, filled by the threads writing the PSMs.
      */
-    private HashMap<String, String> spectrumIds = new HashMap<String, String>();
+    private ConcurrentHashMap<String, String> spectrumIds = new ConcurrentHashMap<String, String>();
+    /**
+     * The number of PSMs written by a thread at a time.
+     */
+    private static final int PSM_BATCH_SIZE = 100;
     /**
      * Information on the protocol.
      */
@@ -175,7 +180,9 @@ public class MzIdentMLExport {
      * @param spectrumCountingPreferences the spectrum counting preferences
      * @param identificationFeaturesGenerator the identification features
      * generator
-     * @param outputFile Output file
+     * @param outputFile Output file, gzipped if the name ends with .gz
+     * @param compressionLevel the gzip compression level between 0 and 9, null
+     * for the default level
      * @param waitingHandler waiting handler used to display progress to the
      * user and interrupt the process
      *
@@ -187,7 +194,7 @@ public class MzIdentMLExport {
     public MzIdentMLExport(String peptideShakerVersion, Identification identification, ProjectDetails projectDetails, ProcessingPreferences processingPreferences,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, SpectrumCountingPreferences spectrumCountingPreferences,
             IdentificationFeaturesGenerator identificationFeaturesGenerator,
-            File outputFile, WaitingHandler waitingHandler) throws IOException, ClassNotFoundException {
+            File outputFile, Integer compressionLevel, WaitingHandler waitingHandler) throws IOException, ClassNotFoundException {
         this.peptideShakerVersion = peptideShakerVersion;
         this.identification = identification;
         this.projectDetails = projectDetails;
@@ -199,9 +206,7 @@ public class MzIdentMLExport {
         this.waitingHandler = waitingHandler;
         PrideObjectsFactory prideObjectsFactory = PrideObjectsFactory.getInstance(); // @TODO: should be renamed!!!
         ptmToPrideMap = prideObjectsFactory.getPtmToPrideMap();
-        this.peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
-        r = new FileWriter(outputFile);
-        br = new BufferedWriter(r);
+        br = OutputFileWriter.getWriter(outputFile, "UTF-8", compressionLevel);
     }
 
     /**
@@ -224,6 +229,9 @@ public class MzIdentMLExport {
 
         mzidVersion_1_2 = version12;
 
+        // the spectrum files of opened projects are loaded on demand
+        SpectrumFileLoader.getInstance().loadAllSpectrumFiles(waitingHandler);
+
         // @TODO: use the waiting handler more (especially for command line mode)
         // the mzIdentML start tag
         writeMzIdentMLStartTag();
@@ -258,7 +266,6 @@ public class MzIdentMLExport {
 
         if (waitingHandler.isRunCanceled()) {
             br.close();
-            r.close();
             return;
         }
 
@@ -266,7 +273,6 @@ public class MzIdentMLExport {
         writeMzIdentMLEndTag();
 
         br.close();
-        r.close();
     }
 
     /**
@@ -1093,18 +1099,40 @@ public class MzIdentMLExport {
         parameters.add(new PSParameter());
         int psmCount = 0;
 
-        // iterate the spectrum files
-        for (String spectrumFileName : identification.getSpectrumFiles()) {
-
-            PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, identification.getSpectrumIdentification(spectrumFileName), parameters, true, waitingHandler);
-
-            while (psmIterator.hasNext()) {
-
-                SpectrumMatch spectrumMatch = psmIterator.next();
-                String spectrumKey = spectrumMatch.getKey();
+        // the PSMs are annotated and written to text on a pool, batches are then written to the file in order, at most two batches per thread are kept in memory
+        int nThreads = processingPreferences != null ? processingPreferences.getnThreads() : Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        LinkedList<Future<String>> pending = new LinkedList<Future<String>>();
+        LinkedList<Integer> pendingSizes = new LinkedList<Integer>();
+        int maxPending = 2 * nThreads;
+
+        try {
+            // iterate the spectrum files
+            for (String spectrumFileName : identification.getSpectrumFiles()) {
+
+                PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, identification.getSpectrumIdentification(spectrumFileName), parameters, true, waitingHandler);
+                ArrayList<String> batch = new ArrayList<String>(PSM_BATCH_SIZE);
+
+                while (psmIterator.hasNext()) {
+
+                    SpectrumMatch spectrumMatch = psmIterator.next();
+                    batch.add(spectrumMatch.getKey());
+
+                    if (batch.size() == PSM_BATCH_SIZE || !psmIterator.hasNext()) {
+                        pending.add(pool.submit(new PsmXmlWriter(batch, psmCount + 1, tabCounter)));
+                        pendingSizes.add(batch.size());
+                        psmCount += batch.size();
+                        batch = new ArrayList<String>(PSM_BATCH_SIZE);
+                        if (pending.size() >= maxPending) {
+                            br.write(getResult(pending.removeFirst()));
+                            waitingHandler.increasePrimaryProgressCounter(pendingSizes.removeFirst());
+                        }
+                    }
 
-                writeSpectrumIdentificationResult(spectrumKey, ++psmCount);
-                waitingHandler.increasePrimaryProgressCounter();
+                    if (waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+                }
 
                 if (waitingHandler.isRunCanceled()) {
                     break;
@@ -1112,12 +1140,18 @@ public class MzIdentMLExport {
             }
 
             if (waitingHandler.isRunCanceled()) {
-                break;
+                return;
             }
-        }
 
-        if (waitingHandler.isRunCanceled()) {
-            return;
+            while (!pending.isEmpty()) {
+                br.write(getResult(pending.removeFirst()));
+                waitingHandler.increasePrimaryProgressCounter(pendingSizes.removeFirst());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        if (!pool.awaitTermination(1, TimeUnit.DAYS)) {
+            throw new InterruptedException("mzIdentML export timed out. Please contact the developers.");
         }
 
         writeCvTerm(new CvTerm("PSI-MS", "MS:1002439", "final PSM list", null));
@@ -1253,10 +1287,14 @@ public class MzIdentMLExport {
     }
 
     /**
-     * Write a spectrum identification result.
+     * Returns the XML of a spectrum identification result.
      *
      * @param psmKey the key of the PSM to write
      * @param psmIndex the index of the PSM
+     * @param tabs the number of tabs at the beginning of the first line
+     * @param peptideSpectrumAnnotator the spectrum annotator to use
+     *
+     * @return the XML of the spectrum identification result
      *
      * @throws IOException Exception thrown whenever an error occurred while
      * reading/writing a file
@@ -1269,20 +1307,22 @@ public class MzIdentMLExport {
      * @throws MzMLUnmarshallerException exception thrown whenever an error
      * occurred while reading an mzML file
      */
-    private void writeSpectrumIdentificationResult(String psmKey, int psmIndex)
+    private String getSpectrumIdentificationResult(String psmKey, int psmIndex, int tabs, PeptideSpectrumAnnotator peptideSpectrumAnnotator)
             throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
+        StringBuilder psmXml = new StringBuilder();
+
         SpectrumMatch spectrumMatch = identification.getSpectrumMatch(psmKey);
         String spectrumTitle = Spectrum.getSpectrumTitle(psmKey);
         String spectrumFileName = Spectrum.getSpectrumFile(psmKey);
         String spectrumTitleHtml = StringEscapeUtils.escapeHtml4(spectrumTitle);
         String spectrumIdentificationResultItemKey = "SIR_" + psmIndex;
 
-        br.write(getCurrentTabSpace() + "<SpectrumIdentificationResult "
+        psmXml.append(getTabSpace(tabs)).append("<SpectrumIdentificationResult "
                 + "spectraData_ref=\"" + spectrumFileName
                 + "\" spectrumID=\"" + "index=" + spectrumFactory.getSpectrumIndex(spectrumTitle, spectrumFileName)
                 + "\" id=\"" + spectrumIdentificationResultItemKey + "\">" + System.getProperty("line.separator"));
-        tabCounter++;
+        tabs++;
 
         // @TODO: iterate all assumptions and not just the best one?
         PeptideAssumption bestPeptideAssumption = spectrumMatch.getBestPeptideAssumption();
@@ -1296,7 +1336,7 @@ public class MzIdentMLExport {
 
             String bestPeptideKey = bestPeptideAssumption.getPeptide().getMatchingKey(identificationParameters.getSequenceMatchingPreferences());
 
-            br.write(getCurrentTabSpace() + "<SpectrumIdentificationItem "
+            psmXml.append(getTabSpace(tabs)).append("<SpectrumIdentificationItem "
                     + "passThreshold=\"" + psmParameter.getMatchValidationLevel().isValidated() + "\" "
                     + "rank=\"" + rank + "\" "
                     + "peptide_ref=\"" + bestPeptideKey + "\" "
@@ -1304,7 +1344,7 @@ public class MzIdentMLExport {
                     + "experimentalMassToCharge=\"" + spectrumFactory.getPrecursorMz(psmKey) + "\" "
                     + "chargeState=\"" + bestPeptideAssumption.getIdentificationCharge().value + "\" "
                     + "id=\"" + spectrumIdentificationItemKey + "\">" + System.getProperty("line.separator"));
-            tabCounter++;
+            tabs++;
 
             // add the peptide evidence references
             // get all the possible parent proteins
@@ -1321,7 +1361,7 @@ public class MzIdentMLExport {
                 for (int start : peptideStarts) {
                     String pepEvidenceKey = tempProtein + "_" + start + "_" + bestPeptideKey;
                     String peptideEvidenceId = pepEvidenceIds.get(pepEvidenceKey);
-                    br.write(getCurrentTabSpace() + "<PeptideEvidenceRef peptideEvidence_ref=\"" + peptideEvidenceId + "\"/>" + System.getProperty("line.separator"));
+                    psmXml.append(getTabSpace(tabs)).append("<PeptideEvidenceRef peptideEvidence_ref=\"" + peptideEvidenceId + "\"/>" + System.getProperty("line.separator"));
                 }
             }
 
@@ -1359,8 +1399,8 @@ public class MzIdentMLExport {
 
             if (!allFragmentIons.isEmpty()) {
 
-                br.write(getCurrentTabSpace() + "<Fragmentation>" + System.getProperty("line.separator"));
-                tabCounter++;
+                psmXml.append(getTabSpace(tabs)).append("<Fragmentation>" + System.getProperty("line.separator"));
+                tabs++;
 
                 // add the fragment ions
                 Iterator<String> fragmentTypeIterator = allFragmentIons.keySet().iterator();
@@ -1376,54 +1416,54 @@ public class MzIdentMLExport {
                         ArrayList<IonMatch> ionMatches = allFragmentIons.get(fragmentType).get(fragmentCharge);
                         CvTerm fragmentIonTerm = ionMatches.get(0).ion.getPrideCvTerm();
 
-                        String indexes = "";
-                        String mzValues = "";
-                        String intensityValues = "";
-                        String errorValues = "";
+                        StringBuilder indexes = new StringBuilder();
+                        StringBuilder mzValues = new StringBuilder();
+                        StringBuilder intensityValues = new StringBuilder();
+                        StringBuilder errorValues = new StringBuilder();
 
                         // get the fragment ion details
                         for (IonMatch ionMatch : ionMatches) {
 
                             if (ionMatch.ion instanceof PeptideFragmentIon) {
-                                indexes += ((PeptideFragmentIon) ionMatch.ion).getNumber() + " ";
+                                appendValue(indexes, ((PeptideFragmentIon) ionMatch.ion).getNumber());
                             } else if (ionMatch.ion instanceof ImmoniumIon) {
                                 char residue = ImmoniumIon.getResidue(((ImmoniumIon) ionMatch.ion).getSubType());
                                 char[] peptideAsArray = peptideSequence.toCharArray();
                                 for (int i = 0; i < peptideAsArray.length; i++) {
                                     if (peptideAsArray[i] == residue) {
-                                        indexes += (i + 1) + " ";
+                                        appendValue(indexes, i + 1);
                                     }
                                 }
                             } else {
                                 // not yet implemented...
                             }
 
-                            mzValues += ionMatch.peak.mz + " ";
-                            intensityValues += ionMatch.peak.intensity + " ";
-                            errorValues += ionMatch.getAbsoluteError() + " ";
+                            appendValue(mzValues, ionMatch.peak.mz);
+                            appendValue(intensityValues, ionMatch.peak.intensity);
+                            appendValue(errorValues, ionMatch.getAbsoluteError());
                         }
 
-                        br.write(getCurrentTabSpace() + "<IonType charge=\"" + fragmentCharge + "\" index=\"" + indexes.trim() + "\">" + System.getProperty("line.separator"));
-                        tabCounter++;
+                        psmXml.append(getTabSpace(tabs)).append("<IonType charge=\"" + fragmentCharge + "\" index=\"" + indexes + "\">" + System.getProperty("line.separator"));
+                        tabs++;
 
-                        br.write(getCurrentTabSpace() + "<FragmentArray measure_ref=\"Measure_MZ\" values=\"" + mzValues.trim() + "\"/>" + System.getProperty("line.separator"));
-                        br.write(getCurrentTabSpace() + "<FragmentArray measure_ref=\"Measure_Int\" values=\"" + intensityValues.trim() + "\"/>" + System.getProperty("line.separator"));
-                        br.write(getCurrentTabSpace() + "<FragmentArray measure_ref=\"Measure_Error\" values=\"" + errorValues.trim() + "\"/>" + System.getProperty("line.separator"));
+                        psmXml.append(getTabSpace(tabs)).append("<FragmentArray measure_ref=\"Measure_MZ\" values=\"" + mzValues + "\"/>" + System.getProperty("line.separator"));
+                        psmXml.append(getTabSpace(tabs)).append("<FragmentArray measure_ref=\"Measure_Int\" values=\"" + intensityValues + "\"/>" + System.getProperty("line.separator"));
+                        psmXml.append(getTabSpace(tabs)).append("<FragmentArray measure_ref=\"Measure_Error\" values=\"" + errorValues + "\"/>" + System.getProperty("line.separator"));
 
-                        writeCvTerm(new CvTerm(fragmentIonTerm.getOntology(), fragmentIonTerm.getAccession(), fragmentIonTerm.getName(), null));
+                        appendCvTerm(psmXml, tabs, new CvTerm(fragmentIonTerm.getOntology(), fragmentIonTerm.getAccession(), fragmentIonTerm.getName(), null));
 
-                        tabCounter--;
-                        br.write(getCurrentTabSpace() + "</IonType>" + System.getProperty("line.separator"));
+                        tabs--;
+                        psmXml.append(getTabSpace(tabs)).append("</IonType>" + System.getProperty("line.separator"));
                     }
                 }
 
-                tabCounter--;
-                br.write(getCurrentTabSpace() + "</Fragmentation>" + System.getProperty("line.separator"));
+                tabs--;
+                psmXml.append(getTabSpace(tabs)).append("</Fragmentation>" + System.getProperty("line.separator"));
             }
 
             // add peptide shaker score and confidence
-            writeCvTerm(new CvTerm("PSI-MS", "MS:1002466", "PeptideShaker PSM score", Double.toString(Util.roundDouble(psmParameter.getPsmScore(), CONFIDENCE_DECIMALS))));
-            writeCvTerm(new CvTerm("PSI-MS", "MS:1002467", "PeptideShaker PSM confidence", Double.toString(Util.roundDouble(psmParameter.getPsmConfidence(), CONFIDENCE_DECIMALS))));
+            appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1002466", "PeptideShaker PSM score", Double.toString(Util.roundDouble(psmParameter.getPsmScore(), CONFIDENCE_DECIMALS))));
+            appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1002467", "PeptideShaker PSM confidence", Double.toString(Util.roundDouble(psmParameter.getPsmConfidence(), CONFIDENCE_DECIMALS))));
 
             if (mzidVersion_1_2) {
 
@@ -1461,9 +1501,9 @@ public class MzIdentMLExport {
                                             }
 
                                             if (ptmScoringPreferences.getSelectedProbabilisticScore() == PtmScore.AScore) {
-                                                writeCvTerm(new CvTerm("PSI-MS", "MS:1001985", "Ascore:Ascore", ptmIndex + ":" + score + ":" + site + ":" + valid));
+                                                appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1001985", "Ascore:Ascore", ptmIndex + ":" + score + ":" + site + ":" + valid));
                                             } else if (ptmScoringPreferences.getSelectedProbabilisticScore() == PtmScore.PhosphoRS) {
-                                                writeCvTerm(new CvTerm("PSI-MS", "MS:1001969", "phosphoRS score", ptmIndex + ":" + score + ":" + site + ":" + valid));
+                                                appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1001969", "phosphoRS score", ptmIndex + ":" + score + ":" + site + ":" + valid));
                                             }
                                         }
                                     }
@@ -1474,7 +1514,7 @@ public class MzIdentMLExport {
                                         if (score < dScoreThreshold) {
                                             valid = "false";
                                         }
-                                        writeCvTerm(new CvTerm("PSI-MS", "MS:1002539", "D-score", ptmIndex + ":" + score + ":" + site + ":" + valid));
+                                        appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1002539", "D-score", ptmIndex + ":" + score + ":" + site + ":" + valid));
                                     }
                                 }
                             }
@@ -1483,10 +1523,10 @@ public class MzIdentMLExport {
                 }
 
                 PSParameter peptideParameter = (PSParameter) identification.getPeptideMatchParameter(bestPeptideKey, psmParameter);
-                writeCvTerm(new CvTerm("PSI-MS", "MS:1002469", "PeptideShaker peptide confidence", peptideParameter.getPeptideConfidence() + ""));
-                writeCvTerm(new CvTerm("PSI-MS", "MS:1002468", "PeptideShaker peptide score", peptideParameter.getPeptideScore() + ""));
-                writeCvTerm(new CvTerm("PSI-MS", "MS:1002500", "peptide passes threshold", peptideParameter.getMatchValidationLevel().isValidated() + ""));
-                writeCvTerm(new CvTerm("PSI-MS", "MS:1002520", "peptide group ID", bestPeptideKey));
+                appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1002469", "PeptideShaker peptide confidence", peptideParameter.getPeptideConfidence() + ""));
+                appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1002468", "PeptideShaker peptide score", peptideParameter.getPeptideScore() + ""));
+                appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1002500", "peptide passes threshold", peptideParameter.getMatchValidationLevel().isValidated() + ""));
+                appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1002520", "peptide group ID", bestPeptideKey));
 
                 psPtmScores = (PSPtmScores) peptideMatch.getUrParam(new PSPtmScores());
 
@@ -1520,9 +1560,9 @@ public class MzIdentMLExport {
                                             }
 
                                             if (ptmScoringPreferences.getSelectedProbabilisticScore() == PtmScore.AScore) {
-                                                writeCvTerm(new CvTerm("PSI-MS", "MS:1002554", "peptide:Ascore", ptmIndex + ":" + score + ":" + site + ":" + valid));
+                                                appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1002554", "peptide:Ascore", ptmIndex + ":" + score + ":" + site + ":" + valid));
                                             } else if (ptmScoringPreferences.getSelectedProbabilisticScore() == PtmScore.PhosphoRS) {
-                                                writeCvTerm(new CvTerm("PSI-MS", "MS:1002553", "peptide:phosphoRS score", ptmIndex + ":" + score + ":" + site + ":" + valid));
+                                                appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1002553", "peptide:phosphoRS score", ptmIndex + ":" + score + ":" + site + ":" + valid));
                                             }
                                         }
                                     }
@@ -1532,8 +1572,8 @@ public class MzIdentMLExport {
                                         if (score < dScoreThreshold) {
                                             valid = "false";
                                         }
-                                        writeCvTerm(new CvTerm("PSI-MS", "MS:1002556", "peptide:D-Score", ptmIndex + ":" + score + ":" + site + ":" + valid));
-                                        //writeCvTerm(new CvTerm("PSI-MS", "MS:1002542", "PeptideShaker PTM confidence type", "???")); // @TODO: can be at both the psm and peptide level...
+                                        appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1002556", "peptide:D-Score", ptmIndex + ":" + score + ":" + site + ":" + valid));
+                                        //appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1002542", "PeptideShaker PTM confidence type", "???")); // @TODO: can be at both the psm and peptide level...
                                     }
                                 }
                             }
@@ -1577,50 +1617,150 @@ public class MzIdentMLExport {
             for (int tempAdvocate : algorithms) {
                 double eValue = scores.get(tempAdvocate);
                 if (tempAdvocate == Advocate.msgf.getIndex()) {
-                    writeCvTerm(new CvTerm("PSI-MS", "MS:1002052", "MS-GF:SpecEValue", Double.toString(eValue)));
+                    appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1002052", "MS-GF:SpecEValue", Double.toString(eValue)));
                 } else if (tempAdvocate == Advocate.mascot.getIndex()) {
-                    writeCvTerm(new CvTerm("PSI-MS", "MS:1001172", "Mascot:expectation value", Double.toString(eValue)));
+                    appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1001172", "Mascot:expectation value", Double.toString(eValue)));
                 } else if (tempAdvocate == Advocate.omssa.getIndex()) {
-                    writeCvTerm(new CvTerm("PSI-MS", "MS:1001328", "OMSSA:evalue", Double.toString(eValue)));
+                    appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1001328", "OMSSA:evalue", Double.toString(eValue)));
                 } else if (tempAdvocate == Advocate.xtandem.getIndex()) {
-                    writeCvTerm(new CvTerm("PSI-MS", "MS:1001330", "X!Tandem:expect", Double.toString(eValue)));
+                    appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1001330", "X!Tandem:expect", Double.toString(eValue)));
                 } else if (tempAdvocate == Advocate.comet.getIndex()) {
-                    writeCvTerm(new CvTerm("PSI-MS", "MS:1002257", "Comet:expectation value", Double.toString(eValue)));
+                    appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1002257", "Comet:expectation value", Double.toString(eValue)));
                 } else if (tempAdvocate == Advocate.myriMatch.getIndex()) {
-                    writeCvTerm(new CvTerm("PSI-MS", "MS:1001589", "MyriMatch:MVH", Double.toString(eValue)));
+                    appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1001589", "MyriMatch:MVH", Double.toString(eValue)));
                 } else {
-                    writeUserParam(Advocate.getAdvocate(tempAdvocate).getName() + " e-value", "" + eValue); // @TODO: add Tide if Tide CV term is added
+                    appendUserParam(psmXml, tabs, Advocate.getAdvocate(tempAdvocate).getName() + " e-value", "" + eValue); // @TODO: add Tide if Tide CV term is added
                 }
             }
 
             // add the additional search engine scores
             if (mascotScore != null) {
-                writeCvTerm(new CvTerm("PSI-MS", "MS:1001171", "Mascot:score", "" + mascotScore));
+                appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1001171", "Mascot:score", "" + mascotScore));
             }
             if (msAmandaScore != null) {
-                writeCvTerm(new CvTerm("PSI-MS", "MS:1002319", "Amanda:AmandaScore", "" + msAmandaScore));
+                appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1002319", "Amanda:AmandaScore", "" + msAmandaScore));
             }
 
             // add other cv and user params
-            writeCvTerm(new CvTerm("PSI-MS", "MS:1001117", "theoretical mass", String.valueOf(bestPeptideAssumption.getTheoreticMass())));
+            appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1001117", "theoretical mass", String.valueOf(bestPeptideAssumption.getTheoreticMass())));
 
             // add validation level information
-            writeCvTerm(new CvTerm("PSI-MS", "MS:1002543", "PeptideShaker PSM confidence type", psmParameter.getMatchValidationLevel().getName()));
-            tabCounter--;
-            br.write(getCurrentTabSpace() + "</SpectrumIdentificationItem>" + System.getProperty("line.separator"));
+            appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1002543", "PeptideShaker PSM confidence type", psmParameter.getMatchValidationLevel().getName()));
+            tabs--;
+            psmXml.append(getTabSpace(tabs)).append("</SpectrumIdentificationItem>" + System.getProperty("line.separator"));
 
             // add the spectrum title
-            writeCvTerm(new CvTerm("PSI-MS", "MS:1000796", "spectrum title", spectrumTitleHtml));
+            appendCvTerm(psmXml, tabs, new CvTerm("PSI-MS", "MS:1000796", "spectrum title", spectrumTitleHtml));
 
             // add the precursor retention time
             Precursor precursor = spectrumFactory.getPrecursor(psmKey);
             if (precursor != null) {
-                br.write(getCurrentTabSpace() + "<cvParam cvRef=\"PSI-MS\" accession=\"MS:1000894\" name=\"retention time\" value=\"" + String.valueOf(precursor.getRt()) + "\" "
+                psmXml.append(getTabSpace(tabs)).append("<cvParam cvRef=\"PSI-MS\" accession=\"MS:1000894\" name=\"retention time\" value=\"" + String.valueOf(precursor.getRt()) + "\" "
                         + "unitCvRef=\"UO\" unitAccession=\"UO:0000010\" unitName=\"seconds\"/>" + System.getProperty("line.separator"));
             }
 
-            tabCounter--;
-            br.write(getCurrentTabSpace() + "</SpectrumIdentificationResult>" + System.getProperty("line.separator"));
+            tabs--;
+            psmXml.append(getTabSpace(tabs)).append("</SpectrumIdentificationResult>" + System.getProperty("line.separator"));
+        }
+
+        return psmXml.toString();
+    }
+
+    /**
+     * Returns the XML produced by a PsmXmlWriter.
+     *
+     * @param future the future of the writer
+     *
+     * @return the XML
+     *
+     * @throws IOException Exception thrown whenever an error occurred while
+     * reading/writing a file
+     * @throws ClassNotFoundException Exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while writing the export
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while reading an mzML file
+     */
+    private static String getResult(Future<String> future) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            if (cause instanceof MzMLUnmarshallerException) {
+                throw (MzMLUnmarshallerException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("An error occurred while writing the PSMs: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Callable returning the XML of a batch of PSMs.
+     */
+    private class PsmXmlWriter implements Callable<String> {
+
+        /**
+         * The keys of the PSMs to write.
+         */
+        private final ArrayList<String> psmKeys;
+        /**
+         * The index of the first PSM.
+         */
+        private final int firstIndex;
+        /**
+         * The number of tabs at the beginning of the first line of every PSM.
+         */
+        private final int tabs;
+        /**
+         * The spectrum annotator of this writer.
+         */
+        private final PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+
+        /**
+         * Constructor.
+         *
+         * @param psmKeys the keys of the PSMs to write
+         * @param firstIndex the index of the first PSM
+         * @param tabs the number of tabs at the beginning of the first line
+         * of every PSM
+         */
+        public PsmXmlWriter(ArrayList<String> psmKeys, int firstIndex, int tabs) {
+            this.psmKeys = psmKeys;
+            this.firstIndex = firstIndex;
+            this.tabs = tabs;
+        }
+
+        @Override
+        public String call() throws Exception {
+            StringBuilder xml = new StringBuilder();
+            int psmIndex = firstIndex;
+            for (String psmKey : psmKeys) {
+                if (waitingHandler.isRunCanceled()) {
+                    break;
+                }
+                xml.append(getSpectrumIdentificationResult(psmKey, psmIndex++, tabs, peptideSpectrumAnnotator));
+            }
+            return xml.toString();
         }
     }
 
@@ -1821,8 +1961,19 @@ public class MzIdentMLExport {
      * @return the tabs in the beginning of each line as a string
      */
     private String getCurrentTabSpace() {
+        return getTabSpace(tabCounter);
+    }
 
-        switch (tabCounter) {
+    /**
+     * Convenience method returning the tabs in the beginning of a line.
+     *
+     * @param tabs the number of tabs
+     *
+     * @return the tabs in the beginning of the line as a string
+     */
+    private static String getTabSpace(int tabs) {
+
+        switch (tabs) {
             case 0:
                 return "";
             case 1:
@@ -1862,16 +2013,29 @@ public class MzIdentMLExport {
      * reading/writing a file
      */
     private void writeCvTerm(CvTerm cvTerm) throws IOException {
+        StringBuilder cvTermXml = new StringBuilder();
+        appendCvTerm(cvTermXml, tabCounter, cvTerm);
+        br.write(cvTermXml.toString());
+    }
 
-        br.write(getCurrentTabSpace() + "<cvParam "
-                + "cvRef=\"" + cvTerm.getOntology() + "\" "
-                + "accession=\"" + cvTerm.getAccession() + "\" "
-                + "name=\"" + cvTerm.getName() + "\"");
+    /**
+     * Convenience method appending a CV Term to the given XML.
+     *
+     * @param xml the XML
+     * @param tabs the number of tabs at the beginning of the line
+     * @param cvTerm the cvTerm
+     */
+    private static void appendCvTerm(StringBuilder xml, int tabs, CvTerm cvTerm) {
+
+        xml.append(getTabSpace(tabs)).append("<cvParam ")
+                .append("cvRef=\"").append(cvTerm.getOntology()).append("\" ")
+                .append("accession=\"").append(cvTerm.getAccession()).append("\" ")
+                .append("name=\"").append(cvTerm.getName()).append("\"");
 
         if (cvTerm.getValue() != null) {
-            br.write(" value=\"" + cvTerm.getValue() + "\"/>" + System.getProperty("line.separator"));
+            xml.append(" value=\"").append(cvTerm.getValue()).append("\"/>").append(System.getProperty("line.separator"));
         } else {
-            br.write("/>" + System.getProperty("line.separator"));
+            xml.append("/>").append(System.getProperty("line.separator"));
         }
     }
 
@@ -1891,6 +2055,46 @@ public class MzIdentMLExport {
      * @param value the value of the user parameter
      */
     private void writeUserParam(String name, String value) throws IOException {
-        br.write(getCurrentTabSpace() + "<userParam name=\"" + name + "\" value=\"" + value + "\" />" + System.getProperty("line.separator"));
+        StringBuilder userParamXml = new StringBuilder();
+        appendUserParam(userParamXml, tabCounter, name, value);
+        br.write(userParamXml.toString());
+    }
+
+    /**
+     * Convenience method appending a user parameter to the given XML.
+     *
+     * @param xml the XML
+     * @param tabs the number of tabs at the beginning of the line
+     * @param name the name of the user parameter
+     * @param value the value of the user parameter
+     */
+    private static void appendUserParam(StringBuilder xml, int tabs, String name, String value) {
+        xml.append(getTabSpace(tabs)).append("<userParam name=\"").append(name).append("\" value=\"").append(value).append("\" />").append(System.getProperty("line.separator"));
+    }
+
+    /**
+     * Appends a value to a space separated list of values.
+     *
+     * @param values the list of values
+     * @param value the value to append
+     */
+    private static void appendValue(StringBuilder values, int value) {
+        if (values.length() > 0) {
+            values.append(' ');
+        }
+        values.append(value);
+    }
+
+    /**
+     * Appends a value to a space separated list of values.
+     *
+     * @param values the list of values
+     * @param value the value to append
+     */
+    private static void appendValue(StringBuilder values, double value) {
+        if (values.length() > 0) {
+            values.append(' ');
+        }
+        values.append(value);
     }
 }
@@ -0,0 +1,107 @@
+package eu.isas.peptideshaker.export;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Opens the writers used to export large files. Files are written through a
+ * large buffer and compressed on the fly when their name ends with the gzip
+ * extension.
+ *
+ * @author Marc Vaudel
+ */
+public class OutputFileWriter {
+
+    /**
+     * The extension of gzipped files.
+     */
+    public static final String GZIP_EXTENSION = ".gz";
+    /**
+     * The size of the write buffers in bytes.
+     */
+    public static final int BUFFER_SIZE = 1024 * 1024;
+    /**
+     * The compression level used by default by the deflater.
+     */
+    public static final int DEFAULT_COMPRESSION_LEVEL = 6;
+
+    /**
+     * Empty default constructor.
+     */
+    private OutputFileWriter() {
+    }
+
+    /**
+     * Indicates whether the given file will be gzipped, i.e. whether its name
+     * ends with the gzip extension.
+     *
+     * @param outputFile the output file
+     *
+     * @return a boolean indicating whether the given file will be gzipped
+     */
+    public static boolean isGzipped(File outputFile) {
+        return outputFile.getName().toLowerCase().endsWith(GZIP_EXTENSION);
+    }
+
+    /**
+     * Returns a buffered writer for the given file. If the name of the file
+     * ends with the gzip extension, the content is compressed while writing.
+     *
+     * @param outputFile the output file
+     * @param encoding the character encoding, should match the encoding
+     * declared in the file
+     * @param compressionLevel the compression level between 0 and 9, null for
+     * the default level. Ignored if the file is not gzipped
+     *
+     * @return a buffered writer for the given file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * opening the file
+     */
+    public static BufferedWriter getWriter(File outputFile, String encoding, Integer compressionLevel) throws IOException {
+        if (compressionLevel != null && (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Compression level " + compressionLevel + " not supported, should be between "
+                    + Deflater.NO_COMPRESSION + " and " + Deflater.BEST_COMPRESSION + ".");
+        }
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(outputFile), BUFFER_SIZE);
+        try {
+            if (isGzipped(outputFile)) {
+                outputStream = new LevelGzipOutputStream(outputStream, compressionLevel);
+            }
+            return new BufferedWriter(new OutputStreamWriter(outputStream, encoding), BUFFER_SIZE);
+        } catch (IOException e) {
+            outputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gzip output stream with a configurable compression level.
+     */
+    private static class LevelGzipOutputStream extends GZIPOutputStream {
+
+        /**
+         * Constructor.
+         *
+         * @param outputStream the stream to write the compressed content to
+         * @param compressionLevel the compression level, null for the default
+         * level
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the gzip header
+         */
+        public LevelGzipOutputStream(OutputStream outputStream, Integer compressionLevel) throws IOException {
+            super(outputStream, BUFFER_SIZE);
+            if (compressionLevel != null) {
+                def.setLevel(compressionLevel);
+            }
+        }
+    }
+}
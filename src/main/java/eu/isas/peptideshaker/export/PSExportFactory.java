@@ -38,6 +38,7 @@ import eu.isas.peptideshaker.myparameters.PSMaps;
 import eu.isas.peptideshaker.preferences.ProjectDetails;
 import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
+import eu.isas.peptideshaker.utils.SpectrumFileLoader;
 import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
@@ -248,6 +249,8 @@ public class PSExportFactory implements ExportFactory {
      * @param identificationParameters the identification parameters
      * @param spectrumCountingPreferences the spectrum counting preferences
      * (mandatory for the spectrum counting section)
+     * @param nThreads the number of threads to use to compute the lines of
+     * the Protein, Peptide and PSM sections
      * @param waitingHandler the waiting handler
      *
      * @throws IOException thrown if an IOException occurs
@@ -262,7 +265,7 @@ public class PSExportFactory implements ExportFactory {
             ProjectDetails projectDetails, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
             ArrayList<String> proteinKeys, ArrayList<String> peptideKeys, ArrayList<String> psmKeys,
             String proteinMatchKey, int nSurroundingAA, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters,
-            SpectrumCountingPreferences spectrumCountingPreferences, WaitingHandler waitingHandler)
+            SpectrumCountingPreferences spectrumCountingPreferences, int nThreads, WaitingHandler waitingHandler)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
 
         ExportWriter exportWriter = ExportWriter.getExportWriter(exportFormat, destinationFile, exportScheme.getSeparator(), exportScheme.getSeparationLines());
@@ -274,6 +277,11 @@ public class PSExportFactory implements ExportFactory {
 
         exportWriter.writeMainTitle(exportScheme.getMainTitle());
 
+        // spectrum files are only loaded when a section needs them
+        if (needsSpectra(exportScheme)) {
+            SpectrumFileLoader.getInstance().loadAllSpectrumFiles(waitingHandler);
+        }
+
         for (String sectionName : exportScheme.getSections()) {
             if (exportScheme.isIncludeSectionTitles()) {
                 exportWriter.startNewSection(sectionName);
@@ -287,16 +295,16 @@ public class PSExportFactory implements ExportFactory {
                 PsInputFilterSection section = new PsInputFilterSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
                 section.writeSection(identificationParameters.getIdFilter(), waitingHandler);
             } else if (sectionName.equals(PsPeptideFeature.type)) {
-                PsPeptideSection section = new PsPeptideSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
+                PsPeptideSection section = new PsPeptideSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter, nThreads);
                 section.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideKeys, nSurroundingAA, "", exportScheme.isValidatedOnly(), exportScheme.isIncludeDecoy(), waitingHandler);
             } else if (sectionName.equals(PsProjectFeature.type)) {
                 PsProjectSection section = new PsProjectSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
                 section.writeSection(experiment, sample, replicateNumber, projectDetails, waitingHandler);
             } else if (sectionName.equals(PsProteinFeature.type)) {
-                PsProteinSection section = new PsProteinSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
+                PsProteinSection section = new PsProteinSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter, nThreads);
                 section.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, psmKeys, nSurroundingAA, exportScheme.isValidatedOnly(), exportScheme.isIncludeDecoy(), waitingHandler);
             } else if (sectionName.equals(PsPsmFeature.type)) {
-                PsPsmSection section = new PsPsmSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
+                PsPsmSection section = new PsPsmSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter, nThreads);
                 section.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, psmKeys, "", exportScheme.isValidatedOnly(), exportScheme.isIncludeDecoy(), waitingHandler);
             } else if (sectionName.equals(PsIdentificationAlgorithmMatchesFeature.type)) {
                 PsIdentificationAlgorithmMatchesSection section = new PsIdentificationAlgorithmMatchesSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
@@ -323,6 +331,30 @@ public class PSExportFactory implements ExportFactory {
         exportWriter.close();
     }
 
+    /**
+     * Indicates whether the export of the given scheme needs the spectra, i.e.
+     * whether any of its sections contains PSM, identification algorithm
+     * matches or fragment features. The features are inspected rather than
+     * the section names since the protein and peptide sections export the
+     * PSM features of their matches in nested sections.
+     *
+     * @param exportScheme the export scheme
+     *
+     * @return a boolean indicating whether the export needs the spectra
+     */
+    public static boolean needsSpectra(ExportScheme exportScheme) {
+        for (String sectionName : exportScheme.getSections()) {
+            for (ExportFeature exportFeature : exportScheme.getExportFeatures(sectionName)) {
+                if (exportFeature instanceof PsPsmFeature
+                        || exportFeature instanceof PsIdentificationAlgorithmMatchesFeature
+                        || exportFeature instanceof PsFragmentFeature) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Writes the documentation related to a report.
      *
@@ -41,6 +41,7 @@ import eu.isas.peptideshaker.scoring.ProteinMap;
 import eu.isas.peptideshaker.scoring.PsmSpecificMap;
 import eu.isas.peptideshaker.scoring.PtmScoring;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
+import eu.isas.peptideshaker.utils.SpectrumFileLoader;
 import java.io.*;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -93,10 +94,6 @@ public class PrideXmlExport {
      * The instrument utilities PRIDE object.
      */
     private Instrument instrument;
-    /**
-     * The fileWriter.
-     */
-    private FileWriter r;
     /**
      * The buffered writer which will write the results in the desired file.
      */
@@ -196,6 +193,8 @@ public class PrideXmlExport {
      * @param instrument Instruments used in this experiment
      * @param outputFolder Output folder
      * @param fileName the file name without extension
+     * @param compressionLevel the gzip compression level between 0 and 9, null
+     * to write an uncompressed file
      * @param waitingHandler waiting handler used to display progress to the
      * user and interrupt the process
      *
@@ -210,7 +209,7 @@ public class PrideXmlExport {
             SpectrumCountingPreferences spectrumCountingPreferences, IdentificationFeaturesGenerator identificationFeaturesGenerator, PeptideSpectrumAnnotator spectrumAnnotator,
             String experimentTitle, String experimentLabel, String experimentDescription, String experimentProject,
             ReferenceGroup referenceGroup, ContactGroup contactGroup, Sample sample, Protocol protocol, Instrument instrument,
-            File outputFolder, String fileName, WaitingHandler waitingHandler) throws FileNotFoundException, IOException, ClassNotFoundException {
+            File outputFolder, String fileName, Integer compressionLevel, WaitingHandler waitingHandler) throws FileNotFoundException, IOException, ClassNotFoundException {
         this.peptideShakerVersion = peptideShakerVersion;
         this.identification = identification;
         this.projectDetails = projectDetails;
@@ -231,8 +230,21 @@ public class PrideXmlExport {
         this.waitingHandler = waitingHandler;
         PrideObjectsFactory prideObjectsFactory = PrideObjectsFactory.getInstance();
         ptmToPrideMap = prideObjectsFactory.getPtmToPrideMap();
-        r = new FileWriter(new File(outputFolder, fileName + ".xml"));
-        br = new BufferedWriter(r);
+        br = OutputFileWriter.getWriter(getOutputFile(outputFolder, fileName, compressionLevel != null), "ISO-8859-1", compressionLevel);
+    }
+
+    /**
+     * Returns the PRIDE XML file written for the given folder and file name.
+     *
+     * @param outputFolder the output folder
+     * @param fileName the file name without extension
+     * @param compressed indicates whether the file is gzipped
+     *
+     * @return the PRIDE XML file
+     */
+    public static File getOutputFile(File outputFolder, String fileName, boolean compressed) {
+        String extension = compressed ? ".xml" + OutputFileWriter.GZIP_EXTENSION : ".xml";
+        return new File(outputFolder, fileName + extension);
     }
 
     /**
@@ -272,10 +284,12 @@ public class PrideXmlExport {
 
         if (waitingHandler.isRunCanceled()) {
             br.close();
-            r.close();
             return;
         }
 
+        // the spectrum files of opened projects are loaded on demand
+        SpectrumFileLoader.getInstance().loadAllSpectrumFiles(waitingHandler);
+
         // get the spectrum count
         totalProgress = 0;
         for (String mgfFile : spectrumFactory.getMgfFileNames()) {
@@ -288,7 +302,6 @@ public class PrideXmlExport {
 
         if (waitingHandler.isRunCanceled()) {
             br.close();
-            r.close();
             return;
         }
 
@@ -297,7 +310,6 @@ public class PrideXmlExport {
 
         if (waitingHandler.isRunCanceled()) {
             br.close();
-            r.close();
             return;
         }
 
@@ -306,7 +318,6 @@ public class PrideXmlExport {
 
         if (waitingHandler.isRunCanceled()) {
             br.close();
-            r.close();
             return;
         }
 
@@ -315,7 +326,6 @@ public class PrideXmlExport {
 
         if (waitingHandler.isRunCanceled()) {
             br.close();
-            r.close();
             return;
         }
 
@@ -323,7 +333,6 @@ public class PrideXmlExport {
         writeExperimentCollectionEndTag();
 
         br.close();
-        r.close();
     }
 
     /**
@@ -0,0 +1,180 @@
+package eu.isas.peptideshaker.export.sections;
+
+import com.compomics.util.io.export.ExportWriter;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
+
+/**
+ * Writes the lines of a section computed on a pool of threads. The lines are
+ * submitted in the order of the matches and written in the same order by the
+ * thread submitting them, so that at most a few lines per thread are kept in
+ * memory.
+ *
+ * @author Marc Vaudel
+ */
+public class ParallelRowWriter {
+
+    /**
+     * The writer used to send the output to file.
+     */
+    private final ExportWriter writer;
+    /**
+     * The pool computing the lines.
+     */
+    private final ExecutorService pool;
+    /**
+     * The lines submitted and not written yet, in the order of submission.
+     */
+    private final LinkedList<Future<ArrayList<String>>> pending = new LinkedList<Future<ArrayList<String>>>();
+    /**
+     * The maximal number of lines waiting to be written.
+     */
+    private final int maxPending;
+
+    /**
+     * Constructor.
+     *
+     * @param writer the writer used to send the output to file
+     * @param nThreads the number of threads computing the lines
+     */
+    public ParallelRowWriter(ExportWriter writer, int nThreads) {
+        this.writer = writer;
+        pool = Executors.newFixedThreadPool(nThreads);
+        maxPending = 4 * nThreads;
+    }
+
+    /**
+     * Submits a line for computation. The line is given as the list of its
+     * cells. The oldest line is written if too many lines are waiting.
+     *
+     * @param line the callable computing the cells of the line
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing or computing a line
+     * @throws SQLException thrown whenever an error occurred while interacting
+     * with the database
+     * @throws ClassNotFoundException thrown whenever an error occurred while
+     * deserializing a match from the database
+     * @throws InterruptedException thrown whenever a threading error occurred
+     * @throws MzMLUnmarshallerException thrown whenever an error occurred while
+     * reading an mzML file
+     */
+    public void submit(Callable<ArrayList<String>> line) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+        pending.add(pool.submit(line));
+        if (pending.size() >= maxPending) {
+            writeLine(pending.removeFirst());
+        }
+    }
+
+    /**
+     * Writes all waiting lines and stops the pool.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing or computing a line
+     * @throws SQLException thrown whenever an error occurred while interacting
+     * with the database
+     * @throws ClassNotFoundException thrown whenever an error occurred while
+     * deserializing a match from the database
+     * @throws InterruptedException thrown whenever a threading error occurred
+     * @throws MzMLUnmarshallerException thrown whenever an error occurred while
+     * reading an mzML file
+     */
+    public void close() throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+        try {
+            while (!pending.isEmpty()) {
+                writeLine(pending.removeFirst());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        if (!pool.awaitTermination(1, TimeUnit.DAYS)) {
+            throw new InterruptedException("Export timed out. Please contact the developers.");
+        }
+    }
+
+    /**
+     * Discards the waiting lines and stops the pool.
+     */
+    public void cancel() {
+        pending.clear();
+        pool.shutdownNow();
+    }
+
+    /**
+     * Waits for the given line to be computed and writes it.
+     *
+     * @param line the future of the line
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing or computing a line
+     * @throws SQLException thrown whenever an error occurred while interacting
+     * with the database
+     * @throws ClassNotFoundException thrown whenever an error occurred while
+     * deserializing a match from the database
+     * @throws InterruptedException thrown whenever a threading error occurred
+     * @throws MzMLUnmarshallerException thrown whenever an error occurred while
+     * reading an mzML file
+     */
+    private void writeLine(Future<ArrayList<String>> line) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+        ArrayList<String> cells;
+        try {
+            cells = line.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            if (cause instanceof MzMLUnmarshallerException) {
+                throw (MzMLUnmarshallerException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("An error occurred while exporting a line: " + cause.getMessage(), cause);
+        }
+        writeLine(writer, cells);
+    }
+
+    /**
+     * Writes a line given as the list of its cells.
+     *
+     * @param writer the writer used to send the output to file
+     * @param cells the cells of the line
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the line
+     */
+    public static void writeLine(ExportWriter writer, ArrayList<String> cells) throws IOException {
+        boolean first = true;
+        for (String cell : cells) {
+            if (!first) {
+                writer.addSeparator();
+            } else {
+                first = false;
+            }
+            writer.write(cell);
+        }
+        writer.newLine();
+    }
+}
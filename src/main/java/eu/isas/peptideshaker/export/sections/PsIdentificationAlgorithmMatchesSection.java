@@ -67,9 +67,15 @@ public class PsIdentificationAlgorithmMatchesSection {
      */
     private ExportWriter writer;
     /**
-     * A peptide spectrum annotator.
+     * A peptide spectrum annotator per thread, the annotator is not thread
+     * safe and the lines are written by multiple threads.
      */
-    private static final PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+    private static final ThreadLocal<PeptideSpectrumAnnotator> peptideSpectrumAnnotator = new ThreadLocal<PeptideSpectrumAnnotator>() {
+        @Override
+        protected PeptideSpectrumAnnotator initialValue() {
+            return new PeptideSpectrumAnnotator();
+        }
+    };
 
     /**
      * Constructor.
@@ -464,7 +470,7 @@ public class PsIdentificationAlgorithmMatchesSection {
                 Peptide peptide = peptideAssumption.getPeptide();
                 AnnotationPreferences annotationPreferences = identificationParameters.getAnnotationPreferences();
                 SpecificAnnotationPreferences specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrumKey, peptideAssumption, identificationParameters.getSequenceMatchingPreferences());
-                ArrayList<IonMatch> matches = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences,
+                ArrayList<IonMatch> matches = peptideSpectrumAnnotator.get().getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences,
                         (MSnSpectrum) spectrum, peptide);
                 for (IonMatch ionMatch : matches) {
                     coveredIntensity += ionMatch.peak.intensity;
@@ -530,7 +536,7 @@ public class PsIdentificationAlgorithmMatchesSection {
                 spectrum = SpectrumFactory.getInstance().getSpectrum(spectrumKey);
                 annotationPreferences = identificationParameters.getAnnotationPreferences();
                 specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrumKey, peptideAssumption, identificationParameters.getSequenceMatchingPreferences());
-                matches = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences, (MSnSpectrum) spectrum, peptide);
+                matches = peptideSpectrumAnnotator.get().getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences, (MSnSpectrum) spectrum, peptide);
                 int sequenceLength = peptide.getSequence().length();
                 boolean[] aaCoverage = new boolean[sequenceLength];
                 for (IonMatch ionMatch : matches) {
@@ -554,7 +560,7 @@ public class PsIdentificationAlgorithmMatchesSection {
                 spectrum = SpectrumFactory.getInstance().getSpectrum(spectrumKey);
                 annotationPreferences = identificationParameters.getAnnotationPreferences();
                 specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrumKey, peptideAssumption, identificationParameters.getSequenceMatchingPreferences());
-                matches = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences, (MSnSpectrum) spectrum, peptide);
+                matches = peptideSpectrumAnnotator.get().getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences, (MSnSpectrum) spectrum, peptide);
                 sequence = peptide.getSequence();
                 sequenceLength = sequence.length();
                 boolean[] coverageForward = new boolean[sequenceLength];
@@ -611,7 +617,7 @@ public class PsIdentificationAlgorithmMatchesSection {
                 spectrum = SpectrumFactory.getInstance().getSpectrum(spectrumKey);
                 annotationPreferences = identificationParameters.getAnnotationPreferences();
                 specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrumKey, peptideAssumption, identificationParameters.getSequenceMatchingPreferences());
-                matches = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences, (MSnSpectrum) spectrum, peptide);
+                matches = peptideSpectrumAnnotator.get().getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences, (MSnSpectrum) spectrum, peptide);
                 sequence = peptide.getSequence();
                 sequenceLength = sequence.length();
                 HashMap<Integer, boolean[]> ionCoverage = new HashMap<Integer, boolean[]>(6);
@@ -753,7 +759,7 @@ public class PsIdentificationAlgorithmMatchesSection {
                 spectrum = SpectrumFactory.getInstance().getSpectrum(spectrumKey);
                 annotationPreferences = identificationParameters.getAnnotationPreferences();
                 specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrumKey, peptideAssumption, identificationParameters.getSequenceMatchingPreferences());
-                matches = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences, (MSnSpectrum) spectrum, peptide);
+                matches = peptideSpectrumAnnotator.get().getSpectrumAnnotation(annotationPreferences, specificAnnotationPreferences, (MSnSpectrum) spectrum, peptide);
                 sequence = peptide.getSequence();
                 sequenceLength = sequence.length();
                 coverageForward = new boolean[sequenceLength];
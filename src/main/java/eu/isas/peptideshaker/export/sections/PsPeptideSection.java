@@ -27,6 +27,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -56,6 +57,10 @@ public class PsPeptideSection {
      * The writer used to send the output to file.
      */
     private ExportWriter writer;
+    /**
+     * The number of threads computing the lines.
+     */
+    private int nThreads;
 
     /**
      * Constructor.
@@ -64,8 +69,10 @@ public class PsPeptideSection {
      * @param indexes indicates whether the line index should be written
      * @param header indicates whether the table header should be written
      * @param writer the writer which will write to the file
+     * @param nThreads the number of threads computing the lines, the lines
+     * are computed while iterating the matches if 1
      */
-    public PsPeptideSection(ArrayList<ExportFeature> exportFeatures, boolean indexes, boolean header, ExportWriter writer) {
+    public PsPeptideSection(ArrayList<ExportFeature> exportFeatures, boolean indexes, boolean header, ExportWriter writer, int nThreads) {
         ArrayList<ExportFeature> psmFeatures = new ArrayList<ExportFeature>();
         for (ExportFeature exportFeature : exportFeatures) {
             if (exportFeature instanceof PsPeptideFeature) {
@@ -78,11 +85,12 @@ public class PsPeptideSection {
         }
         Collections.sort(peptideFeatures);
         if (!psmFeatures.isEmpty()) {
-            psmSection = new PsPsmSection(psmFeatures, indexes, header, writer);
+            psmSection = new PsPsmSection(psmFeatures, indexes, header, writer, 1);
         }
         this.indexes = indexes;
         this.header = header;
         this.writer = writer;
+        this.nThreads = nThreads;
     }
 
     /**
@@ -142,62 +150,217 @@ public class PsPeptideSection {
 
         PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(keys, parameters, psmSection != null, parameters, waitingHandler);
 
-        while (peptideMatchesIterator.hasNext()) {
+        // the PSM subsection is written after every line, the lines are then computed while iterating
+        ParallelRowWriter rowWriter = null;
+        if (nThreads > 1 && psmSection == null) {
+            rowWriter = new ParallelRowWriter(writer, nThreads);
+        }
 
-            if (waitingHandler != null) {
-                if (waitingHandler.isRunCanceled()) {
-                    return;
-                }
-                waitingHandler.increaseSecondaryProgressCounter();
-            }
+        try {
+            while (peptideMatchesIterator.hasNext()) {
 
-            PeptideMatch peptideMatch = peptideMatchesIterator.next();
-            String peptideKey = peptideMatch.getKey();
-            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+                if (waitingHandler != null) {
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
 
-            if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
+                PeptideMatch peptideMatch = peptideMatchesIterator.next();
+                String peptideKey = peptideMatch.getKey();
+                psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
 
-                if (decoys || !peptideMatch.getTheoreticPeptide().isDecoy(identificationParameters.getSequenceMatchingPreferences())) {
+                if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
 
-                    boolean first = true;
+                    if (decoys || !peptideMatch.getTheoreticPeptide().isDecoy(identificationParameters.getSequenceMatchingPreferences())) {
 
-                    if (indexes) {
-                        if (linePrefix != null) {
-                            writer.write(linePrefix);
+                        String index = null;
+                        if (indexes) {
+                            index = linePrefix != null ? linePrefix + line : line + "";
                         }
-                        writer.write(line + "");
-                        first = false;
-                    }
 
-                    for (ExportFeature exportFeature : peptideFeatures) {
-                        if (!first) {
-                            writer.addSeparator();
+                        if (rowWriter != null) {
+                            rowWriter.submit(new LineCallable(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, nSurroundingAA, linePrefix, index, peptideMatch, psParameter, validatedOnly, decoys, waitingHandler));
                         } else {
-                            first = false;
-                        }
-                        PsPeptideFeature peptideFeature = (PsPeptideFeature) exportFeature;
-                        writer.write(getfeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, nSurroundingAA, linePrefix, peptideMatch, psParameter, peptideFeature, validatedOnly, decoys, waitingHandler));
-                    }
-                    writer.newLine();
-                    if (psmSection != null) {
-                        String psmSectionPrefix = "";
-                        if (linePrefix != null) {
-                            psmSectionPrefix += linePrefix;
-                        }
-                        psmSectionPrefix += line + ".";
-                        writer.increaseDepth();
-                        if (waitingHandler != null) {
-                            waitingHandler.setDisplayProgress(false);
-                        }
-                        psmSection.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideMatch.getSpectrumMatches(), psmSectionPrefix, validatedOnly, decoys, waitingHandler);
-                        if (waitingHandler != null) {
-                            waitingHandler.setDisplayProgress(true);
+                            ParallelRowWriter.writeLine(writer, getLine(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, nSurroundingAA, linePrefix, index, peptideMatch, psParameter, validatedOnly, decoys, waitingHandler));
+                            if (psmSection != null) {
+                                String psmSectionPrefix = "";
+                                if (linePrefix != null) {
+                                    psmSectionPrefix += linePrefix;
+                                }
+                                psmSectionPrefix += line + ".";
+                                writer.increaseDepth();
+                                if (waitingHandler != null) {
+                                    waitingHandler.setDisplayProgress(false);
+                                }
+                                psmSection.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideMatch.getSpectrumMatches(), psmSectionPrefix, validatedOnly, decoys, waitingHandler);
+                                if (waitingHandler != null) {
+                                    waitingHandler.setDisplayProgress(true);
+                                }
+                                writer.decreseDepth();
+                            }
                         }
-                        writer.decreseDepth();
+                        line++;
                     }
-                    line++;
                 }
             }
+            if (rowWriter != null) {
+                rowWriter.close();
+            }
+        } finally {
+            if (rowWriter != null) {
+                rowWriter.cancel();
+            }
+        }
+    }
+
+    /**
+     * Returns the cells of the line of the given peptide.
+     *
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param shotgunProtocol information on the shotgun protocol
+     * @param identificationParameters the identification parameters
+     * @param keys the keys of the protein matches to output
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * @param linePrefix the line prefix to use.
+     * @param index the index of the line, null if not written
+     * @param peptideMatch the peptide match
+     * @param psParameter the PeptideShaker parameters of the match
+     * @param validatedOnly whether only validated matches should be exported
+     * @param decoys whether decoy matches should be exported as well
+     * @param waitingHandler the waiting handler
+     *
+     * @return the cells of the line
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with a file
+     * @throws SQLException thrown whenever an error occurred while interacting
+     * with the database
+     * @throws ClassNotFoundException thrown whenever an error occurred while
+     * deserializing a match from the database
+     * @throws InterruptedException thrown whenever a threading error occurred
+     * while interacting with the database
+     * @throws MzMLUnmarshallerException thrown whenever an error occurred while
+     * reading an mzML file
+     */
+    private ArrayList<String> getLine(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys, int nSurroundingAA, String linePrefix, String index,
+            PeptideMatch peptideMatch, PSParameter psParameter, boolean validatedOnly, boolean decoys, WaitingHandler waitingHandler)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+
+        ArrayList<String> cells = new ArrayList<String>(peptideFeatures.size() + 1);
+
+        if (index != null) {
+            cells.add(index);
+        }
+        for (PsPeptideFeature peptideFeature : peptideFeatures) {
+            cells.add(getfeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, nSurroundingAA, linePrefix, peptideMatch, psParameter, peptideFeature, validatedOnly, decoys, waitingHandler));
+        }
+
+        return cells;
+    }
+
+    /**
+     * Callable computing the cells of the line of a peptide.
+     */
+    private class LineCallable implements Callable<ArrayList<String>> {
+
+        /**
+         * The identification of the project.
+         */
+        private final Identification identification;
+        /**
+         * The identification features generator of the project.
+         */
+        private final IdentificationFeaturesGenerator identificationFeaturesGenerator;
+        /**
+         * Information on the shotgun protocol.
+         */
+        private final ShotgunProtocol shotgunProtocol;
+        /**
+         * The identification parameters.
+         */
+        private final IdentificationParameters identificationParameters;
+        /**
+         * The keys of the protein matches to output.
+         */
+        private final ArrayList<String> keys;
+        /**
+         * The number of surrounding amino acids to export.
+         */
+        private final int nSurroundingAA;
+        /**
+         * The line prefix.
+         */
+        private final String linePrefix;
+        /**
+         * The index of the line, null if not written.
+         */
+        private final String index;
+        /**
+         * The peptide match.
+         */
+        private final PeptideMatch peptideMatch;
+        /**
+         * The PeptideShaker parameters of the match.
+         */
+        private final PSParameter psParameter;
+        /**
+         * Whether only validated matches should be exported.
+         */
+        private final boolean validatedOnly;
+        /**
+         * Whether decoy matches should be exported as well.
+         */
+        private final boolean decoys;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param identification the identification of the project
+         * @param identificationFeaturesGenerator the identification features
+         * generator of the project
+         * @param shotgunProtocol information on the shotgun protocol
+         * @param identificationParameters the identification parameters
+         * @param keys the keys of the protein matches to output
+         * @param nSurroundingAA the number of surrounding amino acids to
+         * export
+         * @param linePrefix the line prefix to use.
+         * @param index the index of the line, null if not written
+         * @param peptideMatch the peptide match
+         * @param psParameter the PeptideShaker parameters of the match
+         * @param validatedOnly whether only validated matches should be
+         * exported
+         * @param decoys whether decoy matches should be exported as well
+         * @param waitingHandler the waiting handler
+         */
+        public LineCallable(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+                ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys, int nSurroundingAA, String linePrefix, String index,
+                PeptideMatch peptideMatch, PSParameter psParameter, boolean validatedOnly, boolean decoys, WaitingHandler waitingHandler) {
+            this.identification = identification;
+            this.identificationFeaturesGenerator = identificationFeaturesGenerator;
+            this.shotgunProtocol = shotgunProtocol;
+            this.identificationParameters = identificationParameters;
+            this.keys = keys;
+            this.nSurroundingAA = nSurroundingAA;
+            this.linePrefix = linePrefix;
+            this.index = index;
+            this.peptideMatch = peptideMatch;
+            this.psParameter = psParameter;
+            this.validatedOnly = validatedOnly;
+            this.decoys = decoys;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public ArrayList<String> call() throws Exception {
+            return getLine(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, nSurroundingAA, linePrefix, index, peptideMatch, psParameter, validatedOnly, decoys, waitingHandler);
         }
     }
 
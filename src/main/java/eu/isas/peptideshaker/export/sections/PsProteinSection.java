@@ -30,6 +30,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.util.FastMath;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
@@ -62,6 +63,10 @@ public class PsProteinSection {
      * The writer used to send the output to file.
      */
     private ExportWriter writer;
+    /**
+     * The number of threads computing the lines.
+     */
+    private int nThreads;
 
     /**
      * Constructor.
@@ -72,8 +77,10 @@ public class PsProteinSection {
      * @param indexes indicates whether the line index should be written
      * @param header indicates whether the table header should be written
      * @param writer the writer which will write to the file
+     * @param nThreads the number of threads computing the lines, the lines
+     * are computed while iterating the matches if 1
      */
-    public PsProteinSection(ArrayList<ExportFeature> exportFeatures, boolean indexes, boolean header, ExportWriter writer) {
+    public PsProteinSection(ArrayList<ExportFeature> exportFeatures, boolean indexes, boolean header, ExportWriter writer, int nThreads) {
         ArrayList<ExportFeature> peptideFeatures = new ArrayList<ExportFeature>();
         for (ExportFeature exportFeature : exportFeatures) {
             if (exportFeature instanceof PsProteinFeature) {
@@ -86,11 +93,12 @@ public class PsProteinSection {
         }
         Collections.sort(proteinFeatures);
         if (!peptideFeatures.isEmpty()) {
-            peptideSection = new PsPeptideSection(peptideFeatures, indexes, header, writer);
+            peptideSection = new PsPeptideSection(peptideFeatures, indexes, header, writer, 1);
         }
         this.indexes = indexes;
         this.header = header;
         this.writer = writer;
+        this.nThreads = nThreads;
     }
 
     /**
@@ -151,55 +159,186 @@ public class PsProteinSection {
         ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(
                 keys, parameters, peptideSection != null, parameters, peptideSection != null, parameters, waitingHandler); // @TODO: find a better way to know if we need psms
 
-        while (proteinMatchesIterator.hasNext()) {
+        // the peptide subsection is written after every line, the lines are then computed while iterating
+        ParallelRowWriter rowWriter = null;
+        if (nThreads > 1 && peptideSection == null) {
+            rowWriter = new ParallelRowWriter(writer, nThreads);
+        }
 
-            if (waitingHandler != null) {
-                if (waitingHandler.isRunCanceled()) {
-                    return;
-                }
-                waitingHandler.increaseSecondaryProgressCounter();
-            }
+        try {
+            while (proteinMatchesIterator.hasNext()) {
 
-            ProteinMatch proteinMatch = proteinMatchesIterator.next();
-            String proteinKey = proteinMatch.getKey();
+                if (waitingHandler != null) {
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
 
-            if (decoys || !ProteinMatch.isDecoy(proteinKey)) {
+                ProteinMatch proteinMatch = proteinMatchesIterator.next();
+                String proteinKey = proteinMatch.getKey();
 
-                psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+                if (decoys || !ProteinMatch.isDecoy(proteinKey)) {
 
-                if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
+                    psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
 
-                    boolean first = true;
+                    if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
 
-                    if (indexes) {
-                        writer.write(line + "");
-                        first = false;
-                    }
+                        String index = null;
+                        if (indexes) {
+                            index = line + "";
+                        }
 
-                    for (ExportFeature exportFeature : proteinFeatures) {
-                        if (!first) {
-                            writer.addSeparator();
+                        if (rowWriter != null) {
+                            rowWriter.submit(new LineCallable(identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, nSurroundingAas, index, proteinMatch, psParameter, waitingHandler));
                         } else {
-                            first = false;
-                        }
-                        PsProteinFeature tempProteinFeatures = (PsProteinFeature) exportFeature;
-                        writer.write(getFeature(identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, nSurroundingAas, proteinKey, proteinMatch, psParameter, tempProteinFeatures, waitingHandler));
-                    }
-                    writer.newLine();
-                    if (peptideSection != null) {
-                        writer.increaseDepth();
-                        if (waitingHandler != null) {
-                            waitingHandler.setDisplayProgress(false);
-                        }
-                        peptideSection.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, proteinMatch.getPeptideMatchesKeys(), nSurroundingAas, line + ".", validatedOnly, decoys, waitingHandler);
-                        if (waitingHandler != null) {
-                            waitingHandler.setDisplayProgress(true);
+                            ParallelRowWriter.writeLine(writer, getLine(identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, nSurroundingAas, index, proteinMatch, psParameter, waitingHandler));
+                            if (peptideSection != null) {
+                                writer.increaseDepth();
+                                if (waitingHandler != null) {
+                                    waitingHandler.setDisplayProgress(false);
+                                }
+                                peptideSection.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, proteinMatch.getPeptideMatchesKeys(), nSurroundingAas, line + ".", validatedOnly, decoys, waitingHandler);
+                                if (waitingHandler != null) {
+                                    waitingHandler.setDisplayProgress(true);
+                                }
+                                writer.decreseDepth();
+                            }
                         }
-                        writer.decreseDepth();
+                        line++;
                     }
-                    line++;
                 }
             }
+            if (rowWriter != null) {
+                rowWriter.close();
+            }
+        } finally {
+            if (rowWriter != null) {
+                rowWriter.cancel();
+            }
+        }
+    }
+
+    /**
+     * Returns the cells of the line of the given protein.
+     *
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param shotgunProtocol information on the shotgun protocol
+     * @param identificationParameters the identification parameters
+     * @param keys the keys of the protein matches to output
+     * @param nSurroundingAas in case a peptide export is included with
+     * surrounding amino-acids, the number of surrounding amino acids to use
+     * @param index the index of the line, null if not written
+     * @param proteinMatch the protein match
+     * @param psParameter the protein match parameter containing the
+     * PeptideShaker parameters
+     * @param waitingHandler the waiting handler
+     *
+     * @return the cells of the line
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with a file
+     * @throws SQLException thrown whenever an error occurred while interacting
+     * with the database
+     * @throws ClassNotFoundException thrown whenever an error occurred while
+     * deserializing a match from the database
+     * @throws InterruptedException thrown whenever a threading error occurred
+     * while interacting with the database
+     * @throws MzMLUnmarshallerException thrown whenever an error occurred while
+     * reading an mzML file
+     * @throws MathException exception thrown whenever an error is encountered
+     * while calculating the observable coverage
+     */
+    private ArrayList<String> getLine(IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys, int nSurroundingAas, String index,
+            ProteinMatch proteinMatch, PSParameter psParameter, WaitingHandler waitingHandler)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+
+        ArrayList<String> cells = new ArrayList<String>(proteinFeatures.size() + 1);
+
+        if (index != null) {
+            cells.add(index);
+        }
+        for (PsProteinFeature proteinFeature : proteinFeatures) {
+            cells.add(getFeature(identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, nSurroundingAas, proteinMatch.getKey(), proteinMatch, psParameter, proteinFeature, waitingHandler));
+        }
+
+        return cells;
+    }
+
+    /**
+     * Callable computing the cells of the line of a protein.
+     */
+    private class LineCallable implements Callable<ArrayList<String>> {
+
+        /**
+         * The identification features generator of the project.
+         */
+        private final IdentificationFeaturesGenerator identificationFeaturesGenerator;
+        /**
+         * Information on the shotgun protocol.
+         */
+        private final ShotgunProtocol shotgunProtocol;
+        /**
+         * The identification parameters.
+         */
+        private final IdentificationParameters identificationParameters;
+        /**
+         * The keys of the protein matches to output.
+         */
+        private final ArrayList<String> keys;
+        /**
+         * The number of surrounding amino acids to use.
+         */
+        private final int nSurroundingAas;
+        /**
+         * The index of the line, null if not written.
+         */
+        private final String index;
+        /**
+         * The protein match.
+         */
+        private final ProteinMatch proteinMatch;
+        /**
+         * The protein match parameter.
+         */
+        private final PSParameter psParameter;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param identificationFeaturesGenerator the identification features
+         * generator of the project
+         * @param shotgunProtocol information on the shotgun protocol
+         * @param identificationParameters the identification parameters
+         * @param keys the keys of the protein matches to output
+         * @param nSurroundingAas the number of surrounding amino acids to use
+         * @param index the index of the line, null if not written
+         * @param proteinMatch the protein match
+         * @param psParameter the protein match parameter
+         * @param waitingHandler the waiting handler
+         */
+        public LineCallable(IdentificationFeaturesGenerator identificationFeaturesGenerator, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters,
+                ArrayList<String> keys, int nSurroundingAas, String index, ProteinMatch proteinMatch, PSParameter psParameter, WaitingHandler waitingHandler) {
+            this.identificationFeaturesGenerator = identificationFeaturesGenerator;
+            this.shotgunProtocol = shotgunProtocol;
+            this.identificationParameters = identificationParameters;
+            this.keys = keys;
+            this.nSurroundingAas = nSurroundingAas;
+            this.index = index;
+            this.proteinMatch = proteinMatch;
+            this.psParameter = psParameter;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public ArrayList<String> call() throws Exception {
+            return getLine(identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, nSurroundingAas, index, proteinMatch, psParameter, waitingHandler);
         }
     }
 
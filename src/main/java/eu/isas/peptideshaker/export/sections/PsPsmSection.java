@@ -28,6 +28,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -61,6 +62,10 @@ public class PsPsmSection {
      * The writer used to send the output to file.
      */
     private ExportWriter writer;
+    /**
+     * The number of threads computing the lines.
+     */
+    private int nThreads;
 
     /**
      * Constructor.
@@ -69,8 +74,10 @@ public class PsPsmSection {
      * @param indexes indicates whether the line index should be written
      * @param header indicates whether the table header should be written
      * @param writer the writer which will write to the file
+     * @param nThreads the number of threads computing the lines, the lines
+     * are computed while iterating the matches if 1
      */
-    public PsPsmSection(ArrayList<ExportFeature> exportFeatures, boolean indexes, boolean header, ExportWriter writer) {
+    public PsPsmSection(ArrayList<ExportFeature> exportFeatures, boolean indexes, boolean header, ExportWriter writer, int nThreads) {
         ArrayList<ExportFeature> fragmentFeatures = new ArrayList<ExportFeature>();
         for (ExportFeature exportFeature : exportFeatures) {
             if (exportFeature instanceof PsPsmFeature) {
@@ -91,6 +98,7 @@ public class PsPsmSection {
         this.indexes = indexes;
         this.header = header;
         this.writer = writer;
+        this.nThreads = nThreads;
     }
 
     /**
@@ -162,80 +170,224 @@ public class PsPsmSection {
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
         parameters.add(psParameter);
 
-        for (String spectrumFile : psmMap.keySet()) {
+        // the fragment subsection is written after every line, the lines are then computed while iterating
+        ParallelRowWriter rowWriter = null;
+        if (nThreads > 1 && fragmentSection == null) {
+            rowWriter = new ParallelRowWriter(writer, nThreads);
+        }
 
-            PsmIterator psmIterator = identification.getPsmIterator(spectrumFile, psmMap.get(spectrumFile), parameters, !identificationAlgorithmMatchesFeatures.isEmpty(), waitingHandler);
+        try {
+            for (String spectrumFile : psmMap.keySet()) {
 
-            while (psmIterator.hasNext()) {
+                PsmIterator psmIterator = identification.getPsmIterator(spectrumFile, psmMap.get(spectrumFile), parameters, !identificationAlgorithmMatchesFeatures.isEmpty(), waitingHandler);
 
-                if (waitingHandler != null) {
-                    if (waitingHandler.isRunCanceled()) {
-                        return;
-                    }
-                    waitingHandler.increaseSecondaryProgressCounter();
-                }
+                while (psmIterator.hasNext()) {
 
-                SpectrumMatch spectrumMatch = psmIterator.next();
-                String spectrumKey = spectrumMatch.getKey();
+                    if (waitingHandler != null) {
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
 
-                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+                    SpectrumMatch spectrumMatch = psmIterator.next();
+                    String spectrumKey = spectrumMatch.getKey();
 
-                if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
+                    psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
 
-                    PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+                    if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
 
-                    if (decoys || peptideAssumption == null || !peptideAssumption.getPeptide().isDecoy(identificationParameters.getSequenceMatchingPreferences())) {
+                        PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
 
-                        boolean first = true;
+                        if (decoys || peptideAssumption == null || !peptideAssumption.getPeptide().isDecoy(identificationParameters.getSequenceMatchingPreferences())) {
 
-                        if (indexes) {
-                            if (linePrefix != null) {
-                                writer.write(linePrefix);
+                            String index = null;
+                            if (indexes) {
+                                index = linePrefix != null ? linePrefix + line : line + "";
                             }
-                            writer.write(line + "");
-                            first = false;
-                        }
-                        for (PsIdentificationAlgorithmMatchesFeature identificationAlgorithmMatchesFeature : identificationAlgorithmMatchesFeatures) {
-                            if (!first) {
-                                writer.addSeparator();
-                            } else {
-                                first = false;
-                            }
-                            String feature;
-                            if (peptideAssumption != null) {
-                                peptideAssumption = spectrumMatch.getBestPeptideAssumption();
-                                feature = PsIdentificationAlgorithmMatchesSection.getPeptideAssumptionFeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, peptideAssumption, spectrumMatch.getKey(), psParameter, identificationAlgorithmMatchesFeature, waitingHandler);
-                            } else if (spectrumMatch.getBestTagAssumption() != null) {
-                                TagAssumption tagAssumption = spectrumMatch.getBestTagAssumption();
-                                feature = PsIdentificationAlgorithmMatchesSection.getTagAssumptionFeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, tagAssumption, spectrumMatch.getKey(), psParameter, identificationAlgorithmMatchesFeature, waitingHandler);
-                            } else {
-                                throw new IllegalArgumentException("No best match found for spectrum " + spectrumMatch.getKey() + ".");
-                            }
-                            writer.write(feature);
-                        }
-                        for (PsPsmFeature psmFeature : psmFeatures) {
-                            if (!first) {
-                                writer.addSeparator();
+
+                            if (rowWriter != null) {
+                                rowWriter.submit(new LineCallable(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, index, spectrumMatch, psParameter, validatedOnly, decoys, waitingHandler));
                             } else {
-                                first = false;
-                            }
-                            writer.write(getFeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, spectrumMatch, psParameter, psmFeature, validatedOnly, decoys, waitingHandler));
-                        }
-                        writer.newLine();
-                        if (fragmentSection != null) {
-                            String fractionPrefix = "";
-                            if (linePrefix != null) {
-                                fractionPrefix += linePrefix;
+                                ParallelRowWriter.writeLine(writer, getLine(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, index, spectrumMatch, psParameter, validatedOnly, decoys, waitingHandler));
+                                if (fragmentSection != null) {
+                                    String fractionPrefix = "";
+                                    if (linePrefix != null) {
+                                        fractionPrefix += linePrefix;
+                                    }
+                                    fractionPrefix += line + ".";
+                                    writer.increaseDepth();
+                                    fragmentSection.writeSection(spectrumMatch, shotgunProtocol, identificationParameters, fractionPrefix, null);
+                                    writer.decreseDepth();
+                                }
                             }
-                            fractionPrefix += line + ".";
-                            writer.increaseDepth();
-                            fragmentSection.writeSection(spectrumMatch, shotgunProtocol, identificationParameters, fractionPrefix, null);
-                            writer.decreseDepth();
+                            line++;
                         }
-                        line++;
                     }
                 }
             }
+            if (rowWriter != null) {
+                rowWriter.close();
+            }
+        } finally {
+            if (rowWriter != null) {
+                rowWriter.cancel();
+            }
+        }
+    }
+
+    /**
+     * Returns the cells of the line of the given PSM.
+     *
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param shotgunProtocol information on the shotgun protocol
+     * @param identificationParameters the identification parameters
+     * @param keys the keys of the PSM matches to output
+     * @param linePrefix the line prefix
+     * @param index the index of the line, null if not written
+     * @param spectrumMatch the spectrum match
+     * @param psParameter the PeptideShaker parameter of the match
+     * @param validatedOnly whether only validated matches should be exported
+     * @param decoys whether decoy matches should be exported as well
+     * @param waitingHandler the waiting handler
+     *
+     * @return the cells of the line
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with a file
+     * @throws SQLException thrown whenever an error occurred while interacting
+     * with the database
+     * @throws ClassNotFoundException thrown whenever an error occurred while
+     * deserializing a match from the database
+     * @throws InterruptedException thrown whenever a threading error occurred
+     * while interacting with the database
+     * @throws MzMLUnmarshallerException thrown whenever an error occurred while
+     * reading an mzML file
+     */
+    private ArrayList<String> getLine(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys, String linePrefix, String index,
+            SpectrumMatch spectrumMatch, PSParameter psParameter, boolean validatedOnly, boolean decoys, WaitingHandler waitingHandler) throws IOException, IllegalArgumentException, SQLException,
+            ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+
+        ArrayList<String> cells = new ArrayList<String>(identificationAlgorithmMatchesFeatures.size() + psmFeatures.size() + 1);
+
+        if (index != null) {
+            cells.add(index);
+        }
+        for (PsIdentificationAlgorithmMatchesFeature identificationAlgorithmMatchesFeature : identificationAlgorithmMatchesFeatures) {
+            String feature;
+            if (spectrumMatch.getBestPeptideAssumption() != null) {
+                PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+                feature = PsIdentificationAlgorithmMatchesSection.getPeptideAssumptionFeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, peptideAssumption, spectrumMatch.getKey(), psParameter, identificationAlgorithmMatchesFeature, waitingHandler);
+            } else if (spectrumMatch.getBestTagAssumption() != null) {
+                TagAssumption tagAssumption = spectrumMatch.getBestTagAssumption();
+                feature = PsIdentificationAlgorithmMatchesSection.getTagAssumptionFeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, tagAssumption, spectrumMatch.getKey(), psParameter, identificationAlgorithmMatchesFeature, waitingHandler);
+            } else {
+                throw new IllegalArgumentException("No best match found for spectrum " + spectrumMatch.getKey() + ".");
+            }
+            cells.add(feature);
+        }
+        for (PsPsmFeature psmFeature : psmFeatures) {
+            cells.add(getFeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, spectrumMatch, psParameter, psmFeature, validatedOnly, decoys, waitingHandler));
+        }
+
+        return cells;
+    }
+
+    /**
+     * Callable computing the cells of the line of a PSM.
+     */
+    private class LineCallable implements Callable<ArrayList<String>> {
+
+        /**
+         * The identification of the project.
+         */
+        private final Identification identification;
+        /**
+         * The identification features generator of the project.
+         */
+        private final IdentificationFeaturesGenerator identificationFeaturesGenerator;
+        /**
+         * Information on the shotgun protocol.
+         */
+        private final ShotgunProtocol shotgunProtocol;
+        /**
+         * The identification parameters.
+         */
+        private final IdentificationParameters identificationParameters;
+        /**
+         * The keys of the PSM matches to output.
+         */
+        private final ArrayList<String> keys;
+        /**
+         * The line prefix.
+         */
+        private final String linePrefix;
+        /**
+         * The index of the line, null if not written.
+         */
+        private final String index;
+        /**
+         * The spectrum match.
+         */
+        private final SpectrumMatch spectrumMatch;
+        /**
+         * The PeptideShaker parameter of the match.
+         */
+        private final PSParameter psParameter;
+        /**
+         * Whether only validated matches should be exported.
+         */
+        private final boolean validatedOnly;
+        /**
+         * Whether decoy matches should be exported as well.
+         */
+        private final boolean decoys;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param identification the identification of the project
+         * @param identificationFeaturesGenerator the identification features
+         * generator of the project
+         * @param shotgunProtocol information on the shotgun protocol
+         * @param identificationParameters the identification parameters
+         * @param keys the keys of the PSM matches to output
+         * @param linePrefix the line prefix
+         * @param index the index of the line, null if not written
+         * @param spectrumMatch the spectrum match
+         * @param psParameter the PeptideShaker parameter of the match
+         * @param validatedOnly whether only validated matches should be
+         * exported
+         * @param decoys whether decoy matches should be exported as well
+         * @param waitingHandler the waiting handler
+         */
+        public LineCallable(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+                ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys, String linePrefix, String index,
+                SpectrumMatch spectrumMatch, PSParameter psParameter, boolean validatedOnly, boolean decoys, WaitingHandler waitingHandler) {
+            this.identification = identification;
+            this.identificationFeaturesGenerator = identificationFeaturesGenerator;
+            this.shotgunProtocol = shotgunProtocol;
+            this.identificationParameters = identificationParameters;
+            this.keys = keys;
+            this.linePrefix = linePrefix;
+            this.index = index;
+            this.spectrumMatch = spectrumMatch;
+            this.psParameter = psParameter;
+            this.validatedOnly = validatedOnly;
+            this.decoys = decoys;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public ArrayList<String> call() throws Exception {
+            return getLine(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, index, spectrumMatch, psParameter, validatedOnly, decoys, waitingHandler);
         }
     }
 
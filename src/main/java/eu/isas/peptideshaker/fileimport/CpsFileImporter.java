@@ -15,6 +15,7 @@ import com.compomics.util.preferences.ProcessingPreferences;
 import eu.isas.peptideshaker.PeptideShaker;
 import eu.isas.peptideshaker.myparameters.PSSettings;
 import eu.isas.peptideshaker.myparameters.PeptideShakerSettings;
+import eu.isas.peptideshaker.utils.CpsArchiveUtils;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -37,7 +38,8 @@ public class CpsFileImporter {
      * Constructor.
      *
      * @param cpsFile the cps file
-     * @param jarFilePath the path to the jar file
+     * @param projectDirectory the directory of the project where the cps file
+     * should be extracted
      * @param waitingHandler the waiting handler
      *
      * @throws FileNotFoundException thrown if the file to import cannot be
@@ -46,11 +48,12 @@ public class CpsFileImporter {
      * the file
      * @throws ClassNotFoundException thrown if there is a problem loading the
      * experiment data
+     * @throws InterruptedException thrown if a threading error occurred while
+     * extracting the file
      */
-    public CpsFileImporter(File cpsFile, String jarFilePath, WaitingHandler waitingHandler) throws FileNotFoundException, IOException, ClassNotFoundException {
+    public CpsFileImporter(File cpsFile, File projectDirectory, WaitingHandler waitingHandler) throws FileNotFoundException, IOException, ClassNotFoundException, InterruptedException {
 
-        File matchFolderParent = PeptideShaker.getMatchesDirectoryParent(jarFilePath);
-        File matchFolder = PeptideShaker.getSerializationDirectory(jarFilePath);
+        File matchFolder = PeptideShaker.getSerializationDirectory(projectDirectory);
 
         // empty the existing files in the matches folder
         if (matchFolder.exists()) {
@@ -78,12 +81,17 @@ public class CpsFileImporter {
             waitingHandler.setMaxSecondaryProgressCounter(100);
         }
 
-        try {
-            TarUtils.extractFile(cpsFile, matchFolderParent, "resources", waitingHandler);
-        } catch (ArchiveException e) {
-            //Most likely an old project
-            experimentFile = cpsFile;
-            e.printStackTrace();
+        if (CpsArchiveUtils.isCpsArchive(cpsFile)) {
+            CpsArchiveUtils.extract(cpsFile, projectDirectory, Runtime.getRuntime().availableProcessors(), waitingHandler);
+        } else {
+            // cps files saved before the compressed format are tar archives
+            try {
+                TarUtils.extractFile(cpsFile, projectDirectory, "resources", waitingHandler);
+            } catch (ArchiveException e) {
+                //Most likely an old project
+                experimentFile = cpsFile;
+                e.printStackTrace();
+            }
         }
 
         experiment = ExperimentIO.loadExperiment(experimentFile);
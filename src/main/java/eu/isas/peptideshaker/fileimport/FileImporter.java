@@ -12,7 +12,6 @@ import com.compomics.util.Util;
 import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.exceptions.exception_handlers.CommandLineExceptionHandler;
 import com.compomics.util.experiment.identification.protein_inference.proteintree.ProteinTree;
-import com.compomics.util.experiment.identification.protein_inference.proteintree.ProteinTreeComponentsFactory;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.exceptions.exception_handlers.FrameExceptionHandler;
@@ -22,25 +21,40 @@ import com.compomics.util.gui.JOptionEditorPane;
 import eu.isas.peptideshaker.PeptideShaker;
 import com.compomics.util.waiting.WaitingHandler;
 import com.compomics.util.gui.waiting.waitinghandlers.WaitingDialog;
-import com.compomics.util.memory.MemoryConsumptionStatus;
 import com.compomics.util.preferences.IdentificationParameters;
 import com.compomics.util.preferences.ProcessingPreferences;
 import com.compomics.util.preferences.UtilitiesUserPreferences;
 import eu.isas.peptideshaker.preferences.ProjectDetails;
 import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences;
 import eu.isas.peptideshaker.protein_inference.PeptideMapper;
+import eu.isas.peptideshaker.protein_inference.PeptideMappingCache;
 import eu.isas.peptideshaker.protein_inference.TagMapper;
 import eu.isas.peptideshaker.scoring.InputMap;
+import eu.isas.peptideshaker.utils.MemoryGovernor;
 import eu.isas.peptideshaker.utils.Metrics;
+import eu.isas.peptideshaker.utils.SpectrumFileLoader;
 import org.xml.sax.SAXException;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 import javax.swing.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class is responsible for the import of identifications.
@@ -75,6 +89,10 @@ public class FileImporter {
      * The sequence factory.
      */
     private SequenceFactory sequenceFactory = SequenceFactory.getInstance(30000);
+    /**
+     * The memory governor.
+     */
+    private MemoryGovernor memoryGovernor = MemoryGovernor.getInstance();
     /**
      * If a Mascot dat file is bigger than this size, an indexed parsing will be
      * used.
@@ -90,6 +108,30 @@ public class FileImporter {
      * resolution in X!Tandem result files.
      */
     public static final double ptmMassTolerance = 0.01;
+    /**
+     * The default number of PSMs passed at a time from the identification
+     * files to the database.
+     */
+    public static final int DEFAULT_IMPORT_CHUNK_SIZE = 10000;
+    /**
+     * The number of chunks of PSMs which can be prepared in advance of the
+     * import in the database.
+     */
+    private static final int IMPORT_QUEUE_SIZE = 2;
+    /**
+     * The name of the folder of the project directory where the chunks of
+     * PSMs waiting for import are written.
+     */
+    private static final String IMPORT_CHUNKS_FOLDER = "import_chunks";
+    /**
+     * Index used to name the files of the chunks of PSMs waiting for import.
+     */
+    private int chunkFileIndex = 0;
+    /**
+     * The number of PSMs passed at a time from the identification files to
+     * the database. If 0, all PSMs of a file are processed in one go.
+     */
+    private int importChunkSize = DEFAULT_IMPORT_CHUNK_SIZE;
     /**
      * The protein tree used to map peptides on protein sequences.
      */
@@ -154,6 +196,28 @@ public class FileImporter {
         }
     }
 
+    /**
+     * Returns the number of PSMs passed at a time from the identification
+     * files to the database.
+     *
+     * @return the number of PSMs passed at a time from the identification
+     * files to the database
+     */
+    public int getImportChunkSize() {
+        return importChunkSize;
+    }
+
+    /**
+     * Sets the number of PSMs passed at a time from the identification files
+     * to the database. If 0, all PSMs of a file are processed in one go.
+     *
+     * @param importChunkSize the number of PSMs passed at a time from the
+     * identification files to the database
+     */
+    public void setImportChunkSize(int importChunkSize) {
+        this.importChunkSize = importChunkSize;
+    }
+
     /**
      * Imports sequences from a FASTA file.
      *
@@ -326,6 +390,10 @@ public class FileImporter {
          * A tag to protein mapper.
          */
         private TagMapper tagMapper = null;
+        /**
+         * The cache of the peptide to protein mapping, null if not used.
+         */
+        private PeptideMappingCache peptideMappingCache = null;
         /**
          * List of one hit wonders.
          */
@@ -432,6 +500,8 @@ public class FileImporter {
                     return 1;
                 }
 
+                openPeptideMappingCache();
+
                 waitingHandler.setSecondaryProgressCounterIndeterminate(true);
                 waitingHandler.appendReport("Establishing local database connection.", true, true);
 
@@ -501,6 +571,7 @@ public class FileImporter {
                     // clear the objects not needed anymore
                     singleProteinList.clear();
                     sequenceFactory.emptyCache();
+                    closePeptideMappingCache();
 
                     if (nRetained == 0) {
                         waitingHandler.appendReport("No identifications retained.", true, true);
@@ -583,13 +654,57 @@ public class FileImporter {
                 }
 
                 return 1;
+            } finally {
+                closePeptideMappingCache();
             }
 
             return 0;
         }
 
         /**
-         * Establishes a connection to the identification database.
+         * Opens the cache of the peptide to protein mapping of the FASTA file
+         * and sets it to the mappers. The mapping is done without cache if the
+         * cache cannot be opened.
+         */
+        private void openPeptideMappingCache() {
+            File fastaFile = identificationParameters.getProteinInferencePreferences().getProteinSequenceDatabase();
+            try {
+                peptideMappingCache = PeptideMappingCache.openCache(fastaFile, identificationParameters.getSequenceMatchingPreferences());
+                if (peptideMapper == null) {
+                    // the mappings are stored on disk, map the peptides upfront regardless of the memory setting
+                    peptideMapper = new PeptideMapper(identificationParameters, waitingHandler, exceptionHandler);
+                }
+                peptideMapper.setPeptideMappingCache(peptideMappingCache);
+            } catch (IOException e) {
+                e.printStackTrace();
+                waitingHandler.appendReport("The peptide mapping cache could not be used: " + e.getMessage(), true, true);
+                peptideMappingCache = null;
+            }
+        }
+
+        /**
+         * Closes the cache of the peptide to protein mapping if open.
+         */
+        private void closePeptideMappingCache() {
+            if (peptideMappingCache != null) {
+                try {
+                    waitingHandler.appendReport("Peptide mapping cache: " + peptideMappingCache.getnHits() + " sequences found, "
+                            + peptideMappingCache.getnAdded() + " sequences added.", true, true);
+                    peptideMappingCache.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                peptideMappingCache = null;
+                if (peptideMapper != null) {
+                    peptideMapper.setPeptideMappingCache(null);
+                }
+            }
+        }
+
+        /**
+         * Establishes a connection to the identification database in the
+         * project directory. A new project directory is created if none was
+         * set.
          *
          * @param identification the identifications
          *
@@ -603,7 +718,12 @@ public class FileImporter {
          * threading error occurred while establishing the connection
          */
         private void connectToIdDb(Identification identification) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-            String dbFolder = PeptideShaker.getSerializationDirectory(getJarFilePath()).getAbsolutePath();
+            File projectDirectory = peptideShaker.getProjectDirectory();
+            if (projectDirectory == null) {
+                projectDirectory = PeptideShaker.createProjectDirectory(getJarFilePath());
+                peptideShaker.setProjectDirectory(projectDirectory);
+            }
+            String dbFolder = PeptideShaker.getSerializationDirectory(projectDirectory).getAbsolutePath();
             identification.establishConnection(dbFolder, true, peptideShaker.getCache());
         }
 
@@ -686,13 +806,26 @@ public class FileImporter {
                     waitingHandler.resetSecondaryProgressCounter();
                     waitingHandler.setMaxSecondaryProgressCounter(numberOfMatches);
                     waitingHandler.appendReport("Loading spectra for " + idFile.getName() + ".", true, true);
-                    for (SpectrumMatch spectrumMatch : idFileSpectrumMatches) {
-                        if (!importSpectrum(idFile, spectrumMatch, numberOfMatches)) {
-                            allLoaded = false;
-                            String fileName = Spectrum.getSpectrumFile(spectrumMatch.getKey());
-                            waitingHandler.appendReport(fileName + " missing.", true, true);
+                    ArrayList<File> chunkFiles = null;
+                    if (importChunkSize > 0) {
+                        // only load the spectrum files here, the spectrum keys are remapped when streaming the matches to the database
+                        ArrayList<String> spectrumFileNames = getSpectrumFileNames(idFileSpectrumMatches);
+                        for (String fileName : spectrumFileNames) {
+                            if (!importSpectrumFile(idFile, fileName, numberOfMatches)) {
+                                allLoaded = false;
+                                waitingHandler.appendReport(fileName + " missing.", true, true);
+                            }
+                        }
+                        waitingHandler.increaseSecondaryProgressCounter(numberOfMatches);
+                    } else {
+                        for (SpectrumMatch spectrumMatch : idFileSpectrumMatches) {
+                            if (!importSpectrum(idFile, spectrumMatch, numberOfMatches)) {
+                                allLoaded = false;
+                                String fileName = Spectrum.getSpectrumFile(spectrumMatch.getKey());
+                                waitingHandler.appendReport(fileName + " missing.", true, true);
+                            }
+                            waitingHandler.increaseSecondaryProgressCounter();
                         }
-                        waitingHandler.increaseSecondaryProgressCounter();
                     }
 
                     if (allLoaded) {
@@ -716,18 +849,27 @@ public class FileImporter {
                                 fileReader.clearPeptidesMap();
                             }
                         }
-                        // empty protein caches
-                        if (MemoryConsumptionStatus.memoryUsed() > 0.8) {
-                            ProteinTreeComponentsFactory.getInstance().getCache().reduceMemoryConsumption(1, null);
-                            sequenceFactory.reduceNodeCacheSize(1);
+                        if (importChunkSize > 0) {
+                            // move the parsed matches out of the heap, the peptides are mapped first so that their proteins are written with the matches
+                            chunkFiles = writeChunks(idFileSpectrumMatches);
+                            fileReader.clearPeptidesMap();
                         }
 
+                        // empty protein caches
+                        memoryGovernor.release(null);
+
                         waitingHandler.setMaxSecondaryProgressCounter(numberOfMatches);
                         waitingHandler.appendReport("Importing PSMs from " + idFile.getName(), true, true);
 
-                        PsmImporter psmImporter = new PsmImporter(peptideShaker.getCache(), shotgunProtocol, identificationParameters, processingPreferences, fileReader, idFile, identification,
+                        PsmImporter psmImporter = new PsmImporter(shotgunProtocol, identificationParameters, processingPreferences, fileReader, idFile, identification,
                                 inputMap, proteinCount, singleProteinList, exceptionHandler);
-                        psmImporter.importPsms(idFileSpectrumMatches, processingPreferences.getnThreads(), waitingHandler);
+                        // the peptides which were not mapped upfront are mapped using the cache
+                        psmImporter.setPeptideMappingCache(peptideMappingCache);
+                        if (importChunkSize > 0) {
+                            importPsmsInChunks(chunkFiles, psmImporter);
+                        } else {
+                            psmImporter.importPsms(idFileSpectrumMatches, processingPreferences.getnThreads(), waitingHandler);
+                        }
 
                         nPSMs += psmImporter.getnPSMs();
                         nSecondary += psmImporter.getnSecondary();
@@ -747,20 +889,15 @@ public class FileImporter {
                             metrics.setMaxTagPrecursorErrorPpm(psmImporter.getMaxTagErrorPpm());
                         }
 
-                        // Free at least 0.5GB for the next parser if not anymore available
-                        if (!MemoryConsumptionStatus.halfGbFree() && !peptideShaker.getCache().isEmpty()) {
+                        // release memory for the next parser if the budget is exceeded
+                        if (memoryGovernor.isOverBudget()) {
                             waitingHandler.appendReport("PeptideShaker is encountering memory issues! "
                                     + "See http://peptide-shaker.googlecode.com for help.", true, true);
                             waitingHandler.appendReport("Reducing Memory Consumption.", true, true);
                             waitingHandler.setSecondaryProgressCounterIndeterminate(false);
-                            double share = ((double) 1073741824) / (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
-                            share = Math.min(share, 1);
-                            peptideShaker.getCache().reduceMemoryConsumption(share, waitingHandler);
+                            memoryGovernor.release(waitingHandler);
                             waitingHandler.setSecondaryProgressCounterIndeterminate(true);
                         }
-                        if (!MemoryConsumptionStatus.halfGbFree() && sequenceFactory.getNodesInCache() > 0) {
-                            sequenceFactory.reduceNodeCacheSize(0.5);
-                        }
                         projectDetails.addIdentificationFiles(idFile);
 
                         int psmsRejected = psmImporter.getPsmsRejected();
@@ -831,12 +968,190 @@ public class FileImporter {
                             waitingHandler.appendReport(report, true, true);
                         }
                     }
+                    if (chunkFiles != null) {
+                        for (File chunkFile : chunkFiles) {
+                            chunkFile.delete();
+                        }
+                    }
                 }
             }
 
             waitingHandler.increasePrimaryProgressCounter();
         }
 
+        /**
+         * Writes the given spectrum matches to temporary files by chunks of
+         * importChunkSize matches in the project directory. The matches are
+         * removed from the given list as they are written so that only one
+         * chunk is in memory at a time.
+         *
+         * @param spectrumMatches the spectrum matches to write
+         *
+         * @return the files where the chunks were written, in order
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing a file
+         */
+        private ArrayList<File> writeChunks(LinkedList<SpectrumMatch> spectrumMatches) throws IOException {
+
+            File chunksFolder = new File(peptideShaker.getProjectDirectory(), IMPORT_CHUNKS_FOLDER);
+            if (!chunksFolder.exists() && !chunksFolder.mkdirs()) {
+                throw new IOException("Impossible to create folder " + chunksFolder.getAbsolutePath() + ".");
+            }
+
+            ArrayList<File> chunkFiles = new ArrayList<File>();
+            while (!spectrumMatches.isEmpty()) {
+                File chunkFile = new File(chunksFolder, chunkFileIndex++ + ".chunk");
+                ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(chunkFile)));
+                try {
+                    int chunkSize = Math.min(importChunkSize, spectrumMatches.size());
+                    oos.writeInt(chunkSize);
+                    for (int i = 0; i < chunkSize; i++) {
+                        oos.writeObject(spectrumMatches.pollFirst());
+                    }
+                } finally {
+                    oos.close();
+                }
+                chunkFiles.add(chunkFile);
+            }
+            return chunkFiles;
+        }
+
+        /**
+         * Reads a chunk of spectrum matches written by writeChunks and deletes
+         * the file.
+         *
+         * @param chunkFile the file where the chunk was written
+         *
+         * @return the spectrum matches of the chunk
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the file
+         * @throws ClassNotFoundException exception thrown whenever an error
+         * occurred while deserializing a match
+         */
+        private LinkedList<SpectrumMatch> readChunk(File chunkFile) throws IOException, ClassNotFoundException {
+            LinkedList<SpectrumMatch> chunk = new LinkedList<SpectrumMatch>();
+            ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(chunkFile)));
+            try {
+                int chunkSize = ois.readInt();
+                for (int i = 0; i < chunkSize; i++) {
+                    chunk.add((SpectrumMatch) ois.readObject());
+                }
+            } finally {
+                ois.close();
+            }
+            chunkFile.delete();
+            return chunk;
+        }
+
+        /**
+         * Imports the spectrum matches written in the given chunk files in the
+         * database. The next chunk is read and its spectrum keys remapped in a
+         * background thread while the current one is imported.
+         *
+         * @param chunkFiles the files containing the chunks of spectrum
+         * matches to import, in order
+         * @param psmImporter the PSM importer to use
+         *
+         * @throws Exception exception thrown whenever an error occurred while
+         * remapping or importing the spectrum matches
+         */
+        private void importPsmsInChunks(final ArrayList<File> chunkFiles, PsmImporter psmImporter) throws Exception {
+
+            final ArrayBlockingQueue<LinkedList<SpectrumMatch>> chunks = new ArrayBlockingQueue<LinkedList<SpectrumMatch>>(IMPORT_QUEUE_SIZE);
+            final LinkedList<SpectrumMatch> endOfInput = new LinkedList<SpectrumMatch>();
+
+            ExecutorService producer = Executors.newSingleThreadExecutor();
+            Future<Object> production = producer.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    boolean interrupted = false;
+                    try {
+                        for (File chunkFile : chunkFiles) {
+                            if (waitingHandler.isRunCanceled()) {
+                                break;
+                            }
+                            LinkedList<SpectrumMatch> chunk = readChunk(chunkFile);
+                            for (SpectrumMatch spectrumMatch : chunk) {
+                                remapSpectrumKey(spectrumMatch);
+                            }
+                            chunks.put(chunk);
+                        }
+                    } catch (InterruptedException e) {
+                        // the consumer stopped
+                        interrupted = true;
+                    } finally {
+                        // never block here, the consumer also stops when the production is done
+                        if (!interrupted && !Thread.currentThread().isInterrupted() && !waitingHandler.isRunCanceled()) {
+                            chunks.offer(endOfInput);
+                        }
+                    }
+                    return null;
+                }
+            });
+
+            try {
+                while (!waitingHandler.isRunCanceled()) {
+                    LinkedList<SpectrumMatch> chunk = chunks.poll(1, TimeUnit.SECONDS);
+                    if (chunk == null) {
+                        if (production.isDone() && chunks.isEmpty()) {
+                            break;
+                        }
+                    } else if (chunk == endOfInput) {
+                        break;
+                    } else {
+                        psmImporter.importPsms(chunk, processingPreferences.getnThreads(), waitingHandler);
+                    }
+                }
+            } finally {
+                producer.shutdownNow();
+                // free a producer which would be waiting for space in the queue
+                chunks.clear();
+            }
+
+            if (!waitingHandler.isRunCanceled()) {
+                try {
+                    production.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw e;
+                }
+            }
+        }
+
+        /**
+         * Returns the names of the spectrum files referenced by the given
+         * spectrum matches, remapped to the names of the spectrum files
+         * provided by the user when possible.
+         *
+         * @param spectrumMatches the spectrum matches
+         *
+         * @return the names of the spectrum files referenced by the given
+         * spectrum matches
+         */
+        private ArrayList<String> getSpectrumFileNames(LinkedList<SpectrumMatch> spectrumMatches) {
+
+            HashSet<String> fileNames = new HashSet<String>();
+
+            for (SpectrumMatch spectrumMatch : spectrumMatches) {
+                String fileName = Spectrum.getSpectrumFile(spectrumMatch.getKey());
+                if (spectrumFactory.getSpectrumFileFromIdName(fileName) != null) {
+                    fileName = spectrumFactory.getSpectrumFileFromIdName(fileName).getName();
+                }
+                fileNames.add(fileName);
+            }
+
+            ArrayList<String> result = new ArrayList<String>(fileNames);
+            Collections.sort(result);
+            return result;
+        }
+
         /**
          * Checks whether the spectrum file needed for the given spectrum match
          * is loaded and if the spectrum is present. Try to load it from the
@@ -852,17 +1167,62 @@ public class FileImporter {
          */
         private boolean importSpectrum(File idFile, SpectrumMatch spectrumMatch, int numberOfMatches) {
 
+            String fileName = remapSpectrumFileName(spectrumMatch);
+
+            if (!importSpectrumFile(idFile, fileName, numberOfMatches)) {
+                return false;
+            }
+
+            remapSpectrumTitle(spectrumMatch);
+            return true;
+        }
+
+        /**
+         * Remaps the spectrum key of the given spectrum match on the spectrum
+         * files and titles loaded in the spectrum factory.
+         *
+         * @param spectrumMatch the spectrum match
+         */
+        private void remapSpectrumKey(SpectrumMatch spectrumMatch) {
+            remapSpectrumFileName(spectrumMatch);
+            remapSpectrumTitle(spectrumMatch);
+        }
+
+        /**
+         * Remaps wrong spectrum file names in the key of the given spectrum
+         * match and returns the spectrum file name.
+         *
+         * @param spectrumMatch the spectrum match
+         *
+         * @return the name of the spectrum file of this match
+         */
+        private String remapSpectrumFileName(SpectrumMatch spectrumMatch) {
+
             String spectrumKey = spectrumMatch.getKey();
             String fileName = Spectrum.getSpectrumFile(spectrumKey);
-            String spectrumTitle = Spectrum.getSpectrumTitle(spectrumKey);
 
-            // remap wrong spectrum file names
             if (spectrumFactory.getSpectrumFileFromIdName(fileName) != null) {
+                String spectrumTitle = Spectrum.getSpectrumTitle(spectrumKey);
                 fileName = spectrumFactory.getSpectrumFileFromIdName(fileName).getName();
                 spectrumMatch.setKey(Spectrum.getSpectrumKey(fileName, spectrumTitle));
-                spectrumKey = spectrumMatch.getKey();
             }
 
+            return fileName;
+        }
+
+        /**
+         * Imports the given spectrum file if not done already.
+         *
+         * @param idFile the identification file
+         * @param fileName the name of the spectrum file
+         * @param numberOfMatches the number of matches expected for this
+         * identification file
+         *
+         * @return indicates whether the spectrum file is imported, false if
+         * the file was not found
+         */
+        private boolean importSpectrumFile(File idFile, String fileName, int numberOfMatches) {
+
             // import the mgf file needed if not done already
             if (!mgfUsed.contains(fileName)) {
                 File spectrumFile = spectrumFiles.get(fileName);
@@ -879,6 +1239,20 @@ public class FileImporter {
                     return false;
                 }
             }
+            return true;
+        }
+
+        /**
+         * Remaps the title of the given spectrum match if the spectrum is not
+         * found in the spectrum factory.
+         *
+         * @param spectrumMatch the spectrum match
+         */
+        private void remapSpectrumTitle(SpectrumMatch spectrumMatch) {
+
+            String spectrumKey = spectrumMatch.getKey();
+            String fileName = Spectrum.getSpectrumFile(spectrumKey);
+            String spectrumTitle;
 
             // remap missing spectrum titles
             if (spectrumFactory.fileLoaded(fileName) && !spectrumFactory.spectrumLoaded(spectrumKey)) {
@@ -912,7 +1286,6 @@ public class FileImporter {
                     }
                 }
             }
-            return true;
         }
 
         /**
@@ -929,7 +1302,9 @@ public class FileImporter {
                 waitingHandler.appendReport("Importing " + targetFileName, true, true);
                 waitingHandler.setSecondaryProgressCounterIndeterminate(false);
                 waitingHandler.resetSecondaryProgressCounter();
-                spectrumFactory.addSpectra(spectrumFile, waitingHandler);
+                SpectrumFileLoader spectrumFileLoader = SpectrumFileLoader.getInstance();
+                spectrumFileLoader.registerSpectrumFile(spectrumFile);
+                spectrumFileLoader.loadSpectrumFile(targetFileName, waitingHandler);
 
                 // @TODO: check for duplicate spectrum titles and show the warning in the lower right corner of the main frame
                 if (waitingHandler.isRunCanceled()) {
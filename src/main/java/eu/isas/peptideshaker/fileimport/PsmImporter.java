@@ -1,7 +1,6 @@
 package eu.isas.peptideshaker.fileimport;
 
 import com.compomics.mascotdatfile.util.io.MascotIdfileReader;
-import com.compomics.util.db.ObjectsCache;
 import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.ShotgunProtocol;
 import com.compomics.util.experiment.biology.PTM;
@@ -12,13 +11,11 @@ import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.identification.IdentificationAlgorithmParameter;
 import com.compomics.util.experiment.identification.PeptideAssumption;
 import com.compomics.util.experiment.identification.SearchParameters;
-import com.compomics.util.experiment.identification.SequenceFactory;
 import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
 import com.compomics.util.experiment.identification.TagAssumption;
 import com.compomics.util.experiment.identification.identification_parameters.XtandemParameters;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
-import com.compomics.util.experiment.identification.protein_inference.proteintree.ProteinTreeComponentsFactory;
 import com.compomics.util.experiment.identification.ptm.PtmSiteMapping;
 import com.compomics.util.experiment.identification.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.experiment.io.identifications.IdfileReader;
@@ -29,7 +26,6 @@ import com.compomics.util.experiment.io.identifications.idfilereaders.PepxmlIdfi
 import com.compomics.util.experiment.io.identifications.idfilereaders.TideIdfileReader;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
-import com.compomics.util.memory.MemoryConsumptionStatus;
 import com.compomics.util.preferences.IdFilter;
 import com.compomics.util.preferences.IdentificationParameters;
 import com.compomics.util.preferences.ModificationProfile;
@@ -39,8 +35,10 @@ import com.compomics.util.waiting.WaitingHandler;
 import de.proteinms.omxparser.util.OMSSAIdfileReader;
 import de.proteinms.xtandemparser.parser.XTandemIdfileReader;
 import static eu.isas.peptideshaker.fileimport.FileImporter.ptmMassTolerance;
+import eu.isas.peptideshaker.protein_inference.PeptideMappingCache;
 import eu.isas.peptideshaker.scoring.InputMap;
 import eu.isas.peptideshaker.scoring.psm_scoring.BestMatchSelection;
+import eu.isas.peptideshaker.utils.MemoryGovernor;
 import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
@@ -49,6 +47,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -62,9 +61,9 @@ import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 public class PsmImporter {
 
     /**
-     * The protein sequence factory.
+     * The memory governor.
      */
-    private SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+    private MemoryGovernor memoryGovernor = MemoryGovernor.getInstance();
     /**
      * The PTM factory.
      */
@@ -74,13 +73,13 @@ public class PsmImporter {
      */
     private SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
     /**
-     * The object cache to use when encountering memory issues.
+     * Indicates whether the check for X!Tandem modifications was done.
      */
-    private ObjectsCache peptideShakerCache;
+    private volatile boolean xTandemPtmsCheck = false;
     /**
-     * Indicates whether the check for X!Tandem modifications was done.
+     * The number of PSMs which can be waiting in the import queue per thread.
      */
-    private boolean xTandemPtmsCheck = false;
+    private static final int QUEUE_SIZE_PER_THREAD = 100;
     /**
      * The number of first hits.
      */
@@ -182,12 +181,14 @@ public class PsmImporter {
      * The identification parameters.
      */
     private IdentificationParameters identificationParameters;
+    /**
+     * The cache of the peptide to protein mapping, null if not used.
+     */
+    private PeptideMappingCache peptideMappingCache = null;
 
     /**
      * Constructor.
      *
-     * @param peptideShakerCache the cache to use when memory issues are
-     * encountered
      * @param shotgunProtocol information on the shotgun protocol
      * @param identificationParameters the identification parameters
      * @param processingPreferences the processing preferences
@@ -201,10 +202,9 @@ public class PsmImporter {
      * @param singleProteinList list of one hit wonders for this project
      * @param exceptionHandler handler for exceptions
      */
-    public PsmImporter(ObjectsCache peptideShakerCache, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ProcessingPreferences processingPreferences, IdfileReader fileReader, File idFile,
+    public PsmImporter(ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ProcessingPreferences processingPreferences, IdfileReader fileReader, File idFile,
             Identification identification, InputMap inputMap, HashMap<String, Integer> proteinCount, HashSet<String> singleProteinList,
             ExceptionHandler exceptionHandler) {
-        this.peptideShakerCache = peptideShakerCache;
         this.shotgunProtocol = shotgunProtocol;
         this.identificationParameters = identificationParameters;
         this.processingPreferences = processingPreferences;
@@ -217,6 +217,18 @@ public class PsmImporter {
         this.exceptionHandler = exceptionHandler;
     }
 
+    /**
+     * Sets the cache of the peptide to protein mapping. The cache is consulted
+     * before the protein tree for the peptides which were not mapped
+     * beforehand.
+     *
+     * @param peptideMappingCache the cache of the peptide to protein mapping,
+     * null if not used
+     */
+    public void setPeptideMappingCache(PeptideMappingCache peptideMappingCache) {
+        this.peptideMappingCache = peptideMappingCache;
+    }
+
     /**
      * Imports PSMs.
      *
@@ -267,20 +279,31 @@ public class PsmImporter {
     public void importPsmsMultipleThreads(LinkedList<SpectrumMatch> idFileSpectrumMatches, int nThreads, WaitingHandler waitingHandler)
             throws IOException, SQLException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
 
+        ArrayBlockingQueue<SpectrumMatch> queue = new ArrayBlockingQueue<SpectrumMatch>(QUEUE_SIZE_PER_THREAD * nThreads);
+        SpectrumMatch endOfInput = new SpectrumMatch("end of input");
         ExecutorService pool = Executors.newFixedThreadPool(nThreads);
-        while (!idFileSpectrumMatches.isEmpty()) {
-            SpectrumMatch match = idFileSpectrumMatches.pollLast();
-            PsmImporterRunnable psmImporterRunnable = new PsmImporterRunnable(match, waitingHandler);
+        ArrayList<PsmImporterRunnable> runnables = new ArrayList<PsmImporterRunnable>(nThreads);
+        for (int i = 0; i < nThreads; i++) {
+            PsmImporterRunnable psmImporterRunnable = new PsmImporterRunnable(queue, endOfInput, waitingHandler);
             pool.submit(psmImporterRunnable);
-            if (waitingHandler.isRunCanceled()) {
-                pool.shutdownNow();
-                return;
+            runnables.add(psmImporterRunnable);
+        }
+        try {
+            while (!idFileSpectrumMatches.isEmpty() && !waitingHandler.isRunCanceled()) {
+                queue.put(idFileSpectrumMatches.pollLast());
+            }
+        } finally {
+            for (int i = 0; i < nThreads; i++) {
+                queue.put(endOfInput);
             }
         }
         pool.shutdown();
         if (!pool.awaitTermination(12, TimeUnit.HOURS)) {
             throw new InterruptedException("PSM import timed out. Please contact the developers.");
         }
+        for (PsmImporterRunnable psmImporterRunnable : runnables) {
+            addStatistics(psmImporterRunnable.getStatistics());
+        }
     }
 
     /**
@@ -305,10 +328,34 @@ public class PsmImporter {
             throws IOException, SQLException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
         
 PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+        ImportStatistics statistics = new ImportStatistics();
         while (!idFileSpectrumMatches.isEmpty()) {
             SpectrumMatch match = idFileSpectrumMatches.pollLast();
-            importPsm(match, peptideSpectrumAnnotator, waitingHandler);
+            importPsm(match, peptideSpectrumAnnotator, statistics, waitingHandler);
         }
+        addStatistics(statistics);
+    }
+
+    /**
+     * Adds the statistics of an import thread to the statistics of this
+     * importer.
+     *
+     * @param statistics the statistics of an import thread
+     */
+    private synchronized void addStatistics(ImportStatistics statistics) {
+        nPSMs += statistics.nPSMs;
+        nSecondary += statistics.nSecondary;
+        psmsRejected += statistics.psmsRejected;
+        proteinIssue += statistics.proteinIssue;
+        peptideIssue += statistics.peptideIssue;
+        precursorIssue += statistics.precursorIssue;
+        ptmIssue += statistics.ptmIssue;
+        nRetained += statistics.nRetained;
+        maxPeptideErrorPpm = Math.max(maxPeptideErrorPpm, statistics.maxPeptideErrorPpm);
+        maxPeptideErrorDa = Math.max(maxPeptideErrorDa, statistics.maxPeptideErrorDa);
+        maxTagErrorPpm = Math.max(maxTagErrorPpm, statistics.maxTagErrorPpm);
+        maxTagErrorDa = Math.max(maxTagErrorDa, statistics.maxTagErrorDa);
+        charges.addAll(statistics.charges);
     }
 
     /**
@@ -316,6 +363,7 @@ PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator
      *
      * @param spectrumMatch the spectrum match to import
      * @param peptideSpectrumAnnotator the spectrum annotator to use to annotate spectra
+     * @param statistics the statistics of the thread importing the PSM
      * @param waitingHandler waiting handler to display progress and allow
      * canceling the import
      *
@@ -330,7 +378,7 @@ PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator
      * @throws MzMLUnmarshallerException exception thrown whenever an exception
      * occurred while reading an mzML file
      */
-    private void importPsm(SpectrumMatch spectrumMatch, PeptideSpectrumAnnotator peptideSpectrumAnnotator, WaitingHandler waitingHandler)
+    private void importPsm(SpectrumMatch spectrumMatch, PeptideSpectrumAnnotator peptideSpectrumAnnotator, ImportStatistics statistics, WaitingHandler waitingHandler)
             throws IOException, SQLException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
 
         IdFilter idFilter = identificationParameters.getIdFilter();
@@ -338,20 +386,11 @@ PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator
         SearchParameters searchParameters = identificationParameters.getSearchParameters();
 
         // free memory if needed
-        if (MemoryConsumptionStatus.memoryUsed() > 0.9 && !peptideShakerCache.isEmpty()) {
-            peptideShakerCache.reduceMemoryConsumption(0.5, null);
-        }
-        // free memory if needed
-        if (MemoryConsumptionStatus.memoryUsed() > 0.9 && !ProteinTreeComponentsFactory.getInstance().getCache().isEmpty()) {
-            ProteinTreeComponentsFactory.getInstance().getCache().reduceMemoryConsumption(0.5, null);
-        }
-        if (!MemoryConsumptionStatus.halfGbFree() && sequenceFactory.getNodesInCache() > 0) {
-            sequenceFactory.reduceNodeCacheSize(0.5);
-        }
+        memoryGovernor.release(null);
 
         HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = spectrumMatch.getAssumptionsMap();
-        nPSMs++;
-        nSecondary += spectrumMatch.getAllAssumptions().size() - 1;
+        statistics.nPSMs++;
+        statistics.nSecondary += spectrumMatch.getAllAssumptions().size() - 1;
 
         String spectrumKey = spectrumMatch.getKey();
         String spectrumFileName = Spectrum.getSpectrumFile(spectrumKey);
@@ -359,7 +398,7 @@ PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator
 
         for (int advocateId : assumptions.keySet()) {
 
-            if (advocateId == Advocate.xtandem.getIndex()) {
+            if (advocateId == Advocate.xtandem.getIndex() && !xTandemPtmsCheck) {
                 verifyXTandemPtms();
             }
 
@@ -368,13 +407,13 @@ PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator
                     PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
                     if (!idFilter.validatePeptide(peptideAssumption.getPeptide(), sequenceMatchingPreferences)) {
                         spectrumMatch.removeAssumption(assumption);
-                        peptideIssue++;
+                        statistics.peptideIssue++;
                     }
                 }
             }
 
             if (!spectrumMatch.hasAssumption(advocateId)) {
-                psmsRejected++;
+                statistics.psmsRejected++;
             } else {
 
                 // Check whether there is a potential first hit which does not belong to the target and the decoy database
@@ -411,7 +450,7 @@ PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator
                                     // Exclude peptides with aberrant PTM mapping
                                     System.out.println(e.getMessage());
                                     spectrumMatch.removeAssumption(assumption);
-                                    ptmIssue++;
+                                    statistics.ptmIssue++;
                                     fixedPtmIssue = true;
                                 } else {
                                     throw e;
@@ -786,17 +825,20 @@ PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator
                                 if (idFilter.validateModifications(peptide, sequenceMatchingPreferences, searchParameters.getModificationProfile())) {
                                     // Estimate the theoretic mass with the new modifications
                                     peptide.estimateTheoreticMass();
+                                    if (peptideMappingCache != null) {
+                                        peptideMappingCache.getParentProteins(peptide, sequenceMatchingPreferences);
+                                    }
                                     if (!idFilter.validatePrecursor(peptideAssumption, spectrumKey, spectrumFactory)) {
                                         spectrumMatch.removeAssumption(assumption);
-                                        precursorIssue++;
+                                        statistics.precursorIssue++;
                                     } else if (!idFilter.validateProteins(peptideAssumption.getPeptide(), sequenceMatchingPreferences)) {
                                         // Check whether there is a potential first hit which does not belong to both the target and the decoy database
                                         spectrumMatch.removeAssumption(assumption);
-                                        proteinIssue++;
+                                        statistics.proteinIssue++;
                                     }
                                 } else {
                                     spectrumMatch.removeAssumption(assumption);
-                                    ptmIssue++;
+                                    statistics.ptmIssue++;
                                 }
                             }
                         }
@@ -824,9 +866,9 @@ PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator
                         }
                         if (firstPeptideHit != null) {
                             inputMap.addEntry(advocateId, spectrumFileName, firstPeptideHit.getScore(), firstPeptideHit.getPeptide().isDecoy(sequenceMatchingPreferences));
-                            checkPeptidesMassErrorsAndCharges(spectrumKey, firstPeptideHit); //@TODO: Not sure whether this is the right place to do it?
+                            checkPeptidesMassErrorsAndCharges(spectrumKey, firstPeptideHit, statistics); //@TODO: Not sure whether this is the right place to do it?
                             identification.addSpectrumMatch(spectrumMatch);
-                            nRetained++;
+                            statistics.nRetained++;
                             break;
                         }
                     }
@@ -838,9 +880,9 @@ PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator
                                 if (assumption instanceof TagAssumption) {
                                     TagAssumption tagAssumption = (TagAssumption) assumption;
                                     firstTagHit = tagAssumption;
-                                    checkTagMassErrorsAndCharge(spectrumKey, tagAssumption);
+                                    checkTagMassErrorsAndCharge(spectrumKey, tagAssumption, statistics);
                                     identification.addSpectrumMatch(spectrumMatch);
-                                    nRetained++;
+                                    statistics.nRetained++;
                                     break;
                                 }
                             }
@@ -850,7 +892,7 @@ PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator
                         }
                     }
                 } else {
-                    psmsRejected++;
+                    statistics.psmsRejected++;
                 }
 
                 if (waitingHandler.isRunCanceled()) {
@@ -867,6 +909,7 @@ PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator
      *
      * @param spectrumKey the key of the spectrum match
      * @param peptideAssumption the peptide assumption
+     * @param statistics the statistics of the thread importing the PSM
      *
      * @throws IOException exception thrown whenever an IO exception occurred
      * while reading or writing to a file
@@ -879,40 +922,38 @@ PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator
      * @throws MzMLUnmarshallerException exception thrown whenever an exception
      * occurred while reading an mzML file
      */
-    private synchronized void checkPeptidesMassErrorsAndCharges(String spectrumKey, PeptideAssumption peptideAssumption)
+    private void checkPeptidesMassErrorsAndCharges(String spectrumKey, PeptideAssumption peptideAssumption, ImportStatistics statistics)
             throws IOException, InterruptedException, SQLException, ClassNotFoundException, MzMLUnmarshallerException {
 
         double precursorMz = spectrumFactory.getPrecursorMz(spectrumKey);
         double error = Math.abs(peptideAssumption.getDeltaMass(precursorMz, true));
 
-        if (error > maxPeptideErrorPpm) {
-            maxPeptideErrorPpm = error;
+        if (error > statistics.maxPeptideErrorPpm) {
+            statistics.maxPeptideErrorPpm = error;
         }
 
         error = Math.abs(peptideAssumption.getDeltaMass(precursorMz, false));
 
-        if (error > maxPeptideErrorDa) {
-            maxPeptideErrorDa = error;
+        if (error > statistics.maxPeptideErrorDa) {
+            statistics.maxPeptideErrorDa = error;
         }
 
-        int currentCharge = peptideAssumption.getIdentificationCharge().value;
-
-        if (!charges.contains(currentCharge)) {
-            charges.add(currentCharge);
-        }
+        statistics.charges.add(peptideAssumption.getIdentificationCharge().value);
 
         ArrayList<String> accessions = peptideAssumption.getPeptide().getParentProteins(identificationParameters.getSequenceMatchingPreferences());
-        for (String protein : accessions) {
-            Integer count = proteinCount.get(protein);
-            if (count != null) {
-                proteinCount.put(protein, count + 1);
-            } else {
-                boolean oneHitWonder = singleProteinList.contains(protein);
-                if (oneHitWonder) {
-                    singleProteinList.remove(protein);
-                    proteinCount.put(protein, 2);
+        synchronized (proteinCount) {
+            for (String protein : accessions) {
+                Integer count = proteinCount.get(protein);
+                if (count != null) {
+                    proteinCount.put(protein, count + 1);
                 } else {
-                    singleProteinList.add(protein);
+                    boolean oneHitWonder = singleProteinList.contains(protein);
+                    if (oneHitWonder) {
+                        singleProteinList.remove(protein);
+                        proteinCount.put(protein, 2);
+                    } else {
+                        singleProteinList.add(protein);
+                    }
                 }
             }
         }
@@ -923,32 +964,29 @@ PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator
      *
      * @param spectrumKey the key of the spectrum match
      * @param tagAssumption the tag assumption
+     * @param statistics the statistics of the thread importing the PSM
      *
      * @throws IOException exception thrown whenever an IO exception occurred
      * while reading or writing to a file
      * @throws MzMLUnmarshallerException exception thrown whenever an exception
      * occurred while reading an mzML file
      */
-    private synchronized void checkTagMassErrorsAndCharge(String spectrumKey, TagAssumption tagAssumption) throws MzMLUnmarshallerException, IOException {
+    private void checkTagMassErrorsAndCharge(String spectrumKey, TagAssumption tagAssumption, ImportStatistics statistics) throws MzMLUnmarshallerException, IOException {
 
         double precursorMz = spectrumFactory.getPrecursorMz(spectrumKey);
         double error = Math.abs(tagAssumption.getDeltaMass(precursorMz, true));
 
-        if (error > maxTagErrorPpm) {
-            maxTagErrorPpm = error;
+        if (error > statistics.maxTagErrorPpm) {
+            statistics.maxTagErrorPpm = error;
         }
 
         error = Math.abs(tagAssumption.getDeltaMass(precursorMz, false));
 
-        if (error > maxTagErrorDa) {
-            maxTagErrorDa = error;
+        if (error > statistics.maxTagErrorDa) {
+            statistics.maxTagErrorDa = error;
         }
 
-        int currentCharge = tagAssumption.getIdentificationCharge().value;
-
-        if (!charges.contains(currentCharge)) {
-            charges.add(currentCharge);
-        }
+        statistics.charges.add(tagAssumption.getIdentificationCharge().value);
     }
 
     /**
@@ -1145,34 +1183,43 @@ PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator
     }
 
     /**
-     * Private runnable to import PSMs.
+     * Private runnable importing the PSMs taken from a queue shared between
+     * the threads until the end of the input is reached.
      */
     private class PsmImporterRunnable implements Runnable {
 
         /**
-         * The spectrum match to import.
+         * The queue of spectrum matches to import.
          */
-        private SpectrumMatch spectrumMatch;
-
+        private final ArrayBlockingQueue<SpectrumMatch> queue;
+        /**
+         * The spectrum match marking the end of the input.
+         */
+        private final SpectrumMatch endOfInput;
         /**
          * The waiting handler.
          */
-        private WaitingHandler waitingHandler;
-        
+        private final WaitingHandler waitingHandler;
         /**
          * The peptide spectrum annotator used to annotate spectra for this thread.
          */
-        private PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+        private final PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+        /**
+         * The statistics of the PSMs imported by this thread.
+         */
+        private final ImportStatistics statistics = new ImportStatistics();
 
         /**
          * Constructor.
          *
-         * @param spectrumMatch the match to import
+         * @param queue the queue of spectrum matches to import
+         * @param endOfInput the spectrum match marking the end of the input
          * @param waitingHandler a waiting handler to display progress and allow
          * canceling the process
          */
-        public PsmImporterRunnable(SpectrumMatch spectrumMatch, WaitingHandler waitingHandler) {
-            this.spectrumMatch = spectrumMatch;
+        public PsmImporterRunnable(ArrayBlockingQueue<SpectrumMatch> queue, SpectrumMatch endOfInput, WaitingHandler waitingHandler) {
+            this.queue = queue;
+            this.endOfInput = endOfInput;
             this.waitingHandler = waitingHandler;
         }
 
@@ -1180,15 +1227,94 @@ PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator
         public void run() {
 
             try {
-                if (!waitingHandler.isRunCanceled()) {
-                    importPsm(spectrumMatch, peptideSpectrumAnnotator, waitingHandler);
+                SpectrumMatch spectrumMatch;
+                while ((spectrumMatch = queue.take()) != endOfInput) {
+                    // keep draining the queue when canceled so that the producer is not blocked
+                    if (!waitingHandler.isRunCanceled()) {
+                        try {
+                            importPsm(spectrumMatch, peptideSpectrumAnnotator, statistics, waitingHandler);
+                        } catch (Exception e) {
+                            if (!waitingHandler.isRunCanceled()) {
+                                exceptionHandler.catchException(e);
+                                waitingHandler.setRunCanceled();
+                            }
+                        }
+                    }
                 }
-            } catch (Exception e) {
+            } catch (InterruptedException e) {
                 if (!waitingHandler.isRunCanceled()) {
                     exceptionHandler.catchException(e);
                     waitingHandler.setRunCanceled();
                 }
             }
         }
+
+        /**
+         * Returns the statistics of the PSMs imported by this thread.
+         *
+         * @return the statistics of the PSMs imported by this thread
+         */
+        public ImportStatistics getStatistics() {
+            return statistics;
+        }
+    }
+
+    /**
+     * Statistics on the PSMs imported by a thread.
+     */
+    private static class ImportStatistics {
+
+        /**
+         * The number of first hits.
+         */
+        private long nPSMs = 0;
+        /**
+         * The number of secondary hits.
+         */
+        private long nSecondary = 0;
+        /**
+         * The number of PSMs which did not pass the import filters.
+         */
+        private int psmsRejected = 0;
+        /**
+         * The number of PSMs which were rejected due to a protein issue.
+         */
+        private int proteinIssue = 0;
+        /**
+         * The number of PSMs which were rejected due to a peptide issue.
+         */
+        private int peptideIssue = 0;
+        /**
+         * The number of PSMs which were rejected due to a precursor issue.
+         */
+        private int precursorIssue = 0;
+        /**
+         * The number of PSMs which were rejected due to a PTM issue.
+         */
+        private int ptmIssue = 0;
+        /**
+         * The number of retained first hits.
+         */
+        private int nRetained = 0;
+        /**
+         * The maximal peptide mass error found in ppm.
+         */
+        private double maxPeptideErrorPpm = 0;
+        /**
+         * The maximal peptide mass error found in Da.
+         */
+        private double maxPeptideErrorDa = 0;
+        /**
+         * The maximal tag mass error found in ppm.
+         */
+        private double maxTagErrorPpm = 0;
+        /**
+         * The maximal tag mass error found in Da.
+         */
+        private double maxTagErrorDa = 0;
+        /**
+         * List of charges found.
+         */
+        private HashSet<Integer> charges = new HashSet<Integer>();
     }
 }
@@ -0,0 +1,708 @@
+package eu.isas.peptideshaker.followup;
+
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.preferences.IdentificationParameters;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.myparameters.PSParameter;
+import eu.isas.peptideshaker.recalibration.RunMzDeviation;
+import eu.isas.peptideshaker.recalibration.SpectrumRecalibrator;
+import eu.isas.peptideshaker.utils.SpectrumFileLoader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
+
+/**
+ * This class writes the follow-up outputs working on PSMs and spectra, i.e.
+ * recalibrated spectra, spectrum export and Progenesis export, in a single
+ * pass over the spectra. The outputs are first planned, then every spectrum
+ * and PSM is loaded once and handed over to a writer thread per output.
+ *
+ * @author Marc Vaudel
+ */
+public class FollowUpExporter {
+
+    /**
+     * The number of items which can be waiting for every output.
+     */
+    private static final int QUEUE_SIZE = 1000;
+    /**
+     * The identification.
+     */
+    private final Identification identification;
+    /**
+     * The identification parameters.
+     */
+    private final IdentificationParameters identificationParameters;
+    /**
+     * The spectrum factory.
+     */
+    private final SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+    /**
+     * The folder where to write the recalibrated spectra, null if no
+     * recalibration is planned.
+     */
+    private File recalibrationFolder = null;
+    /**
+     * Boolean indicating whether the precursors shall be recalibrated.
+     */
+    private boolean recalibratePrecursors;
+    /**
+     * Boolean indicating whether the fragment ions shall be recalibrated.
+     */
+    private boolean recalibrateFragmentIons;
+    /**
+     * The folder where to export the spectra, null if no spectrum export is
+     * planned.
+     */
+    private File spectrumExportFolder = null;
+    /**
+     * The type of spectrum export.
+     */
+    private SpectrumExporter.ExportType spectrumExportType;
+    /**
+     * The Progenesis export file, null if no Progenesis export is planned.
+     */
+    private File progenesisFile = null;
+    /**
+     * The type of Progenesis export.
+     */
+    private ProgenesisExport.ExportType progenesisExportType;
+    /**
+     * The PTMs of interest for the Progenesis PTM export.
+     */
+    private ArrayList<String> progenesisTargetedPTMs;
+
+    /**
+     * Constructor.
+     *
+     * @param identification the identification
+     * @param identificationParameters the identification parameters
+     */
+    public FollowUpExporter(Identification identification, IdentificationParameters identificationParameters) {
+        this.identification = identification;
+        this.identificationParameters = identificationParameters;
+    }
+
+    /**
+     * Plans the writing of recalibrated spectra. The files will be named as
+     * given by RecalibrationExporter.getRecalibratedFileName.
+     *
+     * @param folder the folder where to write the recalibrated spectra
+     * @param recalibratePrecursors boolean indicating whether the precursors
+     * shall be recalibrated
+     * @param recalibrateFragmentIons boolean indicating whether the fragment
+     * ions shall be recalibrated
+     */
+    public void planRecalibration(File folder, boolean recalibratePrecursors, boolean recalibrateFragmentIons) {
+        this.recalibrationFolder = folder;
+        this.recalibratePrecursors = recalibratePrecursors;
+        this.recalibrateFragmentIons = recalibrateFragmentIons;
+    }
+
+    /**
+     * Plans the export of spectra. The files will be named as given by
+     * SpectrumExporter.getFileName.
+     *
+     * @param folder the folder where to export the spectra
+     * @param exportType the type of PSM to export
+     */
+    public void planSpectrumExport(File folder, SpectrumExporter.ExportType exportType) {
+        this.spectrumExportFolder = folder;
+        this.spectrumExportType = exportType;
+    }
+
+    /**
+     * Plans the Progenesis export.
+     *
+     * @param destinationFile the destination file
+     * @param exportType the type of export
+     * @param targetedPTMs the PTMs of interest in case of a PTM export.
+     * Ignored otherwise.
+     */
+    public void planProgenesisExport(File destinationFile, ProgenesisExport.ExportType exportType, ArrayList<String> targetedPTMs) {
+        if (exportType == ProgenesisExport.ExportType.confident_ptms) {
+            if (targetedPTMs == null || targetedPTMs.isEmpty()) {
+                throw new IllegalArgumentException("No modification provided for the Progenesis PTM export.");
+            }
+        }
+        this.progenesisFile = destinationFile;
+        this.progenesisExportType = exportType;
+        this.progenesisTargetedPTMs = targetedPTMs;
+    }
+
+    /**
+     * Indicates whether an output is planned.
+     *
+     * @return a boolean indicating whether an output is planned
+     */
+    public boolean exportPlanned() {
+        return recalibrationFolder != null || spectrumExportFolder != null || progenesisFile != null;
+    }
+
+    /**
+     * Writes the planned outputs. An error in a writer stops this writer only,
+     * the other outputs are completed and the error is thrown at the end.
+     *
+     * @param waitingHandler waiting handler displaying progress and used to
+     * cancel the process. Can be null. The method does not call RunFinished.
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while writing the outputs
+     * @throws SQLException exception thrown whenever an SQL exception occurred
+     * while interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an exception
+     * occurred while deserializing an object
+     * @throws MzMLUnmarshallerException exception thrown whenever an exception
+     * occurred while reading an mzML file
+     */
+    public void export(WaitingHandler waitingHandler) throws IOException, MzMLUnmarshallerException, SQLException, ClassNotFoundException, InterruptedException {
+
+        if (!exportPlanned()) {
+            return;
+        }
+
+        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+        PSParameter psParameter = new PSParameter();
+
+        // batch load the match parameters needed by the outputs
+        boolean peptidesNeeded = spectrumExportFolder != null
+                && (spectrumExportType == SpectrumExporter.ExportType.non_validated_peptides
+                || spectrumExportType == SpectrumExporter.ExportType.validated_psms_peptides
+                || spectrumExportType == SpectrumExporter.ExportType.validated_psms_peptides_proteins)
+                || progenesisFile != null && progenesisExportType != ProgenesisExport.ExportType.validated_psms;
+        boolean proteinsNeeded = spectrumExportFolder != null
+                && (spectrumExportType == SpectrumExporter.ExportType.non_validated_proteins
+                || spectrumExportType == SpectrumExporter.ExportType.validated_psms_peptides_proteins)
+                || progenesisFile != null
+                && (progenesisExportType == ProgenesisExport.ExportType.validated_psms_peptides_proteins
+                || progenesisExportType == ProgenesisExport.ExportType.confident_ptms);
+        if (peptidesNeeded) {
+            if (waitingHandler != null) {
+                waitingHandler.setWaitingText("Follow-up Export - Loading Peptides. Please Wait...");
+            }
+            identification.loadPeptideMatchParameters(psParameter, waitingHandler);
+        }
+        if (proteinsNeeded) {
+            if (waitingHandler != null) {
+                waitingHandler.setWaitingText("Follow-up Export - Loading Proteins. Please Wait...");
+            }
+            identification.loadProteinMatchParameters(psParameter, waitingHandler);
+        }
+
+        // the spectrum files of opened projects are loaded on demand
+        SpectrumFileLoader.getInstance().loadAllSpectrumFiles(waitingHandler);
+
+        // start a writer per output
+        ArrayList<OutputWriter> writers = new ArrayList<OutputWriter>(3);
+        if (recalibrationFolder != null) {
+            if (!recalibrationFolder.exists()) {
+                recalibrationFolder.mkdir();
+            }
+            writers.add(new RecalibrationWriter(waitingHandler));
+        }
+        if (spectrumExportFolder != null) {
+            if (!spectrumExportFolder.exists()) {
+                spectrumExportFolder.mkdir();
+            }
+            writers.add(new SpectrumWriter(waitingHandler));
+        }
+        if (progenesisFile != null) {
+            writers.add(new ProgenesisWriter(waitingHandler));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(writers.size());
+        for (OutputWriter writer : writers) {
+            pool.submit(writer);
+        }
+
+        try {
+
+            SpectrumRecalibrator spectrumRecalibrator = new SpectrumRecalibrator();
+            ArrayList<String> fileNames = spectrumFactory.getMgfFileNames();
+
+            for (int i = 0; i < fileNames.size(); i++) {
+
+                String fileName = fileNames.get(i);
+
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    break;
+                }
+
+                RunMzDeviation runMzDeviation = null;
+                if (recalibrationFolder != null) {
+                    if (waitingHandler != null) {
+                        waitingHandler.setWaitingText("Recalibrating Spectra. Inspecting Mass Deviations. Please Wait... (" + (i + 1) + "/" + fileNames.size() + ")");
+                        waitingHandler.resetSecondaryProgressCounter();
+                        waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+                        waitingHandler.setMaxSecondaryProgressCounter(2 * spectrumFactory.getNSpectra(fileName));
+                    }
+                    spectrumRecalibrator.estimateErrors(fileName, identification, identificationParameters, waitingHandler);
+                    runMzDeviation = spectrumRecalibrator.getRunMzDeviations(fileName);
+                    spectrumRecalibrator.clearErrors(fileName);
+                }
+
+                if (waitingHandler != null) {
+                    if (waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+                    waitingHandler.setWaitingText("Follow-up Export - Loading PSMs. Please Wait... (" + (i + 1) + "/" + fileNames.size() + ")");
+                }
+                identification.loadSpectrumMatches(fileName, waitingHandler);
+                identification.loadSpectrumMatchParameters(fileName, psParameter, waitingHandler);
+
+                if (waitingHandler != null) {
+                    waitingHandler.setWaitingText("Follow-up Export - Writing Files. Please Wait... (" + (i + 1) + "/" + fileNames.size() + ")");
+                    waitingHandler.resetSecondaryProgressCounter();
+                    waitingHandler.setMaxSecondaryProgressCounter(spectrumFactory.getNSpectra(fileName));
+                }
+
+                // the output files are created also for the spectrum files without PSM
+                FollowUpItem fileStart = FollowUpItem.getFileStart(fileName);
+                for (OutputWriter writer : writers) {
+                    writer.queue.put(fileStart);
+                }
+
+                for (String spectrumTitle : spectrumFactory.getSpectrumTitles(fileName)) {
+
+                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+
+                    String spectrumKey = Spectrum.getSpectrumKey(fileName, spectrumTitle);
+                    boolean identified = identification.matchExists(spectrumKey);
+
+                    // the spectrum is read here only when all spectra are needed, the other writers read the spectra of the PSMs they export
+                    MSnSpectrum spectrum = null;
+                    if (runMzDeviation != null) {
+                        spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(fileName, spectrumTitle);
+                    }
+
+                    FollowUpItem item = new FollowUpItem(fileName, spectrumTitle, spectrumKey, identified, spectrum, runMzDeviation);
+                    for (OutputWriter writer : writers) {
+                        if (identified || writer.needsAllSpectra()) {
+                            writer.queue.put(item);
+                        }
+                    }
+
+                    if (waitingHandler != null) {
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            }
+        } finally {
+            for (OutputWriter writer : writers) {
+                writer.queue.put(FollowUpItem.END_OF_INPUT);
+            }
+            pool.shutdown();
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("Follow-up export timed out. Please contact the developers.");
+            }
+        }
+
+        // throw the first error encountered by the writers
+        Exception writerException = null;
+        for (OutputWriter writer : writers) {
+            if (writer.exception != null) {
+                if (writerException == null) {
+                    writerException = writer.exception;
+                } else {
+                    writer.exception.printStackTrace();
+                }
+            }
+        }
+        if (writerException != null) {
+            if (writerException instanceof IOException) {
+                throw (IOException) writerException;
+            } else if (writerException instanceof SQLException) {
+                throw (SQLException) writerException;
+            } else if (writerException instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) writerException;
+            } else if (writerException instanceof InterruptedException) {
+                throw (InterruptedException) writerException;
+            } else if (writerException instanceof MzMLUnmarshallerException) {
+                throw (MzMLUnmarshallerException) writerException;
+            } else if (writerException instanceof RuntimeException) {
+                throw (RuntimeException) writerException;
+            }
+            throw new IOException("An error occurred while writing the follow-up outputs.", writerException);
+        }
+    }
+
+    /**
+     * The data of a spectrum passed to the writers.
+     */
+    private static class FollowUpItem {
+
+        /**
+         * The item marking the end of the input.
+         */
+        private static final FollowUpItem END_OF_INPUT = new FollowUpItem(null, null, null, false, null, null);
+        /**
+         * The name of the spectrum file.
+         */
+        private final String fileName;
+        /**
+         * The title of the spectrum.
+         */
+        private final String spectrumTitle;
+        /**
+         * The key of the spectrum.
+         */
+        private final String spectrumKey;
+        /**
+         * Boolean indicating whether the spectrum is identified.
+         */
+        private final boolean identified;
+        /**
+         * The spectrum, null if not loaded.
+         */
+        private final MSnSpectrum spectrum;
+        /**
+         * The m/z deviation statistics of the file, null if no recalibration
+         * is planned.
+         */
+        private final RunMzDeviation runMzDeviation;
+
+        /**
+         * Returns an item marking the beginning of the spectra of the given
+         * spectrum file.
+         *
+         * @param fileName the name of the spectrum file
+         *
+         * @return an item marking the beginning of the spectrum file
+         */
+        private static FollowUpItem getFileStart(String fileName) {
+            return new FollowUpItem(fileName, null, null, false, null, null);
+        }
+
+        /**
+         * Indicates whether the item marks the beginning of the spectra of a
+         * spectrum file.
+         *
+         * @return a boolean indicating whether the item marks the beginning of
+         * a spectrum file
+         */
+        private boolean isFileStart() {
+            return fileName != null && spectrumTitle == null;
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param fileName the name of the spectrum file
+         * @param spectrumTitle the title of the spectrum
+         * @param spectrumKey the key of the spectrum
+         * @param identified boolean indicating whether the spectrum is
+         * identified
+         * @param spectrum the spectrum, null if not loaded
+         * @param runMzDeviation the m/z deviation statistics of the file,
+         * null if no recalibration is planned
+         */
+        private FollowUpItem(String fileName, String spectrumTitle, String spectrumKey, boolean identified, MSnSpectrum spectrum, RunMzDeviation runMzDeviation) {
+            this.fileName = fileName;
+            this.spectrumTitle = spectrumTitle;
+            this.spectrumKey = spectrumKey;
+            this.identified = identified;
+            this.spectrum = spectrum;
+            this.runMzDeviation = runMzDeviation;
+        }
+
+        /**
+         * Returns the spectrum, loading it from the spectrum factory if it
+         * was not loaded already.
+         *
+         * @return the spectrum
+         *
+         * @throws IOException exception thrown whenever an IO exception
+         * occurred while reading the spectrum
+         * @throws MzMLUnmarshallerException exception thrown whenever an
+         * exception occurred while reading an mzML file
+         */
+        private MSnSpectrum getSpectrum() throws IOException, MzMLUnmarshallerException {
+            if (spectrum != null) {
+                return spectrum;
+            }
+            return (MSnSpectrum) SpectrumFactory.getInstance().getSpectrum(fileName, spectrumTitle);
+        }
+    }
+
+    /**
+     * Runnable writing an output from the items taken from its queue until
+     * the end of the input is reached.
+     */
+    private abstract class OutputWriter implements Runnable {
+
+        /**
+         * The queue of items to write.
+         */
+        protected final ArrayBlockingQueue<FollowUpItem> queue = new ArrayBlockingQueue<FollowUpItem>(QUEUE_SIZE);
+        /**
+         * The waiting handler, can be null.
+         */
+        protected final WaitingHandler waitingHandler;
+        /**
+         * The first exception encountered by the writer, null if none. The
+         * writer stops writing after an exception.
+         */
+        private Exception exception = null;
+
+        /**
+         * Constructor.
+         *
+         * @param waitingHandler the waiting handler, can be null
+         */
+        public OutputWriter(WaitingHandler waitingHandler) {
+            this.waitingHandler = waitingHandler;
+        }
+
+        /**
+         * Indicates whether the writer needs all spectra or only the
+         * identified ones.
+         *
+         * @return a boolean indicating whether the writer needs all spectra
+         */
+        public abstract boolean needsAllSpectra();
+
+        /**
+         * Prepares the writing of the spectra of the given spectrum file.
+         *
+         * @param fileName the name of the spectrum file
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while creating a file
+         */
+        protected abstract void startFile(String fileName) throws IOException;
+
+        /**
+         * Writes the given item.
+         *
+         * @param item the item to write
+         *
+         * @throws Exception exception thrown whenever an error occurred while
+         * writing the item
+         */
+        protected abstract void write(FollowUpItem item) throws Exception;
+
+        /**
+         * Closes the files of the writer.
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * closing a file
+         */
+        protected abstract void close() throws IOException;
+
+        /**
+         * Indicates whether the run is canceled.
+         *
+         * @return a boolean indicating whether the run is canceled
+         */
+        private boolean isCanceled() {
+            return waitingHandler != null && waitingHandler.isRunCanceled();
+        }
+
+        /**
+         * Handles an exception. Only the first exception is kept, the other
+         * outputs are not affected.
+         *
+         * @param e the exception
+         */
+        private void handleException(Exception e) {
+            if (exception == null) {
+                exception = e;
+            } else {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                FollowUpItem item;
+                while ((item = queue.take()) != FollowUpItem.END_OF_INPUT) {
+                    // keep draining the queue when canceled or failed so that the producer is not blocked
+                    if (!isCanceled() && exception == null) {
+                        try {
+                            if (item.isFileStart()) {
+                                startFile(item.fileName);
+                            } else {
+                                write(item);
+                            }
+                        } catch (Exception e) {
+                            handleException(e);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                handleException(e);
+            } finally {
+                try {
+                    close();
+                } catch (IOException e) {
+                    handleException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writer of the recalibrated spectra, one file per spectrum file.
+     */
+    private class RecalibrationWriter extends OutputWriter {
+
+        /**
+         * The writer of the current file.
+         */
+        private BufferedWriter writer = null;
+
+        /**
+         * Constructor.
+         *
+         * @param waitingHandler the waiting handler, can be null
+         */
+        public RecalibrationWriter(WaitingHandler waitingHandler) {
+            super(waitingHandler);
+        }
+
+        @Override
+        public boolean needsAllSpectra() {
+            return true;
+        }
+
+        @Override
+        protected void startFile(String fileName) throws IOException {
+            close();
+            writer = new BufferedWriter(new FileWriter(new File(recalibrationFolder, RecalibrationExporter.getRecalibratedFileName(fileName))));
+        }
+
+        @Override
+        protected void write(FollowUpItem item) throws Exception {
+            MSnSpectrum recalibratedSpectrum = SpectrumRecalibrator.recalibrateSpectrum(item.fileName, item.spectrumTitle, item.getSpectrum(),
+                    item.runMzDeviation, recalibratePrecursors, recalibrateFragmentIons);
+            recalibratedSpectrum.writeMgf(writer);
+        }
+
+        @Override
+        protected void close() throws IOException {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        }
+    }
+
+    /**
+     * Writer of the exported spectra, one file per spectrum file.
+     */
+    private class SpectrumWriter extends OutputWriter {
+
+        /**
+         * The spectrum exporter deciding which spectra to export.
+         */
+        private final SpectrumExporter spectrumExporter = new SpectrumExporter(identification);
+        /**
+         * The writer of the current file.
+         */
+        private BufferedWriter writer = null;
+
+        /**
+         * Constructor.
+         *
+         * @param waitingHandler the waiting handler, can be null
+         */
+        public SpectrumWriter(WaitingHandler waitingHandler) {
+            super(waitingHandler);
+        }
+
+        @Override
+        public boolean needsAllSpectra() {
+            return false;
+        }
+
+        @Override
+        protected void startFile(String fileName) throws IOException {
+            close();
+            writer = new BufferedWriter(new FileWriter(new File(spectrumExportFolder, SpectrumExporter.getFileName(fileName, spectrumExportType))));
+        }
+
+        @Override
+        protected void write(FollowUpItem item) throws Exception {
+            SpectrumMatch spectrumMatch = identification.getSpectrumMatch(item.spectrumKey);
+            if (spectrumExporter.shallExport(spectrumMatch, spectrumExportType, identificationParameters.getSequenceMatchingPreferences())) {
+                writer.write(item.getSpectrum().asMgf());
+            }
+        }
+
+        @Override
+        protected void close() throws IOException {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        }
+    }
+
+    /**
+     * Writer of the Progenesis export.
+     */
+    private class ProgenesisWriter extends OutputWriter {
+
+        /**
+         * The writer of the Progenesis file.
+         */
+        private BufferedWriter writer = null;
+
+        /**
+         * Constructor.
+         *
+         * @param waitingHandler the waiting handler, can be null
+         */
+        public ProgenesisWriter(WaitingHandler waitingHandler) {
+            super(waitingHandler);
+        }
+
+        @Override
+        public boolean needsAllSpectra() {
+            return false;
+        }
+
+        @Override
+        protected void startFile(String fileName) throws IOException {
+            // a single file for all spectrum files
+        }
+
+        @Override
+        protected void write(FollowUpItem item) throws Exception {
+            if (writer == null) {
+                writer = new BufferedWriter(new FileWriter(progenesisFile));
+                ProgenesisExport.writeHeader(writer);
+            }
+            ProgenesisExport.exportPsm(writer, item.spectrumKey, identification, progenesisExportType, progenesisTargetedPTMs, identificationParameters.getSequenceMatchingPreferences());
+        }
+
+        @Override
+        protected void close() throws IOException {
+            if (writer == null && progenesisFile != null) {
+                // no PSM, write the header only
+                writer = new BufferedWriter(new FileWriter(progenesisFile));
+                ProgenesisExport.writeHeader(writer);
+            }
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+}
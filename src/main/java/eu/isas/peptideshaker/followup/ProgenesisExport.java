@@ -12,6 +12,7 @@ import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.myparameters.PSParameter;
+import eu.isas.peptideshaker.utils.SpectrumFileLoader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
@@ -63,6 +64,9 @@ public class ProgenesisExport {
             }
         }
 
+        // the spectrum files of opened projects are loaded on demand
+        SpectrumFileLoader.getInstance().loadAllSpectrumFiles(waitingHandler);
+
         SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
         PSParameter psParameter = new PSParameter();
 
@@ -87,15 +91,7 @@ public class ProgenesisExport {
         try {
             BufferedWriter writer = new BufferedWriter(f);
             try {
-                writer.write("sequence" + SEPARATOR);
-                writer.write("modif" + SEPARATOR);
-                writer.write("score" + SEPARATOR);
-                writer.write("main AC" + SEPARATOR);
-                writer.write("description" + SEPARATOR);
-                writer.write("compound" + SEPARATOR);
-                writer.write("jobid" + SEPARATOR);
-                writer.write("pmkey" + SEPARATOR);
-                writer.newLine();
+                writeHeader(writer);
 
                 for (int i = 0; i < spectrumFactory.getMgfFileNames().size(); i++) {
 
@@ -121,73 +117,120 @@ public class ProgenesisExport {
                         String spectrumKey = Spectrum.getSpectrumKey(mgfFile, spectrumTitle);
 
                         if (identification.matchExists(spectrumKey)) {
-                            psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+                            exportPsm(writer, spectrumKey, identification, exportType, targetedPTMs, sequenceMatchingPreferences);
+                            if (waitingHandler != null) {
+                                if (waitingHandler.isRunCanceled()) {
+                                    return;
+                                }
+                                waitingHandler.increaseSecondaryProgressCounter();
+                            }
+                        }
+                    }
+                }
+            } finally {
+                writer.close();
+            }
+        } finally {
+            f.close();
+        }
+    }
 
-                            if (psParameter.getMatchValidationLevel().isValidated()) {
+    /**
+     * Writes the header of the Progenesis export.
+     *
+     * @param writer the writer
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    public static void writeHeader(BufferedWriter writer) throws IOException {
+        writer.write("sequence" + SEPARATOR);
+        writer.write("modif" + SEPARATOR);
+        writer.write("score" + SEPARATOR);
+        writer.write("main AC" + SEPARATOR);
+        writer.write("description" + SEPARATOR);
+        writer.write("compound" + SEPARATOR);
+        writer.write("jobid" + SEPARATOR);
+        writer.write("pmkey" + SEPARATOR);
+        writer.newLine();
+    }
+
+    /**
+     * Writes the lines corresponding to a PSM if it passes the criteria of
+     * the export type. Note: proteins must be set for every exported peptide
+     * and the PSM must exist.
+     *
+     * @param writer the writer
+     * @param spectrumKey the key of the PSM
+     * @param identification the identification
+     * @param exportType the type of export
+     * @param targetedPTMs the PTMs of interest in case of a PTM export.
+     * Ignored otherwise.
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws IllegalArgumentException thrown if an IllegalArgumentException
+     * occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     */
+    public static void exportPsm(BufferedWriter writer, String spectrumKey, Identification identification, ExportType exportType,
+            ArrayList<String> targetedPTMs, SequenceMatchingPreferences sequenceMatchingPreferences)
+            throws IllegalArgumentException, SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        PSParameter psParameter = new PSParameter();
+        psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
 
-                                SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumKey);
-                                if (spectrumMatch.getBestPeptideAssumption() != null) {
-                                    Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
+        if (psParameter.getMatchValidationLevel().isValidated()) {
 
-                                    if (exportType != ExportType.confident_ptms || isTargetedPeptide(peptide, targetedPTMs)) {
+            SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumKey);
+            if (spectrumMatch.getBestPeptideAssumption() != null) {
+                Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
 
-                                        boolean decoy = false;
-                                        for (String protein : peptide.getParentProteins(sequenceMatchingPreferences)) {
-                                            if (SequenceFactory.getInstance().isDecoyAccession(protein)) {
-                                                decoy = true;
-                                                break;
-                                            }
-                                        }
-                                        if (!decoy) {
-                                            if (exportType == ExportType.validated_psms) {
-                                                writePsm(writer, spectrumKey, identification, sequenceMatchingPreferences);
-                                            } else {
-                                                String peptideKey = peptide.getMatchingKey(sequenceMatchingPreferences);
-                                                psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+                if (exportType != ExportType.confident_ptms || isTargetedPeptide(peptide, targetedPTMs)) {
+
+                    boolean decoy = false;
+                    for (String protein : peptide.getParentProteins(sequenceMatchingPreferences)) {
+                        if (SequenceFactory.getInstance().isDecoyAccession(protein)) {
+                            decoy = true;
+                            break;
+                        }
+                    }
+                    if (!decoy) {
+                        if (exportType == ExportType.validated_psms) {
+                            writePsm(writer, spectrumKey, identification, sequenceMatchingPreferences);
+                        } else {
+                            String peptideKey = peptide.getMatchingKey(sequenceMatchingPreferences);
+                            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+                            if (psParameter.getMatchValidationLevel().isValidated()) {
+                                if (exportType == ExportType.validated_psms_peptides) {
+                                    writePsm(writer, spectrumKey, identification, sequenceMatchingPreferences);
+                                } else {
+                                    ArrayList<String> accessions = new ArrayList<String>();
+                                    for (String accession : peptide.getParentProteins(sequenceMatchingPreferences)) {
+                                        ArrayList<String> groups = identification.getProteinMap().get(accession);
+                                        if (groups != null) {
+                                            for (String group : groups) {
+                                                psParameter = (PSParameter) identification.getProteinMatchParameter(group, psParameter);
                                                 if (psParameter.getMatchValidationLevel().isValidated()) {
-                                                    if (exportType == ExportType.validated_psms_peptides) {
-                                                        writePsm(writer, spectrumKey, identification, sequenceMatchingPreferences);
-                                                    } else {
-                                                        ArrayList<String> accessions = new ArrayList<String>();
-                                                        for (String accession : peptide.getParentProteins(sequenceMatchingPreferences)) {
-                                                            ArrayList<String> groups = identification.getProteinMap().get(accession);
-                                                            if (groups != null) {
-                                                                for (String group : groups) {
-                                                                    psParameter = (PSParameter) identification.getProteinMatchParameter(group, psParameter);
-                                                                    if (psParameter.getMatchValidationLevel().isValidated()) {
-                                                                        for (String groupAccession : ProteinMatch.getAccessions(group)) {
-                                                                            if (!accessions.contains(groupAccession)) {
-                                                                                accessions.add(groupAccession);
-                                                                            }
-                                                                        }
-                                                                    }
-                                                                }
-                                                            }
-                                                        }
-                                                        if (!accessions.isEmpty()) {
-                                                            writePsm(writer, spectrumKey, accessions, identification, sequenceMatchingPreferences);
+                                                    for (String groupAccession : ProteinMatch.getAccessions(group)) {
+                                                        if (!accessions.contains(groupAccession)) {
+                                                            accessions.add(groupAccession);
                                                         }
                                                     }
                                                 }
                                             }
                                         }
                                     }
+                                    if (!accessions.isEmpty()) {
+                                        writePsm(writer, spectrumKey, accessions, identification, sequenceMatchingPreferences);
+                                    }
                                 }
                             }
-                            if (waitingHandler != null) {
-                                if (waitingHandler.isRunCanceled()) {
-                                    return;
-                                }
-                                waitingHandler.increaseSecondaryProgressCounter();
-                            }
                         }
                     }
                 }
-            } finally {
-                writer.close();
             }
-        } finally {
-            f.close();
         }
     }
 
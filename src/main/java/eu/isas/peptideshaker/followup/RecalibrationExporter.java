@@ -9,6 +9,7 @@ import com.compomics.util.preferences.AnnotationPreferences;
 import com.compomics.util.preferences.IdentificationParameters;
 import eu.isas.peptideshaker.recalibration.RunMzDeviation;
 import eu.isas.peptideshaker.recalibration.SpectrumRecalibrator;
+import eu.isas.peptideshaker.utils.SpectrumFileLoader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
@@ -64,6 +65,9 @@ public class RecalibrationExporter {
             Identification identification, IdentificationParameters identificationParameters, WaitingHandler waitingHandler)
             throws IOException, MzMLUnmarshallerException, SQLException, ClassNotFoundException, InterruptedException {
 
+        // the spectrum files of opened projects are loaded on demand
+        SpectrumFileLoader.getInstance().loadAllSpectrumFiles(waitingHandler);
+
         SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
         SpectrumRecalibrator spectrumRecalibrator = new SpectrumRecalibrator();
 
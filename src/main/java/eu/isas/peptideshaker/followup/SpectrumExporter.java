@@ -11,6 +11,7 @@ import com.compomics.util.experiment.personalization.UrParameter;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.myparameters.PSParameter;
+import eu.isas.peptideshaker.utils.SpectrumFileLoader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
@@ -86,6 +87,9 @@ public class SpectrumExporter {
             identification.loadProteinMatchParameters(psParameter, waitingHandler);
         }
 
+        // the spectrum files of opened projects are loaded on demand
+        SpectrumFileLoader.getInstance().loadAllSpectrumFiles(waitingHandler);
+
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
         parameters.add(psParameter);
 
@@ -173,7 +177,7 @@ public class SpectrumExporter {
      * Indicates whether a spectrum shall be exported according to the export
      * type number. Note: proteins must be set for every exported peptide.
      *
-     * @param spectrumKey the key of the spectrum
+     * @param spectrumMatch the spectrum match
      * @param exportType the export type number
      * @param sequenceMatchingPreferences the sequence matching preferences
      *
@@ -184,7 +188,7 @@ public class SpectrumExporter {
      * @throws InterruptedException thrown if an InterruptedException occurs
      * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
      */
-    private boolean shallExport(SpectrumMatch spectrumMatch, ExportType exportType, SequenceMatchingPreferences sequenceMatchingPreferences)
+    public boolean shallExport(SpectrumMatch spectrumMatch, ExportType exportType, SequenceMatchingPreferences sequenceMatchingPreferences)
             throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
         PSParameter psParameter = new PSParameter();
@@ -14,6 +14,7 @@ import eu.isas.peptideshaker.recalibration.SpectrumRecalibrator;
 import eu.isas.peptideshaker.scoring.PsmSpecificMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyResults;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoySeries;
+import eu.isas.peptideshaker.utils.SpectrumFileLoader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
@@ -99,6 +100,9 @@ public class TrainingExport {
     public static void exportPepnovoTrainingFiles(File destinationFolder, Identification identification, IdentificationParameters identificationParameters, Double fdr, Double fnr,
             boolean recalibrate, WaitingHandler waitingHandler) throws IOException, MzMLUnmarshallerException, SQLException, ClassNotFoundException, InterruptedException {
 
+        // the spectrum files of opened projects are loaded on demand
+        SpectrumFileLoader.getInstance().loadAllSpectrumFiles(waitingHandler);
+
         SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
         SpectrumRecalibrator spectrumRecalibrator = new SpectrumRecalibrator();
 
@@ -18,6 +18,7 @@ import eu.isas.peptideshaker.gui.tabpanels.PtmPanel;
 import eu.isas.peptideshaker.myparameters.PSMaps;
 import eu.isas.peptideshaker.myparameters.PSParameter;
 import eu.isas.peptideshaker.scoring.MatchValidationLevel;
+import eu.isas.peptideshaker.utils.SpectrumFileLoader;
 import java.awt.Color;
 import java.awt.Toolkit;
 import java.awt.event.MouseEvent;
@@ -1679,9 +1680,11 @@ public class FindDialog extends javax.swing.JDialog {
                     case 4:
                         return Spectrum.getSpectrumTitle(spectrumKey);
                     case 5:
+                        SpectrumFileLoader.getInstance().loadSpectrumFileOfKey(spectrumKey);
                         precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
                         return precursor.getRt();
                     case 6:
+                        SpectrumFileLoader.getInstance().loadSpectrumFileOfKey(spectrumKey);
                         precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
                         return precursor.getMz();
                     case 7:
@@ -1695,6 +1698,7 @@ public class FindDialog extends javax.swing.JDialog {
                         }
                     case 8:
                         spectrumMatch = identification.getSpectrumMatch(spectrumKey);
+                        SpectrumFileLoader.getInstance().loadSpectrumFileOfKey(spectrumKey);
                         precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
                         if (spectrumMatch.getBestPeptideAssumption() != null) {
                             return Math.abs(spectrumMatch.getBestPeptideAssumption().getDeltaMass(precursor.getMz(), peptideShakerGUI.getIdentificationParameters().getSearchParameters().isPrecursorAccuracyTypePpm()));
@@ -10,6 +10,7 @@ import com.compomics.util.experiment.massspectrometry.Precursor;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import eu.isas.peptideshaker.myparameters.PSParameter;
+import eu.isas.peptideshaker.utils.SpectrumFileLoader;
 import java.awt.Color;
 import java.awt.event.KeyEvent;
 import java.io.IOException;
@@ -511,6 +512,12 @@ public class JumpToPanel extends javax.swing.JPanel {
                                         }
                                     }
                                 } else {
+                                    try {
+                                        SpectrumFileLoader.getInstance().loadSpectrumFile(spectrumfile, null);
+                                    } catch (Exception e) {
+                                        peptideShakerGUI.catchException(e);
+                                        return;
+                                    }
                                     for (String spectrumTitle : spectrumFactory.getSpectrumTitles(spectrumfile)) {
                                         String spectrumKey = Spectrum.getSpectrumKey(spectrumfile, spectrumTitle);
                                         if (spectrumKey.toLowerCase().contains(input)) {
@@ -783,6 +783,8 @@ public class NewDialog extends javax.swing.JDialog {
                 peptideShakerGUI.setMetrics(peptideShaker.getMetrics());
                 peptideShakerGUI.setIdentificationFeaturesGenerator(peptideShaker.getIdentificationFeaturesGenerator());
                 peptideShakerGUI.setCache(peptideShaker.getCache());
+                peptideShakerGUI.setProjectDirectory(peptideShaker.getProjectDirectory());
+                peptideShakerGUI.setProcessingProfile(peptideShaker.getProcessingProfile());
                 peptideShakerGUI.displayResults();
                 peptideShakerGUI.initiateDisplay(); // display the overview tab
                 peptideShakerGUI.getProjectDetails().setReport(waitingDialog.getReport(null));
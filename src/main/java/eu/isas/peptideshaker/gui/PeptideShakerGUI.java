@@ -100,7 +100,9 @@ import eu.isas.peptideshaker.scoring.PsmPTMMap;
 import eu.isas.peptideshaker.utils.CpsParent;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
 import eu.isas.peptideshaker.utils.Metrics;
+import eu.isas.peptideshaker.utils.ProcessingProfile;
 import eu.isas.peptideshaker.utils.PsZipUtils;
+import eu.isas.peptideshaker.utils.SpectrumFileLoader;
 import eu.isas.peptideshaker.utils.StarHider;
 import eu.isas.peptideshaker.validation.MatchesValidator;
 import java.awt.*;
@@ -367,6 +369,11 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
      * The cps parent used to manage the data.
      */
     private CpsParent cpsBean = new CpsParent();
+    /**
+     * The profile of the resources used when processing the project, null if
+     * not available.
+     */
+    private ProcessingProfile processingProfile = null;
     /**
      * True if an existing project is currently in the process of being opened.
      */
@@ -523,6 +530,7 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
             initComponents();
 
             psmSortRtRadioButtonMenuItem.setSelected(utilitiesUserPreferences.getSortPsmsOnRt());
+            prefetchSpectraCheckBoxMenuItem.setSelected(getUserPreferences().isPrefetchSpectrumFiles());
 
             reshakeMenuItem.setVisible(false); // @TODO: re-enable later?
             quantifyMenuItem.setVisible(false); // @TODO: re-enable later?
@@ -774,6 +782,7 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
         quantifyMenuItem = new javax.swing.JMenuItem();
         jSeparator2 = new javax.swing.JPopupMenu.Separator();
         projectPropertiesMenuItem = new javax.swing.JMenuItem();
+        processingProfileMenuItem = new javax.swing.JMenuItem();
         jSeparator1 = new javax.swing.JPopupMenu.Separator();
         saveMenuItem = new javax.swing.JMenuItem();
         saveAsMenuItem = new javax.swing.JMenuItem();
@@ -793,6 +802,7 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
         javaOptionsJMenuItem = new javax.swing.JMenuItem();
         configurationFilesSettings = new javax.swing.JMenuItem();
         privacyMenuItem = new javax.swing.JMenuItem();
+        prefetchSpectraCheckBoxMenuItem = new javax.swing.JCheckBoxMenuItem();
         jSeparator12 = new javax.swing.JPopupMenu.Separator();
         findJMenuItem = new javax.swing.JMenuItem();
         starHideJMenuItem = new javax.swing.JMenuItem();
@@ -1431,6 +1441,15 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
             }
         });
         fileJMenu.add(projectPropertiesMenuItem);
+
+        processingProfileMenuItem.setText("Processing Profile");
+        processingProfileMenuItem.setEnabled(false);
+        processingProfileMenuItem.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                processingProfileMenuItemActionPerformed(evt);
+            }
+        });
+        fileJMenu.add(processingProfileMenuItem);
         fileJMenu.add(jSeparator1);
 
         saveMenuItem.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_S, java.awt.event.InputEvent.CTRL_MASK));
@@ -1573,6 +1592,15 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
             }
         });
         editMenu.add(privacyMenuItem);
+
+        prefetchSpectraCheckBoxMenuItem.setText("Prefetch Spectrum Files");
+        prefetchSpectraCheckBoxMenuItem.setToolTipText("Load the spectrum files in the background after opening a project");
+        prefetchSpectraCheckBoxMenuItem.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                prefetchSpectraCheckBoxMenuItemActionPerformed(evt);
+            }
+        });
+        editMenu.add(prefetchSpectraCheckBoxMenuItem);
         editMenu.add(jSeparator12);
 
         findJMenuItem.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_F, java.awt.event.InputEvent.CTRL_MASK));
@@ -2613,6 +2641,17 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
         new ProjectDetailsDialog(this);
     }//GEN-LAST:event_projectPropertiesMenuItemActionPerformed
 
+    /**
+     * Open the processing profile dialog.
+     *
+     * @param evt
+     */
+    private void processingProfileMenuItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_processingProfileMenuItemActionPerformed
+        if (processingProfile != null) {
+            new ProcessingProfileDialog(this, processingProfile);
+        }
+    }//GEN-LAST:event_processingProfileMenuItemActionPerformed
+
     /**
      * Export the sequence fragmentation as a figure.
      *
@@ -3162,6 +3201,20 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
         new PrivacySettingsDialog(this, Toolkit.getDefaultToolkit().getImage(getClass().getResource("/icons/peptide-shaker.gif")));
     }//GEN-LAST:event_privacyMenuItemActionPerformed
 
+    /**
+     * Enable/disable the background loading of the spectrum files.
+     *
+     * @param evt
+     */
+    private void prefetchSpectraCheckBoxMenuItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_prefetchSpectraCheckBoxMenuItemActionPerformed
+        getUserPreferences().setPrefetchSpectrumFiles(prefetchSpectraCheckBoxMenuItem.isSelected());
+        if (prefetchSpectraCheckBoxMenuItem.isSelected()) {
+            SpectrumFileLoader.getInstance().startPrefetch(exceptionHandler);
+        } else {
+            SpectrumFileLoader.getInstance().stopPrefetch();
+        }
+    }//GEN-LAST:event_prefetchSpectraCheckBoxMenuItemActionPerformed
+
     /**
      * Show the tips.
      *
@@ -3230,6 +3283,7 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
                             pSMaps = (PSMaps) peptideShakerGUI.getIdentification().getUrParam(pSMaps);
 
                             MatchesValidator matchesValidator = new MatchesValidator(pSMaps.getPsmSpecificMap(), pSMaps.getPeptideSpecificMap(), pSMaps.getProteinMap());
+                            matchesValidator.setObjectsCache(peptideShakerGUI.getCache());
                             matchesValidator.validateIdentifications(peptideShakerGUI.getIdentification(), peptideShakerGUI.getMetrics(), pSMaps.getInputMap(), progressDialog, exceptionHandler, 
                                     peptideShakerGUI.getIdentificationFeaturesGenerator(), peptideShakerGUI.getShotgunProtocol(), peptideShakerGUI.getIdentificationParameters(),
                                     peptideShakerGUI.getSpectrumCountingPreferences(), peptideShakerGUI.getProcessingPreferences());
@@ -3540,8 +3594,10 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
     private javax.swing.JCheckBoxMenuItem peptidesAndPsmsJCheckBoxMenuItem;
     private javax.swing.JCheckBoxMenuItem precursorCheckMenu;
     private javax.swing.JMenuItem preferencesMenuItem;
+    private javax.swing.JCheckBoxMenuItem prefetchSpectraCheckBoxMenuItem;
     private javax.swing.JMenuItem privacyMenuItem;
     private javax.swing.JMenuItem processingParametersMenuItem;
+    private javax.swing.JMenuItem processingProfileMenuItem;
     private javax.swing.JMenu projectExportMenu;
     private javax.swing.JMenuItem projectPropertiesMenuItem;
     private javax.swing.JPanel proteinFractionsJPanel;
@@ -3837,6 +3893,7 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
         String spectrumFile = Spectrum.getSpectrumFile(spectrumKey);
         String spectrumTitle = Spectrum.getSpectrumTitle(spectrumKey);
         try {
+            SpectrumFileLoader.getInstance().loadSpectrumFile(spectrumFile, null);
             return (MSnSpectrum) spectrumFactory.getSpectrum(spectrumFile, spectrumTitle);
         } catch (Exception e) {
             catchException(e);
@@ -4169,8 +4226,10 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
         selectedPsmKey = NO_SELECTION;
 
         cpsBean.setProjectDetails(null);
+        setProcessingProfile(null);
         spectrumAnnotator = new PeptideSpectrumAnnotator();
 
+        SpectrumFileLoader.getInstance().clear();
         try {
             spectrumFactory.closeFiles();
         } catch (Exception e) {
@@ -4268,28 +4327,19 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
             }
         }
 
-        // empty the matches folder
+        // delete the project folder
         if (databaseClosed) {
 
-            File matchFolder = PeptideShaker.getSerializationDirectory(getJarFilePath());
+            File projectDirectory = cpsBean.getProjectDirectory();
 
-            if (matchFolder.exists()) {
+            if (projectDirectory != null && projectDirectory.exists()) {
 
                 DerbyUtil.closeConnection();
 
-                File[] tempFiles = matchFolder.listFiles();
-
-                if (tempFiles != null) {
-                    for (File currentFile : tempFiles) {
-                        Util.deleteDir(currentFile);
-                    }
-                }
-
-                if (matchFolder.listFiles() != null && matchFolder.listFiles().length > 0) {
-                    JOptionPane.showMessageDialog(null, "Failed to empty the database folder:\n" + matchFolder.getPath() + ".",
+                if (!cpsBean.deleteProjectDirectory()) {
+                    JOptionPane.showMessageDialog(null, "Failed to empty the database folder:\n" + projectDirectory.getPath() + ".",
                             "Database Cleanup Failed", JOptionPane.WARNING_MESSAGE);
                 }
-
             }
         }
     }
@@ -5488,23 +5538,19 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
                         return;
                     }
 
-                    progressDialog.setTitle("Loading Spectrum Files. Please Wait...");
+                    progressDialog.setTitle("Locating Spectrum Files. Please Wait...");
                     progressDialog.resetPrimaryProgressCounter();
                     progressDialog.setMaxPrimaryProgressCounter(getIdentification().getSpectrumFiles().size() + 1);
                     progressDialog.increasePrimaryProgressCounter();
 
+                    // the spectrum files are only located here, they are loaded when first needed or in the background
                     int cpt = 0, total = getIdentification().getSpectrumFiles().size();
                     for (String spectrumFileName : getIdentification().getSpectrumFiles()) {
 
-                        progressDialog.setTitle("Loading Spectrum Files (" + ++cpt + " of " + total + "). Please Wait...");
+                        progressDialog.setTitle("Locating Spectrum Files (" + ++cpt + " of " + total + "). Please Wait...");
                         progressDialog.increasePrimaryProgressCounter();
 
-                        boolean found;
-                        try {
-                            found = cpsBean.loadSpectrumFile(spectrumFileName, progressDialog);
-                        } catch (Exception e) {
-                            found = false;
-                        }
+                        boolean found = cpsBean.registerSpectrumFile(spectrumFileName, null);
                         if (!found) {
                             JOptionPane.showMessageDialog(peptideShakerGUI,
                                     "Spectrum file not found: \'" + spectrumFileName + "\'."
@@ -5543,7 +5589,7 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
                                             String fileName = file.getName();
                                             if (spectrumFileName2.equals(fileName)) {
                                                 getProjectDetails().addSpectrumFile(file);
-                                                spectrumFactory.addSpectra(file, progressDialog);
+                                                SpectrumFileLoader.getInstance().registerSpectrumFile(file);
                                             }
                                             if (fileName.equals(spectrumFileName2)) {
                                                 found = true;
@@ -5575,6 +5621,10 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
                         }
                     }
 
+                    if (getUserPreferences().isPrefetchSpectrumFiles()) {
+                        SpectrumFileLoader.getInstance().startPrefetch(exceptionHandler);
+                    }
+
                     progressDialog.setPrimaryProgressCounterIndeterminate(true);
                     progressDialog.setRunFinished();
                     peptideShakerGUI.displayResults();
@@ -6105,6 +6155,26 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
         cpsBean.setObjectsCache(objectsCache);
     }
 
+    /**
+     * Sets the directory of the project where the identification database is
+     * stored.
+     *
+     * @param projectDirectory the directory of the project
+     */
+    public void setProjectDirectory(File projectDirectory) {
+        cpsBean.setProjectDirectory(projectDirectory);
+    }
+
+    /**
+     * Sets the profile of the resources used when processing the project.
+     *
+     * @param processingProfile the processing profile, null if not available
+     */
+    public void setProcessingProfile(ProcessingProfile processingProfile) {
+        this.processingProfile = processingProfile;
+        processingProfileMenuItem.setEnabled(processingProfile != null);
+    }
+
     /**
      * Returns the objects cache in use
      *
@@ -0,0 +1,142 @@
+package eu.isas.peptideshaker.gui;
+
+import eu.isas.peptideshaker.utils.ProcessingProfile;
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ * This dialog displays the time and memory used by the processing steps of
+ * the project.
+ *
+ * @author Marc Vaudel
+ */
+public class ProcessingProfileDialog extends javax.swing.JDialog {
+
+    /**
+     * The PeptideShakerGUI.
+     */
+    private PeptideShakerGUI peptideShakerGUI;
+    /**
+     * The profile to display.
+     */
+    private ProcessingProfile processingProfile;
+    /**
+     * The column names of the table.
+     */
+    private static final String[] COLUMN_NAMES = new String[]{"Step", "Wall Time (s)", "CPU Time (s)", "Allocated (MB)", "Peak Heap (MB)", "GC Count", "GC Time (s)", "#Items"};
+
+    /**
+     * Creates a dialog to display the processing profile.
+     *
+     * @param peptideShakerGUI the PeptideShakerGUI parent
+     * @param processingProfile the profile to display
+     */
+    public ProcessingProfileDialog(PeptideShakerGUI peptideShakerGUI, ProcessingProfile processingProfile) {
+        super(peptideShakerGUI, true);
+        this.peptideShakerGUI = peptideShakerGUI;
+        this.processingProfile = processingProfile;
+        setTitle("Processing Profile");
+        setIconImage(Toolkit.getDefaultToolkit().getImage(getClass().getResource("/icons/peptide-shaker.gif")));
+        initComponents();
+        setSize(900, 500);
+        setLocationRelativeTo(peptideShakerGUI);
+        setVisible(true);
+    }
+
+    /**
+     * Creates the components of the dialog.
+     */
+    private void initComponents() {
+
+        ArrayList<ProcessingProfile.Stage> stages = processingProfile.getStages();
+        Object[][] data = new Object[stages.size()][];
+        for (int i = 0; i < stages.size(); i++) {
+            ProcessingProfile.Stage stage = stages.get(i);
+            data[i] = new Object[]{
+                stage.getName(),
+                stage.getWallTime() / 1000000000.0,
+                stage.getCpuTime() < 0 ? null : stage.getCpuTime() / 1000000000.0,
+                stage.getAllocatedBytes() < 0 ? null : stage.getAllocatedBytes() / 1048576.0,
+                stage.getPeakHeap() / 1048576.0,
+                stage.getGcCount(),
+                stage.getGcTime() / 1000.0,
+                stage.getnItems() < 0 ? null : stage.getnItems()};
+        }
+
+        DefaultTableModel tableModel = new DefaultTableModel(data, COLUMN_NAMES) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                if (columnIndex == 0) {
+                    return String.class;
+                } else if (columnIndex == 5 || columnIndex == 7) {
+                    return Long.class;
+                }
+                return Double.class;
+            }
+        };
+        JTable profileTable = new JTable(tableModel);
+        profileTable.setAutoCreateRowSorter(true);
+        profileTable.getColumnModel().getColumn(0).setPreferredWidth(350);
+
+        JScrollPane tableScrollPane = new JScrollPane(profileTable);
+
+        JButton exportButton = new JButton("Export");
+        exportButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent evt) {
+                exportProfile();
+            }
+        });
+        JButton okButton = new JButton("OK");
+        okButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent evt) {
+                dispose();
+            }
+        });
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(exportButton);
+        buttonPanel.add(okButton);
+
+        JPanel backgroundPanel = new JPanel(new BorderLayout());
+        backgroundPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        backgroundPanel.add(tableScrollPane, BorderLayout.CENTER);
+        backgroundPanel.add(buttonPanel, BorderLayout.SOUTH);
+
+        setDefaultCloseOperation(javax.swing.WindowConstants.DISPOSE_ON_CLOSE);
+        getContentPane().add(backgroundPanel);
+    }
+
+    /**
+     * Exports the profile to a csv file selected by the user.
+     */
+    private void exportProfile() {
+        File selectedFile = peptideShakerGUI.getUserSelectedFile(".csv", "Comma separated values (*.csv)", "Export Processing Profile", false);
+        if (selectedFile != null) {
+            try {
+                processingProfile.writeProfile(selectedFile);
+                JOptionPane.showMessageDialog(this, "Processing profile saved to " + selectedFile.getAbsolutePath() + ".", "File Saved", JOptionPane.INFORMATION_MESSAGE);
+            } catch (IOException e) {
+                JOptionPane.showMessageDialog(this, "An error occurred while saving the processing profile.", "Save Error", JOptionPane.ERROR_MESSAGE);
+                e.printStackTrace();
+            }
+        }
+    }
+}
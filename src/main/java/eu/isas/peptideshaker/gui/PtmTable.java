@@ -10,6 +10,7 @@ import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.gui.spectrum.SpectrumPanel;
 import com.compomics.util.preferences.AnnotationPreferences;
 import com.compomics.util.preferences.SpecificAnnotationPreferences;
+import eu.isas.peptideshaker.utils.SpectrumFileLoader;
 import java.awt.Color;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
@@ -285,6 +286,7 @@ public class PtmTable extends JTable {
 
         for (String spectrumKey : spectrumKeys) {
             try {
+                SpectrumFileLoader.getInstance().loadSpectrumFileOfKey(spectrumKey);
                 MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
                 SpectrumMatch spectrumMatch = peptideShakerGUI.getIdentification().getSpectrumMatch(spectrumKey);
                 peptideShakerGUI.setSpecificAnnotationPreferences(new SpecificAnnotationPreferences(spectrumKey, spectrumMatch.getBestPeptideAssumption()));
@@ -462,6 +464,7 @@ public class PtmTable extends JTable {
 
         for (String spectrumKey : spectrumKeys) {
             try {
+                SpectrumFileLoader.getInstance().loadSpectrumFileOfKey(spectrumKey);
                 spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
                 spectrumMatch = peptideShakerGUI.getIdentification().getSpectrumMatch(spectrumKey);
                 peptideShakerGUI.setSpecificAnnotationPreferences(new SpecificAnnotationPreferences(spectrumKey, spectrumMatch.getBestPeptideAssumption()));
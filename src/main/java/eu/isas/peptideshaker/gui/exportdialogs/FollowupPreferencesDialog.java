@@ -4,7 +4,6 @@ import com.compomics.util.Util;
 import com.compomics.util.experiment.identification.SequenceFactory;
 import com.compomics.util.experiment.identification.matches.PeptideMatch;
 import com.compomics.util.experiment.identification.matches.ProteinMatch;
-import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.gui.JOptionEditorPane;
 import com.compomics.util.gui.ptm.PtmChooser;
 import com.compomics.util.gui.waiting.waitinghandlers.ProgressDialogX;
@@ -22,6 +21,7 @@ import eu.isas.peptideshaker.followup.SwathExport;
 import eu.isas.peptideshaker.gui.PeptideShakerGUI;
 import eu.isas.peptideshaker.myparameters.PSParameter;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
+import eu.isas.peptideshaker.utils.SpectrumFileLoader;
 import java.awt.Toolkit;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -1008,8 +1008,7 @@ public class FollowupPreferencesDialog extends javax.swing.JDialog {
 
             setLastSelectedFolder(selectedFolder.getAbsolutePath());
 
-            SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
-            for (String fileName : spectrumFactory.getMgfFileNames()) {
+            for (String fileName : SpectrumFileLoader.getInstance().getProjectSpectrumFileNames()) {
                 String newName = RecalibrationExporter.getRecalibratedFileName(fileName);
                 File testFile = new File(selectedFolder, newName);
                 if (testFile.exists()) {
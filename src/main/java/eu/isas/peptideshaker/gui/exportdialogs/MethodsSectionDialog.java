@@ -191,7 +191,7 @@ public class MethodsSectionDialog extends javax.swing.JDialog {
                                 peptideShakerGUI.getIdentificationFeaturesGenerator(), null, null, null, null,
                                 peptideShakerGUI.getDisplayPreferences().getnAASurroundingPeptides(),
                                 peptideShakerGUI.getShotgunProtocol(), peptideShakerGUI.getIdentificationParameters(),
-                                peptideShakerGUI.getSpectrumCountingPreferences(), progressDialog);
+                                peptideShakerGUI.getSpectrumCountingPreferences(), peptideShakerGUI.getProcessingPreferences().getnThreads(), progressDialog);
 
                         boolean processCancelled = progressDialog.isRunCanceled();
                         progressDialog.setRunFinished();
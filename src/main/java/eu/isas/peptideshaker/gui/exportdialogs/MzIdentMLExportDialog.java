@@ -640,7 +640,7 @@ public class MzIdentMLExportDialog extends javax.swing.JDialog {
                 try {
                     MzIdentMLExport mzIdentMLExport = new MzIdentMLExport(PeptideShaker.getVersion(), peptideShakerGUI.getIdentification(), peptideShakerGUI.getProjectDetails(),
                             peptideShakerGUI.getProcessingPreferences(), peptideShakerGUI.getShotgunProtocol(), peptideShakerGUI.getIdentificationParameters(), peptideShakerGUI.getSpectrumCountingPreferences(), peptideShakerGUI.getIdentificationFeaturesGenerator(),
-                            finalOutputFile, progressDialog);
+                            finalOutputFile, null, progressDialog);
                     mzIdentMLExport.createMzIdentMLFile(mzIdentML_v1_2);
 
                     // validate the mzidentml file
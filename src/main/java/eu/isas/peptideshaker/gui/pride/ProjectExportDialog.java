@@ -28,6 +28,7 @@ import com.compomics.util.pride.PrideObjectsFactory;
 import com.compomics.util.pride.prideobjects.*;
 import com.compomics.util.pride.validation.PrideXmlValidator;
 import eu.isas.peptideshaker.PeptideShaker;
+import eu.isas.peptideshaker.export.OutputFileWriter;
 import eu.isas.peptideshaker.export.PrideXmlExport;
 import eu.isas.peptideshaker.gui.PeptideShakerGUI;
 import eu.isas.peptideshaker.gui.tabpanels.PtmPanel;
@@ -391,6 +392,7 @@ public class ProjectExportDialog extends javax.swing.JDialog implements PtmDialo
         outputFolderLabel = new javax.swing.JLabel();
         outputFolderJTextField = new javax.swing.JTextField();
         browseOutputFolderJButton = new javax.swing.JButton();
+        compressJCheckBox = new javax.swing.JCheckBox();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.DISPOSE_ON_CLOSE);
         setTitle("PeptideShaker - Export");
@@ -716,6 +718,11 @@ public class ProjectExportDialog extends javax.swing.JDialog implements PtmDialo
             }
         });
 
+        compressJCheckBox.setText("Gzip");
+        compressJCheckBox.setToolTipText("Compress the PRIDE XML file while writing it (.xml.gz), the compressed file is not validated");
+        compressJCheckBox.setIconTextGap(10);
+        compressJCheckBox.setOpaque(false);
+
         javax.swing.GroupLayout jPanel1Layout = new javax.swing.GroupLayout(jPanel1);
         jPanel1.setLayout(jPanel1Layout);
         jPanel1Layout.setHorizontalGroup(
@@ -727,6 +734,8 @@ public class ProjectExportDialog extends javax.swing.JDialog implements PtmDialo
                 .addComponent(outputFolderJTextField)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
                 .addComponent(browseOutputFolderJButton, javax.swing.GroupLayout.PREFERRED_SIZE, 80, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                .addComponent(compressJCheckBox)
                 .addContainerGap())
         );
         jPanel1Layout.setVerticalGroup(
@@ -736,7 +745,8 @@ public class ProjectExportDialog extends javax.swing.JDialog implements PtmDialo
                 .addGroup(jPanel1Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                     .addComponent(outputFolderLabel)
                     .addComponent(outputFolderJTextField, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
-                    .addComponent(browseOutputFolderJButton))
+                    .addComponent(browseOutputFolderJButton)
+                    .addComponent(compressJCheckBox))
                 .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
         );
 
@@ -1026,7 +1036,8 @@ public class ProjectExportDialog extends javax.swing.JDialog implements PtmDialo
 
         // check if the xml file already exists
         String fileName = titleJTextField.getText().trim().replaceAll(" ", "_"); // @TODO: not sure why this is needed?
-        File outputFile = new File(outputFolderJTextField.getText(), fileName + ".xml");
+        final boolean compress = compressJCheckBox.isSelected();
+        final File outputFile = PrideXmlExport.getOutputFile(new File(outputFolderJTextField.getText()), fileName, compress);
 
         if (outputFile.exists()) {
             int selection = JOptionPane.showConfirmDialog(this, "The file \'"
@@ -1103,16 +1114,16 @@ public class ProjectExportDialog extends javax.swing.JDialog implements PtmDialo
                             peptideShakerGUI.getShotgunProtocol(), peptideShakerGUI.getIdentificationParameters(), peptideShakerGUI.getSpectrumCountingPreferences(),
                             peptideShakerGUI.getIdentificationFeaturesGenerator(), peptideShakerGUI.getSpectrumAnnotator(),
                             selectedSample, selectedSample, selectedProtocol, selectedProtocol, referenceGroup, contactGroup, sample, protocol, instrument,
-                            new File(outputFolderJTextField.getText()), outputFileName, progressDialog);
+                            new File(outputFolderJTextField.getText()), outputFileName, compress ? OutputFileWriter.DEFAULT_COMPRESSION_LEVEL : null, progressDialog);
 
                     prideExport.createPrideXmlFile(progressDialog);
 
-                    // validate the pride xml file
-                    if (validatePrideXml && !projectExportDialog.progressCancelled()) {
+                    // validate the pride xml file, the validator cannot read compressed files
+                    if (validatePrideXml && !compress && !projectExportDialog.progressCancelled()) {
                         progressDialog.setPrimaryProgressCounterIndeterminate(true);
                         progressDialog.setTitle("Validating PRIDE XML. Please Wait...");
                         PrideXmlValidator validator = new PrideXmlValidator();
-                        conversionCompleted = validator.validate(new File(outputFolderJTextField.getText(), outputFileName + ".xml"));
+                        conversionCompleted = validator.validate(outputFile);
 
                         // see if any errors were found, and display them to the user
                         if (!conversionCompleted) {
@@ -1141,7 +1152,8 @@ public class ProjectExportDialog extends javax.swing.JDialog implements PtmDialo
                     // html content 
                     JEditorPane ep = new JEditorPane("text/html", "<html><body bgcolor=\"#" + Util.color2Hex(label.getBackground()) + "\">"
                             + "PRIDE XML file \'"
-                            + new File(outputFolderJTextField.getText(), outputFileName + ".xml").getAbsolutePath() + "\' created.<br><br>"
+                            + outputFile.getAbsolutePath() + "\' created.<br><br>"
+                            + (compress && validatePrideXml ? "The compressed file was not validated.<br><br>" : "")
                             + "Please see <a href=\"http://www.ebi.ac.uk/pride\">www.ebi.ac.uk/pride</a> for how to submit data to PRIDE.<br><br>"
                             + "We recommend checking the file in <a href=\"http://code.google.com/p/pride-toolsuite/wiki/PRIDEInspector\">PRIDE Inspector</a> before uploading."
                             + "</body></html>");
@@ -1210,6 +1222,7 @@ public class ProjectExportDialog extends javax.swing.JDialog implements PtmDialo
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JPanel backgroundJPanel;
     private javax.swing.JButton browseOutputFolderJButton;
+    private javax.swing.JCheckBox compressJCheckBox;
     private javax.swing.JComboBox contactGroupsJComboBox;
     private javax.swing.JLabel contactLabel;
     private javax.swing.JButton convertJButton;
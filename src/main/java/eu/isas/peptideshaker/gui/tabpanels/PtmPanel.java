@@ -35,6 +35,7 @@ import eu.isas.peptideshaker.gui.protein_inference.ProteinInferencePeptideLevelD
 import eu.isas.peptideshaker.gui.PtmSiteInferenceDialog;
 import eu.isas.peptideshaker.myparameters.PSMaps;
 import eu.isas.peptideshaker.scoring.MatchValidationLevel;
+import eu.isas.peptideshaker.utils.SpectrumFileLoader;
 import java.awt.*;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
@@ -3862,6 +3863,7 @@ public class PtmPanel extends javax.swing.JPanel {
                 progressDialog.increasePrimaryProgressCounter();
 
                 String spectrumKey = identification.getPeptideMatch(getSelectedPeptide(true)).getSpectrumMatches().get(i);
+                SpectrumFileLoader.getInstance().loadSpectrumFileOfKey(spectrumKey);
                 Precursor precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
 
                 if (precursor != null) {
@@ -4462,6 +4464,7 @@ public class PtmPanel extends javax.swing.JPanel {
                     case 5:
                         spectrumKey = identification.getPeptideMatch(getSelectedPeptide(relatedTable)).getSpectrumMatches().get(row);
                         try {
+                            SpectrumFileLoader.getInstance().loadSpectrumFileOfKey(spectrumKey);
                             Precursor precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey); // @TODO: there is sometimes an IOException when closing the tool...
 
                             if (precursor != null) {
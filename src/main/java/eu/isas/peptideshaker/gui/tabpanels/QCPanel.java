@@ -25,6 +25,7 @@ import eu.isas.peptideshaker.myparameters.PSParameter;
 import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences.SpectralCountingMethod;
 import eu.isas.peptideshaker.scoring.MatchValidationLevel;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
+import eu.isas.peptideshaker.utils.SpectrumFileLoader;
 import java.awt.Color;
 import java.awt.ComponentOrientation;
 import java.awt.Toolkit;
@@ -1939,6 +1940,7 @@ public class QCPanel extends javax.swing.JPanel {
 
                         if (!psmParameter.isHidden() && spectrumMatch.getBestPeptideAssumption() != null) {
 
+                            SpectrumFileLoader.getInstance().loadSpectrumFileOfKey(spectrumKey);
                             Precursor precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
                             double value = spectrumMatch.getBestPeptideAssumption().getDeltaMass(
                                     precursor.getMz(),
@@ -64,6 +64,7 @@ import eu.isas.peptideshaker.scoring.PsmSpecificMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyResults;
 import eu.isas.peptideshaker.utils.DisplayFeaturesGenerator;
+import eu.isas.peptideshaker.utils.SpectrumFileLoader;
 import java.sql.SQLException;
 import java.text.DecimalFormat;
 import java.util.Iterator;
@@ -2242,6 +2243,11 @@ public class SpectrumIdentificationPanel extends javax.swing.JPanel {
                 try {
                     identification = peptideShakerGUI.getIdentification();
 
+                    // the spectrum view needs all spectrum files
+                    progressDialog.setTitle("Loading Spectrum Files. Please Wait...");
+                    SpectrumFileLoader.getInstance().loadAllSpectrumFiles(progressDialog);
+                    progressDialog.setTitle("Loading Data. Please Wait...");
+
                     spectrumTable.getColumn("Charge").setCellRenderer(new JSparklinesBarChartTableCellRenderer(PlotOrientation.HORIZONTAL,
                             (double) ((PSMaps) identification.getUrParam(new PSMaps())).getPsmSpecificMap().getMaxCharge(), peptideShakerGUI.getSparklineColor()));
                     spectrumTable.getColumn("Int").setCellRenderer(new JSparklinesBarChartTableCellRenderer(PlotOrientation.HORIZONTAL,
@@ -135,6 +135,12 @@ public class StatsPanel extends javax.swing.JPanel {
      * Map keeping track of probabilities modifications.
      */
     private HashMap<Integer, Boolean> modifiedMaps = new HashMap<Integer, Boolean>();
+    /**
+     * The target/decoy results used at the last validation indexed by
+     * target/decoy map. Empty if the matches have to be validated again
+     * entirely.
+     */
+    private HashMap<TargetDecoyMap, TargetDecoyResults> validatedResults = new HashMap<TargetDecoyMap, TargetDecoyResults>();
     /**
      * The score log axis.
      */
@@ -1864,6 +1870,9 @@ public class StatsPanel extends javax.swing.JPanel {
             applyButton.setEnabled(false);
             pepWindowApplied = true;
 
+            // the probabilities changed, the matches need to be validated entirely
+            validatedResults.clear();
+
             this.setCursor(new java.awt.Cursor(java.awt.Cursor.DEFAULT_CURSOR));
         }
     }//GEN-LAST:event_applyButtonActionPerformed
@@ -2035,7 +2044,11 @@ public class StatsPanel extends javax.swing.JPanel {
                         pSMaps = (PSMaps) peptideShakerGUI.getIdentification().getUrParam(pSMaps);
 
                         MatchesValidator matchesValidator = new MatchesValidator(pSMaps.getPsmSpecificMap(), pSMaps.getPeptideSpecificMap(), pSMaps.getProteinMap());
-                        matchesValidator.validateIdentifications(peptideShakerGUI.getIdentification(), peptideShakerGUI.getMetrics(), pSMaps.getInputMap(), progressDialog, peptideShakerGUI.getExceptionHandler(), peptideShakerGUI.getIdentificationFeaturesGenerator(), peptideShakerGUI.getShotgunProtocol(), peptideShakerGUI.getIdentificationParameters(), peptideShakerGUI.getSpectrumCountingPreferences(), peptideShakerGUI.getProcessingPreferences());
+                        matchesValidator.setObjectsCache(peptideShakerGUI.getCache());
+                        boolean validated = matchesValidator.validateIdentificationsIncrementally(peptideShakerGUI.getIdentification(), peptideShakerGUI.getMetrics(), pSMaps.getInputMap(), progressDialog, peptideShakerGUI.getExceptionHandler(), peptideShakerGUI.getIdentificationFeaturesGenerator(), peptideShakerGUI.getShotgunProtocol(), peptideShakerGUI.getIdentificationParameters(), peptideShakerGUI.getProcessingPreferences(), validatedResults);
+                        if (!validated) {
+                            matchesValidator.validateIdentifications(peptideShakerGUI.getIdentification(), peptideShakerGUI.getMetrics(), pSMaps.getInputMap(), progressDialog, peptideShakerGUI.getExceptionHandler(), peptideShakerGUI.getIdentificationFeaturesGenerator(), peptideShakerGUI.getShotgunProtocol(), peptideShakerGUI.getIdentificationParameters(), peptideShakerGUI.getSpectrumCountingPreferences(), peptideShakerGUI.getProcessingPreferences());
+                        }
 
                         progressDialog.setPrimaryProgressCounterIndeterminate(true);
 
@@ -2059,6 +2072,7 @@ public class StatsPanel extends javax.swing.JPanel {
                             int selectedGroup = groupSelectionTable.getSelectedRow();
                             originalThresholds.put(selectedGroup, input);
                             originalThresholdTypes.put(selectedGroup, inputType);
+                            saveValidatedResults(pSMaps);
                             peptideShakerGUI.setDataSaved(false);
                         } else {
                             // @TODO: ideally the validation settings ought to be reset as well..?
@@ -3138,6 +3152,8 @@ public class StatsPanel extends javax.swing.JPanel {
                     ((DefaultTableModel) groupSelectionTable.getModel()).addRow(new Object[]{cpt, "PSMs"});
                 }
 
+                saveValidatedResults(pSMaps);
+
                 if (groupSelectionTable.getRowCount() > 0) {
                     groupSelectionTable.setRowSelectionInterval(0, 0);
                 }
@@ -3160,6 +3176,26 @@ public class StatsPanel extends javax.swing.JPanel {
         }.start();
     }
 
+    /**
+     * Saves a copy of the target/decoy results of all maps as the results used
+     * at the last validation.
+     *
+     * @param pSMaps the target/decoy maps of the project
+     */
+    private void saveValidatedResults(PSMaps pSMaps) {
+        validatedResults.clear();
+        TargetDecoyMap targetDecoyMap = pSMaps.getProteinMap().getTargetDecoyMap();
+        validatedResults.put(targetDecoyMap, targetDecoyMap.getTargetDecoyResults().copy());
+        PeptideSpecificMap peptideSpecificMap = pSMaps.getPeptideSpecificMap();
+        for (String mapKey : peptideSpecificMap.getKeys()) {
+            targetDecoyMap = peptideSpecificMap.getTargetDecoyMap(mapKey);
+            validatedResults.put(targetDecoyMap, targetDecoyMap.getTargetDecoyResults().copy());
+        }
+        for (TargetDecoyMap psmTargetDecoyMap : pSMaps.getPsmSpecificMap().getTargetDecoyMaps()) {
+            validatedResults.put(psmTargetDecoyMap, psmTargetDecoyMap.getTargetDecoyResults().copy());
+        }
+    }
+
     /**
      * Returns the target decoy map corresponding to the given group selection.
      *
@@ -3823,7 +3859,7 @@ public class StatsPanel extends javax.swing.JPanel {
                 PeptideShaker miniShaker = new PeptideShaker(peptideShakerGUI.getExperiment(), peptideShakerGUI.getSample(), peptideShakerGUI.getReplicateNumber(), pSMaps);
 
                 try {
-                    miniShaker.spectrumMapChanged(peptideShakerGUI.getIdentification(), progressDialog, peptideShakerGUI.getProcessingPreferences(), peptideShakerGUI.getShotgunProtocol(), peptideShakerGUI.getIdentificationParameters());
+                    miniShaker.spectrumMapChanged(peptideShakerGUI.getIdentification(), progressDialog, peptideShakerGUI.getExceptionHandler(), peptideShakerGUI.getProcessingPreferences(), peptideShakerGUI.getShotgunProtocol(), peptideShakerGUI.getIdentificationParameters());
                 } catch (Exception e) {
                     JOptionPane.showMessageDialog(peptideShakerGUI, JOptionEditorPane.getJOptionEditorPane(
                             "An identification conflict occured. If you can reproduce the error <br>"
@@ -3873,7 +3909,7 @@ public class StatsPanel extends javax.swing.JPanel {
                 PeptideShaker miniShaker = new PeptideShaker(peptideShakerGUI.getExperiment(), peptideShakerGUI.getSample(), peptideShakerGUI.getReplicateNumber(), pSMaps);
 
                 try {
-                    miniShaker.peptideMapChanged(peptideShakerGUI.getIdentification(), progressDialog, peptideShakerGUI.getProcessingPreferences(), peptideShakerGUI.getShotgunProtocol(), peptideShakerGUI.getIdentificationParameters());
+                    miniShaker.peptideMapChanged(peptideShakerGUI.getIdentification(), progressDialog, peptideShakerGUI.getExceptionHandler(), peptideShakerGUI.getProcessingPreferences(), peptideShakerGUI.getShotgunProtocol(), peptideShakerGUI.getIdentificationParameters());
                 } catch (Exception e) {
                     JOptionPane.showMessageDialog(peptideShakerGUI, JOptionEditorPane.getJOptionEditorPane(
                             "An identification conflict occured. If you can reproduce the error <br>"
@@ -3923,7 +3959,7 @@ public class StatsPanel extends javax.swing.JPanel {
                     pSMaps = (PSMaps) peptideShakerGUI.getIdentification().getUrParam(pSMaps);
                     PeptideShaker miniShaker = new PeptideShaker(peptideShakerGUI.getExperiment(), peptideShakerGUI.getSample(), peptideShakerGUI.getReplicateNumber(), pSMaps);
 
-                    miniShaker.proteinMapChanged(progressDialog, peptideShakerGUI.getProcessingPreferences());
+                    miniShaker.proteinMapChanged(progressDialog, peptideShakerGUI.getExceptionHandler(), peptideShakerGUI.getProcessingPreferences());
                     modifiedMaps.put(0, false);
                 } catch (Exception e) {
                     peptideShakerGUI.catchException(e);
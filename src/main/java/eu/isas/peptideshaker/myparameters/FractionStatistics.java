@@ -0,0 +1,630 @@
+package eu.isas.peptideshaker.myparameters;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Statistics of a match in the different fractions of a project. The fraction
+ * names are interned to small integers shared by all matches and the values
+ * are stored in primitive columns with one row per fraction where the match
+ * was found. Missing values are stored as NaN for decimals and -1 for
+ * integers. Columns are only created when a value is set. When serialized,
+ * the name of every fraction is written once followed by the columns.
+ *
+ * @author Marc Vaudel
+ */
+public class FractionStatistics implements Serializable {
+
+    /**
+     * Serial version UID for post-serialization compatibility.
+     */
+    static final long serialVersionUID = -3261805538470927151L;
+    /**
+     * The index of every interned fraction name.
+     */
+    private static final HashMap<String, Integer> fractionIndexes = new HashMap<String, Integer>();
+    /**
+     * The interned fraction names indexed by fraction index.
+     */
+    private static volatile String[] fractionNames = new String[0];
+    /**
+     * The index of the fraction of every row.
+     */
+    private transient int[] fractions = new int[0];
+    /**
+     * The score of the match in every fraction.
+     */
+    private transient double[] scores = null;
+    /**
+     * The posterior error probability of the match in every fraction.
+     */
+    private transient double[] peps = null;
+    /**
+     * The number of validated peptides in every fraction.
+     */
+    private transient int[] validatedPeptides = null;
+    /**
+     * The number of validated spectra in every fraction.
+     */
+    private transient int[] validatedSpectra = null;
+    /**
+     * The precursor intensities in every fraction.
+     */
+    private transient double[][] precursorIntensities = null;
+    /**
+     * The summed precursor intensity in every fraction.
+     */
+    private transient double[] precursorIntensitySums = null;
+    /**
+     * The average precursor intensity in every fraction.
+     */
+    private transient double[] precursorIntensityAverages = null;
+    /**
+     * The fractions where a score was set, null if not gathered yet.
+     */
+    private transient Set<String> scoredFractions = null;
+
+    /**
+     * Constructor.
+     */
+    public FractionStatistics() {
+    }
+
+    /**
+     * Returns the index of the given fraction name, the name is interned if
+     * not already done.
+     *
+     * @param fraction the name of the fraction
+     *
+     * @return the index of the fraction
+     */
+    public static synchronized int getFractionIndex(String fraction) {
+        Integer index = fractionIndexes.get(fraction);
+        if (index == null) {
+            index = fractionNames.length;
+            String[] newNames = Arrays.copyOf(fractionNames, index + 1);
+            newNames[index] = fraction;
+            fractionIndexes.put(fraction, index);
+            fractionNames = newNames;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the name of the fraction at the given index.
+     *
+     * @param index the index of the fraction
+     *
+     * @return the name of the fraction
+     */
+    public static String getFractionName(int index) {
+        return fractionNames[index];
+    }
+
+    /**
+     * Returns the row of the given fraction, -1 if not found. The name is not
+     * interned so that lookups do not need to be synchronized.
+     *
+     * @param fraction the name of the fraction
+     *
+     * @return the row of the given fraction
+     */
+    private int getRow(String fraction) {
+        String[] names = fractionNames;
+        for (int i = 0; i < fractions.length; i++) {
+            if (names[fractions[i]].equals(fraction)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the row of the given fraction, a row is added if not found.
+     *
+     * @param fraction the name of the fraction
+     *
+     * @return the row of the given fraction
+     */
+    private int getOrAddRow(String fraction) {
+        int row = getRow(fraction);
+        if (row == -1) {
+            row = fractions.length;
+            int size = row + 1;
+            fractions = Arrays.copyOf(fractions, size);
+            fractions[row] = getFractionIndex(fraction);
+            scores = grow(scores, size);
+            peps = grow(peps, size);
+            validatedPeptides = grow(validatedPeptides, size);
+            validatedSpectra = grow(validatedSpectra, size);
+            if (precursorIntensities != null) {
+                precursorIntensities = Arrays.copyOf(precursorIntensities, size);
+            }
+            precursorIntensitySums = grow(precursorIntensitySums, size);
+            precursorIntensityAverages = grow(precursorIntensityAverages, size);
+        }
+        return row;
+    }
+
+    /**
+     * Grows a decimal column to the given size, new rows are set to NaN.
+     *
+     * @param column the column, can be null
+     * @param size the new size
+     *
+     * @return the grown column, null if the column was null
+     */
+    private static double[] grow(double[] column, int size) {
+        if (column == null) {
+            return null;
+        }
+        int oldSize = column.length;
+        double[] result = Arrays.copyOf(column, size);
+        Arrays.fill(result, oldSize, size, Double.NaN);
+        return result;
+    }
+
+    /**
+     * Grows an integer column to the given size, new rows are set to -1.
+     *
+     * @param column the column, can be null
+     * @param size the new size
+     *
+     * @return the grown column, null if the column was null
+     */
+    private static int[] grow(int[] column, int size) {
+        if (column == null) {
+            return null;
+        }
+        int oldSize = column.length;
+        int[] result = Arrays.copyOf(column, size);
+        Arrays.fill(result, oldSize, size, -1);
+        return result;
+    }
+
+    /**
+     * Returns a new decimal column of the size of the table filled with NaN.
+     *
+     * @return a new decimal column
+     */
+    private double[] newDoubleColumn() {
+        double[] column = new double[fractions.length];
+        Arrays.fill(column, Double.NaN);
+        return column;
+    }
+
+    /**
+     * Returns a new integer column of the size of the table filled with -1.
+     *
+     * @return a new integer column
+     */
+    private int[] newIntColumn() {
+        int[] column = new int[fractions.length];
+        Arrays.fill(column, -1);
+        return column;
+    }
+
+    /**
+     * Returns the value of a decimal column in the given fraction, null if
+     * not set.
+     *
+     * @param column the column
+     * @param fraction the name of the fraction
+     *
+     * @return the value of the column in the given fraction
+     */
+    private Double getValue(double[] column, String fraction) {
+        if (column == null) {
+            return null;
+        }
+        int row = getRow(fraction);
+        if (row == -1 || Double.isNaN(column[row])) {
+            return null;
+        }
+        return column[row];
+    }
+
+    /**
+     * Returns the value of an integer column in the given fraction, null if
+     * not set.
+     *
+     * @param column the column
+     * @param fraction the name of the fraction
+     *
+     * @return the value of the column in the given fraction
+     */
+    private Integer getValue(int[] column, String fraction) {
+        if (column == null) {
+            return null;
+        }
+        int row = getRow(fraction);
+        if (row == -1 || column[row] == -1) {
+            return null;
+        }
+        return column[row];
+    }
+
+    /**
+     * Returns the fractions where a score was set as an unmodifiable set. The
+     * set is gathered once and replaced when a fraction gains or loses its
+     * score.
+     *
+     * @return the fractions where a score was set
+     */
+    public Set<String> getFractions() {
+        Set<String> result = scoredFractions;
+        if (result == null) {
+            LinkedHashSet<String> fractionSet = new LinkedHashSet<String>(fractions.length);
+            if (scores != null) {
+                for (int i = 0; i < fractions.length; i++) {
+                    if (!Double.isNaN(scores[i])) {
+                        fractionSet.add(getFractionName(fractions[i]));
+                    }
+                }
+            }
+            result = Collections.unmodifiableSet(fractionSet);
+            scoredFractions = result;
+        }
+        return result;
+    }
+
+    /**
+     * Sets the score in the given fraction.
+     *
+     * @param fraction the name of the fraction
+     * @param score the score
+     */
+    public void setScore(String fraction, double score) {
+        int row = getOrAddRow(fraction);
+        if (scores == null) {
+            scores = newDoubleColumn();
+        }
+        if (Double.isNaN(scores[row]) != Double.isNaN(score)) {
+            scoredFractions = null;
+        }
+        scores[row] = score;
+    }
+
+    /**
+     * Returns the score in the given fraction, null if not set.
+     *
+     * @param fraction the name of the fraction
+     *
+     * @return the score in the given fraction
+     */
+    public Double getScore(String fraction) {
+        return getValue(scores, fraction);
+    }
+
+    /**
+     * Sets the posterior error probability in the given fraction.
+     *
+     * @param fraction the name of the fraction
+     * @param pep the posterior error probability
+     */
+    public void setPep(String fraction, double pep) {
+        int row = getOrAddRow(fraction);
+        if (peps == null) {
+            peps = newDoubleColumn();
+        }
+        peps[row] = pep;
+    }
+
+    /**
+     * Returns the posterior error probability in the given fraction, null if
+     * not set.
+     *
+     * @param fraction the name of the fraction
+     *
+     * @return the posterior error probability in the given fraction
+     */
+    public Double getPep(String fraction) {
+        return getValue(peps, fraction);
+    }
+
+    /**
+     * Sets the number of validated peptides per fraction. Values previously
+     * set are removed.
+     *
+     * @param validatedPeptidesPerFraction the number of validated peptides
+     * indexed by fraction name
+     */
+    public void setValidatedPeptides(HashMap<String, Integer> validatedPeptidesPerFraction) {
+        validatedPeptides = null;
+        for (String fraction : validatedPeptidesPerFraction.keySet()) {
+            int row = getOrAddRow(fraction);
+            if (validatedPeptides == null) {
+                validatedPeptides = newIntColumn();
+            }
+            validatedPeptides[row] = validatedPeptidesPerFraction.get(fraction);
+        }
+    }
+
+    /**
+     * Returns the number of validated peptides in the given fraction, null if
+     * not set.
+     *
+     * @param fraction the name of the fraction
+     *
+     * @return the number of validated peptides in the given fraction
+     */
+    public Integer getValidatedPeptides(String fraction) {
+        return getValue(validatedPeptides, fraction);
+    }
+
+    /**
+     * Sets the number of validated spectra per fraction. Values previously set
+     * are removed.
+     *
+     * @param validatedSpectraPerFraction the number of validated spectra
+     * indexed by fraction name
+     */
+    public void setValidatedSpectra(HashMap<String, Integer> validatedSpectraPerFraction) {
+        validatedSpectra = null;
+        for (String fraction : validatedSpectraPerFraction.keySet()) {
+            int row = getOrAddRow(fraction);
+            if (validatedSpectra == null) {
+                validatedSpectra = newIntColumn();
+            }
+            validatedSpectra[row] = validatedSpectraPerFraction.get(fraction);
+        }
+    }
+
+    /**
+     * Returns the number of validated spectra in the given fraction, null if
+     * not set.
+     *
+     * @param fraction the name of the fraction
+     *
+     * @return the number of validated spectra in the given fraction
+     */
+    public Integer getValidatedSpectra(String fraction) {
+        return getValue(validatedSpectra, fraction);
+    }
+
+    /**
+     * Sets the precursor intensities per fraction and computes their sum and
+     * average. Values previously set are removed. If the sum is null, no
+     * average is set.
+     *
+     * @param precursorIntensitiesPerFraction the precursor intensities indexed
+     * by fraction name
+     */
+    public void setPrecursorIntensities(HashMap<String, ArrayList<Double>> precursorIntensitiesPerFraction) {
+        precursorIntensities = null;
+        precursorIntensitySums = null;
+        precursorIntensityAverages = null;
+        for (String fraction : precursorIntensitiesPerFraction.keySet()) {
+            int row = getOrAddRow(fraction);
+            if (precursorIntensities == null) {
+                precursorIntensities = new double[fractions.length][];
+                precursorIntensitySums = newDoubleColumn();
+                precursorIntensityAverages = newDoubleColumn();
+            }
+            ArrayList<Double> intensities = precursorIntensitiesPerFraction.get(fraction);
+            double[] fractionIntensities = new double[intensities.size()];
+            double sum = 0;
+            for (int i = 0; i < fractionIntensities.length; i++) {
+                double intensity = intensities.get(i);
+                fractionIntensities[i] = intensity;
+                sum += intensity;
+            }
+            precursorIntensities[row] = fractionIntensities;
+            precursorIntensitySums[row] = sum;
+            if (sum > 0) {
+                precursorIntensityAverages[row] = sum / fractionIntensities.length;
+            }
+        }
+    }
+
+    /**
+     * Returns the precursor intensities in the given fraction, null if not
+     * set. The list is created upon every call.
+     *
+     * @param fraction the name of the fraction
+     *
+     * @return the precursor intensities in the given fraction
+     */
+    public ArrayList<Double> getPrecursorIntensities(String fraction) {
+        if (precursorIntensities == null) {
+            return null;
+        }
+        int row = getRow(fraction);
+        if (row == -1 || precursorIntensities[row] == null) {
+            return null;
+        }
+        double[] fractionIntensities = precursorIntensities[row];
+        ArrayList<Double> result = new ArrayList<Double>(fractionIntensities.length);
+        for (double intensity : fractionIntensities) {
+            result.add(intensity);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the summed precursor intensity in the given fraction, null if
+     * not set.
+     *
+     * @param fraction the name of the fraction
+     *
+     * @return the summed precursor intensity in the given fraction
+     */
+    public Double getPrecursorIntensitySum(String fraction) {
+        return getValue(precursorIntensitySums, fraction);
+    }
+
+    /**
+     * Returns the average precursor intensity in the given fraction, null if
+     * not set or if the summed intensity is null.
+     *
+     * @param fraction the name of the fraction
+     *
+     * @return the average precursor intensity in the given fraction
+     */
+    public Double getPrecursorIntensityAverage(String fraction) {
+        return getValue(precursorIntensityAverages, fraction);
+    }
+
+    /**
+     * Writes a decimal column preceded by a boolean indicating whether the
+     * column was created.
+     *
+     * @param out the object output stream
+     * @param column the column
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the column
+     */
+    private static void writeColumn(ObjectOutputStream out, double[] column) throws IOException {
+        out.writeBoolean(column != null);
+        if (column != null) {
+            for (double value : column) {
+                out.writeDouble(value);
+            }
+        }
+    }
+
+    /**
+     * Writes an integer column preceded by a boolean indicating whether the
+     * column was created.
+     *
+     * @param out the object output stream
+     * @param column the column
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the column
+     */
+    private static void writeColumn(ObjectOutputStream out, int[] column) throws IOException {
+        out.writeBoolean(column != null);
+        if (column != null) {
+            for (int value : column) {
+                out.writeInt(value);
+            }
+        }
+    }
+
+    /**
+     * Reads a decimal column written by writeColumn.
+     *
+     * @param in the object input stream
+     * @param size the number of rows
+     *
+     * @return the column, null if not created
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the column
+     */
+    private static double[] readDoubleColumn(ObjectInputStream in, int size) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        double[] column = new double[size];
+        for (int i = 0; i < size; i++) {
+            column[i] = in.readDouble();
+        }
+        return column;
+    }
+
+    /**
+     * Reads an integer column written by writeColumn.
+     *
+     * @param in the object input stream
+     * @param size the number of rows
+     *
+     * @return the column, null if not created
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the column
+     */
+    private static int[] readIntColumn(ObjectInputStream in, int size) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        int[] column = new int[size];
+        for (int i = 0; i < size; i++) {
+            column[i] = in.readInt();
+        }
+        return column;
+    }
+
+    /**
+     * Writes the fraction names followed by the columns.
+     *
+     * @param out the object output stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(fractions.length);
+        for (int fractionIndex : fractions) {
+            out.writeUTF(getFractionName(fractionIndex));
+        }
+        writeColumn(out, scores);
+        writeColumn(out, peps);
+        writeColumn(out, validatedPeptides);
+        writeColumn(out, validatedSpectra);
+        out.writeBoolean(precursorIntensities != null);
+        if (precursorIntensities != null) {
+            for (double[] fractionIntensities : precursorIntensities) {
+                if (fractionIntensities == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(fractionIntensities.length);
+                    for (double intensity : fractionIntensities) {
+                        out.writeDouble(intensity);
+                    }
+                }
+            }
+        }
+        writeColumn(out, precursorIntensitySums);
+        writeColumn(out, precursorIntensityAverages);
+    }
+
+    /**
+     * Reads the fraction names and interns them, then reads the columns.
+     *
+     * @param in the object input stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the object
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int size = in.readInt();
+        fractions = new int[size];
+        for (int i = 0; i < size; i++) {
+            fractions[i] = getFractionIndex(in.readUTF());
+        }
+        scores = readDoubleColumn(in, size);
+        peps = readDoubleColumn(in, size);
+        validatedPeptides = readIntColumn(in, size);
+        validatedSpectra = readIntColumn(in, size);
+        if (in.readBoolean()) {
+            precursorIntensities = new double[size][];
+            for (int i = 0; i < size; i++) {
+                int length = in.readInt();
+                if (length >= 0) {
+                    double[] fractionIntensities = new double[length];
+                    for (int j = 0; j < length; j++) {
+                        fractionIntensities[j] = in.readDouble();
+                    }
+                    precursorIntensities[i] = fractionIntensities;
+                }
+            }
+        }
+        precursorIntensitySums = readDoubleColumn(in, size);
+        precursorIntensityAverages = readDoubleColumn(in, size);
+    }
+}
@@ -2,7 +2,10 @@ package eu.isas.peptideshaker.myparameters;
 
 import com.compomics.util.experiment.personalization.UrParameter;
 import eu.isas.peptideshaker.scoring.MatchValidationLevel;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
@@ -135,32 +138,64 @@ public class PSParameter implements UrParameter {
     public static final int ISOFORMS_UNRELATED = 2;
     /**
      * The fraction confidence map.
+     *
+     * @deprecated only present for backward compatibility, the fraction
+     * statistics are now stored in fractionStatistics
      */
-    private HashMap<String, Double> fractionPEP = new HashMap<String, Double>();
+    @Deprecated
+    private HashMap<String, Double> fractionPEP = null;
     /**
      * The fraction confidence map.
+     *
+     * @deprecated only present for backward compatibility, the fraction
+     * statistics are now stored in fractionStatistics
      */
-    private HashMap<String, Double> fractionScore = new HashMap<String, Double>();
+    @Deprecated
+    private HashMap<String, Double> fractionScore = null;
     /**
      * The number of validated peptides per fraction.
+     *
+     * @deprecated only present for backward compatibility, the fraction
+     * statistics are now stored in fractionStatistics
      */
-    private HashMap<String, Integer> validatedPeptidesPerFraction = new HashMap<String, Integer>();
+    @Deprecated
+    private HashMap<String, Integer> validatedPeptidesPerFraction = null;
     /**
      * The number of validated spectra per fraction.
+     *
+     * @deprecated only present for backward compatibility, the fraction
+     * statistics are now stored in fractionStatistics
      */
-    private HashMap<String, Integer> validatedSpectraPerFraction = new HashMap<String, Integer>();
+    @Deprecated
+    private HashMap<String, Integer> validatedSpectraPerFraction = null;
     /**
      * The precursor intensity per fraction.
+     *
+     * @deprecated only present for backward compatibility, the fraction
+     * statistics are now stored in fractionStatistics
      */
-    private HashMap<String, ArrayList<Double>> precursorIntensityPerFraction = new HashMap<String, ArrayList<Double>>();
+    @Deprecated
+    private HashMap<String, ArrayList<Double>> precursorIntensityPerFraction = null;
     /**
      * The average precursor intensity per fraction.
+     *
+     * @deprecated only present for backward compatibility, the fraction
+     * statistics are now stored in fractionStatistics
      */
-    private HashMap<String, Double> precursorIntensityAveragePerFraction = new HashMap<String, Double>();
+    @Deprecated
+    private HashMap<String, Double> precursorIntensityAveragePerFraction = null;
     /**
      * The summed precursor intensity per fraction.
+     *
+     * @deprecated only present for backward compatibility, the fraction
+     * statistics are now stored in fractionStatistics
+     */
+    @Deprecated
+    private HashMap<String, Double> precursorIntensitySummedPerFraction = null;
+    /**
+     * The statistics of the match in the different fractions, null if none.
      */
-    private HashMap<String, Double> precursorIntensitySummedPerFraction = new HashMap<String, Double>();
+    private FractionStatistics fractionStatistics = null;
     /**
      * The results of the validation quality filters.
      */
@@ -647,7 +682,7 @@ public class PSParameter implements UrParameter {
      * @param confidence the confidence
      */
     public void setFractionScore(String fraction, double confidence) {
-        fractionScore.put(fraction, confidence);
+        getFractionStatistics().setScore(fraction, confidence);
     }
 
     /**
@@ -657,20 +692,19 @@ public class PSParameter implements UrParameter {
      * @return the fraction score
      */
     public double getFractionScore(String fraction) {
-        return fractionScore.get(fraction);
+        return fractionStatistics.getScore(fraction);
     }
 
     /**
-     * Return the fractions where this match was found. Null if not found.
+     * Return the fractions where this match was found.
      *
      * @return the fractions where this match was found
      */
     public Set<String> getFractions() {
-        if (fractionScore != null) {
-            return fractionScore.keySet();
-        } else {
-            return null;
+        if (fractionStatistics == null) {
+            return Collections.<String>emptySet();
         }
+        return fractionStatistics.getFractions();
     }
 
     /**
@@ -680,7 +714,7 @@ public class PSParameter implements UrParameter {
      * @param confidence the confidence
      */
     public void setFractionPEP(String fraction, double confidence) {
-        fractionPEP.put(fraction, confidence);
+        getFractionStatistics().setPep(fraction, confidence);
     }
 
     /**
@@ -690,7 +724,7 @@ public class PSParameter implements UrParameter {
      * @return the fraction pep
      */
     public double getFractionPEP(String fraction) {
-        return fractionPEP.get(fraction);
+        return fractionStatistics.getPep(fraction);
     }
 
     /**
@@ -700,7 +734,7 @@ public class PSParameter implements UrParameter {
      * @return the fraction confidence
      */
     public double getFractionConfidence(String fraction) {
-        return 100 * (1 - fractionPEP.get(fraction));
+        return 100 * (1 - fractionStatistics.getPep(fraction));
     }
 
     /**
@@ -710,11 +744,10 @@ public class PSParameter implements UrParameter {
      * @return the number of validated peptides in the given fraction
      */
     public Integer getFractionValidatedPeptides(String fraction) {
-        if (validatedPeptidesPerFraction != null) {
-            return validatedPeptidesPerFraction.get(fraction);
-        } else {
+        if (fractionStatistics == null) {
             return 0;
         }
+        return fractionStatistics.getValidatedPeptides(fraction);
     }
 
     /**
@@ -724,7 +757,7 @@ public class PSParameter implements UrParameter {
      * map
      */
     public void setFractionValidatedPeptides(HashMap<String, Integer> validatedPeptidesPerFraction) {
-        this.validatedPeptidesPerFraction = validatedPeptidesPerFraction;
+        getFractionStatistics().setValidatedPeptides(validatedPeptidesPerFraction);
     }
 
     /**
@@ -734,11 +767,10 @@ public class PSParameter implements UrParameter {
      * @return the number of validated spectra in the given fraction
      */
     public Integer getFractionValidatedSpectra(String fraction) {
-        if (validatedSpectraPerFraction != null) {
-            return validatedSpectraPerFraction.get(fraction);
-        } else {
+        if (fractionStatistics == null) {
             return 0;
         }
+        return fractionStatistics.getValidatedSpectra(fraction);
     }
 
     /**
@@ -747,21 +779,21 @@ public class PSParameter implements UrParameter {
      * @param validatedSpectraPerFraction the validated spectra per fraction map
      */
     public void setFractionValidatedSpectra(HashMap<String, Integer> validatedSpectraPerFraction) {
-        this.validatedSpectraPerFraction = validatedSpectraPerFraction;
+        getFractionStatistics().setValidatedSpectra(validatedSpectraPerFraction);
     }
 
     /**
-     * Get the precursor intensity in the given fraction.
+     * Get the precursor intensity in the given fraction. The list is created
+     * upon every call.
      *
      * @param fraction the fraction
      * @return the precursor intensity in the given fraction
      */
     public ArrayList<Double> getPrecursorIntensityPerFraction(String fraction) {
-        if (precursorIntensityPerFraction != null) {
-            return precursorIntensityPerFraction.get(fraction);
-        } else {
-            return new ArrayList<Double>();
+        if (fractionStatistics == null) {
+            return null;
         }
+        return fractionStatistics.getPrecursorIntensities(fraction);
     }
 
     /**
@@ -770,27 +802,7 @@ public class PSParameter implements UrParameter {
      * @param precursorIntensityPerFraction the precursor intensities per fraction map
      */
     public void setPrecursorIntensityPerFraction(HashMap<String, ArrayList<Double>> precursorIntensityPerFraction) {
-        this.precursorIntensityPerFraction = precursorIntensityPerFraction;
-
-        // calculate the average precursor intensities
-        for (String fraction : precursorIntensityPerFraction.keySet()) {
-
-            Double sum = 0.0;
-
-            for (Double intensity : precursorIntensityPerFraction.get(fraction)) {
-                sum += intensity;
-            }
-
-            if (precursorIntensitySummedPerFraction != null) {
-                precursorIntensitySummedPerFraction.put(fraction, sum);
-            }
-
-            if (sum > 0) {
-                precursorIntensityAveragePerFraction.put(fraction, sum / precursorIntensityPerFraction.get(fraction).size());
-            } else {
-                precursorIntensityAveragePerFraction.put(fraction, null);
-            }
-        }
+        getFractionStatistics().setPrecursorIntensities(precursorIntensityPerFraction);
     }
 
     /**
@@ -800,11 +812,10 @@ public class PSParameter implements UrParameter {
      * @return the average precursor intensity in the given fraction
      */
     public Double getPrecursorIntensityAveragePerFraction(String fraction) {
-        if (precursorIntensityAveragePerFraction != null) {
-            return precursorIntensityAveragePerFraction.get(fraction);
-        } else {
+        if (fractionStatistics == null) {
             return null;
         }
+        return fractionStatistics.getPrecursorIntensityAverage(fraction);
     }
 
     /**
@@ -814,11 +825,22 @@ public class PSParameter implements UrParameter {
      * @return the summed precursor intensity in the given fraction
      */
     public Double getPrecursorIntensitySummedPerFraction(String fraction) {
-        if (precursorIntensitySummedPerFraction != null) {
-            return precursorIntensitySummedPerFraction.get(fraction);
-        } else {
+        if (fractionStatistics == null) {
             return null;
         }
+        return fractionStatistics.getPrecursorIntensitySum(fraction);
+    }
+
+    /**
+     * Returns the fraction statistics, creates them if not set.
+     *
+     * @return the fraction statistics
+     */
+    private FractionStatistics getFractionStatistics() {
+        if (fractionStatistics == null) {
+            fractionStatistics = new FractionStatistics();
+        }
+        return fractionStatistics;
     }
 
     /**
@@ -952,6 +974,47 @@ public class PSParameter implements UrParameter {
         return intermediateScores.get(scoreId);
     }
 
+    /**
+     * Converts the fraction maps serialized by former versions into fraction
+     * statistics.
+     *
+     * @param in the object input stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the object
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (fractionScore != null && !fractionScore.isEmpty()) {
+            for (String fraction : fractionScore.keySet()) {
+                getFractionStatistics().setScore(fraction, fractionScore.get(fraction));
+            }
+        }
+        if (fractionPEP != null && !fractionPEP.isEmpty()) {
+            for (String fraction : fractionPEP.keySet()) {
+                getFractionStatistics().setPep(fraction, fractionPEP.get(fraction));
+            }
+        }
+        if (validatedPeptidesPerFraction != null && !validatedPeptidesPerFraction.isEmpty()) {
+            getFractionStatistics().setValidatedPeptides(validatedPeptidesPerFraction);
+        }
+        if (validatedSpectraPerFraction != null && !validatedSpectraPerFraction.isEmpty()) {
+            getFractionStatistics().setValidatedSpectra(validatedSpectraPerFraction);
+        }
+        if (precursorIntensityPerFraction != null && !precursorIntensityPerFraction.isEmpty()) {
+            getFractionStatistics().setPrecursorIntensities(precursorIntensityPerFraction);
+        }
+        fractionScore = null;
+        fractionPEP = null;
+        validatedPeptidesPerFraction = null;
+        validatedSpectraPerFraction = null;
+        precursorIntensityPerFraction = null;
+        precursorIntensityAveragePerFraction = null;
+        precursorIntensitySummedPerFraction = null;
+    }
+
     @Override
     public String getFamilyName() {
         return "PeptideShaker";
@@ -92,6 +92,11 @@ public class UserPreferences implements Serializable {
      * @deprecated use the utilities version instead
      */
     private String searchGuiPath = null;
+    /**
+     * Indicates whether the spectrum files of a project shall be loaded in
+     * the background after opening it.
+     */
+    private Boolean prefetchSpectrumFiles = true;
 
     /**
      * Constructor.
@@ -445,4 +450,30 @@ public class UserPreferences implements Serializable {
     public void setSearchGuiPath(String searchGuiPath) {
         this.searchGuiPath = searchGuiPath;
     }
+
+    /**
+     * Indicates whether the spectrum files of a project shall be loaded in
+     * the background after opening it. Otherwise they are loaded when a
+     * spectrum is first needed.
+     *
+     * @return a boolean indicating whether the spectrum files shall be
+     * loaded in the background
+     */
+    public boolean isPrefetchSpectrumFiles() {
+        if (prefetchSpectrumFiles == null) { // Backward compatibility
+            prefetchSpectrumFiles = true;
+        }
+        return prefetchSpectrumFiles;
+    }
+
+    /**
+     * Sets whether the spectrum files of a project shall be loaded in the
+     * background after opening it.
+     *
+     * @param prefetchSpectrumFiles a boolean indicating whether the spectrum
+     * files shall be loaded in the background
+     */
+    public void setPrefetchSpectrumFiles(boolean prefetchSpectrumFiles) {
+        this.prefetchSpectrumFiles = prefetchSpectrumFiles;
+    }
 }
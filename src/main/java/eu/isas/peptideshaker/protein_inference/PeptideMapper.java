@@ -2,19 +2,17 @@ package eu.isas.peptideshaker.protein_inference;
 
 import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.biology.Peptide;
-import com.compomics.util.experiment.identification.SequenceFactory;
-import com.compomics.util.experiment.identification.protein_inference.proteintree.ProteinTreeComponentsFactory;
-import com.compomics.util.memory.MemoryConsumptionStatus;
 import com.compomics.util.preferences.IdentificationParameters;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.utils.MemoryGovernor;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -37,15 +35,35 @@ public class PeptideMapper {
     /**
      * Boolean indicating whether the mapping was canceled for memory issues.
      */
-    private boolean canceled = false;
+    private volatile boolean canceled = false;
     /**
-     * The sequence factory.
+     * The maximal number of peptides in a batch.
      */
-    private SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+    private static final int MAX_BATCH_SIZE = 1000;
+    /**
+     * The minimal number of batches per thread, the more batches the better
+     * the balance between the threads.
+     */
+    private static final int BATCHES_PER_THREAD = 16;
+    /**
+     * The share of the memory budget above which memory is released and the
+     * mapping aborted if it cannot be released. With the default budget this
+     * corresponds to 80% of the heap, leaving a margin for the batches being
+     * mapped.
+     */
+    private static final double MEMORY_SHARE = 0.8 / MemoryGovernor.DEFAULT_BUDGET_SHARE;
+    /**
+     * The memory governor.
+     */
+    private MemoryGovernor memoryGovernor = MemoryGovernor.getInstance();
     /**
      * Exception handler used to catch exceptions.
      */
     private ExceptionHandler exceptionHandler;
+    /**
+     * The cache of the peptide to protein mapping, null if not used.
+     */
+    private PeptideMappingCache peptideMappingCache = null;
 
     /**
      * Constructor.
@@ -82,7 +100,7 @@ public class PeptideMapper {
         if (nThreads == 1) {
             mapPeptidesSingleThreaded(peptideMap, waitingHandler);
         } else {
-            mapPeptidesThreadingPerKey(peptideMap, nThreads, waitingHandler);
+            mapPeptidesInBatches(peptideMap, nThreads, waitingHandler);
         }
     }
 
@@ -91,8 +109,6 @@ public class PeptideMapper {
      *
      * @param peptideMap a map of the peptides to map: start of the sequence
      * &gt; list of peptides
-     * @param sequenceMatchingPreferences The sequence matching preferences
-     * @param idFilter The import filter
      * @param waitingHandler A waiting handler
      *
      * @throws IOException exception thrown whenever an error occurred while
@@ -109,15 +125,17 @@ public class PeptideMapper {
 
         if (peptideMap != null && !peptideMap.isEmpty()) {
             waitingHandler.resetSecondaryProgressCounter();
-            waitingHandler.setMaxSecondaryProgressCounter(peptideMap.size());
+            waitingHandler.setMaxSecondaryProgressCounter(getNPeptides(peptideMap));
             waitingHandler.appendReport("Mapping peptides to proteins.", true, true);
-            HashSet<String> keys = new HashSet<String>(peptideMap.keySet());
+            ArrayList<String> keys = new ArrayList<String>(peptideMap.keySet());
+            Collections.sort(keys);
             for (String key : keys) {
-                LinkedList<Peptide> peptides = peptideMap.get(key);
-                Iterator<Peptide> peptideIterator = peptides.iterator();
-                while (peptideIterator.hasNext()) {
-                    Peptide peptide = peptideIterator.next();
-                    mapPeptide(peptide, !peptideIterator.hasNext());
+                for (Peptide peptide : peptideMap.get(key)) {
+                    if (canceled || waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                    mapPeptide(peptide);
+                    waitingHandler.increaseSecondaryProgressCounter();
                 }
                 peptideMap.remove(key);
             }
@@ -125,104 +143,84 @@ public class PeptideMapper {
     }
 
     /**
-     * Maps the peptides found to the proteins.
+     * Maps the peptides found to the proteins. The peptides are split in
+     * batches of similar size which are processed by the threads as they
+     * become available, so that large sequence prefixes do not delay the end
+     * of the mapping.
      *
      * @param peptideMap a map of the peptides to map: start of the sequence
      * &gt; list of peptides
-     * @param sequenceMatchingPreferences The sequence matching preferences
-     * @param idFilter the import filter
      * @param nThreads the number of threads to use
      * @param waitingHandler a waiting handler
      *
-     * @throws IOException exception thrown whenever an error occurred while
-     * reading or writing a file
      * @throws InterruptedException exception thrown whenever a threading issue
      * occurred while mapping the peptides to the proteins
-     * @throws SQLException exception thrown whenever an error occurred while
-     * interacting with the database
-     * @throws ClassNotFoundException exception thrown whenever an error
-     * occurred while deserializing an object from the database
      */
-    private void mapPeptidesThreadingPerKey(HashMap<String, LinkedList<Peptide>> peptideMap, int nThreads,
-            WaitingHandler waitingHandler) throws IOException, InterruptedException, SQLException, ClassNotFoundException {
+    private void mapPeptidesInBatches(HashMap<String, LinkedList<Peptide>> peptideMap, int nThreads, WaitingHandler waitingHandler) throws InterruptedException {
 
         if (peptideMap != null && !peptideMap.isEmpty()) {
+
+            int nPeptides = getNPeptides(peptideMap);
             waitingHandler.resetSecondaryProgressCounter();
-            waitingHandler.setMaxSecondaryProgressCounter(peptideMap.size());
+            waitingHandler.setMaxSecondaryProgressCounter(nPeptides);
             waitingHandler.appendReport("Mapping peptides to proteins.", true, true);
-            HashSet<String> keys = new HashSet<String>(peptideMap.keySet());
-            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+
+            // split the peptides in batches, the sequence prefixes are sorted so that the peptides of a batch use the same branches of the protein tree
+            int batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, nPeptides / (BATCHES_PER_THREAD * nThreads)));
+            ConcurrentLinkedQueue<ArrayList<Peptide>> batches = new ConcurrentLinkedQueue<ArrayList<Peptide>>();
+            ArrayList<Peptide> batch = new ArrayList<Peptide>(batchSize);
+            ArrayList<String> keys = new ArrayList<String>(peptideMap.keySet());
+            Collections.sort(keys);
             for (String key : keys) {
-                LinkedList<Peptide> peptides = peptideMap.get(key);
-                PeptideListMapperRunnable peptideMapperRunnable = new PeptideListMapperRunnable(peptides);
-                pool.submit(peptideMapperRunnable);
-                if (canceled || waitingHandler.isRunCanceled()) {
-                    pool.shutdownNow();
-                    return;
+                for (Peptide peptide : peptideMap.get(key)) {
+                    batch.add(peptide);
+                    if (batch.size() == batchSize) {
+                        batches.add(batch);
+                        batch = new ArrayList<Peptide>(batchSize);
+                    }
                 }
                 peptideMap.remove(key);
-                if (canceled || waitingHandler.isRunCanceled()) {
-                    pool.shutdownNow();
-                    return;
-                }
+            }
+            if (!batch.isEmpty()) {
+                batches.add(batch);
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            for (int i = 0; i < nThreads; i++) {
+                pool.submit(new PeptideBatchMapperRunnable(batches, waitingHandler));
             }
             pool.shutdown();
-            if (!pool.awaitTermination(1, TimeUnit.HOURS)) {
-                waitingHandler.appendReport("Mapping peptides timed out. Please contact the developers.", true, true);
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("Mapping peptides timed out. Please contact the developers.");
             }
         }
     }
 
     /**
-     * Maps the peptides found to the proteins.
+     * Returns the number of peptides in the given map.
      *
      * @param peptideMap a map of the peptides to map: start of the sequence
      * &gt; list of peptides
-     * @param sequenceMatchingPreferences The sequence matching preferences
-     * @param idFilter the import filter
-     * @param nThreads the number of threads to use
-     * @param waitingHandler a waiting handler
      *
-     * @throws IOException exception thrown whenever an error occurred while
-     * reading or writing a file
-     * @throws InterruptedException exception thrown whenever a threading issue
-     * occurred while mapping the peptides to the proteins
-     * @throws SQLException exception thrown whenever an error occurred while
-     * interacting with the database
-     * @throws ClassNotFoundException exception thrown whenever an error
-     * occurred while deserializing an object from the database
+     * @return the number of peptides in the given map
      */
-    private void mapPeptidesThreadingPerPeptide(HashMap<String, LinkedList<Peptide>> peptideMap, int nThreads,
-            WaitingHandler waitingHandler) throws IOException, InterruptedException, SQLException, ClassNotFoundException, ExecutionException {
-
-        if (peptideMap != null && !peptideMap.isEmpty()) {
-            waitingHandler.setMaxSecondaryProgressCounter(peptideMap.size());
-            waitingHandler.appendReport("Mapping peptides to proteins.", true, true);
-            HashSet<String> keys = new HashSet<String>(peptideMap.keySet());
-            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
-            for (String key : keys) {
-                LinkedList<Peptide> peptides = peptideMap.get(key);
-                Iterator<Peptide> peptideIterator = peptides.iterator();
-                while (peptideIterator.hasNext()) {
-                    Peptide peptide = peptideIterator.next();
-                    PeptideMapperRunnable peptideMapperRunnable = new PeptideMapperRunnable(peptide, !peptideIterator.hasNext());
-                    pool.submit(peptideMapperRunnable);
-                    if (canceled || waitingHandler.isRunCanceled()) {
-                        pool.shutdownNow();
-                        return;
-                    }
-                }
-                peptideMap.remove(key);
-                if (canceled || waitingHandler.isRunCanceled()) {
-                    pool.shutdownNow();
-                    return;
-                }
-            }
-            pool.shutdown();
-            if (!pool.awaitTermination(1, TimeUnit.HOURS)) {
-                waitingHandler.appendReport("Mapping peptides timed out. Please contact the developers.", true, true);
-            }
+    private static int getNPeptides(HashMap<String, LinkedList<Peptide>> peptideMap) {
+        int nPeptides = 0;
+        for (LinkedList<Peptide> peptides : peptideMap.values()) {
+            nPeptides += peptides.size();
         }
+        return nPeptides;
+    }
+
+    /**
+     * Sets the cache of the peptide to protein mapping. The cache is consulted
+     * before the protein tree and populated with the new mappings.
+     *
+     * @param peptideMappingCache the cache of the peptide to protein mapping,
+     * null to map all peptides using the protein tree
+     */
+    public void setPeptideMappingCache(PeptideMappingCache peptideMappingCache) {
+        this.peptideMappingCache = peptideMappingCache;
     }
 
     /**
@@ -235,11 +233,9 @@ public class PeptideMapper {
     }
 
     /**
-     * Maps a list of peptides.
+     * Maps a peptide.
      *
      * @param peptide the peptide to map
-     * @param increaseProgressBar boolean indicating whether the progress bar
-     * should be increased after mapping the peptide
      *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file
@@ -250,29 +246,26 @@ public class PeptideMapper {
      * @throws ClassNotFoundException exception thrown whenever an error
      * occurred while deserializing an object from the database
      */
-    private void mapPeptide(Peptide peptide, boolean increaseProgressBar) throws IOException, InterruptedException, SQLException, ClassNotFoundException {
+    private void mapPeptide(Peptide peptide) throws IOException, InterruptedException, SQLException, ClassNotFoundException {
         SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
         if (identificationParameters.getIdFilter().validatePeptide(peptide, sequenceMatchingPreferences)) {
-            if (peptide.getParentProteins(sequenceMatchingPreferences).isEmpty()) {
+            ArrayList<String> parentProteins;
+            if (peptideMappingCache != null) {
+                parentProteins = peptideMappingCache.getParentProteins(peptide, sequenceMatchingPreferences);
+            } else {
+                parentProteins = peptide.getParentProteins(sequenceMatchingPreferences);
+            }
+            if (parentProteins.isEmpty()) {
                 throw new IllegalArgumentException("No protein was found for peptide of sequence " + peptide.getSequence() + ". Please verify the following:" + System.getProperty("line.separator")
                         + "- The protein sequence database must be the same or contain the database used for the search." + System.getProperty("line.separator")
                         + "- When using the 'REVERSED' tag, decoy sequences must be reversed versions of the target sequences, use the 'DECOY' tag otherwise." + System.getProperty("line.separator")
                         + "- When using in house databases make sure that the format is recognized by search engines and PeptideShaker (more details at https://code.google.com/p/searchgui/wiki/DatabaseHelp)." + System.getProperty("line.separator"));
             }
         }
-        if (increaseProgressBar) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
         // free memory if needed
-        if (MemoryConsumptionStatus.memoryUsed() > 0.8 && !ProteinTreeComponentsFactory.getInstance().getCache().isEmpty()) {
-            ProteinTreeComponentsFactory.getInstance().getCache().reduceMemoryConsumption(0.5, null);
-        }
-        if (!MemoryConsumptionStatus.halfGbFree() && sequenceFactory.getNodesInCache() > 0) {
-            sequenceFactory.reduceNodeCacheSize(0.5);
-        }
-        if (MemoryConsumptionStatus.memoryUsed() > 0.8) {
+        if (!memoryGovernor.release(MEMORY_SHARE, null)) {
             Runtime.getRuntime().gc();
-            if (MemoryConsumptionStatus.memoryUsed() > 0.8) {
+            if (memoryGovernor.isOverBudget(MEMORY_SHARE)) {
                 // all peptides/protein mappings cannot be kept in memory at the same time, abort
                 canceled = true;
             }
@@ -280,84 +273,45 @@ public class PeptideMapper {
     }
 
     /**
-     * Private runnable to map peptides from a list.
-     */
-    private class PeptideListMapperRunnable implements Runnable {
-
-        /**
-         * The peptides to map.
-         */
-        private LinkedList<Peptide> peptideList;
-
-        /**
-         * Constructor.
-         *
-         * @param peptideList the peptides to map
-         */
-        public PeptideListMapperRunnable(LinkedList<Peptide> peptideList) {
-            this.peptideList = peptideList;
-        }
-
-        @Override
-        public void run() {
-
-            try {
-                Iterator<Peptide> peptideIterator = peptideList.iterator();
-                while (peptideIterator.hasNext()) {
-                    Peptide peptide = peptideIterator.next();
-                    if (!canceled && !waitingHandler.isRunCanceled()) {
-                        mapPeptide(peptide, !peptideIterator.hasNext());
-                    }
-                }
-            } catch (Exception e) {
-                if (!canceled && !waitingHandler.isRunCanceled()) {
-                    exceptionHandler.catchException(e);
-                    canceled = true;
-                }
-            }
-        }
-    }
-
-    /**
-     * Private runnable to map a peptide.
+     * Private runnable mapping the peptides of batches taken from a queue
+     * shared between the threads until the queue is empty or the mapping is
+     * canceled.
      */
-    private class PeptideMapperRunnable implements Runnable {
-
-        /**
-         * The peptide to map.
-         */
-        private Peptide peptide;
+    private class PeptideBatchMapperRunnable implements Runnable {
 
         /**
-         * Boolean indicating whether the progress bar should be increased.
+         * The queue of batches of peptides to map.
          */
-        private boolean increaseProgressBar;
-
+        private final ConcurrentLinkedQueue<ArrayList<Peptide>> batches;
         /**
-         * Constructor.
+         * The waiting handler.
          */
-        public PeptideMapperRunnable() {
-
-        }
+        private final WaitingHandler waitingHandler;
 
         /**
          * Constructor.
          *
-         * @param peptide the peptide to map
-         * @param increaseProgressBar boolean indicating whether the progress
-         * bar should be increased after mapping the peptide
+         * @param batches the queue of batches of peptides to map
+         * @param waitingHandler the waiting handler
          */
-        public PeptideMapperRunnable(Peptide peptide, boolean increaseProgressBar) {
-            this.peptide = peptide;
-            this.increaseProgressBar = increaseProgressBar;
+        public PeptideBatchMapperRunnable(ConcurrentLinkedQueue<ArrayList<Peptide>> batches, WaitingHandler waitingHandler) {
+            this.batches = batches;
+            this.waitingHandler = waitingHandler;
         }
 
         @Override
         public void run() {
 
             try {
-                if (!canceled && !waitingHandler.isRunCanceled()) {
-                    mapPeptide(peptide, increaseProgressBar);
+                ArrayList<Peptide> batch;
+                while ((batch = batches.poll()) != null) {
+                    for (Peptide peptide : batch) {
+                        if (canceled || waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+                        mapPeptide(peptide);
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter(batch.size());
                 }
             } catch (Exception e) {
                 if (!canceled && !waitingHandler.isRunCanceled()) {
@@ -0,0 +1,662 @@
+package eu.isas.peptideshaker.protein_inference;
+
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * On-disk cache of the proteins mapping to peptide sequences. The cache is
+ * specific to a FASTA file content and to the sequence matching preferences,
+ * it is stored next to the FASTA file and reused by the following projects.
+ *
+ * The mappings are appended to a data file and indexed by an open addressing
+ * hash table in a memory mapped index file so that the cache does not use
+ * heap memory.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideMappingCache {
+
+    /**
+     * The magic number at the beginning of the files.
+     */
+    private static final int MAGIC_NUMBER = 0x50534d43;
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The size of the index header: magic number, version, capacity and size.
+     */
+    private static final int INDEX_HEADER_SIZE = 16;
+    /**
+     * The size of the data header: magic number and version.
+     */
+    private static final int DATA_HEADER_SIZE = 8;
+    /**
+     * The size of an index slot: hash and offset of the record.
+     */
+    private static final int SLOT_SIZE = 16;
+    /**
+     * The initial number of slots in the index, must be a power of two.
+     */
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    /**
+     * The maximal share of occupied slots before the index is grown.
+     */
+    private static final double MAX_LOAD = 0.5;
+    /**
+     * The extension of the index files.
+     */
+    public static final String INDEX_EXTENSION = ".pmi";
+    /**
+     * The extension of the data files.
+     */
+    public static final String DATA_EXTENSION = ".pmd";
+    /**
+     * The suffix of the cache folder.
+     */
+    public static final String FOLDER_SUFFIX = "_peptide_mapping";
+    /**
+     * The index file.
+     */
+    private RandomAccessFile indexFile;
+    /**
+     * The channel of the index file.
+     */
+    private FileChannel indexChannel;
+    /**
+     * The memory mapped index.
+     */
+    private MappedByteBuffer index;
+    /**
+     * The lock on the index file preventing other processes from using the
+     * cache at the same time.
+     */
+    private FileLock lock;
+    /**
+     * The data file.
+     */
+    private RandomAccessFile dataFile;
+    /**
+     * The channel of the data file.
+     */
+    private FileChannel dataChannel;
+    /**
+     * The end of the data file.
+     */
+    private long dataEnd;
+    /**
+     * The number of slots in the index.
+     */
+    private int capacity;
+    /**
+     * The number of sequences in the cache.
+     */
+    private int size;
+    /**
+     * The number of sequences found in the cache.
+     */
+    private long nHits = 0;
+    /**
+     * The number of sequences added to the cache.
+     */
+    private long nAdded = 0;
+
+    /**
+     * Constructor, opens the cache stored in the given files, the files are
+     * created if needed.
+     *
+     * @param indexPath the index file
+     * @param dataPath the data file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing the cache
+     */
+    private PeptideMappingCache(File indexPath, File dataPath) throws IOException {
+
+        boolean newCache = !indexPath.exists() || !dataPath.exists();
+        indexFile = new RandomAccessFile(indexPath, "rw");
+        indexChannel = indexFile.getChannel();
+        try {
+            lock = indexChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            indexFile.close();
+            throw new IOException("The peptide mapping cache " + indexPath.getAbsolutePath() + " is used by another process.");
+        }
+        dataFile = new RandomAccessFile(dataPath, "rw");
+        dataChannel = dataFile.getChannel();
+
+        if (!newCache) {
+            newCache = !checkHeaders();
+        }
+        if (newCache) {
+            createFiles(INITIAL_CAPACITY);
+        } else {
+            index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE + ((long) capacity) * SLOT_SIZE);
+            dataEnd = dataChannel.size();
+        }
+    }
+
+    /**
+     * Opens the cache of the given FASTA file for the given sequence matching
+     * preferences. The cache is stored in a folder next to the FASTA file, the
+     * caches of previous versions of the FASTA file are deleted.
+     *
+     * @param fastaFile the FASTA file
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     *
+     * @return the cache
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing the cache, or if the cache is used by another process
+     */
+    public static PeptideMappingCache openCache(File fastaFile, SequenceMatchingPreferences sequenceMatchingPreferences) throws IOException {
+
+        File folder = new File(fastaFile.getParentFile(), fastaFile.getName() + FOLDER_SUFFIX);
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new IOException("Impossible to create the peptide mapping cache folder " + folder.getAbsolutePath() + ".");
+        }
+
+        String fastaChecksum = getChecksum(fastaFile);
+        ByteArrayOutputStream preferencesBytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(preferencesBytes);
+        try {
+            oos.writeObject(sequenceMatchingPreferences);
+        } finally {
+            oos.close();
+        }
+        String preferencesChecksum = getChecksum(new ByteArrayInputStream(preferencesBytes.toByteArray()));
+
+        String name = fastaChecksum + "_" + preferencesChecksum;
+        PeptideMappingCache peptideMappingCache = new PeptideMappingCache(new File(folder, name + INDEX_EXTENSION), new File(folder, name + DATA_EXTENSION));
+        deleteStaleCaches(folder, fastaChecksum);
+        return peptideMappingCache;
+    }
+
+    /**
+     * Deletes the caches of other versions of the FASTA file in the given
+     * folder. The caches locked by another process are left untouched.
+     *
+     * @param folder the cache folder
+     * @param fastaChecksum the checksum of the current FASTA file
+     */
+    private static void deleteStaleCaches(File folder, String fastaChecksum) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String fileName = file.getName();
+            if (!fileName.startsWith(fastaChecksum) && fileName.endsWith(INDEX_EXTENSION)) {
+                String name = fileName.substring(0, fileName.length() - INDEX_EXTENSION.length());
+                try {
+                    RandomAccessFile staleIndexFile = new RandomAccessFile(file, "rw");
+                    boolean unused;
+                    try {
+                        FileLock staleLock;
+                        try {
+                            staleLock = staleIndexFile.getChannel().tryLock();
+                        } catch (OverlappingFileLockException e) {
+                            staleLock = null;
+                        }
+                        unused = staleLock != null;
+                        if (unused) {
+                            new File(folder, name + DATA_EXTENSION).delete();
+                            staleLock.release();
+                        }
+                    } finally {
+                        staleIndexFile.close();
+                    }
+                    if (unused) {
+                        file.delete();
+                    }
+                } catch (IOException e) {
+                    // the cache will be deleted next time
+                }
+            } else if (!fileName.startsWith(fastaChecksum) && fileName.endsWith(DATA_EXTENSION)) {
+                String name = fileName.substring(0, fileName.length() - DATA_EXTENSION.length());
+                if (!new File(folder, name + INDEX_EXTENSION).exists()) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the proteins of the given peptide. The proteins already set to
+     * the peptide are returned as they are. Otherwise the proteins are taken
+     * from the cache when available and set to the peptide, or the peptide is
+     * mapped using the protein tree and the result is added to the cache.
+     *
+     * @param peptide the peptide
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     *
+     * @return the accessions of the proteins of the peptide
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping the peptide
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the protein tree
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the protein tree
+     */
+    public ArrayList<String> getParentProteins(Peptide peptide, SequenceMatchingPreferences sequenceMatchingPreferences)
+            throws IOException, InterruptedException, SQLException, ClassNotFoundException {
+        ArrayList<String> proteins = peptide.getParentProteinsNoRemapping();
+        if (proteins != null) {
+            return proteins;
+        }
+        String sequence = peptide.getSequence();
+        proteins = getProteins(sequence);
+        if (proteins != null) {
+            peptide.setParentProteins(proteins);
+        } else {
+            proteins = peptide.getParentProteins(sequenceMatchingPreferences);
+            addProteins(sequence, proteins);
+        }
+        return proteins;
+    }
+
+    /**
+     * Returns the proteins of the given sequence, null if not in the cache.
+     *
+     * @param sequence the peptide sequence
+     *
+     * @return the accessions of the proteins of the given sequence
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the cache
+     */
+    public synchronized ArrayList<String> getProteins(String sequence) throws IOException {
+        long hash = getHash(sequence);
+        int slot = getSlot(hash);
+        while (true) {
+            int position = INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+            long offset = index.getLong(position + 8);
+            if (offset == 0) {
+                return null;
+            }
+            if (index.getLong(position) == hash) {
+                DataInputStream record = readRecord(offset);
+                if (record == null) {
+                    return null;
+                }
+                if (record.readUTF().equals(sequence)) {
+                    int nProteins = record.readInt();
+                    ArrayList<String> proteins = new ArrayList<String>(nProteins);
+                    for (int i = 0; i < nProteins; i++) {
+                        proteins.add(record.readUTF());
+                    }
+                    nHits++;
+                    return proteins;
+                }
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+    }
+
+    /**
+     * Adds the proteins of the given sequence to the cache. Nothing is done if
+     * the sequence is already in the cache.
+     *
+     * @param sequence the peptide sequence
+     * @param proteins the accessions of the proteins of the given sequence
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the cache
+     */
+    public synchronized void addProteins(String sequence, ArrayList<String> proteins) throws IOException {
+
+        long hash = getHash(sequence);
+        int slot = getSlot(hash);
+        while (true) {
+            int position = INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+            long offset = index.getLong(position + 8);
+            if (offset == 0) {
+                break;
+            }
+            if (index.getLong(position) == hash) {
+                DataInputStream record = readRecord(offset);
+                if (record != null && record.readUTF().equals(sequence)) {
+                    return;
+                }
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(recordBytes);
+        record.writeInt(0);
+        record.writeUTF(sequence);
+        record.writeInt(proteins.size());
+        for (String accession : proteins) {
+            record.writeUTF(accession);
+        }
+        record.close();
+        ByteBuffer buffer = ByteBuffer.wrap(recordBytes.toByteArray());
+        buffer.putInt(0, buffer.capacity() - 4);
+        long offset = dataEnd;
+        while (buffer.hasRemaining()) {
+            dataChannel.write(buffer, dataEnd);
+            dataEnd = offset + buffer.position();
+        }
+
+        int position = INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+        index.putLong(position, hash);
+        index.putLong(position + 8, offset);
+        size++;
+        index.putInt(12, size);
+        nAdded++;
+
+        if (size > MAX_LOAD * capacity) {
+            growIndex();
+        }
+    }
+
+    /**
+     * Returns the number of sequences found in the cache since it was opened.
+     *
+     * @return the number of sequences found in the cache
+     */
+    public long getnHits() {
+        return nHits;
+    }
+
+    /**
+     * Returns the number of sequences added to the cache since it was opened.
+     *
+     * @return the number of sequences added to the cache
+     */
+    public long getnAdded() {
+        return nAdded;
+    }
+
+    /**
+     * Returns the number of sequences in the cache.
+     *
+     * @return the number of sequences in the cache
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Writes the cache to the disk, releases the lock and closes the files.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the cache
+     */
+    public synchronized void close() throws IOException {
+        if (indexFile != null) {
+            try {
+                dataChannel.force(false);
+                index.force();
+                unmap(index);
+                index = null;
+                lock.release();
+            } finally {
+                dataFile.close();
+                indexFile.close();
+                indexFile = null;
+            }
+        }
+    }
+
+    /**
+     * Verifies the headers of the files and loads the capacity and size of the
+     * index.
+     *
+     * @return a boolean indicating whether the files are valid
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the files
+     */
+    private boolean checkHeaders() throws IOException {
+        if (indexFile.length() < INDEX_HEADER_SIZE || dataFile.length() < DATA_HEADER_SIZE) {
+            return false;
+        }
+        indexFile.seek(0);
+        if (indexFile.readInt() != MAGIC_NUMBER || indexFile.readInt() != VERSION) {
+            return false;
+        }
+        capacity = indexFile.readInt();
+        size = indexFile.readInt();
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0 || indexFile.length() < INDEX_HEADER_SIZE + ((long) capacity) * SLOT_SIZE) {
+            return false;
+        }
+        dataFile.seek(0);
+        return dataFile.readInt() == MAGIC_NUMBER && dataFile.readInt() == VERSION;
+    }
+
+    /**
+     * Creates empty files with an index of the given capacity.
+     *
+     * @param newCapacity the number of slots of the index
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the files
+     */
+    private void createFiles(int newCapacity) throws IOException {
+        dataFile.setLength(0);
+        dataFile.writeInt(MAGIC_NUMBER);
+        dataFile.writeInt(VERSION);
+        dataEnd = DATA_HEADER_SIZE;
+        capacity = newCapacity;
+        size = 0;
+        indexFile.setLength(0);
+        indexFile.setLength(INDEX_HEADER_SIZE + ((long) capacity) * SLOT_SIZE);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE + ((long) capacity) * SLOT_SIZE);
+        index.putInt(0, MAGIC_NUMBER);
+        index.putInt(4, VERSION);
+        index.putInt(8, capacity);
+        index.putInt(12, size);
+    }
+
+    /**
+     * Doubles the capacity of the index and rehashes the sequences.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the index
+     */
+    private void growIndex() throws IOException {
+
+        long[] hashes = new long[size];
+        long[] offsets = new long[size];
+        int cpt = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int position = INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+            long offset = index.getLong(position + 8);
+            if (offset != 0) {
+                hashes[cpt] = index.getLong(position);
+                offsets[cpt] = offset;
+                cpt++;
+            }
+        }
+
+        // the file cannot be resized while mapped on some systems
+        index.force();
+        unmap(index);
+        index = null;
+
+        capacity = 2 * capacity;
+        long length = INDEX_HEADER_SIZE + ((long) capacity) * SLOT_SIZE;
+        indexFile.setLength(length);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        for (int position = INDEX_HEADER_SIZE; position < length; position += 8) {
+            index.putLong(position, 0);
+        }
+        for (int i = 0; i < cpt; i++) {
+            int slot = getSlot(hashes[i]);
+            while (index.getLong(INDEX_HEADER_SIZE + slot * SLOT_SIZE + 8) != 0) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            int position = INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+            index.putLong(position, hashes[i]);
+            index.putLong(position + 8, offsets[i]);
+        }
+        index.putInt(8, capacity);
+    }
+
+    /**
+     * Releases the memory mapping of the given buffer. The buffer must not be
+     * used afterwards. If not supported by the virtual machine, the mapping is
+     * released when the buffer is garbage collected.
+     *
+     * @param buffer the buffer to unmap
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            // not supported by this virtual machine
+        }
+    }
+
+    /**
+     * Reads the record at the given offset of the data file.
+     *
+     * @param offset the offset of the record
+     *
+     * @return a stream on the record, null if the record is not in the file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private DataInputStream readRecord(long offset) throws IOException {
+        if (offset + 4 > dataEnd) {
+            return null;
+        }
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        readFully(lengthBuffer, offset);
+        int length = lengthBuffer.getInt(0);
+        if (length <= 0 || offset + 4 + length > dataEnd) {
+            return null;
+        }
+        ByteBuffer recordBuffer = ByteBuffer.allocate(length);
+        readFully(recordBuffer, offset + 4);
+        return new DataInputStream(new ByteArrayInputStream(recordBuffer.array()));
+    }
+
+    /**
+     * Fills the given buffer from the data file starting at the given
+     * position.
+     *
+     * @param buffer the buffer to fill
+     * @param position the position in the file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (dataChannel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of the peptide mapping cache.");
+            }
+        }
+    }
+
+    /**
+     * Returns the first slot to inspect for the given hash.
+     *
+     * @param hash the hash of a sequence
+     *
+     * @return the first slot to inspect
+     */
+    private int getSlot(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & (capacity - 1);
+    }
+
+    /**
+     * Returns the 64 bits FNV-1a hash of the given sequence.
+     *
+     * @param sequence the sequence
+     *
+     * @return the hash of the sequence
+     */
+    private static long getHash(String sequence) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < sequence.length(); i++) {
+            hash ^= sequence.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the MD5 checksum of the given file.
+     *
+     * @param file the file
+     *
+     * @return the MD5 checksum of the file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private static String getChecksum(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            return getChecksum(fis);
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Returns the MD5 checksum of the content of the given stream.
+     *
+     * @param inputStream the stream
+     *
+     * @return the MD5 checksum of the content of the stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the stream
+     */
+    private static String getChecksum(InputStream inputStream) throws IOException {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("MD5 checksum not supported.");
+        }
+        byte[] buffer = new byte[65536];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            messageDigest.update(buffer, 0, read);
+        }
+        StringBuilder checksum = new StringBuilder(32);
+        for (byte b : messageDigest.digest()) {
+            checksum.append(String.format("%02x", b));
+        }
+        return checksum.toString();
+    }
+}
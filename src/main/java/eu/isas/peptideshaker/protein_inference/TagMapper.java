@@ -25,17 +25,15 @@ import com.compomics.util.experiment.identification.tags.tagcomponents.MassGap;
 import com.compomics.util.experiment.io.identifications.IdfileReader;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
-import com.compomics.util.experiment.identification.SequenceFactory;
 import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
-import com.compomics.util.experiment.identification.protein_inference.proteintree.ProteinTreeComponentsFactory;
 import com.compomics.util.experiment.identification.tags.matchers.TagMatcher;
-import com.compomics.util.memory.MemoryConsumptionStatus;
 import com.compomics.util.preferences.AnnotationPreferences;
 import com.compomics.util.preferences.IdentificationParameters;
 import com.compomics.util.preferences.ModificationProfile;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.preferences.SpecificAnnotationPreferences;
 import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.utils.MemoryGovernor;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.sql.SQLException;
@@ -77,9 +75,9 @@ public class TagMapper {
      */
     private ExceptionHandler exceptionHandler;
     /**
-     * The sequence factory.
+     * The memory governor.
      */
-    private SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+    private MemoryGovernor memoryGovernor = MemoryGovernor.getInstance();
 
     /**
      * Constructor.
@@ -341,9 +339,9 @@ public class TagMapper {
                         }
                         for (TagAssumption extendedAssumption : extendedTagList) {
                             // free memory if needed and possible
-                            if (MemoryConsumptionStatus.memoryUsed() > 0.9) {
+                            if (memoryGovernor.isOverBudget()) {
                                 tagMatcher.clearCache();
-                                if (MemoryConsumptionStatus.memoryUsed() > 0.9) {
+                                if (!memoryGovernor.release(null)) {
                                     tagMatcher.setUseCache(false);
                                 }
                             }
@@ -379,15 +377,10 @@ public class TagMapper {
             tagMatcher.clearCache();
             waitingHandler.increaseSecondaryProgressCounter();
         }
-        if (MemoryConsumptionStatus.memoryUsed() > 0.8 && !ProteinTreeComponentsFactory.getInstance().getCache().isEmpty()) {
-            ProteinTreeComponentsFactory.getInstance().getCache().reduceMemoryConsumption(0.5, null);
-        }
         // free memory if needed and possible
-        if (MemoryConsumptionStatus.memoryUsed() > 0.9) {
+        if (memoryGovernor.isOverBudget()) {
             tagMatcher.clearCache();
-        }
-        if (MemoryConsumptionStatus.memoryUsed() > 0.9 && sequenceFactory.getNodesInCache() > 0) {
-            sequenceFactory.reduceNodeCacheSize(0.5);
+            memoryGovernor.release(null);
         }
     }
 
@@ -54,6 +54,7 @@ import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -835,16 +836,33 @@ public class PtmScorer {
 
             String newKey = peptide.getMatchingKey(sequenceMatchingPreferences);
             if (!newKey.equals(originalKey)) {
-                if (identification.getPeptideIdentification().contains(newKey)) {
-                    throw new IllegalArgumentException("Attempting to create duplicate peptide key: " + newKey + ".");
-                }
-                identification.updatePeptideMatch(originalKey, newKey, peptideMatch);
+                updatePeptideMatchKey(identification, originalKey, newKey, peptideMatch);
             } else {
                 identification.updatePeptideMatch(peptideMatch);
             }
         }
     }
 
+    /**
+     * Updates the key of a peptide match in the identification. Synchronized
+     * so that peptides scored in parallel cannot end up with the same key.
+     *
+     * @param identification identification object containing the identification
+     * matches
+     * @param originalKey the original key of the peptide match
+     * @param newKey the new key of the peptide match
+     * @param peptideMatch the peptide match
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * interacting with the database
+     */
+    private synchronized void updatePeptideMatchKey(Identification identification, String originalKey, String newKey, PeptideMatch peptideMatch) throws Exception {
+        if (identification.getPeptideIdentification().contains(newKey)) {
+            throw new IllegalArgumentException("Attempting to create duplicate peptide key: " + newKey + ".");
+        }
+        identification.updatePeptideMatch(originalKey, newKey, peptideMatch);
+    }
+
     /**
      * Returns a representative to secondary sites map (representative site &gt;
      * secondary site &gt; list of PTM names) based on an ambiguous sites scores
@@ -1296,12 +1314,15 @@ public class PtmScorer {
      * @param identification identification object containing the identification
      * matches
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
      * @param identificationParameters the identification parameters
+     * @param processingPreferences the processing preferences
      *
      * @throws Exception exception thrown whenever a problem occurred while
      * deserializing a match
      */
-    public void scorePeptidePtms(Identification identification, WaitingHandler waitingHandler, IdentificationParameters identificationParameters) throws Exception {
+    public void scorePeptidePtms(Identification identification, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, IdentificationParameters identificationParameters,
+            ProcessingPreferences processingPreferences) throws Exception {
 
         waitingHandler.setWaitingText("Scoring Peptide PTMs. Please Wait...");
 
@@ -1311,14 +1332,22 @@ public class PtmScorer {
 
         identification.loadPeptideMatches(null);
 
+        // the keys are copied as the scoring can change them
         ArrayList<String> peptideKeys = new ArrayList<String>(identification.getPeptideIdentification());
-        for (String peptideKey : peptideKeys) {
-            PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
-            scorePTMs(identification, peptideMatch, identificationParameters);
-            waitingHandler.increaseSecondaryProgressCounter();
-            if (waitingHandler.isRunCanceled()) {
-                return;
-            }
+        AtomicInteger peptideIndex = new AtomicInteger(0);
+
+        ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+        for (int i = 1; i <= processingPreferences.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
+            PeptidePtmScorerRunnable runnable = new PeptidePtmScorerRunnable(peptideKeys, peptideIndex, identification, identificationParameters, waitingHandler, exceptionHandler);
+            pool.submit(runnable);
+        }
+        if (waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return;
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Peptide PTM scoring timed out. Please contact the developers.");
         }
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(true);
@@ -1333,15 +1362,18 @@ public class PtmScorer {
      * @param metrics if provided, metrics on proteins will be saved while
      * iterating the matches
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
      * @param shotgunProtocol information on the protocol used
      * @param identificationParameters the identification parameters
      * @param identificationFeaturesGenerator identification features generator
      * used to generate metrics which will be stored for later reuse
+     * @param processingPreferences the processing preferences
      *
      * @throws Exception exception thrown whenever a problem occurred while
      * deserializing a match
      */
-    public void scoreProteinPtms(Identification identification, Metrics metrics, WaitingHandler waitingHandler, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, IdentificationFeaturesGenerator identificationFeaturesGenerator) throws Exception {
+    public void scoreProteinPtms(Identification identification, Metrics metrics, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, ShotgunProtocol shotgunProtocol,
+            IdentificationParameters identificationParameters, IdentificationFeaturesGenerator identificationFeaturesGenerator, ProcessingPreferences processingPreferences) throws Exception {
 
         waitingHandler.setWaitingText("Scoring Protein PTMs. Please Wait...");
 
@@ -1349,44 +1381,40 @@ public class PtmScorer {
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(max);
 
-        // If needed, while we are iterating proteins, we will take the maximal spectrum counting value and number of validated proteins as well.
-        int nValidatedProteins = 0;
-        int nConfidentProteins = 0;
-        double tempSpectrumCounting, maxSpectrumCounting = 0;
-
-        PSParameter psParameter = new PSParameter();
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-        parameters.add(psParameter);
+        parameters.add(new PSParameter());
         ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(parameters, true, parameters, true, parameters, waitingHandler);
 
-        while (proteinMatchesIterator.hasNext()) {
-            
-            ProteinMatch proteinMatch = proteinMatchesIterator.next();
-            String proteinKey = proteinMatch.getKey();
-
-            scorePTMs(identification, proteinMatch, identificationParameters, false);
-
-            if (metrics != null) {
-                psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
-                if (psParameter.getMatchValidationLevel().isValidated()) {
-                    nValidatedProteins++;
-                    if (psParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
-                        nConfidentProteins++;
-                    }
-                }
-                if (identificationFeaturesGenerator != null) {
-                    tempSpectrumCounting = identificationFeaturesGenerator.getNormalizedSpectrumCounting(proteinKey);
-                    if (tempSpectrumCounting > maxSpectrumCounting) {
-                        maxSpectrumCounting = tempSpectrumCounting;
-                    }
-                }
-            }
-            waitingHandler.increaseSecondaryProgressCounter();
-            if (waitingHandler.isRunCanceled()) {
-                return;
-            }
+        ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+        ArrayList<ProteinPtmScorerRunnable> runnables = new ArrayList<ProteinPtmScorerRunnable>(processingPreferences.getnThreads());
+        for (int i = 1; i <= processingPreferences.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
+            ProteinPtmScorerRunnable runnable = new ProteinPtmScorerRunnable(proteinMatchesIterator, identification, metrics != null, identificationParameters,
+                    identificationFeaturesGenerator, waitingHandler, exceptionHandler);
+            pool.submit(runnable);
+            runnables.add(runnable);
+        }
+        if (waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return;
         }
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Protein PTM scoring timed out. Please contact the developers.");
+        }
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
+
         if (metrics != null) {
+            // While we are iterating proteins, the maximal spectrum counting value and number of validated proteins are gathered by every thread.
+            int nValidatedProteins = 0;
+            int nConfidentProteins = 0;
+            double maxSpectrumCounting = 0;
+            for (ProteinPtmScorerRunnable runnable : runnables) {
+                nValidatedProteins += runnable.getnValidatedProteins();
+                nConfidentProteins += runnable.getnConfidentProteins();
+                maxSpectrumCounting = Math.max(maxSpectrumCounting, runnable.getMaxSpectrumCounting());
+            }
             metrics.setMaxSpectrumCounting(maxSpectrumCounting);
             metrics.setnValidatedProteins(nValidatedProteins);
             metrics.setnConfidentProteins(nConfidentProteins);
@@ -2023,4 +2051,217 @@ public class PtmScorer {
             }
         }
     }
+
+    /**
+     * Runnable scoring peptide PTMs.
+     *
+     * @author Marc Vaudel
+     */
+    private class PeptidePtmScorerRunnable implements Runnable {
+
+        /**
+         * The keys of the peptides to score.
+         */
+        private ArrayList<String> peptideKeys;
+        /**
+         * The index of the next peptide to score, shared between the threads.
+         */
+        private AtomicInteger peptideIndex;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param peptideKeys the keys of the peptides to score
+         * @param peptideIndex the index of the next peptide to score, shared
+         * between the threads
+         * @param identification the identification containing the matches
+         * @param identificationParameters the identification parameters
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public PeptidePtmScorerRunnable(ArrayList<String> peptideKeys, AtomicInteger peptideIndex, Identification identification,
+                IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.peptideKeys = peptideKeys;
+            this.peptideIndex = peptideIndex;
+            this.identification = identification;
+            this.identificationParameters = identificationParameters;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int index;
+                while ((index = peptideIndex.getAndIncrement()) < peptideKeys.size() && !waitingHandler.isRunCanceled()) {
+                    PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKeys.get(index));
+                    scorePTMs(identification, peptideMatch, identificationParameters);
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+    }
+
+    /**
+     * Runnable scoring protein PTMs.
+     *
+     * @author Marc Vaudel
+     */
+    private class ProteinPtmScorerRunnable implements Runnable {
+
+        /**
+         * An iterator for the protein matches.
+         */
+        private ProteinMatchesIterator proteinMatchesIterator;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * Indicates whether metrics on the proteins should be gathered.
+         */
+        private boolean gatherMetrics;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The identification features generator.
+         */
+        private IdentificationFeaturesGenerator identificationFeaturesGenerator;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+        /**
+         * The number of validated proteins found by this thread.
+         */
+        private int nValidatedProteins = 0;
+        /**
+         * The number of confident proteins found by this thread.
+         */
+        private int nConfidentProteins = 0;
+        /**
+         * The maximal normalized spectrum counting found by this thread.
+         */
+        private double maxSpectrumCounting = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param proteinMatchesIterator a protein matches iterator
+         * @param identification the identification containing the matches
+         * @param gatherMetrics boolean indicating whether metrics on the
+         * proteins should be gathered
+         * @param identificationParameters the identification parameters
+         * @param identificationFeaturesGenerator the identification features
+         * generator, can be null
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public ProteinPtmScorerRunnable(ProteinMatchesIterator proteinMatchesIterator, Identification identification, boolean gatherMetrics,
+                IdentificationParameters identificationParameters, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+                WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.proteinMatchesIterator = proteinMatchesIterator;
+            this.identification = identification;
+            this.gatherMetrics = gatherMetrics;
+            this.identificationParameters = identificationParameters;
+            this.identificationFeaturesGenerator = identificationFeaturesGenerator;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                PSParameter psParameter = new PSParameter();
+
+                while (proteinMatchesIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+
+                    ProteinMatch proteinMatch = proteinMatchesIterator.next();
+
+                    if (proteinMatch != null) {
+
+                        String proteinKey = proteinMatch.getKey();
+
+                        scorePTMs(identification, proteinMatch, identificationParameters, false);
+
+                        if (gatherMetrics) {
+                            psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+                            if (psParameter.getMatchValidationLevel().isValidated()) {
+                                nValidatedProteins++;
+                                if (psParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
+                                    nConfidentProteins++;
+                                }
+                            }
+                            if (identificationFeaturesGenerator != null) {
+                                double tempSpectrumCounting = identificationFeaturesGenerator.getNormalizedSpectrumCounting(proteinKey);
+                                if (tempSpectrumCounting > maxSpectrumCounting) {
+                                    maxSpectrumCounting = tempSpectrumCounting;
+                                }
+                            }
+                        }
+
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+
+        /**
+         * Returns the number of validated proteins found by this thread.
+         *
+         * @return the number of validated proteins found by this thread
+         */
+        public int getnValidatedProteins() {
+            return nValidatedProteins;
+        }
+
+        /**
+         * Returns the number of confident proteins found by this thread.
+         *
+         * @return the number of confident proteins found by this thread
+         */
+        public int getnConfidentProteins() {
+            return nConfidentProteins;
+        }
+
+        /**
+         * Returns the maximal normalized spectrum counting found by this
+         * thread.
+         *
+         * @return the maximal normalized spectrum counting found by this thread
+         */
+        public double getMaxSpectrumCounting() {
+            return maxSpectrumCounting;
+        }
+    }
 }
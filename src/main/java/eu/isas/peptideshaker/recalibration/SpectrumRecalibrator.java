@@ -110,6 +110,26 @@ public class SpectrumRecalibrator {
         }
 
         MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(fileName, spectrumTitle);
+        return recalibrateSpectrum(fileName, spectrumTitle, spectrum, runError, recalibratePrecursor, recalibrateFragmentIons);
+    }
+
+    /**
+     * Recalibrates a spectrum already loaded using the given m/z deviation
+     * statistics.
+     *
+     * @param fileName the name of the file of the spectrum
+     * @param spectrumTitle the title of the spectrum
+     * @param spectrum the spectrum to recalibrate
+     * @param runError the m/z deviation statistics of the spectrum file
+     * @param recalibratePrecursor boolean indicating whether precursors shall
+     * be recalibrated
+     * @param recalibrateFragmentIons boolean indicating whether fragment ions
+     * shall be recalibrated
+     *
+     * @return a recalibrated spectrum
+     */
+    public static MSnSpectrum recalibrateSpectrum(String fileName, String spectrumTitle, MSnSpectrum spectrum, RunMzDeviation runError, boolean recalibratePrecursor, boolean recalibrateFragmentIons) {
+
         Precursor precursor = spectrum.getPrecursor();
         double precursorMz = precursor.getMz();
         double precursorRT = precursor.getRt();
@@ -261,6 +261,36 @@ public class InputMap implements Serializable {
         targetDecoyMap.put(eValue, isDecoy);
     }
 
+    /**
+     * Adds the entries of target/decoy maps gathered separately, for instance
+     * by different threads, for the given spectrum file.
+     *
+     * @param spectrumFileName the name of the inspected spectrum file
+     * @param entries the entries to add: advocate index &gt; target/decoy map
+     */
+    public synchronized void addEntries(String spectrumFileName, HashMap<Integer, TargetDecoyMap> entries) {
+        for (Integer searchEngine : entries.keySet()) {
+            TargetDecoyMap newEntries = entries.get(searchEngine);
+            TargetDecoyMap targetDecoyMap = inputMap.get(searchEngine);
+            if (targetDecoyMap == null) {
+                targetDecoyMap = new TargetDecoyMap();
+                inputMap.put(searchEngine, targetDecoyMap);
+            }
+            targetDecoyMap.addAll(newEntries);
+            HashMap<String, TargetDecoyMap> algorithmMap = inputSpecificMap.get(searchEngine);
+            if (algorithmMap == null) {
+                algorithmMap = new HashMap<String, TargetDecoyMap>();
+                inputSpecificMap.put(searchEngine, algorithmMap);
+            }
+            targetDecoyMap = algorithmMap.get(spectrumFileName);
+            if (targetDecoyMap == null) {
+                targetDecoyMap = new TargetDecoyMap();
+                algorithmMap.put(spectrumFileName, targetDecoyMap);
+            }
+            targetDecoyMap.addAll(newEntries);
+        }
+    }
+
     /**
      * Returns the number of entries.
      *
@@ -347,6 +377,34 @@ public class InputMap implements Serializable {
         }
     }
 
+    /**
+     * Removes an advocate contribution previously added, e.g. when a match is
+     * no longer validated.
+     *
+     * @param advocateId the index of the advocate
+     * @param fileName the name of the spectrum file of interest
+     * @param unique boolean indicating whether the advocate was the only
+     * advocate for the considered assumption
+     */
+    public synchronized void removeAdvocateContribution(Integer advocateId, String fileName, boolean unique) {
+        HashMap<String, Integer> advocateContributions = advocateContribution.get(advocateId);
+        if (advocateContributions != null) {
+            Integer contribution = advocateContributions.get(fileName);
+            if (contribution != null && contribution > 0) {
+                advocateContributions.put(fileName, contribution - 1);
+            }
+        }
+        if (unique) {
+            HashMap<String, Integer> advocateUniqueContributions = advocateUniqueContribution.get(advocateId);
+            if (advocateUniqueContributions != null) {
+                Integer uniqueContribution = advocateUniqueContributions.get(fileName);
+                if (uniqueContribution != null && uniqueContribution > 0) {
+                    advocateUniqueContributions.put(fileName, uniqueContribution - 1);
+                }
+            }
+        }
+    }
+
     /**
      * Returns the contribution of validated hits of the given advocate for the
      * given file.
@@ -479,6 +537,39 @@ public class InputMap implements Serializable {
         targetDecoyMap.put(score, decoy);
     }
 
+    /**
+     * Adds intermediate scores gathered separately, for instance by different
+     * threads, for the given spectrum file.
+     *
+     * @param fileName the name of the spectrum file of interest
+     * @param scores the intermediate scores to add: advocate index &gt; score
+     * index &gt; target/decoy map
+     */
+    public synchronized void addIntermediateScores(String fileName, HashMap<Integer, HashMap<Integer, TargetDecoyMap>> scores) {
+        HashMap<Integer, HashMap<Integer, TargetDecoyMap>> advocateMap = intermediateScores.get(fileName);
+        if (advocateMap == null) {
+            advocateMap = new HashMap<Integer, HashMap<Integer, TargetDecoyMap>>();
+            intermediateScores.put(fileName, advocateMap);
+        }
+        for (Integer advocateIndex : scores.keySet()) {
+            HashMap<Integer, TargetDecoyMap> scoreMap = advocateMap.get(advocateIndex);
+            if (scoreMap == null) {
+                scoreMap = new HashMap<Integer, TargetDecoyMap>();
+                advocateMap.put(advocateIndex, scoreMap);
+            }
+            HashMap<Integer, TargetDecoyMap> newScores = scores.get(advocateIndex);
+            for (Integer scoreIndex : newScores.keySet()) {
+                TargetDecoyMap newEntries = newScores.get(scoreIndex);
+                TargetDecoyMap targetDecoyMap = scoreMap.get(scoreIndex);
+                if (targetDecoyMap == null) {
+                    targetDecoyMap = new TargetDecoyMap();
+                    scoreMap.put(scoreIndex, targetDecoyMap);
+                }
+                targetDecoyMap.addAll(newEntries);
+            }
+        }
+    }
+
     /**
      * Returns the target decoy map associated to a given spectrum file,
      * advocate and score type. Null if not found.
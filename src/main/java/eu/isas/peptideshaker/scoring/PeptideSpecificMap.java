@@ -122,6 +122,23 @@ public class PeptideSpecificMap implements Serializable {
         peptideMaps.get(key).put(probabilityScore, peptideMatch.getTheoreticPeptide().isDecoy(sequenceMatchingPreferences));
     }
 
+    /**
+     * Adds all the points of another peptide specific map to this map. The
+     * maps should not be cleaned yet.
+     *
+     * @param otherMap the other peptide specific map
+     */
+    public synchronized void addAll(PeptideSpecificMap otherMap) {
+        for (String key : otherMap.peptideMaps.keySet()) {
+            TargetDecoyMap targetDecoyMap = peptideMaps.get(key);
+            if (targetDecoyMap == null) {
+                targetDecoyMap = new TargetDecoyMap();
+                peptideMaps.put(key, targetDecoyMap);
+            }
+            targetDecoyMap.addAll(otherMap.peptideMaps.get(key));
+        }
+    }
+
     /**
      * Returns a list of keys from maps presenting a suspicious input.
      *
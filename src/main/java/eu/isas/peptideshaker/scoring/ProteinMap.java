@@ -64,6 +64,15 @@ public class ProteinMap implements Serializable {
         proteinMatchMap.put(probabilityScore, isDecoy);
     }
 
+    /**
+     * Adds all the points of another protein map to this map.
+     *
+     * @param otherMap the other protein map
+     */
+    public void addAll(ProteinMap otherMap) {
+        proteinMatchMap.addAll(otherMap.getTargetDecoyMap());
+    }
+
     /**
      * Removes a point in the target/decoy map.
      *
@@ -158,18 +158,57 @@ public class PsmSpecificMap implements Serializable {
             throws IOException, InterruptedException, SQLException, ClassNotFoundException {
 
         int charge = spectrumMatch.getBestPeptideAssumption().getIdentificationCharge().value;
+        String file = Spectrum.getSpectrumFile(spectrumMatch.getKey());
+        boolean decoy = spectrumMatch.getBestPeptideAssumption().getPeptide().isDecoy(sequenceMatchingPreferences);
+        addPoint(probabilityScore, charge, file, decoy);
+    }
+
+    /**
+     * Adds a point at a given score for a PSM of the given charge and spectrum
+     * file.
+     *
+     * @param probabilityScore the estimated score
+     * @param charge the identified charge of the PSM
+     * @param spectrumFile the name of the spectrum file
+     * @param decoy a boolean indicating whether the PSM is a decoy hit
+     */
+    public void addPoint(double probabilityScore, int charge, String spectrumFile, boolean decoy) {
         HashMap<String, TargetDecoyMap> fileMapping = fileSpecificPsmsMaps.get(charge);
         if (fileMapping == null) {
             fileMapping = new HashMap<String, TargetDecoyMap>();
             fileSpecificPsmsMaps.put(charge, fileMapping);
         }
-        String file = Spectrum.getSpectrumFile(spectrumMatch.getKey());
-        TargetDecoyMap targetDecoyMap = fileMapping.get(file);
+        TargetDecoyMap targetDecoyMap = fileMapping.get(spectrumFile);
         if (targetDecoyMap == null) {
             targetDecoyMap = new TargetDecoyMap();
-            fileMapping.put(file, targetDecoyMap);
+            fileMapping.put(spectrumFile, targetDecoyMap);
+        }
+        targetDecoyMap.put(probabilityScore, decoy);
+    }
+
+    /**
+     * Adds all the points of another map to this map, e.g. the points
+     * gathered by a thread.
+     *
+     * @param otherMap the map to add
+     */
+    public synchronized void addAll(PsmSpecificMap otherMap) {
+        for (Integer charge : otherMap.fileSpecificPsmsMaps.keySet()) {
+            HashMap<String, TargetDecoyMap> otherMapping = otherMap.fileSpecificPsmsMaps.get(charge);
+            HashMap<String, TargetDecoyMap> fileMapping = fileSpecificPsmsMaps.get(charge);
+            if (fileMapping == null) {
+                fileMapping = new HashMap<String, TargetDecoyMap>(otherMapping.size());
+                fileSpecificPsmsMaps.put(charge, fileMapping);
+            }
+            for (String spectrumFile : otherMapping.keySet()) {
+                TargetDecoyMap targetDecoyMap = fileMapping.get(spectrumFile);
+                if (targetDecoyMap == null) {
+                    targetDecoyMap = new TargetDecoyMap();
+                    fileMapping.put(spectrumFile, targetDecoyMap);
+                }
+                targetDecoyMap.addAll(otherMapping.get(spectrumFile));
+            }
         }
-        targetDecoyMap.put(probabilityScore, spectrumMatch.getBestPeptideAssumption().getPeptide().isDecoy(sequenceMatchingPreferences));
     }
 
     /**
@@ -1,5 +1,6 @@
 package eu.isas.peptideshaker.scoring.psm_scoring;
 
+import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.ShotgunProtocol;
 import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.identification.Advocate;
@@ -15,15 +16,17 @@ import com.compomics.util.experiment.identification.matches_iterators.PsmIterato
 import com.compomics.util.experiment.identification.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
-import com.compomics.util.memory.MemoryConsumptionStatus;
 import com.compomics.util.preferences.AnnotationPreferences;
 import com.compomics.util.preferences.IdFilter;
 import com.compomics.util.preferences.IdentificationParameters;
+import com.compomics.util.preferences.ProcessingPreferences;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.preferences.SpecificAnnotationPreferences;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.myparameters.PSParameter;
+import eu.isas.peptideshaker.scoring.PsmSpecificMap;
 import eu.isas.peptideshaker.scoring.InputMap;
+import eu.isas.peptideshaker.utils.MemoryGovernor;
 import eu.isas.peptideshaker.utils.Metrics;
 import eu.isas.peptideshaker.validation.MatchesValidator;
 import java.io.IOException;
@@ -31,6 +34,10 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -83,10 +90,15 @@ public class BestMatchSelection {
     }
 
     /**
-     * Fills the PSM specific map.
+     * Fills the PSM specific map. The PSMs of every spectrum file are
+     * distributed over the number of threads set in the processing
+     * preferences, every thread gathers the PSM points in its own map which
+     * are added to the PSM map of the validator once the file is processed.
      *
      * @param inputMap The input map
+     * @param processingPreferences the processing preferences
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
      * @param shotgunProtocol information about the protocol
      * @param identificationParameters the identification parameters
      *
@@ -101,408 +113,58 @@ public class BestMatchSelection {
      * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
      * whenever an error occurred while reading an mzML file
      */
-    public void selectBestHitAndFillPsmMap(InputMap inputMap, WaitingHandler waitingHandler, ShotgunProtocol shotgunProtocol,
-            IdentificationParameters identificationParameters) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+    public void selectBestHitAndFillPsmMap(InputMap inputMap, ProcessingPreferences processingPreferences, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
 
-        PeptideSpectrumAnnotator spectrumAnnotator = new PeptideSpectrumAnnotator();
         boolean multiSE = inputMap.isMultipleAlgorithms();
-
-        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
-        AnnotationPreferences annotationPreferences = identificationParameters.getAnnotationPreferences();
-
-        IdFilter idFilter = identificationParameters.getIdFilter();
+        int nThreads = processingPreferences.getnThreads();
 
         // Keep a map of the spectrum keys grouped by peptide
         HashMap<String, ArrayList<String>> orderedPsmMap = null;
-        if (MemoryConsumptionStatus.memoryUsed() < 0.8) {
+        if (MemoryGovernor.getInstance().hasHeadroom()) {
             orderedPsmMap = new HashMap<String, ArrayList<String>>(identification.getSpectrumIdentificationMap().size());
         }
 
-        PSParameter psParameter = new PSParameter();
-
         for (String spectrumFileName : identification.getSpectrumFiles()) {
 
-            HashMap<String, ArrayList<String>> keysMap = null;
-            if (orderedPsmMap != null) {
-                keysMap = new HashMap<String, ArrayList<String>>();
-            }
-
             PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, null, true, waitingHandler);
 
-            while (psmIterator.hasNext()) {
-
-                SpectrumMatch advocateMatch = psmIterator.next();
-                String spectrumKey = advocateMatch.getKey();
-
-                // map of the peptide first hits for this spectrum: score -> max protein count -> max search engine votes -> amino acids annotated -> min mass deviation -> peptide sequence
-                HashMap<Double, HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>>> peptideAssumptions
-                        = new HashMap<Double, HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>>>();
-
-                // map of the tag first hits: score -> assumptions
-                HashMap<Double, ArrayList<TagAssumption>> tagAssumptions = new HashMap<Double, ArrayList<TagAssumption>>();
-
-                ArrayList<String> identifications = new ArrayList<String>();
-
-                HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
-
-                for (int searchEngine1 : assumptions.keySet()) {
-
-                    HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocate1Map = assumptions.get(searchEngine1);
-
-                    double bestEvalue = Collections.min(advocate1Map.keySet());
-
-                    for (SpectrumIdentificationAssumption assumption1 : advocate1Map.get(bestEvalue)) {
-
-                        if (assumption1 instanceof PeptideAssumption) {
-
-                            PeptideAssumption peptideAssumption1 = (PeptideAssumption) assumption1;
-                            String id = peptideAssumption1.getPeptide().getKey();
-
-                            if (!identifications.contains(id)) {
-
-                                psParameter = (PSParameter) peptideAssumption1.getUrParam(psParameter);
-                                double p;
-
-                                if (multiSE && sequenceFactory.concatenatedTargetDecoy()) {
-                                    p = psParameter.getSearchEngineProbability();
-                                } else {
-                                    p = peptideAssumption1.getScore();
-                                }
-
-                                int nSE = 1;
-                                int proteinMax = 1;
-                                for (String protein : peptideAssumption1.getPeptide().getParentProteins(sequenceMatchingPreferences)) {
-                                    Integer tempCount = proteinCount.get(protein);
-                                    if (tempCount != null && tempCount > proteinMax) {
-                                        proteinMax = tempCount;
-                                    }
-                                }
-
-                                for (int searchEngine2 : assumptions.keySet()) {
-
-                                    if (searchEngine1 != searchEngine2) {
-
-                                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocate2Map = assumptions.get(searchEngine2);
-
-                                        boolean found = false;
-                                        ArrayList<Double> eValues2 = new ArrayList<Double>(advocate2Map.keySet());
-                                        Collections.sort(eValues2);
-
-                                        for (double eValue2 : eValues2) {
-                                            for (SpectrumIdentificationAssumption assumption2 : advocate2Map.get(eValue2)) {
-
-                                                if (assumption2 instanceof PeptideAssumption) {
-
-                                                    PeptideAssumption peptideAssumption2 = (PeptideAssumption) assumption2;
-
-                                                    if (peptideAssumption1.getPeptide().isSameSequenceAndModificationStatus(peptideAssumption2.getPeptide(),
-                                                            sequenceMatchingPreferences)) {
-                                                        PSParameter psParameter2 = (PSParameter) peptideAssumption2.getUrParam(psParameter);
-                                                        p = p * psParameter2.getSearchEngineProbability();
-                                                        nSE++;
-                                                        found = true;
-                                                        break;
-                                                    }
-                                                }
-                                            }
-                                            if (found) {
-                                                break;
-                                            }
-                                        }
-                                    }
-                                }
-
-                                identifications.add(id);
-
-                                HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>> pMap = peptideAssumptions.get(p);
-                                if (pMap == null) {
-                                    pMap = new HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>>(advocate1Map.size());
-                                    peptideAssumptions.put(p, pMap);
-                                }
-
-                                HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>> proteinMaxMap = pMap.get(proteinMax);
-                                if (proteinMaxMap == null) {
-                                    proteinMaxMap = new HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>(1);
-                                    pMap.put(proteinMax, proteinMaxMap);
-                                }
-
-                                HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>> nSeMap = proteinMaxMap.get(nSE);
-                                if (nSeMap == null) {
-                                    nSeMap = new HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>(1);
-                                    proteinMaxMap.put(nSE, nSeMap);
-                                    HashMap<Double, HashMap<String, PeptideAssumption>> coverageMap = new HashMap<Double, HashMap<String, PeptideAssumption>>(1);
-                                    nSeMap.put(-1, coverageMap);
-                                    HashMap<String, PeptideAssumption> assumptionMap = new HashMap<String, PeptideAssumption>(1);
-                                    coverageMap.put(-1.0, assumptionMap);
-                                    assumptionMap.put(peptideAssumption1.getPeptide().getSequenceWithLowerCasePtms(), peptideAssumption1);
-                                } else {
-                                    MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
-
-                                    HashMap<Double, HashMap<String, PeptideAssumption>> coverageMap = nSeMap.get(-1);
-                                    if (coverageMap != null) {
-                                        HashMap<String, PeptideAssumption> assumptionMap = coverageMap.get(-1.0);
-                                        for (PeptideAssumption tempAssumption : assumptionMap.values()) { // There should be only one
-                                            Peptide peptide = tempAssumption.getPeptide();
-            SpecificAnnotationPreferences specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrum.getSpectrumKey(), tempAssumption, identificationParameters.getSequenceMatchingPreferences());
-            HashMap<Integer, ArrayList<IonMatch>> coveredAminoAcids = spectrumAnnotator.getCoveredAminoAcids(annotationPreferences, specificAnnotationPreferences, (MSnSpectrum) spectrum, peptide);
-                                            int nIons = coveredAminoAcids.size();
-                                            nSeMap.put(nIons, coverageMap);
-                                        }
-                                        nSeMap.remove(-1);
-                                    }
-
-                                    Peptide peptide = peptideAssumption1.getPeptide();
-            SpecificAnnotationPreferences specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrum.getSpectrumKey(), peptideAssumption1, identificationParameters.getSequenceMatchingPreferences());
-            HashMap<Integer, ArrayList<IonMatch>> coveredAminoAcids = spectrumAnnotator.getCoveredAminoAcids(annotationPreferences, specificAnnotationPreferences, (MSnSpectrum) spectrum, peptide);
-                                    int nIons = coveredAminoAcids.size();
-
-                                    coverageMap = nSeMap.get(nIons);
-                                    if (coverageMap == null) {
-                                        coverageMap = new HashMap<Double, HashMap<String, PeptideAssumption>>(1);
-                                        HashMap<String, PeptideAssumption> assumptionMap = new HashMap<String, PeptideAssumption>(1);
-                                        assumptionMap.put(peptideAssumption1.getPeptide().getSequenceWithLowerCasePtms(), peptideAssumption1);
-                                        coverageMap.put(-1.0, assumptionMap);
-                                        nSeMap.put(nIons, coverageMap);
-                                    } else {
-                                        HashMap<String, PeptideAssumption> assumptionMap = coverageMap.get(-1.0);
-                                        if (assumptionMap != null) {
-                                            for (PeptideAssumption tempAssumption : assumptionMap.values()) { // There should be only one
-                                                double massError = Math.abs(tempAssumption.getDeltaMass(spectrum.getPrecursor().getMz(), shotgunProtocol.isMs1ResolutionPpm()));
-                                                coverageMap.put(massError, assumptionMap);
-                                            }
-                                            coverageMap.remove(-1.0);
-                                        }
-
-                                        double massError = Math.abs(peptideAssumption1.getDeltaMass(spectrum.getPrecursor().getMz(), shotgunProtocol.isMs1ResolutionPpm()));
-                                        assumptionMap = coverageMap.get(massError);
-                                        if (assumptionMap == null) {
-                                            assumptionMap = new HashMap<String, PeptideAssumption>(1);
-                                            coverageMap.put(massError, assumptionMap);
-                                        }
-                                        assumptionMap.put(peptideAssumption1.getPeptide().getSequenceWithLowerCasePtms(), peptideAssumption1);
-                                    }
-                                }
-                            }
-                        } else if (assumption1 instanceof TagAssumption) {
-                            TagAssumption tagAssumption = (TagAssumption) assumption1;
-                            ArrayList<TagAssumption> assumptionList = tagAssumptions.get(bestEvalue);
-                            if (assumptionList == null) {
-                                assumptionList = new ArrayList<TagAssumption>();
-                                tagAssumptions.put(bestEvalue, assumptionList);
-                            }
-                            assumptionList.add(tagAssumption);
-                        }
-                    }
-                }
-
-                SpectrumMatch spectrumMatch = new SpectrumMatch(spectrumKey);
-                if (!peptideAssumptions.isEmpty()) {
-
-                    PeptideAssumption bestPeptideAssumption = null;
-                    ArrayList<Double> ps = new ArrayList<Double>(peptideAssumptions.keySet());
-                    Collections.sort(ps);
-                    double retainedP = 0;
-
-                    for (double p : ps) {
-
-                        retainedP = p;
-                        HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>> pMap = peptideAssumptions.get(p);
-                        ArrayList<Integer> proteinMaxs = new ArrayList<Integer>(pMap.keySet());
-                        Collections.sort(proteinMaxs, Collections.reverseOrder());
-
-                        for (int proteinMax : proteinMaxs) {
-
-                            HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>> proteinMaxMap = pMap.get(proteinMax);
-                            ArrayList<Integer> nSEs = new ArrayList<Integer>(proteinMaxMap.keySet());
-                            Collections.sort(nSEs, Collections.reverseOrder());
-
-                            for (int nSE : nSEs) {
-
-                                HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>> nSeMap = proteinMaxMap.get(nSE);
-                                ArrayList<Integer> coverages = new ArrayList<Integer>(nSeMap.keySet());
-                                Collections.sort(coverages, Collections.reverseOrder());
-
-                                for (Integer coverage : coverages) {
-
-                                    HashMap<Double, HashMap<String, PeptideAssumption>> coverageMap = nSeMap.get(coverage);
-                                    ArrayList<Double> minErrors = new ArrayList<Double>(coverageMap.keySet());
-                                    Collections.sort(minErrors);
-
-                                    for (double minError : minErrors) {
-
-                                        HashMap<String, PeptideAssumption> bestPeptideAssumptions = coverageMap.get(minError);
-                                        ArrayList<String> sequences = new ArrayList<String>(bestPeptideAssumptions.keySet());
-                                        Collections.sort(sequences);
-
-                                        for (String sequence : sequences) {
-                                            PeptideAssumption peptideAssumption = bestPeptideAssumptions.get(sequence);
-                                            if (idFilter.validateProteins(peptideAssumption.getPeptide(), sequenceMatchingPreferences)) {
-                                                bestPeptideAssumption = peptideAssumption;
-                                                break;
-                                            }
-                                        }
-                                        if (bestPeptideAssumption != null) {
-                                            break;
-                                        }
-                                    }
-                                    if (bestPeptideAssumption != null) {
-                                        break;
-                                    }
-                                }
-                                if (bestPeptideAssumption != null) {
-                                    break;
-                                }
-                            }
-                            if (bestPeptideAssumption != null) {
-                                break;
-                            }
-                        }
-                        if (bestPeptideAssumption != null) {
-                            break;
-                        }
-                    }
-                    if (bestPeptideAssumption != null) {
-
-                        if (multiSE) {
-
-                            // try to find the most likely modification localization based on the search engine results
-                            HashMap<PeptideAssumption, ArrayList<Double>> assumptionPEPs = new HashMap<PeptideAssumption, ArrayList<Double>>();
-                            String bestAssumptionKey = bestPeptideAssumption.getPeptide().getMatchingKey(sequenceMatchingPreferences);
-
-                            for (int searchEngine : assumptions.keySet()) {
-
-                                boolean found = false;
-                                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = assumptions.get(searchEngine);
-                                ArrayList<Double> eValues = new ArrayList<Double>(advocateMap.keySet());
-                                Collections.sort(eValues);
-
-                                for (double eValue : eValues) {
-                                    for (SpectrumIdentificationAssumption assumption : advocateMap.get(eValue)) {
-
-                                        if (assumption instanceof PeptideAssumption) {
-
-                                            PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
-
-                                            if (peptideAssumption.getPeptide().getMatchingKey(sequenceMatchingPreferences).equals(bestAssumptionKey)) {
-
-                                                found = true;
-                                                boolean found2 = false;
-
-                                                for (PeptideAssumption assumption1 : assumptionPEPs.keySet()) {
-                                                    if (assumption1.getPeptide().sameModificationsAs(peptideAssumption.getPeptide())) {
-                                                        found2 = true;
-                                                        psParameter = (PSParameter) assumption.getUrParam(psParameter);
-                                                        ArrayList<Double> peps = assumptionPEPs.get(assumption1);
-                                                        peps.add(psParameter.getSearchEngineProbability());
-                                                        break;
-                                                    }
-                                                }
-
-                                                if (!found2) {
-                                                    ArrayList<Double> peps = new ArrayList<Double>(1);
-                                                    assumptionPEPs.put(peptideAssumption, peps);
-                                                    psParameter = (PSParameter) assumption.getUrParam(psParameter);
-                                                    peps.add(psParameter.getSearchEngineProbability());
-                                                }
-                                            }
-                                        }
-                                    }
-
-                                    if (found) {
-                                        break;
-                                    }
-                                }
-                            }
-
-                            Double bestSeP = null;
-                            int nSe = -1;
-
-                            for (PeptideAssumption peptideAssumption : assumptionPEPs.keySet()) {
-
-                                ArrayList<Double> peps = assumptionPEPs.get(peptideAssumption);
-                                Double sep = Collections.min(peps);
-
-                                if (bestSeP == null || bestSeP > sep) {
-                                    bestSeP = sep;
-                                    nSe = peps.size();
-                                    bestPeptideAssumption = peptideAssumption;
-                                } else if (peps.size() > nSe) {
-                                    if (sep != null && (Math.abs(sep - bestSeP) <= 1e-10)) {
-                                        nSe = peps.size();
-                                        bestPeptideAssumption = peptideAssumption;
-                                    }
-                                }
-                            }
-                        }
-
-                        // create a PeptideShaker match based on the best search engine match
-                        Peptide sePeptide = bestPeptideAssumption.getPeptide();
-                        ArrayList<String> psProteins = new ArrayList<String>(sePeptide.getParentProteins(sequenceMatchingPreferences));
-                        ArrayList<ModificationMatch> psModificationMatches = new ArrayList<ModificationMatch>();
-
-                        for (ModificationMatch seModMatch : sePeptide.getModificationMatches()) {
-                            psModificationMatches.add(new ModificationMatch(seModMatch.getTheoreticPtm(), seModMatch.isVariable(), seModMatch.getModificationSite()));
-                        }
-
-                        Peptide psPeptide = new Peptide(sePeptide.getSequence(), psModificationMatches);
-                        psPeptide.setParentProteins(psProteins);
-                        PeptideAssumption psAssumption = new PeptideAssumption(psPeptide, 1, Advocate.peptideShaker.getIndex(), bestPeptideAssumption.getIdentificationCharge(), retainedP);
-
-                        spectrumMatch.setBestPeptideAssumption(psAssumption);
-
-                        if (orderedPsmMap != null) {
-                            String peptideKey = psPeptide.getMatchingKey(sequenceMatchingPreferences);
-                            ArrayList<String> spectrumKeys = keysMap.get(peptideKey);
-                            if (spectrumKeys == null) {
-                                spectrumKeys = new ArrayList<String>();
-                                keysMap.put(peptideKey, spectrumKeys);
-                            }
-                            spectrumKeys.add(spectrumKey);
-                        }
-
-                        psParameter = new PSParameter();
-                        psParameter.setSpectrumProbabilityScore(retainedP);
-
-                        PSParameter matchParameter = (PSParameter) bestPeptideAssumption.getUrParam(psParameter);
-                        psParameter.setSearchEngineProbability(matchParameter.getSearchEngineProbability());
-                        psParameter.setAlgorithmDeltaPEP(matchParameter.getAlgorithmDeltaPEP());
-                        psParameter.setDeltaPEP(matchParameter.getDeltaPEP());
-
-                        matchesValidator.getPsmMap().addPoint(psParameter.getPsmProbabilityScore(), spectrumMatch, sequenceMatchingPreferences);
-                        psParameter.setSpecificMapKey(spectrumMatch.getBestPeptideAssumption().getIdentificationCharge().value + "");
-                        identification.addSpectrumMatchParameter(spectrumKey, psParameter);
-                        identification.updateSpectrumMatch(spectrumMatch);
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            ArrayList<BestMatchRunnable> runnables = new ArrayList<BestMatchRunnable>(nThreads);
+            for (int i = 1; i <= nThreads && !waitingHandler.isRunCanceled(); i++) {
+                BestMatchRunnable runnable = new BestMatchRunnable(psmIterator, multiSE, orderedPsmMap != null, shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler);
+                pool.submit(runnable);
+                runnables.add(runnable);
+            }
+            if (waitingHandler.isRunCanceled()) {
+                pool.shutdownNow();
+                return;
+            }
+            pool.shutdown();
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("Best match selection timed out. Please contact the developers.");
+            }
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
 
-                    } else {
-                        throw new IllegalArgumentException("No best assumption found for spectrum " + spectrumKey + ".");
-                    }
-                }
-                if (!tagAssumptions.isEmpty()) {
-                    ArrayList<Double> evalues = new ArrayList<Double>(tagAssumptions.keySet());
-                    Double bestEvalue = Collections.min(evalues);
-                    TagAssumption bestAssumption = tagAssumptions.get(bestEvalue).get(0);
-                    spectrumMatch.setBestTagAssumption(bestAssumption);
-                    identification.updateSpectrumMatch(spectrumMatch);
-                    if (spectrumMatch.getBestPeptideAssumption() == null) {
-                        psParameter = new PSParameter();
-                        if (!multiSE) {
-                            psParameter.setSpectrumProbabilityScore(bestEvalue);
+            HashMap<String, ArrayList<String>> keysMap = new HashMap<String, ArrayList<String>>();
+            for (BestMatchRunnable runnable : runnables) {
+                matchesValidator.getPsmMap().addAll(runnable.getPsmMap());
+                if (orderedPsmMap != null) {
+                    HashMap<String, ArrayList<String>> runnableKeys = runnable.getKeysMap();
+                    for (String peptideKey : runnableKeys.keySet()) {
+                        ArrayList<String> spectrumKeys = keysMap.get(peptideKey);
+                        if (spectrumKeys == null) {
+                            keysMap.put(peptideKey, runnableKeys.get(peptideKey));
+                        } else {
+                            spectrumKeys.addAll(runnableKeys.get(peptideKey));
                         }
-                        PSParameter matchParameter = (PSParameter) bestAssumption.getUrParam(psParameter);
-                        psParameter.setSearchEngineProbability(matchParameter.getSearchEngineProbability());
-                        psParameter.setAlgorithmDeltaPEP(matchParameter.getAlgorithmDeltaPEP());
-                        psParameter.setDeltaPEP(matchParameter.getDeltaPEP());
-                        psParameter.setSpecificMapKey(spectrumMatch.getBestTagAssumption().getIdentificationCharge().value + "");
-                        identification.addSpectrumMatchParameter(spectrumKey, psParameter);
                     }
                 }
-                waitingHandler.increaseSecondaryProgressCounter();
-                if (waitingHandler.isRunCanceled()) {
-                    return;
-                }
             }
 
             if (orderedPsmMap != null) {
@@ -512,7 +174,7 @@ public class BestMatchSelection {
                 }
                 orderedPsmMap.put(spectrumFileName, orderedKeys);
 
-                if (MemoryConsumptionStatus.memoryUsed() > 0.9) {
+                if (MemoryGovernor.getInstance().isOverBudget()) {
                     orderedPsmMap = null;
                 }
             }
@@ -646,4 +308,550 @@ public class BestMatchSelection {
         Collections.sort(sequences);
         return sequenceToPeptideAssumptionsMap.get(sequences.get(0));
     }
+
+    /**
+     * Runnable selecting the best match of the PSMs of a spectrum file.
+     *
+     * @author Marc Vaudel
+     */
+    private class BestMatchRunnable implements Runnable {
+
+        /**
+         * An iterator for the PSMs.
+         */
+        private PsmIterator psmIterator;
+        /**
+         * Indicates whether the matches come from multiple search engines.
+         */
+        private boolean multiSE;
+        /**
+         * Indicates whether the spectrum keys should be grouped by peptide.
+         */
+        private boolean groupKeys;
+        /**
+         * Information about the protocol.
+         */
+        private ShotgunProtocol shotgunProtocol;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+        /**
+         * The spectrum annotator of this thread.
+         */
+        private PeptideSpectrumAnnotator spectrumAnnotator = new PeptideSpectrumAnnotator();
+        /**
+         * The PSM points gathered by this runnable.
+         */
+        private PsmSpecificMap psmMap = new PsmSpecificMap();
+        /**
+         * The spectrum keys processed by this runnable grouped by peptide.
+         */
+        private HashMap<String, ArrayList<String>> keysMap = new HashMap<String, ArrayList<String>>();
+
+        /**
+         * Constructor.
+         *
+         * @param psmIterator a PSM iterator
+         * @param multiSE indicates whether the matches come from multiple
+         * search engines
+         * @param groupKeys indicates whether the spectrum keys should be
+         * grouped by peptide
+         * @param shotgunProtocol information about the protocol
+         * @param identificationParameters the identification parameters
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public BestMatchRunnable(PsmIterator psmIterator, boolean multiSE, boolean groupKeys, ShotgunProtocol shotgunProtocol,
+                IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.psmIterator = psmIterator;
+            this.multiSE = multiSE;
+            this.groupKeys = groupKeys;
+            this.shotgunProtocol = shotgunProtocol;
+            this.identificationParameters = identificationParameters;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (psmIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+                    SpectrumMatch advocateMatch = psmIterator.next();
+                    if (advocateMatch != null) {
+                        selectBestHit(advocateMatch.getKey());
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+
+        /**
+         * Selects the best peptide and tag hits of the given spectrum, saves
+         * them and adds the PSM to the map of this runnable.
+         *
+         * @param spectrumKey the key of the spectrum
+         *
+         * @throws Exception exception thrown whenever an error occurred while
+         * loading or saving the matches
+         */
+        private void selectBestHit(String spectrumKey) throws Exception {
+
+            SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+            IdFilter idFilter = identificationParameters.getIdFilter();
+            PSParameter psParameter = new PSParameter();
+
+            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
+
+            // the e-values of every search engine sorted once for all the lookups
+            HashMap<Integer, ArrayList<Double>> sortedEValues = new HashMap<Integer, ArrayList<Double>>(assumptions.size());
+            for (int searchEngine : assumptions.keySet()) {
+                ArrayList<Double> eValues = new ArrayList<Double>(assumptions.get(searchEngine).keySet());
+                Collections.sort(eValues);
+                sortedEValues.put(searchEngine, eValues);
+            }
+
+            // the peptide first hits of the search engines and the best tag first hit
+            ArrayList<PeptideCandidate> candidates = new ArrayList<PeptideCandidate>(assumptions.size());
+            HashSet<String> candidateKeys = new HashSet<String>(assumptions.size());
+            TagAssumption bestTagAssumption = null;
+            double bestTagEvalue = 0;
+
+            for (int searchEngine1 : assumptions.keySet()) {
+
+                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocate1Map = assumptions.get(searchEngine1);
+                double bestEvalue = sortedEValues.get(searchEngine1).get(0);
+
+                for (SpectrumIdentificationAssumption assumption1 : advocate1Map.get(bestEvalue)) {
+
+                    if (assumption1 instanceof PeptideAssumption) {
+
+                        PeptideAssumption peptideAssumption1 = (PeptideAssumption) assumption1;
+                        Peptide peptide1 = peptideAssumption1.getPeptide();
+
+                        if (candidateKeys.add(peptide1.getKey())) {
+
+                            psParameter = (PSParameter) peptideAssumption1.getUrParam(psParameter);
+                            double p;
+
+                            if (multiSE && sequenceFactory.concatenatedTargetDecoy()) {
+                                p = psParameter.getSearchEngineProbability();
+                            } else {
+                                p = peptideAssumption1.getScore();
+                            }
+
+                            int nSE = 1;
+                            int proteinMax = 1;
+                            for (String protein : peptide1.getParentProteins(sequenceMatchingPreferences)) {
+                                Integer tempCount = proteinCount.get(protein);
+                                if (tempCount != null && tempCount > proteinMax) {
+                                    proteinMax = tempCount;
+                                }
+                            }
+
+                            for (int searchEngine2 : assumptions.keySet()) {
+                                if (searchEngine1 != searchEngine2) {
+                                    PeptideAssumption peptideAssumption2 = getFirstHit(assumptions.get(searchEngine2), sortedEValues.get(searchEngine2), peptide1, sequenceMatchingPreferences);
+                                    if (peptideAssumption2 != null) {
+                                        PSParameter psParameter2 = (PSParameter) peptideAssumption2.getUrParam(psParameter);
+                                        p = p * psParameter2.getSearchEngineProbability();
+                                        nSE++;
+                                    }
+                                }
+                            }
+
+                            candidates.add(new PeptideCandidate(peptideAssumption1, p, proteinMax, nSE, candidates.size()));
+                        }
+                    } else if (assumption1 instanceof TagAssumption) {
+                        if (bestTagAssumption == null || Double.compare(bestEvalue, bestTagEvalue) < 0) {
+                            bestTagAssumption = (TagAssumption) assumption1;
+                            bestTagEvalue = bestEvalue;
+                        }
+                    }
+                }
+            }
+
+            SpectrumMatch spectrumMatch = new SpectrumMatch(spectrumKey);
+            if (!candidates.isEmpty()) {
+
+                rankCandidates(candidates, spectrumKey);
+
+                PeptideAssumption bestPeptideAssumption = null;
+                double retainedP = 0;
+
+                for (PeptideCandidate candidate : candidates) {
+                    if (idFilter.validateProteins(candidate.peptideAssumption.getPeptide(), sequenceMatchingPreferences)) {
+                        bestPeptideAssumption = candidate.peptideAssumption;
+                        retainedP = candidate.p;
+                        break;
+                    }
+                }
+
+                if (bestPeptideAssumption != null) {
+
+                    if (multiSE) {
+
+                        // try to find the most likely modification localization based on the search engine results
+                        HashMap<PeptideAssumption, ArrayList<Double>> assumptionPEPs = new HashMap<PeptideAssumption, ArrayList<Double>>();
+                        String bestAssumptionKey = bestPeptideAssumption.getPeptide().getMatchingKey(sequenceMatchingPreferences);
+
+                        for (int searchEngine : assumptions.keySet()) {
+
+                            boolean found = false;
+                            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = assumptions.get(searchEngine);
+
+                            for (double eValue : sortedEValues.get(searchEngine)) {
+                                for (SpectrumIdentificationAssumption assumption : advocateMap.get(eValue)) {
+
+                                    if (assumption instanceof PeptideAssumption) {
+
+                                        PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+
+                                        if (peptideAssumption.getPeptide().getMatchingKey(sequenceMatchingPreferences).equals(bestAssumptionKey)) {
+
+                                            found = true;
+                                            boolean found2 = false;
+
+                                            for (PeptideAssumption assumption1 : assumptionPEPs.keySet()) {
+                                                if (assumption1.getPeptide().sameModificationsAs(peptideAssumption.getPeptide())) {
+                                                    found2 = true;
+                                                    psParameter = (PSParameter) assumption.getUrParam(psParameter);
+                                                    ArrayList<Double> peps = assumptionPEPs.get(assumption1);
+                                                    peps.add(psParameter.getSearchEngineProbability());
+                                                    break;
+                                                }
+                                            }
+
+                                            if (!found2) {
+                                                ArrayList<Double> peps = new ArrayList<Double>(1);
+                                                assumptionPEPs.put(peptideAssumption, peps);
+                                                psParameter = (PSParameter) assumption.getUrParam(psParameter);
+                                                peps.add(psParameter.getSearchEngineProbability());
+                                            }
+                                        }
+                                    }
+                                }
+
+                                if (found) {
+                                    break;
+                                }
+                            }
+                        }
+
+                        Double bestSeP = null;
+                        int nSe = -1;
+
+                        for (PeptideAssumption peptideAssumption : assumptionPEPs.keySet()) {
+
+                            ArrayList<Double> peps = assumptionPEPs.get(peptideAssumption);
+                            Double sep = Collections.min(peps);
+
+                            if (bestSeP == null || bestSeP > sep) {
+                                bestSeP = sep;
+                                nSe = peps.size();
+                                bestPeptideAssumption = peptideAssumption;
+                            } else if (peps.size() > nSe) {
+                                if (sep != null && (Math.abs(sep - bestSeP) <= 1e-10)) {
+                                    nSe = peps.size();
+                                    bestPeptideAssumption = peptideAssumption;
+                                }
+                            }
+                        }
+                    }
+
+                    // create a PeptideShaker match based on the best search engine match
+                    Peptide sePeptide = bestPeptideAssumption.getPeptide();
+                    ArrayList<String> psProteins = new ArrayList<String>(sePeptide.getParentProteins(sequenceMatchingPreferences));
+                    ArrayList<ModificationMatch> psModificationMatches = new ArrayList<ModificationMatch>();
+
+                    for (ModificationMatch seModMatch : sePeptide.getModificationMatches()) {
+                        psModificationMatches.add(new ModificationMatch(seModMatch.getTheoreticPtm(), seModMatch.isVariable(), seModMatch.getModificationSite()));
+                    }
+
+                    Peptide psPeptide = new Peptide(sePeptide.getSequence(), psModificationMatches);
+                    psPeptide.setParentProteins(psProteins);
+                    PeptideAssumption psAssumption = new PeptideAssumption(psPeptide, 1, Advocate.peptideShaker.getIndex(), bestPeptideAssumption.getIdentificationCharge(), retainedP);
+
+                    spectrumMatch.setBestPeptideAssumption(psAssumption);
+
+                    if (groupKeys) {
+                        String peptideKey = psPeptide.getMatchingKey(sequenceMatchingPreferences);
+                        ArrayList<String> spectrumKeys = keysMap.get(peptideKey);
+                        if (spectrumKeys == null) {
+                            spectrumKeys = new ArrayList<String>();
+                            keysMap.put(peptideKey, spectrumKeys);
+                        }
+                        spectrumKeys.add(spectrumKey);
+                    }
+
+                    psParameter = new PSParameter();
+                    psParameter.setSpectrumProbabilityScore(retainedP);
+
+                    PSParameter matchParameter = (PSParameter) bestPeptideAssumption.getUrParam(psParameter);
+                    psParameter.setSearchEngineProbability(matchParameter.getSearchEngineProbability());
+                    psParameter.setAlgorithmDeltaPEP(matchParameter.getAlgorithmDeltaPEP());
+                    psParameter.setDeltaPEP(matchParameter.getDeltaPEP());
+
+                    psmMap.addPoint(psParameter.getPsmProbabilityScore(), spectrumMatch, sequenceMatchingPreferences);
+                    psParameter.setSpecificMapKey(spectrumMatch.getBestPeptideAssumption().getIdentificationCharge().value + "");
+                    identification.addSpectrumMatchParameter(spectrumKey, psParameter);
+                    identification.updateSpectrumMatch(spectrumMatch);
+
+                } else {
+                    throw new IllegalArgumentException("No best assumption found for spectrum " + spectrumKey + ".");
+                }
+            }
+            if (bestTagAssumption != null) {
+                spectrumMatch.setBestTagAssumption(bestTagAssumption);
+                identification.updateSpectrumMatch(spectrumMatch);
+                if (spectrumMatch.getBestPeptideAssumption() == null) {
+                    psParameter = new PSParameter();
+                    if (!multiSE) {
+                        psParameter.setSpectrumProbabilityScore(bestTagEvalue);
+                    }
+                    PSParameter matchParameter = (PSParameter) bestTagAssumption.getUrParam(psParameter);
+                    psParameter.setSearchEngineProbability(matchParameter.getSearchEngineProbability());
+                    psParameter.setAlgorithmDeltaPEP(matchParameter.getAlgorithmDeltaPEP());
+                    psParameter.setDeltaPEP(matchParameter.getDeltaPEP());
+                    psParameter.setSpecificMapKey(spectrumMatch.getBestTagAssumption().getIdentificationCharge().value + "");
+                    identification.addSpectrumMatchParameter(spectrumKey, psParameter);
+                }
+            }
+        }
+
+        /**
+         * Returns the first peptide assumption of a search engine having the
+         * same sequence and modification status as the given peptide, null if
+         * none.
+         *
+         * @param advocateMap the assumptions of the search engine indexed by
+         * e-value
+         * @param eValues the e-values of the search engine in ascending order
+         * @param peptide the peptide of interest
+         * @param sequenceMatchingPreferences the sequence matching preferences
+         *
+         * @return the first matching peptide assumption
+         *
+         * @throws Exception exception thrown whenever an error occurred while
+         * comparing the peptides
+         */
+        private PeptideAssumption getFirstHit(HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap, ArrayList<Double> eValues,
+                Peptide peptide, SequenceMatchingPreferences sequenceMatchingPreferences) throws Exception {
+            for (double eValue : eValues) {
+                for (SpectrumIdentificationAssumption assumption : advocateMap.get(eValue)) {
+                    if (assumption instanceof PeptideAssumption) {
+                        PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+                        if (peptide.isSameSequenceAndModificationStatus(peptideAssumption.getPeptide(), sequenceMatchingPreferences)) {
+                            return peptideAssumption;
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Sorts the candidates from best to worst. The fragment ion coverage
+         * and the precursor mass error are only computed for candidates tied
+         * on the previous criteria.
+         *
+         * @param candidates the candidates to sort
+         * @param spectrumKey the key of the spectrum
+         *
+         * @throws Exception exception thrown whenever an error occurred while
+         * loading or annotating the spectrum
+         */
+        private void rankCandidates(ArrayList<PeptideCandidate> candidates, String spectrumKey) throws Exception {
+
+            if (candidates.size() == 1) {
+                return;
+            }
+            Collections.sort(candidates);
+
+            MSnSpectrum spectrum = null;
+            AnnotationPreferences annotationPreferences = identificationParameters.getAnnotationPreferences();
+            SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+            boolean tie = false;
+            for (int i = 0; i < candidates.size(); i++) {
+                PeptideCandidate candidate = candidates.get(i);
+                if (i > 0 && candidate.sameScores(candidates.get(i - 1))
+                        || i < candidates.size() - 1 && candidate.sameScores(candidates.get(i + 1))) {
+                    if (spectrum == null) {
+                        spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
+                    }
+                    PeptideAssumption peptideAssumption = candidate.peptideAssumption;
+                    SpecificAnnotationPreferences specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrum.getSpectrumKey(), peptideAssumption, sequenceMatchingPreferences);
+                    HashMap<Integer, ArrayList<IonMatch>> coveredAminoAcids = spectrumAnnotator.getCoveredAminoAcids(annotationPreferences, specificAnnotationPreferences, spectrum, peptideAssumption.getPeptide());
+                    candidate.coverage = coveredAminoAcids.size();
+                    tie = true;
+                }
+            }
+            if (!tie) {
+                return;
+            }
+            Collections.sort(candidates);
+
+            tie = false;
+            for (int i = 0; i < candidates.size(); i++) {
+                PeptideCandidate candidate = candidates.get(i);
+                if (i > 0 && candidate.sameCoverage(candidates.get(i - 1))
+                        || i < candidates.size() - 1 && candidate.sameCoverage(candidates.get(i + 1))) {
+                    candidate.massError = Math.abs(candidate.peptideAssumption.getDeltaMass(spectrum.getPrecursor().getMz(), shotgunProtocol.isMs1ResolutionPpm()));
+                    tie = true;
+                }
+            }
+            if (tie) {
+                Collections.sort(candidates);
+            }
+        }
+
+        /**
+         * Returns the PSM points gathered by this runnable.
+         *
+         * @return the PSM points gathered by this runnable
+         */
+        public PsmSpecificMap getPsmMap() {
+            return psmMap;
+        }
+
+        /**
+         * Returns the spectrum keys processed by this runnable grouped by
+         * peptide.
+         *
+         * @return the spectrum keys processed by this runnable grouped by
+         * peptide
+         */
+        public HashMap<String, ArrayList<String>> getKeysMap() {
+            return keysMap;
+        }
+    }
+
+    /**
+     * A peptide first hit considered for the best match of a spectrum. The
+     * candidates are sorted by increasing score, decreasing protein count,
+     * decreasing number of search engines, decreasing fragment ion coverage,
+     * increasing precursor mass error and alphabetical sequence.
+     *
+     * @author Marc Vaudel
+     */
+    private static class PeptideCandidate implements Comparable<PeptideCandidate> {
+
+        /**
+         * The peptide assumption.
+         */
+        private final PeptideAssumption peptideAssumption;
+        /**
+         * The score, the lower the better.
+         */
+        private final double p;
+        /**
+         * The maximal occurrence of the proteins of the peptide.
+         */
+        private final int proteinMax;
+        /**
+         * The number of search engines reporting the peptide.
+         */
+        private final int nSE;
+        /**
+         * The sequence of the peptide with modified residues in lower case.
+         */
+        private final String sequence;
+        /**
+         * The order in which the candidate was found.
+         */
+        private final int index;
+        /**
+         * The number of amino acids covered by fragment ions, -1 if not
+         * computed.
+         */
+        private int coverage = -1;
+        /**
+         * The absolute precursor mass error, -1 if not computed.
+         */
+        private double massError = -1;
+
+        /**
+         * Constructor.
+         *
+         * @param peptideAssumption the peptide assumption
+         * @param p the score
+         * @param proteinMax the maximal occurrence of the proteins of the
+         * peptide
+         * @param nSE the number of search engines reporting the peptide
+         * @param index the order in which the candidate was found
+         */
+        public PeptideCandidate(PeptideAssumption peptideAssumption, double p, int proteinMax, int nSE, int index) {
+            this.peptideAssumption = peptideAssumption;
+            this.p = p;
+            this.proteinMax = proteinMax;
+            this.nSE = nSE;
+            this.index = index;
+            sequence = peptideAssumption.getPeptide().getSequenceWithLowerCasePtms();
+        }
+
+        /**
+         * Indicates whether the given candidate has the same score, protein
+         * count and number of search engines.
+         *
+         * @param other the other candidate
+         *
+         * @return a boolean indicating whether the given candidate has the same
+         * scores
+         */
+        public boolean sameScores(PeptideCandidate other) {
+            return Double.compare(p, other.p) == 0 && proteinMax == other.proteinMax && nSE == other.nSE;
+        }
+
+        /**
+         * Indicates whether the given candidate has the same scores and the
+         * same fragment ion coverage.
+         *
+         * @param other the other candidate
+         *
+         * @return a boolean indicating whether the given candidate has the same
+         * scores and coverage
+         */
+        public boolean sameCoverage(PeptideCandidate other) {
+            return sameScores(other) && coverage == other.coverage;
+        }
+
+        @Override
+        public int compareTo(PeptideCandidate other) {
+            int result = Double.compare(p, other.p);
+            if (result != 0) {
+                return result;
+            }
+            if (proteinMax != other.proteinMax) {
+                return proteinMax > other.proteinMax ? -1 : 1;
+            }
+            if (nSE != other.nSE) {
+                return nSE > other.nSE ? -1 : 1;
+            }
+            if (coverage != other.coverage) {
+                return coverage > other.coverage ? -1 : 1;
+            }
+            result = Double.compare(massError, other.massError);
+            if (result != 0) {
+                return result;
+            }
+            result = sequence.compareTo(other.sequence);
+            if (result != 0) {
+                return result;
+            }
+            // the last candidate found replaces the previous ones with the same sequence
+            return index > other.index ? -1 : index < other.index ? 1 : 0;
+        }
+    }
 }
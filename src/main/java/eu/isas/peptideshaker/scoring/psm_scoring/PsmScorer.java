@@ -1,11 +1,14 @@
 package eu.isas.peptideshaker.scoring.psm_scoring;
 
+import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.ShotgunProtocol;
 import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.tags.Tag;
 import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.identification.PeptideAssumption;
 import com.compomics.util.experiment.identification.SequenceFactory;
 import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.TagAssumption;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
 import com.compomics.util.experiment.identification.psm_scoring.PsmScores;
@@ -24,8 +27,13 @@ import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -43,9 +51,22 @@ public class PsmScorer {
      * The protein sequence factory.
      */
     private SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+    /**
+     * Comparator sorting parameters by increasing search engine probability.
+     */
+    private static final Comparator<PSParameter> SEARCH_ENGINE_PROBABILITY_COMPARATOR = new Comparator<PSParameter>() {
+        @Override
+        public int compare(PSParameter o1, PSParameter o2) {
+            return Double.compare(o1.getSearchEngineProbability(), o2.getSearchEngineProbability());
+        }
+    };
 
     /**
-     * Scores the PSMs contained in an identification object.
+     * Scores the PSMs contained in an identification object. The PSMs of every
+     * spectrum file are distributed over the number of threads set in the
+     * processing preferences, every thread gathers its intermediate scores
+     * separately and the results are added to the input map once the file is
+     * processed.
      *
      * @param identification the object containing the identification matches
      * @param inputMap the input map scores
@@ -53,6 +74,7 @@ public class PsmScorer {
      * @param shotgunProtocol information on the protocol used
      * @param identificationParameters identification parameters used
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
      *
      * @throws IOException thrown if an IOException occurs
      * @throws InterruptedException thrown if an InterruptedException occurs
@@ -64,102 +86,42 @@ public class PsmScorer {
      * occurs
      */
     public void estimateIntermediateScores(Identification identification, InputMap inputMap, ProcessingPreferences processingPreferences,
-            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, WaitingHandler waitingHandler)
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler)
             throws SQLException, IOException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
 
-        AnnotationPreferences annotationPreferences = identificationParameters.getAnnotationPreferences();
-
-        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
-        PsmScoringPreferences psmScoringPreferences = identificationParameters.getPsmScoringPreferences();
-
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
 
-        //HashMap<Integer, BufferedWriter> brs = new HashMap<Integer, BufferedWriter>();
+        int nThreads = processingPreferences.getnThreads();
+
         for (String spectrumFileName : identification.getSpectrumFiles()) {
 
             PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, identification.getSpectrumIdentification(spectrumFileName), null, false, waitingHandler);
 
-            while (psmIterator.hasNext()) {
-
-                SpectrumMatch spectrumMatch = psmIterator.next();
-                String spectrumKey = spectrumMatch.getKey();
-
-                HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
-
-                for (int advocateIndex : assumptions.keySet()) {
-
-                    HashSet<Integer> scoresForAdvocate = psmScoringPreferences.getScoreForAlgorithm(advocateIndex);
-
-                    if (scoresForAdvocate != null) {
-
-                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = assumptions.get(advocateIndex);
-
-                        for (double eValue : advocateAssumptions.keySet()) {
-                            for (SpectrumIdentificationAssumption assumption : advocateAssumptions.get(eValue)) {
-
-                                if (assumption instanceof PeptideAssumption) {
-
-                                    PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
-                                    PSParameter psParameter = new PSParameter();
-                                    MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
-
-                                    for (int scoreIndex : scoresForAdvocate) {
-
-                                        Peptide peptide = peptideAssumption.getPeptide();
-                                        boolean decoy = peptide.isDecoy(sequenceMatchingPreferences);
-                                        double score;
-
-                                        if (scoreIndex == PsmScores.native_score.index) {
-                                            score = peptideAssumption.getScore();
-                                        } else {
-                                            SpecificAnnotationPreferences specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrum.getSpectrumKey(), peptideAssumption, identificationParameters.getSequenceMatchingPreferences());
-                                            score = PsmScores.getDecreasingScore(peptide, peptideAssumption.getIdentificationCharge().value, spectrum, shotgunProtocol, identificationParameters, specificAnnotationPreferences, scoreIndex);
-                                        }
-
-                                        psParameter.setIntermediateScore(scoreIndex, score);
-                                        inputMap.setIntermediateScore(spectrumFileName, advocateIndex, scoreIndex, score, decoy);
-
-//                                    try {
-//                                        BufferedWriter br = brs.get(scoreIndex);
-//                                        if (br == null) {
-//                                            PsmScores psmScores = PsmScores.getScore(scoreIndex);
-//                                            br = new BufferedWriter(new FileWriter(new File("D:\\projects\\PeptideShaker\\rescoring", psmScores.name + ".txt")));
-//                                            brs.put(scoreIndex, br);
-//                                            br.write("Title\tPeptide\tScore\tDecoy");
-//                                        br.newLine();
-//                                        }
-//                                        if (decoy) {
-//                                            br.write(Spectrum.getSpectrumTitle(spectrumKey) + "\t" + peptide.getKey() + "\t" + score + "\t" + 1);
-//                                        } else {
-//                                            br.write(Spectrum.getSpectrumTitle(spectrumKey) + "\t" + peptide.getKey() + "\t" + score + "\t" + 0);
-//                                        }
-//                                        br.newLine();
-//
-//                                    } catch (Exception e) {
-//                                        e.printStackTrace();
-//                                    }
-                                    }
-
-                                    assumption.addUrParam(psParameter);
-                                }
-                            }
-                        }
-                    }
-                }
-
-                identification.updateAssumptions(spectrumKey, assumptions);
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            ArrayList<IntermediateScoreRunnable> runnables = new ArrayList<IntermediateScoreRunnable>(nThreads);
+            for (int i = 1; i <= nThreads && !waitingHandler.isRunCanceled(); i++) {
+                IntermediateScoreRunnable runnable = new IntermediateScoreRunnable(psmIterator, spectrumFileName, identification, shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler);
+                pool.submit(runnable);
+                runnables.add(runnable);
+            }
+            if (waitingHandler.isRunCanceled()) {
+                pool.shutdownNow();
+                return;
+            }
+            pool.shutdown();
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("PSM scoring timed out. Please contact the developers.");
+            }
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
 
-                waitingHandler.increaseSecondaryProgressCounter();
-                if (waitingHandler.isRunCanceled()) {
-                    return;
-                }
+            for (IntermediateScoreRunnable runnable : runnables) {
+                inputMap.addIntermediateScores(spectrumFileName, runnable.getIntermediateScores());
             }
         }
 
-//        for (BufferedWriter br : brs.values()) {
-//            br.close();
-//        }
         waitingHandler.setSecondaryProgressCounterIndeterminate(true);
     }
 
@@ -207,13 +169,17 @@ public class PsmScorer {
     }
 
     /**
-     * Attaches a score to the PSMs.
+     * Attaches a score to the PSMs. The PSMs of every spectrum file are
+     * distributed over the number of threads set in the processing
+     * preferences, every thread gathers the scores in its own target/decoy maps
+     * which are added to the input map once the file is processed.
      *
      * @param identification the object containing the identification matches
      * @param inputMap the input map scores
      * @param processingPreferences the processing preferences
      * @param identificationParameters the identification parameters
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
      *
      * @throws IOException thrown if an IOException occurs
      * @throws InterruptedException thrown if an InterruptedException occurs
@@ -225,90 +191,634 @@ public class PsmScorer {
      * occurs
      */
     public void scorePsms(Identification identification, InputMap inputMap, ProcessingPreferences processingPreferences,
-            IdentificationParameters identificationParameters, WaitingHandler waitingHandler)
+            IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler)
             throws SQLException, IOException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
-        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
-        PsmScoringPreferences psmScoringPreferences = identificationParameters.getPsmScoringPreferences();
 
-        PSParameter psParameter = new PSParameter();
+        int nThreads = processingPreferences.getnThreads();
 
-//        BufferedWriter br = new BufferedWriter(new FileWriter(new File("D:\\projects\\PeptideShaker\\rescoring", "combination.txt")));
-//        br.write("Title\tPeptide\tScore\tDecoy");
-//        br.newLine();
         for (String spectrumFileName : identification.getSpectrumFiles()) {
 
             PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, identification.getSpectrumIdentification(spectrumFileName), null, false, waitingHandler);
 
-            while (psmIterator.hasNext()) {
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            ArrayList<PsmScorerRunnable> runnables = new ArrayList<PsmScorerRunnable>(nThreads);
+            for (int i = 1; i <= nThreads && !waitingHandler.isRunCanceled(); i++) {
+                PsmScorerRunnable runnable = new PsmScorerRunnable(psmIterator, spectrumFileName, identification, inputMap, identificationParameters, waitingHandler, exceptionHandler);
+                pool.submit(runnable);
+                runnables.add(runnable);
+            }
+            if (waitingHandler.isRunCanceled()) {
+                pool.shutdownNow();
+                return;
+            }
+            pool.shutdown();
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("PSM scoring timed out. Please contact the developers.");
+            }
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+
+            for (PsmScorerRunnable runnable : runnables) {
+                inputMap.addEntries(spectrumFileName, runnable.getScores());
+            }
+        }
+
+        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+    }
+
+    /**
+     * Attaches the search engine posterior error probabilities and the delta
+     * posterior error probabilities to the assumptions of the PSMs. The score
+     * to probability conversion and the delta computations are done in a
+     * single pass, the assumptions of every spectrum are loaded and saved only
+     * once. The PSMs of every spectrum file are distributed over the number of
+     * threads set in the processing preferences.
+     *
+     * @param identification the object containing the identification matches
+     * @param inputMap the input map scores where the probabilities are
+     * estimated
+     * @param processingPreferences the processing preferences
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     */
+    public void attachAssumptionsProbabilities(Identification identification, InputMap inputMap, ProcessingPreferences processingPreferences,
+            SequenceMatchingPreferences sequenceMatchingPreferences, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler)
+            throws SQLException, IOException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
+
+        waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+        waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
+
+        int nThreads = processingPreferences.getnThreads();
 
-                SpectrumMatch spectrumMatch = psmIterator.next();
-                String spectrumKey = spectrumMatch.getKey();
+        for (String spectrumFileName : identification.getSpectrumFiles()) {
+
+            PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, null, true, waitingHandler);
+
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            for (int i = 1; i <= nThreads && !waitingHandler.isRunCanceled(); i++) {
+                AssumptionsProbabilitiesRunnable runnable = new AssumptionsProbabilitiesRunnable(psmIterator, identification, inputMap, sequenceMatchingPreferences, waitingHandler, exceptionHandler);
+                pool.submit(runnable);
+            }
+            if (waitingHandler.isRunCanceled()) {
+                pool.shutdownNow();
+                return;
+            }
+            pool.shutdown();
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("Assumptions probabilities attachment timed out. Please contact the developers.");
+            }
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+        }
+
+        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+    }
+
+    /**
+     * Runnable estimating the intermediate scores of the PSMs of a spectrum
+     * file.
+     *
+     * @author Marc Vaudel
+     */
+    private class IntermediateScoreRunnable implements Runnable {
+
+        /**
+         * An iterator for the PSMs.
+         */
+        private PsmIterator psmIterator;
+        /**
+         * The name of the spectrum file.
+         */
+        private String spectrumFileName;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * Information on the protocol used.
+         */
+        private ShotgunProtocol shotgunProtocol;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+        /**
+         * The intermediate scores gathered by this runnable: advocate index
+         * &gt; score index &gt; target decoy map.
+         */
+        private HashMap<Integer, HashMap<Integer, TargetDecoyMap>> intermediateScores = new HashMap<Integer, HashMap<Integer, TargetDecoyMap>>();
+
+        /**
+         * Constructor.
+         *
+         * @param psmIterator a PSM iterator
+         * @param spectrumFileName the name of the spectrum file
+         * @param identification the identification containing the matches
+         * @param shotgunProtocol information on the protocol used
+         * @param identificationParameters the identification parameters
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public IntermediateScoreRunnable(PsmIterator psmIterator, String spectrumFileName, Identification identification, ShotgunProtocol shotgunProtocol,
+                IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.psmIterator = psmIterator;
+            this.spectrumFileName = spectrumFileName;
+            this.identification = identification;
+            this.shotgunProtocol = shotgunProtocol;
+            this.identificationParameters = identificationParameters;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (psmIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+                    SpectrumMatch spectrumMatch = psmIterator.next();
+                    if (spectrumMatch != null) {
+                        estimateIntermediateScores(spectrumMatch.getKey());
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
 
-                HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
+        /**
+         * Estimates the intermediate scores of the peptide assumptions of the
+         * given spectrum.
+         *
+         * @param spectrumKey the key of the spectrum
+         *
+         * @throws Exception exception thrown whenever an error occurred while
+         * loading or saving the matches
+         */
+        private void estimateIntermediateScores(String spectrumKey) throws Exception {
 
-                for (int advocateIndex : assumptions.keySet()) {
+            AnnotationPreferences annotationPreferences = identificationParameters.getAnnotationPreferences();
+            SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+            PsmScoringPreferences psmScoringPreferences = identificationParameters.getPsmScoringPreferences();
 
-                    HashSet<Integer> scoresForAdvocate = psmScoringPreferences.getScoreForAlgorithm(advocateIndex);
+            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
+            MSnSpectrum spectrum = null;
 
-                    if (scoresForAdvocate != null) {
+            for (int advocateIndex : assumptions.keySet()) {
 
-                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = assumptions.get(advocateIndex);
+                HashSet<Integer> scoresForAdvocate = psmScoringPreferences.getScoreForAlgorithm(advocateIndex);
 
-                        for (double eValue : advocateAssumptions.keySet()) {
-                            for (SpectrumIdentificationAssumption assumption : advocateAssumptions.get(eValue)) {
+                if (scoresForAdvocate != null) {
 
-                                if (assumption instanceof PeptideAssumption) {
+                    HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = assumptions.get(advocateIndex);
 
-                                    psParameter = (PSParameter) assumption.getUrParam(psParameter);
+                    for (ArrayList<SpectrumIdentificationAssumption> assumptionsAtScore : advocateAssumptions.values()) {
+                        for (SpectrumIdentificationAssumption assumption : assumptionsAtScore) {
 
-                                    double score = 1;
+                            if (assumption instanceof PeptideAssumption) {
 
-                                    HashSet<Integer> scores = psmScoringPreferences.getScoreForAlgorithm(advocateIndex);
+                                PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+                                Peptide peptide = peptideAssumption.getPeptide();
+                                boolean decoy = peptide.isDecoy(sequenceMatchingPreferences);
+                                PSParameter psParameter = new PSParameter();
 
-                                    if (scores.size() == 1 || !sequenceFactory.concatenatedTargetDecoy()) {
-                                        score = psParameter.getIntermediateScore(scores.iterator().next());
+                                for (int scoreIndex : scoresForAdvocate) {
+
+                                    double score;
+
+                                    if (scoreIndex == PsmScores.native_score.index) {
+                                        score = peptideAssumption.getScore();
                                     } else {
-                                        for (int scoreIndex : scores) {
-                                            TargetDecoyMap targetDecoyMap = inputMap.getIntermediateScoreMap(spectrumFileName, advocateIndex, scoreIndex);
-                                            Double intermediateScore = psParameter.getIntermediateScore(scoreIndex);
-                                            if (intermediateScore != null) {
-                                                double p = targetDecoyMap.getProbability(intermediateScore);
-                                                score *= p;
-                                            }
+                                        if (spectrum == null) {
+                                            spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
                                         }
+                                        SpecificAnnotationPreferences specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrumKey, peptideAssumption, sequenceMatchingPreferences);
+                                        score = PsmScores.getDecreasingScore(peptide, peptideAssumption.getIdentificationCharge().value, spectrum, shotgunProtocol, identificationParameters, specificAnnotationPreferences, scoreIndex);
+                                    }
+
+                                    psParameter.setIntermediateScore(scoreIndex, score);
+
+                                    HashMap<Integer, TargetDecoyMap> advocateScores = intermediateScores.get(advocateIndex);
+                                    if (advocateScores == null) {
+                                        advocateScores = new HashMap<Integer, TargetDecoyMap>(scoresForAdvocate.size());
+                                        intermediateScores.put(advocateIndex, advocateScores);
+                                    }
+                                    TargetDecoyMap targetDecoyMap = advocateScores.get(scoreIndex);
+                                    if (targetDecoyMap == null) {
+                                        targetDecoyMap = new TargetDecoyMap();
+                                        advocateScores.put(scoreIndex, targetDecoyMap);
                                     }
+                                    targetDecoyMap.put(score, decoy);
+                                }
+
+                                assumption.addUrParam(psParameter);
+                            }
+                        }
+                    }
+                }
+            }
+
+            identification.updateAssumptions(spectrumKey, assumptions);
+        }
+
+        /**
+         * Returns the intermediate scores gathered by this runnable: advocate
+         * index &gt; score index &gt; target decoy map.
+         *
+         * @return the intermediate scores gathered by this runnable
+         */
+        public HashMap<Integer, HashMap<Integer, TargetDecoyMap>> getIntermediateScores() {
+            return intermediateScores;
+        }
+    }
+
+    /**
+     * Runnable attaching the final score to the PSMs of a spectrum file.
+     *
+     * @author Marc Vaudel
+     */
+    private class PsmScorerRunnable implements Runnable {
+
+        /**
+         * An iterator for the PSMs.
+         */
+        private PsmIterator psmIterator;
+        /**
+         * The name of the spectrum file.
+         */
+        private String spectrumFileName;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The input map containing the intermediate score maps.
+         */
+        private InputMap inputMap;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+        /**
+         * The scores gathered by this runnable: advocate index &gt; target
+         * decoy map.
+         */
+        private HashMap<Integer, TargetDecoyMap> scores = new HashMap<Integer, TargetDecoyMap>();
+
+        /**
+         * Constructor.
+         *
+         * @param psmIterator a PSM iterator
+         * @param spectrumFileName the name of the spectrum file
+         * @param identification the identification containing the matches
+         * @param inputMap the input map containing the intermediate score maps
+         * @param identificationParameters the identification parameters
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public PsmScorerRunnable(PsmIterator psmIterator, String spectrumFileName, Identification identification, InputMap inputMap,
+                IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.psmIterator = psmIterator;
+            this.spectrumFileName = spectrumFileName;
+            this.identification = identification;
+            this.inputMap = inputMap;
+            this.identificationParameters = identificationParameters;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (psmIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+                    SpectrumMatch spectrumMatch = psmIterator.next();
+                    if (spectrumMatch != null) {
+                        scorePsm(spectrumMatch.getKey());
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+
+        /**
+         * Attaches the final score to the peptide assumptions of the given
+         * spectrum.
+         *
+         * @param spectrumKey the key of the spectrum
+         *
+         * @throws Exception exception thrown whenever an error occurred while
+         * loading or saving the matches
+         */
+        private void scorePsm(String spectrumKey) throws Exception {
+
+            SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+            PsmScoringPreferences psmScoringPreferences = identificationParameters.getPsmScoringPreferences();
+            PSParameter psParameter = new PSParameter();
+
+            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
+
+            for (int advocateIndex : assumptions.keySet()) {
 
-                                    assumption.setScore(score);
+                HashSet<Integer> scoresForAdvocate = psmScoringPreferences.getScoreForAlgorithm(advocateIndex);
 
-                                    PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
-                                    Peptide peptide = peptideAssumption.getPeptide();
-                                    boolean decoy = peptide.isDecoy(sequenceMatchingPreferences);
-                                    inputMap.addEntry(advocateIndex, spectrumFileName, assumption.getScore(), decoy);
+                if (scoresForAdvocate != null) {
 
-//                                if (decoy) {
-//                                    br.write(Spectrum.getSpectrumTitle(spectrumKey) + "\t" + peptide.getKey() + "\t" + score + "\t" + 1);
-//                                } else {
-//                                    br.write(Spectrum.getSpectrumTitle(spectrumKey) + "\t" + peptide.getKey() + "\t" + score + "\t" + 0);
-//                                }
-//                                br.newLine();
+                    HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = assumptions.get(advocateIndex);
+
+                    for (ArrayList<SpectrumIdentificationAssumption> assumptionsAtScore : advocateAssumptions.values()) {
+                        for (SpectrumIdentificationAssumption assumption : assumptionsAtScore) {
+
+                            if (assumption instanceof PeptideAssumption) {
+
+                                psParameter = (PSParameter) assumption.getUrParam(psParameter);
+
+                                double score = 1;
+
+                                if (scoresForAdvocate.size() == 1 || !sequenceFactory.concatenatedTargetDecoy()) {
+                                    score = psParameter.getIntermediateScore(scoresForAdvocate.iterator().next());
+                                } else {
+                                    for (int scoreIndex : scoresForAdvocate) {
+                                        TargetDecoyMap targetDecoyMap = inputMap.getIntermediateScoreMap(spectrumFileName, advocateIndex, scoreIndex);
+                                        Double intermediateScore = psParameter.getIntermediateScore(scoreIndex);
+                                        if (intermediateScore != null) {
+                                            double p = targetDecoyMap.getProbability(intermediateScore);
+                                            score *= p;
+                                        }
+                                    }
                                 }
+
+                                assumption.setScore(score);
+
+                                PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+                                Peptide peptide = peptideAssumption.getPeptide();
+                                boolean decoy = peptide.isDecoy(sequenceMatchingPreferences);
+                                TargetDecoyMap advocateMap = scores.get(advocateIndex);
+                                if (advocateMap == null) {
+                                    advocateMap = new TargetDecoyMap();
+                                    scores.put(advocateIndex, advocateMap);
+                                }
+                                advocateMap.put(assumption.getScore(), decoy);
                             }
                         }
                     }
                 }
+            }
+
+            identification.updateAssumptions(spectrumKey, assumptions);
+        }
 
-                identification.updateAssumptions(spectrumKey, assumptions);
-                if (waitingHandler.isRunCanceled()) {
-                    return;
+        /**
+         * Returns the scores gathered by this runnable: advocate index &gt;
+         * target decoy map.
+         *
+         * @return the scores gathered by this runnable
+         */
+        public HashMap<Integer, TargetDecoyMap> getScores() {
+            return scores;
+        }
+    }
+
+    /**
+     * Runnable attaching the posterior error probabilities to the assumptions
+     * of the PSMs of a spectrum file. The buffers used for the computation are
+     * reused from one spectrum to the next.
+     *
+     * @author Marc Vaudel
+     */
+    private class AssumptionsProbabilitiesRunnable implements Runnable {
+
+        /**
+         * An iterator for the PSMs.
+         */
+        private PsmIterator psmIterator;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The input map where the probabilities are estimated.
+         */
+        private InputMap inputMap;
+        /**
+         * The sequence matching preferences.
+         */
+        private SequenceMatchingPreferences sequenceMatchingPreferences;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+        /**
+         * Indicates whether the database contains decoy sequences.
+         */
+        private boolean targetDecoy = sequenceFactory.concatenatedTargetDecoy();
+        /**
+         * Parameter used as key to retrieve the parameters of the assumptions.
+         */
+        private PSParameter psParameterKey = new PSParameter();
+        /**
+         * Buffer for the sorted e-values of a search engine.
+         */
+        private ArrayList<Double> eValues = new ArrayList<Double>();
+        /**
+         * Buffer for the parameters of the previous assumptions of a search
+         * engine.
+         */
+        private ArrayList<PSParameter> previousParameters = new ArrayList<PSParameter>();
+        /**
+         * Buffer for the parameters of all the assumptions of a spectrum.
+         */
+        private ArrayList<PSParameter> spectrumParameters = new ArrayList<PSParameter>();
+
+        /**
+         * Constructor.
+         *
+         * @param psmIterator a PSM iterator
+         * @param identification the identification containing the matches
+         * @param inputMap the input map where the probabilities are estimated
+         * @param sequenceMatchingPreferences the sequence matching preferences
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public AssumptionsProbabilitiesRunnable(PsmIterator psmIterator, Identification identification, InputMap inputMap,
+                SequenceMatchingPreferences sequenceMatchingPreferences, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.psmIterator = psmIterator;
+            this.identification = identification;
+            this.inputMap = inputMap;
+            this.sequenceMatchingPreferences = sequenceMatchingPreferences;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (psmIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+                    SpectrumMatch spectrumMatch = psmIterator.next();
+                    if (spectrumMatch != null) {
+                        attachProbabilities(spectrumMatch.getKey());
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter();
                 }
-                waitingHandler.increaseSecondaryProgressCounter();
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
             }
         }
 
-//        br.close();
-        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        /**
+         * Attaches the search engine posterior error probability, the delta
+         * with the next different assumption of the same search engine and the
+         * delta with the next probability of all search engines to the
+         * assumptions of the given spectrum.
+         *
+         * @param spectrumKey the key of the spectrum
+         *
+         * @throws Exception exception thrown whenever an error occurred while
+         * loading or saving the matches
+         */
+        private void attachProbabilities(String spectrumKey) throws Exception {
+
+            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = identification.getAssumptions(spectrumKey);
+            spectrumParameters.clear();
+
+            for (int searchEngine : assumptionsMap.keySet()) {
+
+                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> seMapping = assumptionsMap.get(searchEngine);
+                eValues.clear();
+                eValues.addAll(seMapping.keySet());
+                Collections.sort(eValues);
+                double previousP = 0;
+                previousParameters.clear();
+                SpectrumIdentificationAssumption previousAssumption = null;
+
+                for (double eValue : eValues) {
+
+                    for (SpectrumIdentificationAssumption assumption : seMapping.get(eValue)) {
+
+                        PSParameter psParameter = (PSParameter) assumption.getUrParam(psParameterKey);
+                        if (psParameter == null) {
+                            psParameter = new PSParameter();
+                        }
+
+                        if (targetDecoy) {
+
+                            double newP = inputMap.getProbability(searchEngine, eValue);
+                            double pep = previousP;
+
+                            if (newP > previousP) {
+                                pep = newP;
+                                previousP = newP;
+                            }
+
+                            psParameter.setSearchEngineProbability(pep);
+                            spectrumParameters.add(psParameter);
+
+                            if (previousAssumption != null && !isSameMatch(assumption, previousAssumption)) {
+                                for (PSParameter previousParameter : previousParameters) {
+                                    previousParameter.setAlgorithmDeltaPEP(pep - previousParameter.getSearchEngineProbability());
+                                }
+                                previousParameters.clear();
+                            }
+                            previousAssumption = assumption;
+                            previousParameters.add(psParameter);
+
+                        } else {
+                            psParameter.setSearchEngineProbability(1.0);
+                        }
+
+                        assumption.addUrParam(psParameter);
+                    }
+                }
+
+                for (PSParameter previousParameter : previousParameters) {
+                    previousParameter.setAlgorithmDeltaPEP(1 - previousParameter.getSearchEngineProbability());
+                }
+            }
+
+            // Compute the delta pep score accross all search engines
+            Collections.sort(spectrumParameters, SEARCH_ENGINE_PROBABILITY_COMPARATOR);
+            int start = 0;
+            while (start < spectrumParameters.size()) {
+                double pep = spectrumParameters.get(start).getSearchEngineProbability();
+                int end = start + 1;
+                while (end < spectrumParameters.size() && Double.compare(spectrumParameters.get(end).getSearchEngineProbability(), pep) == 0) {
+                    end++;
+                }
+                double delta;
+                if (end < spectrumParameters.size()) {
+                    delta = spectrumParameters.get(end).getSearchEngineProbability() - pep;
+                } else {
+                    delta = 1 - pep;
+                }
+                for (int i = start; i < end; i++) {
+                    spectrumParameters.get(i).setDeltaPEP(delta);
+                }
+                start = end;
+            }
+
+            identification.updateAssumptions(spectrumKey, assumptionsMap);
+        }
+
+        /**
+         * Indicates whether two assumptions point to the same peptide or tag,
+         * regardless of the modification localization.
+         *
+         * @param assumption the assumption of interest
+         * @param previousAssumption the previous assumption
+         *
+         * @return a boolean indicating whether the two assumptions point to
+         * the same peptide or tag
+         */
+        private boolean isSameMatch(SpectrumIdentificationAssumption assumption, SpectrumIdentificationAssumption previousAssumption) {
+            if ((assumption instanceof PeptideAssumption) && (previousAssumption instanceof PeptideAssumption)) {
+                Peptide newPeptide = ((PeptideAssumption) assumption).getPeptide();
+                Peptide previousPeptide = ((PeptideAssumption) previousAssumption).getPeptide();
+                return newPeptide.isSameSequenceAndModificationStatus(previousPeptide, sequenceMatchingPreferences);
+            } else if ((assumption instanceof TagAssumption) && (previousAssumption instanceof TagAssumption)) {
+                Tag newTag = ((TagAssumption) assumption).getTag();
+                Tag previousTag = ((TagAssumption) previousAssumption).getTag();
+                return newTag.isSameSequenceAndModificationStatusAs(previousTag, sequenceMatchingPreferences);
+            }
+            return false;
+        }
     }
 }
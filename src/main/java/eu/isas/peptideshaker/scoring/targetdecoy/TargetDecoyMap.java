@@ -1,14 +1,19 @@
 package eu.isas.peptideshaker.scoring.targetdecoy;
 
-import com.compomics.util.Util;
 import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
- * This map contains the information of a target/decoy strategy
+ * This map contains the information of a target/decoy strategy. The hits are
+ * stored in primitive columns sorted by score: the score, the number of target
+ * and decoy hits and the posterior error probability. New hits are buffered
+ * and merged in the columns when the map is queried.
  *
  * @author Marc Vaudel
  */
@@ -20,12 +25,43 @@ public class TargetDecoyMap implements Serializable {
     static final long serialVersionUID = 7333389442377322662L;
     /**
      * The hit map containing the indexed target/decoy points.
+     *
+     * @deprecated only present for backward compatibility, the points are now
+     * stored in the score columns
+     */
+    private HashMap<Double, TargetDecoyPoint> hitMap = null;
+    /**
+     * The distinct scores imported in the map sorted in ascending order.
+     */
+    private double[] scoreColumn = new double[0];
+    /**
+     * The number of target hits at every score.
+     */
+    private int[] nTargetColumn = new int[0];
+    /**
+     * The number of decoy hits at every score.
+     */
+    private int[] nDecoyColumn = new int[0];
+    /**
+     * The posterior error probability estimated at every score.
+     */
+    private double[] pepColumn = new double[0];
+    /**
+     * The scores of the target hits not yet merged in the columns.
+     */
+    private transient double[] pendingTargets;
+    /**
+     * The number of target hits not yet merged in the columns.
      */
-    private HashMap<Double, TargetDecoyPoint> hitMap = new HashMap<Double, TargetDecoyPoint>();
+    private transient volatile int nPendingTargets = 0;
     /**
-     * The scores imported in the map.
+     * The scores of the decoy hits not yet merged in the columns.
      */
-    private ArrayList<Double> scores;
+    private transient double[] pendingDecoys;
+    /**
+     * The number of decoy hits not yet merged in the columns.
+     */
+    private transient volatile int nPendingDecoys = 0;
     /**
      * The maximal amount of target hits comprised between two subsequent decoy
      * hits.
@@ -57,24 +93,26 @@ public class TargetDecoyMap implements Serializable {
      * @return the estimated posterior error probability
      */
     public Double getProbability(double score) {
-        TargetDecoyPoint point = hitMap.get(score);
-        if (point != null) {
-            return point.p;
-        } else if (score >= scores.get(scores.size() - 1)) {
-            return hitMap.get(scores.get(scores.size() - 1)).p;
+        mergePendingHits();
+        int index = Arrays.binarySearch(scoreColumn, score);
+        int lastIndex = scoreColumn.length - 1;
+        if (index >= 0) {
+            return pepColumn[index];
+        } else if (score >= scoreColumn[lastIndex]) {
+            return pepColumn[lastIndex];
         } else {
             int indexInf = 0;
-            int indexSup = scores.size() - 1;
+            int indexSup = lastIndex;
             int indexTemp;
             while (indexSup - indexInf > 1) {
                 indexTemp = (indexSup - indexInf) / 2 + indexInf;
-                if (scores.get(indexTemp) > score) {
+                if (scoreColumn[indexTemp] > score) {
                     indexSup = indexTemp;
                 } else {
                     indexInf = indexTemp;
                 }
             }
-            return (hitMap.get(scores.get(indexSup)).p + hitMap.get(scores.get(indexInf)).p) / 2;
+            return (pepColumn[indexSup] + pepColumn[indexInf]) / 2;
         }
     }
 
@@ -85,7 +123,12 @@ public class TargetDecoyMap implements Serializable {
      * @return the number of target hits found at the given score
      */
     public int getNTarget(double score) {
-        return hitMap.get(score).nTarget;
+        mergePendingHits();
+        int index = Arrays.binarySearch(scoreColumn, score);
+        if (index < 0) {
+            return 0;
+        }
+        return nTargetColumn[index];
     }
 
     /**
@@ -95,7 +138,36 @@ public class TargetDecoyMap implements Serializable {
      * @return the number of decoy hits found at the given score
      */
     public int getNDecoy(double score) {
-        return hitMap.get(score).nDecoy;
+        mergePendingHits();
+        int index = Arrays.binarySearch(scoreColumn, score);
+        if (index < 0) {
+            return 0;
+        }
+        return nDecoyColumn[index];
+    }
+
+    /**
+     * Returns the number of target and decoy hits found at a score higher
+     * than minScore and lower than or equal to maxScore.
+     *
+     * @param minScore the lower bound of the score interval, exclusive
+     * @param maxScore the upper bound of the score interval, inclusive
+     * @return the number of hits found in the score interval
+     */
+    public int getnHits(double minScore, double maxScore) {
+        mergePendingHits();
+        int index = Arrays.binarySearch(scoreColumn, minScore);
+        if (index >= 0) {
+            index++;
+        } else {
+            index = -index - 1;
+        }
+        int nHits = 0;
+        while (index < scoreColumn.length && scoreColumn[index] <= maxScore) {
+            nHits += nTargetColumn[index] + nDecoyColumn[index];
+            index++;
+        }
+        return nHits;
     }
 
     /**
@@ -105,15 +177,20 @@ public class TargetDecoyMap implements Serializable {
      * @param isDecoy boolean indicating whether the hit is decoy
      */
     public synchronized void put(double score, boolean isDecoy) {
-        TargetDecoyPoint targetDecoyPoint = hitMap.get(score);
-        if (targetDecoyPoint == null) {
-            targetDecoyPoint = new TargetDecoyPoint();
-            hitMap.put(score, targetDecoyPoint);
-        }
         if (isDecoy) {
-            targetDecoyPoint.nDecoy++;
+            if (pendingDecoys == null) {
+                pendingDecoys = new double[16];
+            } else if (nPendingDecoys == pendingDecoys.length) {
+                pendingDecoys = Arrays.copyOf(pendingDecoys, 2 * nPendingDecoys);
+            }
+            pendingDecoys[nPendingDecoys++] = score;
         } else {
-            targetDecoyPoint.nTarget++;
+            if (pendingTargets == null) {
+                pendingTargets = new double[16];
+            } else if (nPendingTargets == pendingTargets.length) {
+                pendingTargets = Arrays.copyOf(pendingTargets, 2 * nPendingTargets);
+            }
+            pendingTargets[nPendingTargets++] = score;
         }
     }
 
@@ -123,17 +200,21 @@ public class TargetDecoyMap implements Serializable {
      * @param score the given score
      * @param isDecoy boolean indicating whether the hit is decoy
      */
-    public void remove(double score, boolean isDecoy) {
+    public synchronized void remove(double score, boolean isDecoy) {
+        mergePendingHits();
+        int index = Arrays.binarySearch(scoreColumn, score);
         if (!isDecoy) {
-            hitMap.get(score).nTarget--;
+            nTargetColumn[index]--;
         } else {
-            hitMap.get(score).nDecoy--;
+            nDecoyColumn[index]--;
         }
-        if (hitMap.get(score).nTarget == 0
-                && hitMap.get(score).nDecoy == 0) {
-            hitMap.remove(score);
+        if (nTargetColumn[index] == 0
+                && nDecoyColumn[index] == 0) {
+            scoreColumn = removeRow(scoreColumn, index);
+            nTargetColumn = removeRow(nTargetColumn, index);
+            nDecoyColumn = removeRow(nDecoyColumn, index);
+            pepColumn = removeRow(pepColumn, index);
         }
-        scores = null;
         nmax = null;
         windowSize = null;
     }
@@ -143,35 +224,35 @@ public class TargetDecoyMap implements Serializable {
      * above will be skipped.
      */
     private void estimateNs() {
-        if (scores == null) {
-            estimateScores();
-        }
+        mergePendingHits();
         boolean onlyTarget = true;
         nmax = 0;
         int targetCpt = 0;
         nTargetOnly = 0;
 
-        for (double peptideP : scores) {
-            TargetDecoyPoint point = hitMap.get(peptideP);
+        for (int i = 0; i < scoreColumn.length; i++) {
+            double peptideP = scoreColumn[i];
+            int nTarget = nTargetColumn[i];
+            int nDecoy = nDecoyColumn[i];
             if (onlyTarget) {
-                if (point.nDecoy > 0) {
-                    nTargetOnly += point.nTarget / 2 + point.nTarget % 2;
-                    targetCpt += point.nTarget / 2;
+                if (nDecoy > 0) {
+                    nTargetOnly += nTarget / 2 + nTarget % 2;
+                    targetCpt += nTarget / 2;
                     onlyTarget = false;
                 } else {
-                    nTargetOnly += point.nTarget;
+                    nTargetOnly += nTarget;
                 }
             } else {
-                if (point.nDecoy > 0) {
-                    targetCpt += point.nTarget / 2 + point.nTarget % 2;
+                if (nDecoy > 0) {
+                    targetCpt += nTarget / 2 + nTarget % 2;
                     if (targetCpt > nmax
                             && peptideP < 1.0
-                            && (point.nDecoy == 1 || targetCpt < nTargetOnly)) {
+                            && (nDecoy == 1 || targetCpt < nTargetOnly)) {
                         nmax = targetCpt;
                     }
-                    targetCpt = point.nTarget / 2;
+                    targetCpt = nTarget / 2;
                 } else {
-                    targetCpt += point.nTarget;
+                    targetCpt += nTarget;
                 }
             }
         }
@@ -186,38 +267,37 @@ public class TargetDecoyMap implements Serializable {
 
         waitingHandler.setWaitingText("Estimating Probabilities. Please Wait...");
 
-        if (scores == null) {
-            estimateScores();
-        }
+        mergePendingHits();
         if (nmax == null) {
             estimateNs();
         }
         if (windowSize == null) {
             windowSize = nmax;
         }
+        if (scoreColumn.length == 0) {
+            return;
+        }
 
         // estimate p
-        TargetDecoyPoint tempPoint, previousPoint = hitMap.get(scores.get(0));
+        int previousIndex = 0;
         double nLimit = 0.5 * windowSize;
-        double nTargetSup = 1.5 * previousPoint.nTarget;
-        double nTargetInf = -0.5 * previousPoint.nTarget;
-        double nDecoy = previousPoint.nDecoy;
+        double nTargetSup = 1.5 * nTargetColumn[0];
+        double nTargetInf = -0.5 * nTargetColumn[0];
+        double nDecoy = nDecoyColumn[0];
         int cptInf = 0;
         int cptSup = 1;
         boolean oneReached = false;
 
-        for (int cpt = 0; cpt < scores.size(); cpt++) {
-            TargetDecoyPoint point = hitMap.get(scores.get(cpt));
+        for (int cpt = 0; cpt < scoreColumn.length; cpt++) {
             if (!oneReached) {
-                double change = 0.5 * (previousPoint.nTarget + point.nTarget);
+                double change = 0.5 * (nTargetColumn[previousIndex] + nTargetColumn[cpt]);
                 nTargetInf += change;
                 nTargetSup -= change;
                 while (nTargetInf > nLimit) {
                     if (cptInf < cpt) {
-                        tempPoint = hitMap.get(scores.get(cptInf));
-                        double nTargetInfTemp = nTargetInf - tempPoint.nTarget;
+                        double nTargetInfTemp = nTargetInf - nTargetColumn[cptInf];
                         if (nTargetInfTemp >= nLimit) {
-                            nDecoy -= tempPoint.nDecoy;
+                            nDecoy -= nDecoyColumn[cptInf];
                             nTargetInf = nTargetInfTemp;
                             cptInf++;
                         } else {
@@ -228,23 +308,22 @@ public class TargetDecoyMap implements Serializable {
                     }
                 }
                 while (nTargetSup < nLimit) {
-                    if (cptSup < scores.size()) {
-                        tempPoint = hitMap.get(scores.get(cptSup));
-                        nTargetSup += tempPoint.nTarget;
-                        nDecoy += tempPoint.nDecoy;
+                    if (cptSup < scoreColumn.length) {
+                        nTargetSup += nTargetColumn[cptSup];
+                        nDecoy += nDecoyColumn[cptSup];
                         cptSup++;
                     } else {
                         break;
                     }
                 }
-                point.p = Math.max(Math.min(nDecoy / (nTargetInf + nTargetSup), 1), 0);
-                if (point.p >= 0.98) {
+                pepColumn[cpt] = Math.max(Math.min(nDecoy / (nTargetInf + nTargetSup), 1), 0);
+                if (pepColumn[cpt] >= 0.98) {
                     oneReached = true;
                 }
             } else {
-                point.p = 1;
+                pepColumn[cpt] = 1;
             }
-            previousPoint = point;
+            previousIndex = cpt;
 
             waitingHandler.increaseSecondaryProgressCounter();
             if (waitingHandler.isRunCanceled()) {
@@ -289,21 +368,16 @@ public class TargetDecoyMap implements Serializable {
     }
 
     /**
-     * Sorts the scores implemented in this map.
-     */
-    private void estimateScores() {
-        scores = new ArrayList<Double>(hitMap.keySet());
-        Collections.sort(scores);
-    }
-
-    /**
-     * Returns the sorted scores implemented in this map.
+     * Returns the sorted scores implemented in this map. Note that the list is
+     * created upon every call.
      *
      * @return the sorted scores implemented in this map.
      */
     public ArrayList<Double> getScores() {
-        if (scores == null) {
-            estimateScores();
+        mergePendingHits();
+        ArrayList<Double> scores = new ArrayList<Double>(scoreColumn.length);
+        for (double score : scoreColumn) {
+            scores.add(score);
         }
         return scores;
     }
@@ -313,16 +387,52 @@ public class TargetDecoyMap implements Serializable {
      *
      * @param anOtherMap another target/decoy map
      */
-    public void addAll(TargetDecoyMap anOtherMap) {
-        for (double score : anOtherMap.getScores()) {
-            for (int i = 0; i < anOtherMap.getNDecoy(score); i++) {
-                put(score, true);
+    public synchronized void addAll(TargetDecoyMap anOtherMap) {
+
+        mergePendingHits();
+        anOtherMap.mergePendingHits();
+
+        double[] otherScores = anOtherMap.scoreColumn;
+        int[] otherNTarget = anOtherMap.nTargetColumn;
+        int[] otherNDecoy = anOtherMap.nDecoyColumn;
+
+        int capacity = scoreColumn.length + otherScores.length;
+        double[] newScores = new double[capacity];
+        int[] newNTarget = new int[capacity];
+        int[] newNDecoy = new int[capacity];
+        double[] newPep = new double[capacity];
+
+        int i = 0, j = 0, k = 0;
+        while (i < scoreColumn.length || j < otherScores.length) {
+            int comparison;
+            if (i == scoreColumn.length) {
+                comparison = 1;
+            } else if (j == otherScores.length) {
+                comparison = -1;
+            } else {
+                comparison = Double.compare(scoreColumn[i], otherScores[j]);
             }
-            for (int i = 0; i < anOtherMap.getNTarget(score); i++) {
-                put(score, false);
+            if (comparison <= 0) {
+                newScores[k] = scoreColumn[i];
+                newNTarget[k] = nTargetColumn[i];
+                newNDecoy[k] = nDecoyColumn[i];
+                newPep[k] = pepColumn[i];
+                i++;
+                if (comparison == 0) {
+                    newNTarget[k] += otherNTarget[j];
+                    newNDecoy[k] += otherNDecoy[j];
+                    j++;
+                }
+            } else {
+                newScores[k] = otherScores[j];
+                newNTarget[k] = otherNTarget[j];
+                newNDecoy[k] = otherNDecoy[j];
+                j++;
             }
+            k++;
         }
-        scores = null;
+
+        setColumns(newScores, newNTarget, newNDecoy, newPep, k);
         nmax = null;
         windowSize = null;
     }
@@ -359,7 +469,8 @@ public class TargetDecoyMap implements Serializable {
      * @return the target decoy series
      */
     public TargetDecoySeries getTargetDecoySeries() {
-        return new TargetDecoySeries(hitMap);
+        mergePendingHits();
+        return new TargetDecoySeries(scoreColumn, nTargetColumn, nDecoyColumn, pepColumn);
     }
 
     /**
@@ -389,6 +500,192 @@ public class TargetDecoyMap implements Serializable {
      * @return the size of the map
      */
     public int getMapSize() {
-        return hitMap.size();
+        mergePendingHits();
+        return scoreColumn.length;
+    }
+
+    /**
+     * Merges the hits buffered by put in the score columns. New scores get a
+     * posterior error probability of zero until the probabilities are
+     * estimated again.
+     */
+    private void mergePendingHits() {
+        if (nPendingTargets > 0 || nPendingDecoys > 0) {
+            mergePendingHitsSynchronized();
+        }
+    }
+
+    /**
+     * Merges the hits buffered by put in the score columns while holding the
+     * lock of the map.
+     */
+    private synchronized void mergePendingHitsSynchronized() {
+
+        if (nPendingTargets == 0 && nPendingDecoys == 0) {
+            return;
+        }
+
+        if (nPendingTargets > 0) {
+            Arrays.sort(pendingTargets, 0, nPendingTargets);
+        }
+        if (nPendingDecoys > 0) {
+            Arrays.sort(pendingDecoys, 0, nPendingDecoys);
+        }
+
+        int capacity = scoreColumn.length + nPendingTargets + nPendingDecoys;
+        double[] newScores = new double[capacity];
+        int[] newNTarget = new int[capacity];
+        int[] newNDecoy = new int[capacity];
+        double[] newPep = new double[capacity];
+
+        int i = 0, t = 0, d = 0, k = -1;
+        while (i < scoreColumn.length || t < nPendingTargets || d < nPendingDecoys) {
+
+            // select the smallest score among the three sorted sources
+            double score;
+            int source;
+            if (i < scoreColumn.length) {
+                score = scoreColumn[i];
+                source = 0;
+            } else if (t < nPendingTargets) {
+                score = pendingTargets[t];
+                source = 1;
+            } else {
+                score = pendingDecoys[d];
+                source = 2;
+            }
+            if (t < nPendingTargets && Double.compare(pendingTargets[t], score) < 0) {
+                score = pendingTargets[t];
+                source = 1;
+            }
+            if (d < nPendingDecoys && Double.compare(pendingDecoys[d], score) < 0) {
+                score = pendingDecoys[d];
+                source = 2;
+            }
+
+            if (k < 0 || Double.compare(newScores[k], score) != 0) {
+                k++;
+                newScores[k] = score;
+            }
+            if (source == 0) {
+                newNTarget[k] += nTargetColumn[i];
+                newNDecoy[k] += nDecoyColumn[i];
+                newPep[k] = pepColumn[i];
+                i++;
+            } else if (source == 1) {
+                newNTarget[k]++;
+                t++;
+            } else {
+                newNDecoy[k]++;
+                d++;
+            }
+        }
+
+        setColumns(newScores, newNTarget, newNDecoy, newPep, k + 1);
+
+        pendingTargets = null;
+        nPendingTargets = 0;
+        pendingDecoys = null;
+        nPendingDecoys = 0;
+    }
+
+    /**
+     * Sets the score columns, trimming them to the given size.
+     *
+     * @param scores the scores
+     * @param nTarget the number of target hits
+     * @param nDecoy the number of decoy hits
+     * @param pep the posterior error probabilities
+     * @param size the number of points
+     */
+    private void setColumns(double[] scores, int[] nTarget, int[] nDecoy, double[] pep, int size) {
+        if (size < scores.length) {
+            scores = Arrays.copyOf(scores, size);
+            nTarget = Arrays.copyOf(nTarget, size);
+            nDecoy = Arrays.copyOf(nDecoy, size);
+            pep = Arrays.copyOf(pep, size);
+        }
+        scoreColumn = scores;
+        nTargetColumn = nTarget;
+        nDecoyColumn = nDecoy;
+        pepColumn = pep;
+    }
+
+    /**
+     * Returns a copy of the given column without the given row.
+     *
+     * @param column the column
+     * @param index the index of the row to remove
+     *
+     * @return a copy of the column without the given row
+     */
+    private static double[] removeRow(double[] column, int index) {
+        double[] result = new double[column.length - 1];
+        System.arraycopy(column, 0, result, 0, index);
+        System.arraycopy(column, index + 1, result, index, column.length - index - 1);
+        return result;
+    }
+
+    /**
+     * Returns a copy of the given column without the given row.
+     *
+     * @param column the column
+     * @param index the index of the row to remove
+     *
+     * @return a copy of the column without the given row
+     */
+    private static int[] removeRow(int[] column, int index) {
+        int[] result = new int[column.length - 1];
+        System.arraycopy(column, 0, result, 0, index);
+        System.arraycopy(column, index + 1, result, index, column.length - index - 1);
+        return result;
+    }
+
+    /**
+     * Merges the buffered hits before serialization.
+     *
+     * @param out the object output stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        mergePendingHits();
+        out.defaultWriteObject();
+    }
+
+    /**
+     * Converts the hit map of maps serialized by former versions into score
+     * columns.
+     *
+     * @param in the object input stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the object
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (hitMap != null) {
+            int size = hitMap.size();
+            double[] scores = new double[size];
+            int cpt = 0;
+            for (double score : hitMap.keySet()) {
+                scores[cpt++] = score;
+            }
+            Arrays.sort(scores);
+            int[] nTarget = new int[size];
+            int[] nDecoy = new int[size];
+            double[] pep = new double[size];
+            for (int i = 0; i < size; i++) {
+                TargetDecoyPoint point = hitMap.get(scores[i]);
+                nTarget[i] = point.nTarget;
+                nDecoy[i] = point.nDecoy;
+                pep[i] = point.p;
+            }
+            setColumns(scores, nTarget, nDecoy, pep, size);
+            hitMap = null;
+        }
     }
 }
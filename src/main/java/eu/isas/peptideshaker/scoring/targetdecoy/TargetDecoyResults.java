@@ -70,6 +70,28 @@ public class TargetDecoyResults implements Serializable {
     public TargetDecoyResults() {
     }
 
+    /**
+     * Returns a copy of these results.
+     *
+     * @return a copy of these results
+     */
+    public TargetDecoyResults copy() {
+        TargetDecoyResults copy = new TargetDecoyResults();
+        copy.classicalValidation = classicalValidation;
+        copy.classicalEstimators = classicalEstimators;
+        copy.confidenceLimit = confidenceLimit;
+        copy.fdrLimit = fdrLimit;
+        copy.fnrLimit = fnrLimit;
+        copy.nFP = nFP;
+        copy.n = n;
+        copy.nTPTotal = nTPTotal;
+        copy.scoreLimit = scoreLimit;
+        copy.noValidated = noValidated;
+        copy.userInput = userInput;
+        copy.inputType = inputType;
+        return copy;
+    }
+
     /**
      * Returns a boolean indicating whether classical or probabilistic
      * estimators were used.
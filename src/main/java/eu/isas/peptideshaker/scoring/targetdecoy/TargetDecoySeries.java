@@ -67,19 +67,57 @@ public class TargetDecoySeries {
      */
     public TargetDecoySeries(HashMap<Double, TargetDecoyPoint> hitMap) {
 
-        scores = new double[hitMap.size()];
-        probaNTotal = 0;
+        double[] hitScores = new double[hitMap.size()];
         int cpt = 0;
-        TargetDecoyPoint currentPoint;
-
         for (double score : hitMap.keySet()) {
-            currentPoint = hitMap.get(score);
-            scores[cpt] = score;
-            probaNTotal += (1 - currentPoint.p) * currentPoint.nTarget;
+            hitScores[cpt] = score;
             cpt++;
         }
+        Arrays.sort(hitScores);
+
+        int[] nTarget = new int[hitScores.length];
+        int[] nDecoy = new int[hitScores.length];
+        double[] p = new double[hitScores.length];
+        for (int i = 0; i < hitScores.length; i++) {
+            TargetDecoyPoint point = hitMap.get(hitScores[i]);
+            nTarget[i] = point.nTarget;
+            nDecoy[i] = point.nDecoy;
+            p[i] = point.p;
+        }
+
+        fillSeries(hitScores, nTarget, nDecoy, p);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param scores the scores of the target decoy map sorted in ascending
+     * order
+     * @param nTarget the number of target hits at every score
+     * @param nDecoy the number of decoy hits at every score
+     * @param p the posterior error probability at every score
+     */
+    public TargetDecoySeries(double[] scores, int[] nTarget, int[] nDecoy, double[] p) {
+        fillSeries(scores, nTarget, nDecoy, p);
+    }
+
+    /**
+     * Fills the series based on the points of a target decoy map.
+     *
+     * @param sortedScores the scores of the target decoy map sorted in
+     * ascending order
+     * @param nTarget the number of target hits at every score
+     * @param nDecoy the number of decoy hits at every score
+     * @param p the posterior error probability at every score
+     */
+    private void fillSeries(double[] sortedScores, int[] nTarget, int[] nDecoy, double[] p) {
+
+        scores = Arrays.copyOf(sortedScores, sortedScores.length);
+        probaNTotal = 0;
 
-        Arrays.sort(scores);
+        for (int i = 0; i < scores.length; i++) {
+            probaNTotal += (1 - p[i]) * nTarget[i];
+        }
 
         confidence = new double[scores.length];
         classicalFDR = new double[scores.length];
@@ -99,14 +137,13 @@ public class TargetDecoySeries {
         double probaFnrTemp;
 
         for (int i = 0; i < scores.length; i++) {
-            currentPoint = hitMap.get(scores[i]);
-            nTemp += currentPoint.nTarget;
-            classicalFPTemp += currentPoint.nDecoy;
-            probaFPTemp += currentPoint.nTarget * (currentPoint.p);
-            probaTP += currentPoint.nTarget * (1 - currentPoint.p);
+            nTemp += nTarget[i];
+            classicalFPTemp += nDecoy[i];
+            probaFPTemp += nTarget[i] * (p[i]);
+            probaTP += nTarget[i] * (1 - p[i]);
             probaFnrTemp = 100 * (probaNTotal - probaTP) / probaNTotal;
-            pep[i] = 100 * currentPoint.p;
-            confidence[i] = 100 * (1 - currentPoint.p);
+            pep[i] = 100 * p[i];
+            confidence[i] = 100 * (1 - p[i]);
             n[i] = nTemp;
             classicalFP[i] = classicalFPTemp;
             probaFP[i] = probaFPTemp;
@@ -114,7 +151,7 @@ public class TargetDecoySeries {
             probaFDR[i] = 100 * probaFPTemp / nTemp;
             probaFNR[i] = probaFnrTemp;
             probaBenefit[i] = 100 - probaFnrTemp;
-            decoy[i] = currentPoint.nTarget == 0;
+            decoy[i] = nTarget[i] == 0;
         }
     }
 
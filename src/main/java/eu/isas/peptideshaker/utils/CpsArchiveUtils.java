@@ -0,0 +1,633 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This class writes and reads the compressed variant of the cps file. The
+ * files of the project are cut in blocks which are compressed and
+ * decompressed independently on multiple threads. The archive ends with a
+ * manifest listing the files and the position, size and checksum of every
+ * block. Cps files of this type can be recognized using isCpsArchive, older
+ * cps files are tar archives.
+ *
+ * @author Marc Vaudel
+ */
+public class CpsArchiveUtils {
+
+    /**
+     * The bytes written at the beginning and at the end of the archive.
+     */
+    private static final byte[] MAGIC_NUMBER = {'P', 'S', 'C', 'P', 'S', 'A', 'R', 'C'};
+    /**
+     * The version of the archive format.
+     */
+    public static final int VERSION = 1;
+    /**
+     * The size of the blocks in bytes.
+     */
+    public static final int BLOCK_SIZE = 4 * 1024 * 1024;
+    /**
+     * The compression level used. Speed is favored over compression ratio.
+     */
+    public static final int COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+    /**
+     * The size of the trailer: index position and magic number.
+     */
+    private static final int TRAILER_SIZE = 8 + MAGIC_NUMBER.length;
+
+    /**
+     * Empty default constructor.
+     */
+    private CpsArchiveUtils() {
+    }
+
+    /**
+     * Indicates whether the given file is a cps archive written by this class.
+     *
+     * @param file the file to inspect
+     *
+     * @return a boolean indicating whether the given file is a cps archive
+     * written by this class
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public static boolean isCpsArchive(File file) throws IOException {
+        if (!file.isFile() || file.length() < MAGIC_NUMBER.length + 4 + TRAILER_SIZE) {
+            return false;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] header = new byte[MAGIC_NUMBER.length];
+            raf.readFully(header);
+            return Arrays.equals(header, MAGIC_NUMBER);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Archives the given folder in the destination file. The archive contains
+     * the folder itself, i.e. extracting it in a directory creates the folder
+     * in this directory.
+     *
+     * @param folder the folder to archive
+     * @param destinationFile the destination file
+     * @param nThreads the number of threads to use
+     * @param waitingHandler waiting handler displaying progress and allowing
+     * canceling the process. Can be null.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     */
+    public static void archive(File folder, File destinationFile, int nThreads, WaitingHandler waitingHandler) throws IOException, InterruptedException {
+
+        ArrayList<ArchiveEntry> entries = new ArrayList<ArchiveEntry>();
+        listEntries(folder, folder.getName(), entries);
+
+        int nBlocks = 0;
+        for (ArchiveEntry entry : entries) {
+            nBlocks += entry.getNBlocks();
+        }
+        if (waitingHandler != null) {
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(nBlocks);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        RandomAccessFile output = new RandomAccessFile(destinationFile, "rw");
+        try {
+            output.setLength(0);
+            output.write(MAGIC_NUMBER);
+            output.writeInt(VERSION);
+
+            // compress the blocks on the pool and write them in order, at most two blocks per thread are kept in memory
+            LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+            LinkedList<BlockInfo> pendingBlocks = new LinkedList<BlockInfo>();
+            int maxPending = 2 * nThreads;
+
+            for (ArchiveEntry entry : entries) {
+                if (!entry.directory) {
+                    int entryBlocks = entry.getNBlocks();
+                    for (int i = 0; i < entryBlocks; i++) {
+                        BlockInfo blockInfo = new BlockInfo();
+                        blockInfo.uncompressedLength = (int) Math.min(BLOCK_SIZE, entry.size - (long) i * BLOCK_SIZE);
+                        entry.blocks.add(blockInfo);
+                        pending.add(pool.submit(new BlockCompressor(entry.file, (long) i * BLOCK_SIZE, blockInfo)));
+                        pendingBlocks.add(blockInfo);
+                        if (pending.size() >= maxPending) {
+                            writeBlock(output, pending.removeFirst(), pendingBlocks.removeFirst(), waitingHandler);
+                        }
+                        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                            pool.shutdownNow();
+                            return;
+                        }
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                writeBlock(output, pending.removeFirst(), pendingBlocks.removeFirst(), waitingHandler);
+            }
+
+            // write the manifest
+            long indexPosition = output.getFilePointer();
+            ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+            DataOutputStream manifest = new DataOutputStream(manifestBytes);
+            manifest.writeInt(entries.size());
+            for (ArchiveEntry entry : entries) {
+                manifest.writeUTF(entry.name);
+                manifest.writeBoolean(entry.directory);
+                if (!entry.directory) {
+                    manifest.writeLong(entry.size);
+                    manifest.writeInt(entry.blocks.size());
+                    for (BlockInfo blockInfo : entry.blocks) {
+                        manifest.writeLong(blockInfo.position);
+                        manifest.writeInt(blockInfo.compressedLength);
+                        manifest.writeInt(blockInfo.uncompressedLength);
+                        manifest.writeLong(blockInfo.checksum);
+                    }
+                }
+            }
+            manifest.close();
+            output.write(manifestBytes.toByteArray());
+            output.writeLong(indexPosition);
+            output.write(MAGIC_NUMBER);
+        } finally {
+            output.close();
+            pool.shutdown();
+        }
+        if (!pool.awaitTermination(1, TimeUnit.DAYS)) {
+            throw new InterruptedException("Project compression timed out. Please contact the developers.");
+        }
+    }
+
+    /**
+     * Extracts a cps archive in the given directory.
+     *
+     * @param archiveFile the archive file
+     * @param destinationDirectory the directory where to extract the archive
+     * @param nThreads the number of threads to use
+     * @param waitingHandler waiting handler displaying progress and allowing
+     * canceling the process. Can be null.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file or if the archive is corrupted
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     */
+    public static void extract(File archiveFile, File destinationDirectory, int nThreads, WaitingHandler waitingHandler) throws IOException, InterruptedException {
+
+        RandomAccessFile input = new RandomAccessFile(archiveFile, "r");
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try {
+
+            // read the manifest
+            long length = input.length();
+            input.seek(length - TRAILER_SIZE);
+            long indexPosition = input.readLong();
+            byte[] magicNumber = new byte[MAGIC_NUMBER.length];
+            input.readFully(magicNumber);
+            if (!Arrays.equals(magicNumber, MAGIC_NUMBER) || indexPosition < 0 || indexPosition > length - TRAILER_SIZE) {
+                throw new IOException("The file " + archiveFile.getAbsolutePath() + " is corrupted or incomplete.");
+            }
+            input.seek(MAGIC_NUMBER.length);
+            int version = input.readInt();
+            if (version > VERSION) {
+                throw new IOException("The file " + archiveFile.getAbsolutePath() + " was created by a newer version of PeptideShaker.");
+            }
+            byte[] manifestBytes = new byte[(int) (length - TRAILER_SIZE - indexPosition)];
+            input.seek(indexPosition);
+            input.readFully(manifestBytes);
+            DataInputStream manifest = new DataInputStream(new ByteArrayInputStream(manifestBytes));
+            int nEntries = manifest.readInt();
+            ArrayList<ArchiveEntry> entries = new ArrayList<ArchiveEntry>(nEntries);
+            int nBlocks = 0;
+            for (int i = 0; i < nEntries; i++) {
+                ArchiveEntry entry = new ArchiveEntry();
+                entry.name = manifest.readUTF();
+                entry.directory = manifest.readBoolean();
+                if (!entry.directory) {
+                    entry.size = manifest.readLong();
+                    int entryBlocks = manifest.readInt();
+                    for (int j = 0; j < entryBlocks; j++) {
+                        BlockInfo blockInfo = new BlockInfo();
+                        blockInfo.position = manifest.readLong();
+                        blockInfo.compressedLength = manifest.readInt();
+                        blockInfo.uncompressedLength = manifest.readInt();
+                        blockInfo.checksum = manifest.readLong();
+                        entry.blocks.add(blockInfo);
+                    }
+                    nBlocks += entryBlocks;
+                }
+                entry.file = getDestinationFile(destinationDirectory, entry.name);
+                entries.add(entry);
+            }
+
+            if (waitingHandler != null) {
+                waitingHandler.resetSecondaryProgressCounter();
+                waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+                waitingHandler.setMaxSecondaryProgressCounter(nBlocks);
+            }
+
+            // create the files and decompress the blocks on the pool
+            FileChannel inputChannel = input.getChannel();
+            ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>(nBlocks);
+            for (ArchiveEntry entry : entries) {
+                if (entry.directory) {
+                    if (!entry.file.exists() && !entry.file.mkdirs()) {
+                        throw new IOException("Impossible to create folder " + entry.file.getAbsolutePath() + ".");
+                    }
+                } else {
+                    File parent = entry.file.getParentFile();
+                    if (!parent.exists() && !parent.mkdirs()) {
+                        throw new IOException("Impossible to create folder " + parent.getAbsolutePath() + ".");
+                    }
+                    RandomAccessFile destination = new RandomAccessFile(entry.file, "rw");
+                    try {
+                        destination.setLength(entry.size);
+                    } finally {
+                        destination.close();
+                    }
+                    long offset = 0;
+                    for (BlockInfo blockInfo : entry.blocks) {
+                        futures.add(pool.submit(new BlockExtractor(inputChannel, entry.file, offset, blockInfo, waitingHandler)));
+                        offset += blockInfo.uncompressedLength;
+                    }
+                }
+            }
+            for (Future<Object> future : futures) {
+                getResult(future);
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    pool.shutdownNow();
+                    return;
+                }
+            }
+        } finally {
+            pool.shutdown();
+            if (!pool.awaitTermination(1, TimeUnit.DAYS)) {
+                input.close();
+                throw new InterruptedException("Project extraction timed out. Please contact the developers.");
+            }
+            input.close();
+        }
+    }
+
+    /**
+     * Returns the file corresponding to an entry name in the destination
+     * directory.
+     *
+     * @param destinationDirectory the destination directory
+     * @param name the name of the entry
+     *
+     * @return the file corresponding to the entry
+     *
+     * @throws IOException exception thrown if the entry points outside the
+     * destination directory
+     */
+    private static File getDestinationFile(File destinationDirectory, String name) throws IOException {
+        File file = new File(destinationDirectory, name.replace('/', File.separatorChar));
+        String directoryPath = destinationDirectory.getCanonicalPath() + File.separator;
+        if (!file.getCanonicalPath().startsWith(directoryPath)) {
+            throw new IOException("Invalid entry " + name + " in cps archive.");
+        }
+        return file;
+    }
+
+    /**
+     * Recursively lists the files and folders to archive.
+     *
+     * @param file the current file or folder
+     * @param name the name of the entry in the archive
+     * @param entries the list where to add the entries
+     */
+    private static void listEntries(File file, String name, ArrayList<ArchiveEntry> entries) {
+        ArchiveEntry entry = new ArchiveEntry();
+        entry.file = file;
+        entry.name = name;
+        entry.directory = file.isDirectory();
+        if (entry.directory) {
+            entries.add(entry);
+            File[] children = file.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    listEntries(child, name + "/" + child.getName(), entries);
+                }
+            }
+        } else {
+            entry.size = file.length();
+            entries.add(entry);
+        }
+    }
+
+    /**
+     * Waits for a compressed block and appends it to the archive.
+     *
+     * @param output the archive
+     * @param future the future of the block compression
+     * @param blockInfo the information on the block
+     * @param waitingHandler the waiting handler, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * compressing or writing the block
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     */
+    private static void writeBlock(RandomAccessFile output, Future<byte[]> future, BlockInfo blockInfo, WaitingHandler waitingHandler) throws IOException, InterruptedException {
+        byte[] compressed = getResult(future);
+        blockInfo.position = output.getFilePointer();
+        output.write(compressed, 0, blockInfo.compressedLength);
+        if (waitingHandler != null) {
+            waitingHandler.increaseSecondaryProgressCounter();
+        }
+    }
+
+    /**
+     * Returns the result of a future, unwrapping the IOExceptions.
+     *
+     * @param <T> the type of result
+     * @param future the future
+     *
+     * @return the result of the future
+     *
+     * @throws IOException exception thrown whenever an IOException was thrown
+     * by the task
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     */
+    private static <T> T getResult(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("An error occurred while processing the cps archive: " + cause.getMessage());
+        }
+    }
+
+    /**
+     * A file or folder in the archive.
+     */
+    private static class ArchiveEntry {
+
+        /**
+         * The file.
+         */
+        private File file;
+        /**
+         * The name of the entry in the archive.
+         */
+        private String name;
+        /**
+         * Indicates whether the entry is a folder.
+         */
+        private boolean directory;
+        /**
+         * The size of the file in bytes.
+         */
+        private long size;
+        /**
+         * The blocks of the file.
+         */
+        private ArrayList<BlockInfo> blocks = new ArrayList<BlockInfo>();
+
+        /**
+         * Returns the number of blocks needed for this entry.
+         *
+         * @return the number of blocks needed for this entry
+         */
+        private int getNBlocks() {
+            if (directory) {
+                return 0;
+            }
+            return (int) ((size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        }
+    }
+
+    /**
+     * Information on a compressed block.
+     */
+    private static class BlockInfo {
+
+        /**
+         * The position of the block in the archive.
+         */
+        private long position;
+        /**
+         * The compressed length of the block.
+         */
+        private int compressedLength;
+        /**
+         * The uncompressed length of the block.
+         */
+        private int uncompressedLength;
+        /**
+         * The CRC32 checksum of the uncompressed block.
+         */
+        private long checksum;
+    }
+
+    /**
+     * Callable compressing a block of a file.
+     */
+    private static class BlockCompressor implements Callable<byte[]> {
+
+        /**
+         * The file.
+         */
+        private File file;
+        /**
+         * The offset of the block in the file.
+         */
+        private long offset;
+        /**
+         * The information on the block.
+         */
+        private BlockInfo blockInfo;
+
+        /**
+         * Constructor.
+         *
+         * @param file the file
+         * @param offset the offset of the block in the file
+         * @param blockInfo the information on the block, the uncompressed
+         * length must be set
+         */
+        public BlockCompressor(File file, long offset, BlockInfo blockInfo) {
+            this.file = file;
+            this.offset = offset;
+            this.blockInfo = blockInfo;
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+
+            byte[] uncompressed = new byte[blockInfo.uncompressedLength];
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                raf.seek(offset);
+                raf.readFully(uncompressed);
+            } finally {
+                raf.close();
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(uncompressed);
+            blockInfo.checksum = crc.getValue();
+
+            Deflater deflater = new Deflater(COMPRESSION_LEVEL);
+            try {
+                deflater.setInput(uncompressed);
+                deflater.finish();
+                byte[] compressed = new byte[uncompressed.length + uncompressed.length / 100 + 64];
+                int length = 0;
+                while (!deflater.finished()) {
+                    if (length == compressed.length) {
+                        compressed = Arrays.copyOf(compressed, 2 * compressed.length);
+                    }
+                    length += deflater.deflate(compressed, length, compressed.length - length);
+                }
+                blockInfo.compressedLength = length;
+                return compressed;
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Callable decompressing a block in a file.
+     */
+    private static class BlockExtractor implements Callable<Object> {
+
+        /**
+         * The channel of the archive.
+         */
+        private FileChannel inputChannel;
+        /**
+         * The destination file.
+         */
+        private File file;
+        /**
+         * The offset of the block in the destination file.
+         */
+        private long offset;
+        /**
+         * The information on the block.
+         */
+        private BlockInfo blockInfo;
+        /**
+         * The waiting handler, can be null.
+         */
+        private WaitingHandler waitingHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param inputChannel the channel of the archive
+         * @param file the destination file
+         * @param offset the offset of the block in the destination file
+         * @param blockInfo the information on the block
+         * @param waitingHandler the waiting handler, can be null
+         */
+        public BlockExtractor(FileChannel inputChannel, File file, long offset, BlockInfo blockInfo, WaitingHandler waitingHandler) {
+            this.inputChannel = inputChannel;
+            this.file = file;
+            this.offset = offset;
+            this.blockInfo = blockInfo;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public Object call() throws IOException {
+
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return null;
+            }
+
+            // positional reads on a file channel are thread safe
+            ByteBuffer buffer = ByteBuffer.allocate(blockInfo.compressedLength);
+            long position = blockInfo.position;
+            while (buffer.hasRemaining()) {
+                int read = inputChannel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of cps archive while extracting " + file.getName() + ".");
+                }
+                position += read;
+            }
+
+            byte[] uncompressed = new byte[blockInfo.uncompressedLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(buffer.array());
+                int length = 0;
+                while (length < uncompressed.length && !inflater.finished()) {
+                    int inflated = inflater.inflate(uncompressed, length, uncompressed.length - length);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += inflated;
+                }
+                if (length != uncompressed.length) {
+                    throw new IOException("Corrupted block in " + file.getName() + ".");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted block in " + file.getName() + ": " + e.getMessage());
+            } finally {
+                inflater.end();
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(uncompressed);
+            if (crc.getValue() != blockInfo.checksum) {
+                throw new IOException("Checksum mismatch in " + file.getName() + ", the cps file is corrupted.");
+            }
+
+            RandomAccessFile destination = new RandomAccessFile(file, "rw");
+            try {
+                destination.seek(offset);
+                destination.write(uncompressed);
+            } finally {
+                destination.close();
+            }
+
+            if (waitingHandler != null) {
+                waitingHandler.increaseSecondaryProgressCounter();
+            }
+            return null;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package eu.isas.peptideshaker.utils;
 
+import com.compomics.util.Util;
 import com.compomics.util.db.ObjectsCache;
 import com.compomics.util.experiment.MsExperiment;
 import com.compomics.util.experiment.ProteomicAnalysis;
@@ -10,7 +11,6 @@ import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.identification.IdentificationMethod;
 import com.compomics.util.experiment.identification.SearchParameters;
 import com.compomics.util.experiment.identification.SequenceFactory;
-import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.gui.filehandling.TempFilesManager;
 import com.compomics.util.io.compression.ZipUtils;
 import com.compomics.util.waiting.WaitingHandler;
@@ -111,6 +111,11 @@ public class CpsParent extends UserPreferencesParent {
      * The currently loaded cps file.
      */
     protected File cpsFile = null;
+    /**
+     * The directory of the project where the cps file is extracted and the
+     * identification database stored. Null if not set.
+     */
+    protected File projectDirectory = null;
 
     /**
      * Loads the information from a cps file.
@@ -173,7 +178,10 @@ public class CpsParent extends UserPreferencesParent {
      */
     public void loadCpsFile(String jarFilePath, WaitingHandler waitingHandler) throws IOException, ClassNotFoundException, SQLException, InterruptedException {
 
-        CpsFileImporter cpsFileImporter = new CpsFileImporter(cpsFile, jarFilePath, waitingHandler);
+        if (projectDirectory == null) {
+            projectDirectory = PeptideShaker.createProjectDirectory(jarFilePath);
+        }
+        CpsFileImporter cpsFileImporter = new CpsFileImporter(cpsFile, projectDirectory, waitingHandler);
 
         // close any open connection to an identification database
         if (identification != null) {
@@ -266,7 +274,7 @@ public class CpsParent extends UserPreferencesParent {
         }
         objectsCache = new ObjectsCache();
         objectsCache.setAutomatedMemoryManagement(true);
-        String dbFolder = PeptideShaker.getSerializationDirectory(jarFilePath).getAbsolutePath();
+        String dbFolder = PeptideShaker.getSerializationDirectory(projectDirectory).getAbsolutePath();
         identification.restoreConnection(dbFolder, false, objectsCache);
         identification.checkIdentificationDBTables(); // Backward compatibility check
         loadUserPreferences();
@@ -296,7 +304,7 @@ public class CpsParent extends UserPreferencesParent {
         CpsExporter.saveAs(cpsFile, waitingHandler, experiment, identification, shotgunProtocol, identificationParameters,
                 spectrumCountingPreferences, projectDetails, metrics,
                 processingPreferences, identificationFeaturesGenerator.getIdentificationFeaturesCache(),
-                objectsCache, emptyCache, PeptideShaker.getJarFilePath());
+                objectsCache, emptyCache, projectDirectory);
 
         loadUserPreferences();
         userPreferences.addRecentProject(cpsFile);
@@ -391,50 +399,43 @@ public class CpsParent extends UserPreferencesParent {
      * whenever an error occurred while reading or writing a file
      */
     public boolean loadSpectrumFiles(File folder, WaitingHandler waitingHandler) throws IOException {
+        if (!registerSpectrumFiles(folder)) {
+            return false;
+        }
+        SpectrumFileLoader.getInstance().loadAllSpectrumFiles(waitingHandler);
+        return true;
+    }
 
-        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
-
+    /**
+     * Locates the spectrum files of the project and registers them in the
+     * spectrum file loader without loading them. The files are loaded in the
+     * spectrum factory when a spectrum is first needed.
+     *
+     * @param folder a folder to look into, the user last selected folder for
+     * instance, can be null
+     *
+     * @return a boolean indicating whether all spectrum files were found
+     */
+    public boolean registerSpectrumFiles(File folder) {
         for (String spectrumFileName : identification.getSpectrumFiles()) {
-            File providedSpectrumLocation = projectDetails.getSpectrumFile(spectrumFileName);
-            File projectFolder = cpsFile.getParentFile();
-            File dataFolder = new File(projectFolder, "data");
-            // try to locate the spectrum file
-            if (providedSpectrumLocation == null || !providedSpectrumLocation.exists()) {
-                File fileInProjectFolder = new File(projectFolder, spectrumFileName);
-                File fileInDataFolder = new File(dataFolder, spectrumFileName);
-                File fileInGivenFolder = new File(folder, spectrumFileName);
-                if (fileInProjectFolder.exists()) {
-                    projectDetails.addSpectrumFile(fileInProjectFolder);
-                } else if (fileInDataFolder.exists()) {
-                    projectDetails.addSpectrumFile(fileInDataFolder);
-                } else if (fileInGivenFolder.exists()) {
-                    projectDetails.addSpectrumFile(fileInDataFolder);
-                } else {
-                    return false;
-                }
+            if (!registerSpectrumFile(spectrumFileName, folder)) {
+                return false;
             }
-            File mgfFile = projectDetails.getSpectrumFile(spectrumFileName);
-            spectrumFactory.addSpectra(mgfFile, waitingHandler);
         }
-
         return true;
     }
 
     /**
-     * Loads the spectra in the spectrum factory.
-     *
-     * @param spectrumFileName the name of the spectrum file to load
-     * @param waitingHandler a waiting handler displaying progress to the user.
-     * Can be null
+     * Locates a spectrum file of the project and registers it in the spectrum
+     * file loader without loading it.
      *
-     * @return a boolean indicating whether the loading was successful
+     * @param spectrumFileName the name of the spectrum file
+     * @param folder a folder to look into, the user last selected folder for
+     * instance, can be null
      *
-     * @throws IOException thrown of IOException occurs exception thrown
-     * whenever an error occurred while reading or writing a file
+     * @return a boolean indicating whether the spectrum file was found
      */
-    public boolean loadSpectrumFile(String spectrumFileName, WaitingHandler waitingHandler) throws IOException {
-
-        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+    public boolean registerSpectrumFile(String spectrumFileName, File folder) {
 
         File providedSpectrumLocation = projectDetails.getSpectrumFile(spectrumFileName);
         File projectFolder = cpsFile.getParentFile();
@@ -444,19 +445,40 @@ public class CpsParent extends UserPreferencesParent {
         if (providedSpectrumLocation == null || !providedSpectrumLocation.exists()) {
             File fileInProjectFolder = new File(projectFolder, spectrumFileName);
             File fileInDataFolder = new File(dataFolder, spectrumFileName);
-
+            File fileInGivenFolder = folder == null ? null : new File(folder, spectrumFileName);
             if (fileInProjectFolder.exists()) {
                 projectDetails.addSpectrumFile(fileInProjectFolder);
             } else if (fileInDataFolder.exists()) {
                 projectDetails.addSpectrumFile(fileInDataFolder);
+            } else if (fileInGivenFolder != null && fileInGivenFolder.exists()) {
+                projectDetails.addSpectrumFile(fileInGivenFolder);
             } else {
                 return false;
             }
         }
 
-        File mgfFile = projectDetails.getSpectrumFile(spectrumFileName);
-        spectrumFactory.addSpectra(mgfFile, waitingHandler);
+        SpectrumFileLoader.getInstance().registerSpectrumFile(projectDetails.getSpectrumFile(spectrumFileName));
+
+        return true;
+    }
 
+    /**
+     * Loads the spectra in the spectrum factory.
+     *
+     * @param spectrumFileName the name of the spectrum file to load
+     * @param waitingHandler a waiting handler displaying progress to the user.
+     * Can be null
+     *
+     * @return a boolean indicating whether the loading was successful
+     *
+     * @throws IOException thrown of IOException occurs exception thrown
+     * whenever an error occurred while reading or writing a file
+     */
+    public boolean loadSpectrumFile(String spectrumFileName, WaitingHandler waitingHandler) throws IOException {
+        if (!registerSpectrumFile(spectrumFileName, null)) {
+            return false;
+        }
+        SpectrumFileLoader.getInstance().loadSpectrumFile(spectrumFileName, waitingHandler);
         return true;
     }
 
@@ -686,6 +708,42 @@ public class CpsParent extends UserPreferencesParent {
         this.cpsFile = cpsFile;
     }
 
+    /**
+     * Returns the directory of the project. Null if not set.
+     *
+     * @return the directory of the project
+     */
+    public File getProjectDirectory() {
+        return projectDirectory;
+    }
+
+    /**
+     * Sets the directory of the project.
+     *
+     * @param projectDirectory the directory of the project
+     */
+    public void setProjectDirectory(File projectDirectory) {
+        this.projectDirectory = projectDirectory;
+    }
+
+    /**
+     * Deletes the directory of the project. The connection to the
+     * identification database must be closed beforehand.
+     *
+     * @return a boolean indicating whether the directory was successfully
+     * deleted
+     */
+    public boolean deleteProjectDirectory() {
+        if (projectDirectory == null) {
+            return true;
+        }
+        boolean deleted = !projectDirectory.exists() || Util.deleteDir(projectDirectory);
+        if (deleted) {
+            projectDirectory = null;
+        }
+        return deleted;
+    }
+
     /**
      * Returns the user preferences.
      *
@@ -1,8 +1,12 @@
 package eu.isas.peptideshaker.utils;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 
 /**
  * This class caches the identification features calculated by the
@@ -93,23 +97,40 @@ public class IdentificationFeaturesCache implements Serializable {
         unique_peptides
     }
     /**
-     * The number of values kept in memory for small objects.
+     * The maximal number of values kept in memory for small objects.
      */
     private final int smallObjectsCacheSize = 1000000;
     /**
-     * The number of values kept in memory for big objects.
+     * The maximal number of values kept in memory for big objects.
      */
     private final int bigObjectsCacheSize = 1000;
     /**
-     * Separator used to concatenate strings.
+     * Estimate of the memory used by a small object in cache in bytes, key
+     * included.
      */
-    private static final String cacheSeparator = "_ccs_";
+    private static final long SMALL_OBJECT_SIZE = 256;
     /**
-     * The cached protein matches for small objects.
+     * Estimate of the memory used by a big object in cache in bytes, key
+     * included.
+     */
+    private static final long BIG_OBJECT_SIZE = 64 * 1024;
+    /**
+     * The share of the maximal memory of the virtual machine which can be used
+     * by each type of cached objects.
+     */
+    private static final double MEMORY_SHARE = 0.05;
+    /**
+     * The keys of the small objects in cache as they were stored by older
+     * versions.
+     *
+     * @deprecated the order of the objects is kept in smallObjectsOrder
      */
     private ArrayList<String> smallObjectsInCache = new ArrayList<String>();
     /**
-     * The cached protein matches for big objects.
+     * The keys of the big objects in cache as they were stored by older
+     * versions.
+     *
+     * @deprecated the order of the objects is kept in bigObjectsOrder
      */
     private ArrayList<String> bigObjectsInCache = new ArrayList<String>();
     /**
@@ -120,6 +141,37 @@ public class IdentificationFeaturesCache implements Serializable {
      * Mapping of the stored small objects.
      */
     private HashMap<ObjectType, HashMap<String, Object>> smallObjectsCache = new HashMap<ObjectType, HashMap<String, Object>>();
+    /**
+     * The keys of the small objects in cache from the least to the most
+     * recently used.
+     */
+    private transient LinkedHashMap<CacheKey, CacheKey> smallObjectsOrder;
+    /**
+     * The keys of the big objects in cache from the least to the most
+     * recently used.
+     */
+    private transient LinkedHashMap<CacheKey, CacheKey> bigObjectsOrder;
+    /**
+     * The number of small objects which can be kept in memory.
+     */
+    private transient int smallObjectsCapacity;
+    /**
+     * The number of big objects which can be kept in memory.
+     */
+    private transient int bigObjectsCapacity;
+    /**
+     * The number of objects found in cache.
+     */
+    private transient long nHits = 0;
+    /**
+     * The number of objects not found in cache.
+     */
+    private transient long nMisses = 0;
+    /**
+     * The number of objects removed from the cache to make room for new
+     * objects.
+     */
+    private transient long nEvictions = 0;
     /**
      * The protein list.
      */
@@ -163,129 +215,122 @@ public class IdentificationFeaturesCache implements Serializable {
      */
     private String currentPeptideKey = "";
 
+    /**
+     * Constructor.
+     */
+    public IdentificationFeaturesCache() {
+        initializeOrder();
+    }
+
     /**
      * Clears all objects of the given type.
      *
      * @param type the object type
      */
-    public void removeObjects(ObjectType type) {
+    public synchronized void removeObjects(ObjectType type) {
+        if (isBigObject(type)) {
+            removeObjects(type, bigObjectsCache, bigObjectsOrder);
+        } else {
+            removeObjects(type, smallObjectsCache, smallObjectsOrder);
+        }
+    }
 
-        String typeKey = getTypeAsString(type);
-        ArrayList<String> toRemove = new ArrayList<String>();
+    /**
+     * Removes the object of the given type and key from the cache if present.
+     *
+     * @param type the type of the object
+     * @param objectKey the key of the object
+     */
+    public synchronized void removeObject(ObjectType type, String objectKey) {
+        HashMap<ObjectType, HashMap<String, Object>> cache;
+        LinkedHashMap<CacheKey, CacheKey> order;
+        if (isBigObject(type)) {
+            cache = bigObjectsCache;
+            order = bigObjectsOrder;
+        } else {
+            cache = smallObjectsCache;
+            order = smallObjectsOrder;
+        }
+        HashMap<String, Object> typeCache = cache.get(type);
+        if (typeCache != null && typeCache.remove(objectKey) != null) {
+            order.remove(new CacheKey(type, objectKey));
+            if (typeCache.isEmpty()) {
+                cache.remove(type);
+            }
+        }
+    }
 
-        switch (type) {
-            case coverable_AA:
-            case coverable_AA_p:
-            case AA_coverage:
-            case tryptic_protein:
-                bigObjectsCache.remove(type);
-                for (String key : bigObjectsInCache) {
-                    if (key.contains(typeKey)) {
-                        toRemove.add(key);
-                    }
-                }
-                for (String key : toRemove) {
-                    bigObjectsInCache.remove(key);
-                }
-                break;
-            case sequence_coverage:
-            case sequence_validation_coverage:
-            case expected_coverage:
-            case spectrum_counting:
-            case number_of_spectra:
-            case number_of_validated_spectra:
-            case number_of_validated_peptides:
-            case number_of_confident_spectra:
-            case number_of_confident_peptides:
-            case max_psm_mz_for_peptides:
-            case unique_peptides:
-                smallObjectsCache.remove(type);
-                for (String key : smallObjectsInCache) {
-                    if (key.contains(typeKey)) {
-                        toRemove.add(key);
-                    }
-                }
-                for (String key : toRemove) {
-                    bigObjectsInCache.remove(key);
+    /**
+     * Clears all objects of the given type from the given cache.
+     *
+     * @param type the object type
+     * @param cache the cache
+     * @param order the keys of the cache by order of use
+     */
+    private void removeObjects(ObjectType type, HashMap<ObjectType, HashMap<String, Object>> cache, LinkedHashMap<CacheKey, CacheKey> order) {
+        if (cache.remove(type) != null) {
+            Iterator<CacheKey> iterator = order.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().type == type) {
+                    iterator.remove();
                 }
-                break;
+            }
         }
     }
 
     /**
-     * Adds an object in the cache.
+     * Adds an object in the cache. If the cache is full, the least recently
+     * used object of the same size category is removed.
      *
      * @param type the type of the object
      * @param objectKey the object key
      * @param object the object to store
      */
-    public void addObject(ObjectType type, String objectKey, Object object) {
-        switch (type) {
-            case coverable_AA:
-            case coverable_AA_p:
-            case AA_coverage:
-            case tryptic_protein:
-                if (!bigObjectsCache.containsKey(type)) {
-                    bigObjectsCache.put(type, new HashMap<String, Object>());
-                }
-
-                Object oldValue = bigObjectsCache.get(type).put(objectKey, object);
-
-                if (oldValue == null) {
-                    bigObjectsInCache.add(getCacheKey(type, objectKey)); // don't add if the object was already in the cache
-                }
-
-                while (bigObjectsInCache.size() >= bigObjectsCacheSize) {
-                    ObjectType oldType = getType(bigObjectsInCache.get(0));
-                    String oldKey = getObjectKey(bigObjectsInCache.get(0));
-                    if (bigObjectsCache.containsKey(oldType)) { //Should always be true. Should...
-                        bigObjectsCache.get(oldType).remove(oldKey);
-                        if (bigObjectsCache.get(oldType).isEmpty()) {
-                            bigObjectsCache.remove(oldType);
-                        }
-                    }
-                    bigObjectsInCache.remove(0);
-                    if (bigObjectsInCache.isEmpty()) {
-                        break;
-                    }
-                }
-                break;
-            case sequence_coverage:
-            case sequence_validation_coverage:
-            case expected_coverage:
-            case spectrum_counting:
-            case number_of_spectra:
-            case number_of_validated_spectra:
-            case number_of_validated_peptides:
-            case number_of_confident_spectra:
-            case number_of_confident_peptides:
-            case max_psm_mz_for_peptides:
-            case unique_peptides:
-                if (!smallObjectsCache.containsKey(type)) {
-                    smallObjectsCache.put(type, new HashMap<String, Object>());
-                }
-
-                oldValue = smallObjectsCache.get(type).put(objectKey, object);
+    public synchronized void addObject(ObjectType type, String objectKey, Object object) {
+        if (isBigObject(type)) {
+            addObject(type, objectKey, object, bigObjectsCache, bigObjectsOrder, bigObjectsCapacity);
+        } else {
+            addObject(type, objectKey, object, smallObjectsCache, smallObjectsOrder, smallObjectsCapacity);
+        }
+    }
 
-                if (oldValue == null) {
-                    smallObjectsInCache.add(getCacheKey(type, objectKey));
-                }
+    /**
+     * Adds an object in the given cache.
+     *
+     * @param type the type of the object
+     * @param objectKey the object key
+     * @param object the object to store
+     * @param cache the cache
+     * @param order the keys of the cache by order of use
+     * @param capacity the number of objects which can be kept in the cache
+     */
+    private void addObject(ObjectType type, String objectKey, Object object, HashMap<ObjectType, HashMap<String, Object>> cache,
+            LinkedHashMap<CacheKey, CacheKey> order, int capacity) {
 
-                while (smallObjectsInCache.size() >= smallObjectsCacheSize) {
-                    ObjectType oldType = getType(smallObjectsInCache.get(0));
-                    String oldKey = getObjectKey(smallObjectsInCache.get(0));
-                    if (smallObjectsCache.containsKey(oldType)) { //Should always be true. Should...
-                        smallObjectsCache.get(oldType).remove(oldKey);
-                        if (smallObjectsCache.get(oldType).isEmpty()) {
-                            smallObjectsCache.remove(oldType);
-                        }
-                    }
-                    smallObjectsInCache.remove(0);
-                    if (smallObjectsInCache.isEmpty()) {
-                        break;
+        HashMap<String, Object> typeCache = cache.get(type);
+        if (typeCache == null) {
+            typeCache = new HashMap<String, Object>();
+            cache.put(type, typeCache);
+        }
+        typeCache.put(objectKey, object);
+
+        CacheKey cacheKey = new CacheKey(type, objectKey);
+        order.put(cacheKey, cacheKey);
+
+        if (order.size() > capacity) {
+            Iterator<CacheKey> iterator = order.keySet().iterator();
+            while (order.size() > capacity) {
+                CacheKey oldKey = iterator.next();
+                iterator.remove();
+                HashMap<String, Object> oldTypeCache = cache.get(oldKey.type);
+                if (oldTypeCache != null) {
+                    oldTypeCache.remove(oldKey.key);
+                    if (oldTypeCache.isEmpty()) {
+                        cache.remove(oldKey.type);
                     }
                 }
-                break;
+                nEvictions++;
+            }
         }
     }
 
@@ -296,55 +341,76 @@ public class IdentificationFeaturesCache implements Serializable {
      * @param objectKey the key of the object
      * @return the desired object
      */
-    public Object getObject(ObjectType type, String objectKey) {
+    public synchronized Object getObject(ObjectType type, String objectKey) {
+        HashMap<ObjectType, HashMap<String, Object>> cache;
+        LinkedHashMap<CacheKey, CacheKey> order;
+        if (isBigObject(type)) {
+            cache = bigObjectsCache;
+            order = bigObjectsOrder;
+        } else {
+            cache = smallObjectsCache;
+            order = smallObjectsOrder;
+        }
         Object result = null;
-        switch (type) {
-            case coverable_AA:
-            case coverable_AA_p:
-            case AA_coverage:
-            case tryptic_protein:
-                if (bigObjectsCache.containsKey(type)) {
-                    result = bigObjectsCache.get(type).get(objectKey);
-                }
-                if (result != null && bigObjectsInCache.size() >= bigObjectsCacheSize) {
-                    String cacheKey = getCacheKey(type, objectKey);
-                    for (int i = 0; i < Math.min(bigObjectsInCache.size(), 100); i++) {
-                        if (bigObjectsInCache.get(i).equals(cacheKey)) {
-                            bigObjectsInCache.remove(i);
-                            bigObjectsInCache.add(cacheKey);
-                            break;
-                        }
-                    }
-                }
-                return result;
-            case sequence_coverage:
-            case sequence_validation_coverage:
-            case expected_coverage:
-            case spectrum_counting:
-            case number_of_spectra:
-            case number_of_validated_spectra:
-            case number_of_validated_peptides:
-            case number_of_confident_spectra:
-            case number_of_confident_peptides:
-            case max_psm_mz_for_peptides:
-            case unique_peptides:
-                if (smallObjectsCache.containsKey(type)) {
-                    result = smallObjectsCache.get(type).get(objectKey);
-                }
-                if (result != null && smallObjectsInCache.size() >= smallObjectsCacheSize) {
-                    String cacheKey = getCacheKey(type, objectKey);
-                    for (int i = 0; i < Math.min(smallObjectsInCache.size(), 100); i++) {
-                        if (smallObjectsInCache.get(i).equals(cacheKey)) {
-                            smallObjectsInCache.remove(i);
-                            smallObjectsInCache.add(cacheKey);
-                            break;
-                        }
-                    }
-                }
-                return result;
-            default:
-                return result;
+        HashMap<String, Object> typeCache = cache.get(type);
+        if (typeCache != null) {
+            result = typeCache.get(objectKey);
         }
+        if (result != null) {
+            order.get(new CacheKey(type, objectKey)); // marks the object as most recently used
+            nHits++;
+        } else {
+            nMisses++;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of objects found in cache since the cache was
+     * created or loaded.
+     *
+     * @return the number of objects found in cache
+     */
+    public synchronized long getnHits() {
+        return nHits;
+    }
+
+    /**
+     * Returns the number of objects not found in cache since the cache was
+     * created or loaded.
+     *
+     * @return the number of objects not found in cache
+     */
+    public synchronized long getnMisses() {
+        return nMisses;
+    }
+
+    /**
+     * Returns the number of objects removed from the cache to make room for
+     * new objects since the cache was created or loaded.
+     *
+     * @return the number of objects removed from the cache
+     */
+    public synchronized long getnEvictions() {
+        return nEvictions;
+    }
+
+    /**
+     * Returns the number of small objects which can be kept in memory.
+     *
+     * @return the number of small objects which can be kept in memory
+     */
+    public int getSmallObjectsCapacity() {
+        return smallObjectsCapacity;
+    }
+
+    /**
+     * Returns the number of big objects which can be kept in memory.
+     *
+     * @return the number of big objects which can be kept in memory
+     */
+    public int getBigObjectsCapacity() {
+        return bigObjectsCapacity;
     }
 
     /**
@@ -533,117 +599,126 @@ public class IdentificationFeaturesCache implements Serializable {
     }
 
     /**
-     * Convenience method returning a string as key for the object of the given
-     * type identified by the given key.
+     * Indicates whether the given type of object is stored with the big
+     * objects.
      *
      * @param type the type of object
-     * @param objectKey the key of the object
-     * @return the key to be used in cache
-     */
-    private String getCacheKey(ObjectType type, String objectKey) {
-        return getTypeAsString(type) + cacheSeparator + objectKey;
-    }
-
-    /**
-     * Returns the object type as string.
      *
-     * @param type the type of object
-     * @return the corresponding key
+     * @return a boolean indicating whether the given type of object is stored
+     * with the big objects
      */
-    private String getTypeAsString(ObjectType type) {
+    private static boolean isBigObject(ObjectType type) {
         switch (type) {
             case coverable_AA:
-                return "coverable_AA";
             case coverable_AA_p:
-                return "coverable_AA_p";
             case AA_coverage:
-                return "AA_coverage";
-            case sequence_coverage:
-                return "sequence_coverage";
-            case sequence_validation_coverage:
-                return "sequence_validation_coverage";
-            case expected_coverage:
-                return "expected_coverage";
-            case spectrum_counting:
-                return "spectrum_counting";
-            case number_of_spectra:
-                return "#spectra";
-            case number_of_validated_spectra:
-                return "#validated_spectra";
-            case number_of_validated_peptides:
-                return "#validated_peptides";
-            case number_of_confident_spectra:
-                return "#confident_spectra";
-            case number_of_confident_peptides:
-                return "#confident_peptides";
-            case max_psm_mz_for_peptides:
-                return "max_psm_mz_for_peptides";
             case tryptic_protein:
-                return "tryptic_protein";
-            case unique_peptides:
-                return "unique_peptides";
+                return true;
             default:
-                return "default";
+                return false;
         }
     }
 
     /**
-     * Convenience method returning the type of object base on the objects cache
-     * key.
-     *
-     * @param cacheKey the object cache key
-     * @return the type of object
-     */
-    private ObjectType getType(String cacheKey) {
-        String objectTypeAsString = cacheKey.split(cacheSeparator)[0];
-        if (objectTypeAsString.equals("coverable_AA")) {
-            return ObjectType.coverable_AA;
-        } else if (objectTypeAsString.equals("coverable_AA_p")) {
-            return ObjectType.coverable_AA_p;
-        } else if (objectTypeAsString.equals("AA_coverage")) {
-            return ObjectType.AA_coverage;
-        } else if (objectTypeAsString.equals("sequence_coverage")) {
-            return ObjectType.sequence_coverage;
-        } else if (objectTypeAsString.equals("sequence_validation_coverage")) {
-            return ObjectType.sequence_validation_coverage;
-        } else if (objectTypeAsString.equals("expected_coverage")) {
-            return ObjectType.expected_coverage;
-        } else if (objectTypeAsString.equals("spectrum_counting")) {
-            return ObjectType.spectrum_counting;
-        } else if (objectTypeAsString.equals("#spectra")) {
-            return ObjectType.number_of_spectra;
-        } else if (objectTypeAsString.equals("#validated_spectra")) {
-            return ObjectType.number_of_validated_spectra;
-        } else if (objectTypeAsString.equals("#validated_peptides")) {
-            return ObjectType.number_of_validated_peptides;
-        } else if (objectTypeAsString.equals("#confident_spectra")) {
-            return ObjectType.number_of_confident_spectra;
-        } else if (objectTypeAsString.equals("#confident_peptides")) {
-            return ObjectType.number_of_confident_peptides;
-        } else if (objectTypeAsString.equals("max_psm_mz_for_peptides")) {
-            return ObjectType.max_psm_mz_for_peptides;
-        } else if (objectTypeAsString.equals("tryptic_protein")) {
-            return ObjectType.tryptic_protein;
-        } else if (objectTypeAsString.equals("unique_peptides")) {
-            return ObjectType.unique_peptides;
-        } else {
-            return null;
+     * Sets the capacity of the caches according to the memory available and
+     * indexes the objects already in cache.
+     */
+    private void initializeOrder() {
+
+        long memoryShare = (long) (MEMORY_SHARE * Runtime.getRuntime().maxMemory());
+        smallObjectsCapacity = (int) Math.max(Math.min(smallObjectsCacheSize, memoryShare / SMALL_OBJECT_SIZE), 1);
+        bigObjectsCapacity = (int) Math.max(Math.min(bigObjectsCacheSize, memoryShare / BIG_OBJECT_SIZE), 1);
+
+        smallObjectsOrder = new LinkedHashMap<CacheKey, CacheKey>(16, 0.75f, true);
+        bigObjectsOrder = new LinkedHashMap<CacheKey, CacheKey>(16, 0.75f, true);
+        indexObjects(smallObjectsCache, smallObjectsOrder);
+        indexObjects(bigObjectsCache, bigObjectsOrder);
+    }
+
+    /**
+     * Adds the keys of the objects of a cache to the given order map.
+     *
+     * @param cache the cache
+     * @param order the keys of the cache by order of use
+     */
+    private static void indexObjects(HashMap<ObjectType, HashMap<String, Object>> cache, LinkedHashMap<CacheKey, CacheKey> order) {
+        for (ObjectType type : cache.keySet()) {
+            for (String objectKey : cache.get(type).keySet()) {
+                CacheKey cacheKey = new CacheKey(type, objectKey);
+                order.put(cacheKey, cacheKey);
+            }
         }
     }
 
     /**
-     * Convenience method returning the object key based on the cache key.
+     * Reads the cache and indexes the objects it contains. The objects of the
+     * projects saved by older versions are indexed in no particular order.
      *
-     * @param cacheKey the cache key
-     * @return the object key
+     * @param in the input stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the object
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (bigObjectsCache == null) {
+            bigObjectsCache = new HashMap<ObjectType, HashMap<String, Object>>();
+        }
+        if (smallObjectsCache == null) {
+            smallObjectsCache = new HashMap<ObjectType, HashMap<String, Object>>();
+        }
+        smallObjectsInCache = new ArrayList<String>();
+        bigObjectsInCache = new ArrayList<String>();
+        initializeOrder();
+    }
+
+    /**
+     * The key of an object in cache.
      */
-    private String getObjectKey(String cacheKey) {
-        StringBuilder buf = new StringBuilder();
-        String escapedString = java.util.regex.Pattern.quote(cacheKey);
-        String[] splittedKey = cacheKey.split(escapedString);
-        for (int i = 1; i < splittedKey.length; i++) {
-            buf.append(splittedKey[i]);
+    private static class CacheKey {
+
+        /**
+         * The type of the object.
+         */
+        private final ObjectType type;
+        /**
+         * The key of the object.
+         */
+        private final String key;
+        /**
+         * The hash code of this key.
+         */
+        private final int hashCode;
+
+        /**
+         * Constructor.
+         *
+         * @param type the type of the object
+         * @param key the key of the object
+         */
+        public CacheKey(ObjectType type, String key) {
+            this.type = type;
+            this.key = key;
+            hashCode = 31 * type.hashCode() + key.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) obj;
+            return type == other.type && key.equals(other.key);
         }
-        return buf.toString();
     }
 }
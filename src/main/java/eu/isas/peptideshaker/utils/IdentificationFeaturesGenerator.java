@@ -82,6 +82,18 @@ public class IdentificationFeaturesGenerator {
      * The spectrum counting preferences.
      */
     private SpectrumCountingPreferences spectrumCountingPreferences;
+    /**
+     * The types of features which depend on the validation of the matches.
+     */
+    private static final IdentificationFeaturesCache.ObjectType[] VALIDATION_FEATURES = {
+        IdentificationFeaturesCache.ObjectType.AA_coverage,
+        IdentificationFeaturesCache.ObjectType.sequence_coverage,
+        IdentificationFeaturesCache.ObjectType.sequence_validation_coverage,
+        IdentificationFeaturesCache.ObjectType.spectrum_counting,
+        IdentificationFeaturesCache.ObjectType.number_of_validated_spectra,
+        IdentificationFeaturesCache.ObjectType.number_of_confident_spectra,
+        IdentificationFeaturesCache.ObjectType.number_of_validated_peptides,
+        IdentificationFeaturesCache.ObjectType.number_of_confident_peptides};
 
     /**
      * Constructor.
@@ -1955,6 +1967,19 @@ public class IdentificationFeaturesGenerator {
         identificationFeaturesCache.removeObjects(IdentificationFeaturesCache.ObjectType.spectrum_counting);
     }
 
+    /**
+     * Clears the features of a peptide or protein match depending on the
+     * validation of the matches from the cache. To be called when the
+     * validation level of the match or of its children changed.
+     *
+     * @param matchKey the key of the peptide or protein match
+     */
+    public void clearValidationFeatures(String matchKey) {
+        for (IdentificationFeaturesCache.ObjectType objectType : VALIDATION_FEATURES) {
+            identificationFeaturesCache.removeObject(objectType, matchKey);
+        }
+    }
+
     /**
      * Returns a summary of all PTMs present on the sequence confidently
      * assigned to an amino acid. Example: SEQVEM&lt;mox&gt;CE gives Oxidation
@@ -2780,6 +2805,7 @@ public class IdentificationFeaturesGenerator {
                     }
                     if (hasRT) {
                         try {
+                            SpectrumFileLoader.getInstance().loadSpectrumFileOfKey(spectrumKey);
                             Precursor precursor = spectrumFactory.getPrecursor(spectrumKey);
                             rt = precursor.getRt();
                             if (rt == -1) {
@@ -0,0 +1,479 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.experiment.identification.SequenceFactory;
+import com.compomics.util.experiment.identification.protein_inference.proteintree.ProteinTreeComponentsFactory;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Central manager of the memory used by the caches during the processing of a
+ * project. The heap usage is compared to an explicit budget in bytes and,
+ * when the budget is exceeded, the caches are reduced one after the other,
+ * starting with the ones which are the cheapest to rebuild, until the usage is
+ * back under the low watermark. Since the heap usage includes the objects not
+ * collected yet, the decisions to release memory are taken on the usage
+ * measured after a garbage collection. The number of reductions of every
+ * cache is recorded so that runs short of memory can be diagnosed.
+ *
+ * The spectrum factory is not managed: it keeps a bounded number of spectra
+ * in its own cache and evicts them itself, and the indexes of the loaded
+ * spectrum files are needed to read any spectrum, releasing them would only
+ * force the spectrum files to be indexed again.
+ *
+ * @author Marc Vaudel
+ */
+public class MemoryGovernor {
+
+    /**
+     * The share of the maximal heap size used as budget when no budget is
+     * set.
+     */
+    public static final double DEFAULT_BUDGET_SHARE = 0.9;
+    /**
+     * The share of the budget under which the usage is brought back when
+     * releasing memory.
+     */
+    public static final double LOW_WATERMARK = 0.85;
+    /**
+     * The share of a cache released at every reduction.
+     */
+    public static final double RELEASE_SHARE = 0.5;
+    /**
+     * The instance of the governor.
+     */
+    private static MemoryGovernor instance = null;
+
+    /**
+     * The caches managed by the governor in the order in which they are
+     * reduced.
+     */
+    public enum Cache {
+
+        /**
+         * The cache of the protein tree nodes.
+         */
+        PROTEIN_TREE("protein tree"),
+        /**
+         * The protein sequences kept in memory by the sequence factory.
+         */
+        PROTEIN_SEQUENCES("protein sequences"),
+        /**
+         * The spectrum keys grouped by peptide kept in the metrics.
+         */
+        SPECTRUM_KEYS("spectrum keys"),
+        /**
+         * The identification objects cache, reduced objects are saved in the
+         * database.
+         */
+        IDENTIFICATION_OBJECTS("identification objects");
+        /**
+         * The description of the cache.
+         */
+        public final String description;
+
+        /**
+         * Constructor.
+         *
+         * @param description the description of the cache
+         */
+        private Cache(String description) {
+            this.description = description;
+        }
+    }
+
+    /**
+     * The budget in bytes, 0 for the default share of the maximal heap size.
+     */
+    private long budget = 0;
+    /**
+     * The identification objects cache, null if none.
+     */
+    private ObjectsCache objectsCache = null;
+    /**
+     * The metrics of the project, null if none.
+     */
+    private Metrics metrics = null;
+    /**
+     * The number of reductions of every cache, indexed by cache ordinal.
+     */
+    private final AtomicLong[] nReductions = new AtomicLong[Cache.values().length];
+    /**
+     * The number of times memory was released.
+     */
+    private final AtomicLong nReleases = new AtomicLong();
+    /**
+     * The number of times the budget remained exceeded after reducing all
+     * caches.
+     */
+    private final AtomicLong nOverruns = new AtomicLong();
+    /**
+     * The highest heap usage observed when releasing memory in bytes.
+     */
+    private final AtomicLong peakUsage = new AtomicLong();
+
+    /**
+     * Constructor.
+     */
+    private MemoryGovernor() {
+        for (int i = 0; i < nReductions.length; i++) {
+            nReductions[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Returns the instance of the governor.
+     *
+     * @return the instance of the governor
+     */
+    public static synchronized MemoryGovernor getInstance() {
+        if (instance == null) {
+            instance = new MemoryGovernor();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the budget in bytes.
+     *
+     * @return the budget in bytes
+     */
+    public long getBudget() {
+        if (budget > 0) {
+            return budget;
+        }
+        return (long) (DEFAULT_BUDGET_SHARE * Runtime.getRuntime().maxMemory());
+    }
+
+    /**
+     * Sets the budget in bytes. The budget cannot exceed the maximal heap
+     * size, 0 sets the default share of the maximal heap size.
+     *
+     * @param budget the budget in bytes
+     */
+    public void setBudget(long budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("Negative memory budget: " + budget + ".");
+        }
+        this.budget = Math.min(budget, Runtime.getRuntime().maxMemory());
+    }
+
+    /**
+     * Sets the identification objects cache to manage.
+     *
+     * @param objectsCache the identification objects cache
+     */
+    public void setObjectsCache(ObjectsCache objectsCache) {
+        this.objectsCache = objectsCache;
+    }
+
+    /**
+     * Sets the metrics of the project where the spectrum keys are kept.
+     *
+     * @param metrics the metrics of the project
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the heap currently used in bytes.
+     *
+     * @return the heap currently used in bytes
+     */
+    public static long getUsedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Returns the heap used after the last garbage collection in bytes, i.e.
+     * excluding the objects which can be collected. If the virtual machine
+     * does not report the usage after collection, the heap currently used is
+     * returned.
+     *
+     * @return the heap used after the last garbage collection in bytes
+     */
+    public static long getCollectedMemory() {
+        long used = 0;
+        boolean supported = false;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP && memoryPool.isValid()) {
+                MemoryUsage collectionUsage = memoryPool.getCollectionUsage();
+                if (collectionUsage != null) {
+                    used += collectionUsage.getUsed();
+                    supported = true;
+                }
+            }
+        }
+        if (!supported) {
+            return getUsedMemory();
+        }
+        return used;
+    }
+
+    /**
+     * Indicates whether the heap usage exceeds the budget. The usage after
+     * the last garbage collection must exceed the budget as well.
+     *
+     * @return a boolean indicating whether the heap usage exceeds the budget
+     */
+    public boolean isOverBudget() {
+        return isOverBudget(1.0);
+    }
+
+    /**
+     * Indicates whether the heap usage exceeds the given share of the budget.
+     * The usage after the last garbage collection must exceed the share as
+     * well.
+     *
+     * @param share the share of the budget
+     *
+     * @return a boolean indicating whether the heap usage exceeds the given
+     * share of the budget
+     */
+    public boolean isOverBudget(double share) {
+        double limit = share * getBudget();
+        return getUsedMemory() > limit && getCollectedMemory() > limit;
+    }
+
+    /**
+     * Indicates whether the heap usage is under the low watermark, i.e.
+     * whether optional structures can be kept in memory.
+     *
+     * @return a boolean indicating whether the heap usage is under the low
+     * watermark
+     */
+    public boolean hasHeadroom() {
+        double limit = LOW_WATERMARK * getBudget();
+        return getUsedMemory() < limit || getCollectedMemory() < limit;
+    }
+
+    /**
+     * Releases memory if the budget is exceeded. The caches are reduced in
+     * the order of the Cache enum until the usage is under the low watermark.
+     * Nothing is done if the budget is not exceeded.
+     *
+     * @param waitingHandler waiting handler displaying progress to the user
+     * while the identification objects are saved. Can be null
+     *
+     * @return a boolean indicating whether the usage is within budget
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * saving the identification objects
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while serializing the identification objects
+     */
+    public boolean release(WaitingHandler waitingHandler) throws IOException, SQLException, InterruptedException, ClassNotFoundException {
+        return release(1.0, waitingHandler);
+    }
+
+    /**
+     * Releases memory if the given share of the budget is exceeded, e.g. for
+     * processes needing a margin. The caches are reduced in the order of the
+     * Cache enum until the usage is under the low watermark of this share.
+     * Nothing is done if the share is not exceeded.
+     *
+     * @param share the share of the budget
+     * @param waitingHandler waiting handler displaying progress to the user
+     * while the identification objects are saved. Can be null
+     *
+     * @return a boolean indicating whether the usage is within the given
+     * share of the budget
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * saving the identification objects
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while serializing the identification objects
+     */
+    public boolean release(double share, WaitingHandler waitingHandler) throws IOException, SQLException, InterruptedException, ClassNotFoundException {
+        double threshold = share * getBudget();
+        if (getUsedMemory() <= threshold) {
+            return true;
+        }
+        return release(threshold, LOW_WATERMARK * threshold, waitingHandler);
+    }
+
+    /**
+     * Reduces the caches in the order of the Cache enum until the usage is
+     * under the given target. The usage is measured after a garbage
+     * collection: nothing is released if the heap is only filled with
+     * objects which can be collected, and the reduction stops at the first
+     * cache which brings the usage under the target.
+     *
+     * @param threshold the heap usage in bytes above which memory is released
+     * @param target the target heap usage in bytes
+     * @param waitingHandler waiting handler displaying progress to the user
+     * while the identification objects are saved. Can be null
+     *
+     * @return a boolean indicating whether the usage is under the threshold
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * saving the identification objects
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while serializing the identification objects
+     */
+    private synchronized boolean release(double threshold, double target, WaitingHandler waitingHandler) throws IOException, SQLException, InterruptedException, ClassNotFoundException {
+        if (getUsedMemory() <= threshold) {
+            // released by another thread in the meantime
+            return true;
+        }
+        long used = getCollectedMemory();
+        if (used <= threshold) {
+            // the excess can be collected
+            return true;
+        }
+        nReleases.incrementAndGet();
+        if (used > peakUsage.get()) {
+            peakUsage.set(used);
+        }
+        for (Cache cache : Cache.values()) {
+            if (reduce(cache, waitingHandler)) {
+                nReductions[cache.ordinal()].incrementAndGet();
+                System.gc();
+                used = getCollectedMemory();
+                if (used < target) {
+                    return true;
+                }
+            }
+        }
+        if (used > threshold) {
+            nOverruns.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reduces the given cache.
+     *
+     * @param cache the cache to reduce
+     * @param waitingHandler waiting handler displaying progress to the user.
+     * Can be null
+     *
+     * @return a boolean indicating whether the cache was reduced
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * saving the identification objects
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while serializing the identification objects
+     */
+    private boolean reduce(Cache cache, WaitingHandler waitingHandler) throws IOException, SQLException, InterruptedException, ClassNotFoundException {
+        switch (cache) {
+            case PROTEIN_TREE:
+                ObjectsCache proteinTreeCache = ProteinTreeComponentsFactory.getInstance().getCache();
+                if (proteinTreeCache.isEmpty()) {
+                    return false;
+                }
+                proteinTreeCache.reduceMemoryConsumption(RELEASE_SHARE, null);
+                return true;
+            case PROTEIN_SEQUENCES:
+                SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+                if (sequenceFactory.getNodesInCache() == 0) {
+                    return false;
+                }
+                sequenceFactory.reduceNodeCacheSize(RELEASE_SHARE);
+                return true;
+            case SPECTRUM_KEYS:
+                if (metrics == null) {
+                    return false;
+                }
+                metrics.clearSpectrumKeys();
+                return true;
+            case IDENTIFICATION_OBJECTS:
+                if (objectsCache == null || objectsCache.isEmpty()) {
+                    return false;
+                }
+                objectsCache.reduceMemoryConsumption(RELEASE_SHARE, waitingHandler);
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of reductions of the given cache.
+     *
+     * @param cache the cache
+     *
+     * @return the number of reductions of the given cache
+     */
+    public long getnReductions(Cache cache) {
+        return nReductions[cache.ordinal()].get();
+    }
+
+    /**
+     * Returns the number of times memory was released.
+     *
+     * @return the number of times memory was released
+     */
+    public long getnReleases() {
+        return nReleases.get();
+    }
+
+    /**
+     * Returns the number of times the budget remained exceeded after
+     * reducing all caches.
+     *
+     * @return the number of times the budget remained exceeded
+     */
+    public long getnOverruns() {
+        return nOverruns.get();
+    }
+
+    /**
+     * Clears the statistics.
+     */
+    public void clearStatistics() {
+        for (AtomicLong counter : nReductions) {
+            counter.set(0);
+        }
+        nReleases.set(0);
+        nOverruns.set(0);
+        peakUsage.set(0);
+    }
+
+    /**
+     * Returns a one line report of the statistics, e.g. for display in the
+     * processing report.
+     *
+     * @return a report of the statistics
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("Memory budget ").append(getBudget() / 1048576).append(" MB exceeded ").append(nReleases.get()).append(" time(s), peak ")
+                .append(peakUsage.get() / 1048576).append(" MB. Reduced caches: ");
+        boolean first = true;
+        for (Cache cache : Cache.values()) {
+            if (first) {
+                first = false;
+            } else {
+                report.append(", ");
+            }
+            report.append(cache.description).append(" ").append(getnReductions(cache));
+        }
+        report.append(". Budget still exceeded after reduction ").append(nOverruns.get()).append(" time(s).");
+        return report.toString();
+    }
+}
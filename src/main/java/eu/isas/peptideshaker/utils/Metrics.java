@@ -82,8 +82,15 @@ public class Metrics implements Serializable {
     /**
      * The PSM matches for each fraction for each peptide. Key: 'fraction
      * name'_'peptide key'. Values: arraylist of spectrum keys.
+     *
+     * @deprecated use psmMatchesPerFraction instead
      */
     private HashMap<String, ArrayList<String>> fractionPsmMatches;
+    /**
+     * The PSM matches for each fraction for each peptide. Fraction name &gt;
+     * peptide key &gt; list of spectrum keys.
+     */
+    private HashMap<String, HashMap<String, ArrayList<String>>> psmMatchesPerFraction;
     /**
      * The total number of peptides per fraction.
      */
@@ -419,6 +426,8 @@ public class Metrics implements Serializable {
      * Set the fraction PSM matches. Key: 'fraction name'_'peptide key'. Values:
      * arraylist of spectrum keys.
      *
+     * @deprecated use setPsmMatchesPerFraction instead
+     *
      * @param fractionPsmMatches the fraction PSM matches
      */
     public void setFractionPsmMatches(HashMap<String, ArrayList<String>> fractionPsmMatches) {
@@ -429,6 +438,8 @@ public class Metrics implements Serializable {
      * Returns the list of fraction PSM matches. Key: 'fraction name'_'peptide
      * key'. Values: arraylist of spectrum keys.
      *
+     * @deprecated use getFractionPsmMatches(String, String) instead
+     *
      * @return he list of fraction PSM matches
      */
     public HashMap<String, ArrayList<String>> getFractionPsmMatches() {
@@ -439,6 +450,41 @@ public class Metrics implements Serializable {
         }
     }
 
+    /**
+     * Sets the PSM matches for each fraction for each peptide. Fraction name
+     * &gt; peptide key &gt; list of spectrum keys.
+     *
+     * @param psmMatchesPerFraction the PSM matches for each fraction for each
+     * peptide
+     */
+    public void setPsmMatchesPerFraction(HashMap<String, HashMap<String, ArrayList<String>>> psmMatchesPerFraction) {
+        this.psmMatchesPerFraction = psmMatchesPerFraction;
+        fractionPsmMatches = null;
+    }
+
+    /**
+     * Returns the keys of the spectra of the given fraction matching the given
+     * peptide, null if none.
+     *
+     * @param fraction the name of the fraction
+     * @param peptideKey the key of the peptide match
+     *
+     * @return the keys of the spectra of the given fraction matching the given
+     * peptide
+     */
+    public ArrayList<String> getFractionPsmMatches(String fraction, String peptideKey) {
+        if (psmMatchesPerFraction != null) {
+            HashMap<String, ArrayList<String>> fractionMatches = psmMatchesPerFraction.get(fraction);
+            if (fractionMatches == null) {
+                return null;
+            }
+            return fractionMatches.get(peptideKey);
+        } else if (fractionPsmMatches != null) {
+            return fractionPsmMatches.get(fraction + "_" + peptideKey); // backward compatibility
+        }
+        return null;
+    }
+
     /**
      * Set the total number of peptides per fraction.
      *
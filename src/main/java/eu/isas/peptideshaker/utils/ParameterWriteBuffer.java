@@ -0,0 +1,194 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.personalization.UrParameter;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-behind buffer for the parameters of the matches built on the objects
+ * cache of the identification. The parameters loaded in the cache are only
+ * updated in memory and flagged as modified, the buffer then saves the
+ * modified objects of the cache in batches of the given number of updates
+ * and at the end of every processing stage, using the batch save of the
+ * cache. Parameters which are not in the cache are written directly by the
+ * identification.
+ *
+ * @author Marc Vaudel
+ */
+public class ParameterWriteBuffer {
+
+    /**
+     * The default number of parameter updates between two saves of the
+     * cache.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+    /**
+     * The identification where to update the parameters.
+     */
+    private final Identification identification;
+    /**
+     * The objects cache of the identification, null if no cache is used.
+     */
+    private final ObjectsCache objectsCache;
+    /**
+     * The number of parameter updates between two saves of the cache.
+     */
+    private final int batchSize;
+    /**
+     * The number of updates since the last save.
+     */
+    private final AtomicInteger nPending = new AtomicInteger();
+    /**
+     * Lock preventing updates while the cache is saved: the updates share the
+     * read lock and the save takes the write lock.
+     */
+    private final ReentrantReadWriteLock saveLock = new ReentrantReadWriteLock();
+
+    /**
+     * Constructor.
+     *
+     * @param identification the identification where to update the
+     * parameters
+     * @param objectsCache the objects cache of the identification, if null
+     * the parameters are written directly
+     * @param batchSize the number of parameter updates between two saves of
+     * the cache
+     */
+    public ParameterWriteBuffer(Identification identification, ObjectsCache objectsCache, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size should be strictly positive, " + batchSize + " found.");
+        }
+        this.identification = identification;
+        this.objectsCache = objectsCache;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Updates the parameter of a spectrum match.
+     *
+     * @param spectrumKey the key of the spectrum match
+     * @param urParameter the parameter
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing to the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing to the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while serializing a parameter
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while writing to the database
+     */
+    public void updateSpectrumMatchParameter(String spectrumKey, UrParameter urParameter) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        saveLock.readLock().lock();
+        try {
+            identification.updateSpectrumMatchParameter(spectrumKey, urParameter);
+        } finally {
+            saveLock.readLock().unlock();
+        }
+        updateDone();
+    }
+
+    /**
+     * Updates the parameter of a peptide match.
+     *
+     * @param peptideKey the key of the peptide match
+     * @param urParameter the parameter
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing to the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing to the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while serializing a parameter
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while writing to the database
+     */
+    public void updatePeptideMatchParameter(String peptideKey, UrParameter urParameter) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        saveLock.readLock().lock();
+        try {
+            identification.updatePeptideMatchParameter(peptideKey, urParameter);
+        } finally {
+            saveLock.readLock().unlock();
+        }
+        updateDone();
+    }
+
+    /**
+     * Updates the parameter of a protein match.
+     *
+     * @param proteinKey the key of the protein match
+     * @param urParameter the parameter
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing to the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing to the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while serializing a parameter
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while writing to the database
+     */
+    public void updateProteinMatchParameter(String proteinKey, UrParameter urParameter) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        saveLock.readLock().lock();
+        try {
+            identification.updateProteinMatchParameter(proteinKey, urParameter);
+        } finally {
+            saveLock.readLock().unlock();
+        }
+        updateDone();
+    }
+
+    /**
+     * Counts an update and saves the cache when a batch is complete.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing to the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing to the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while serializing a parameter
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while writing to the database
+     */
+    private void updateDone() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        if (nPending.incrementAndGet() >= batchSize) {
+            flush(null);
+        }
+    }
+
+    /**
+     * Saves the parameters modified in the cache since the last save. The
+     * cache is not emptied. Must be called at the end of every stage.
+     *
+     * @param waitingHandler a waiting handler displaying the progress, can be
+     * null
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing to the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing to the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while serializing a parameter
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while writing to the database
+     */
+    public void flush(WaitingHandler waitingHandler) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        saveLock.writeLock().lock();
+        try {
+            // another thread may have saved the batch while this one was waiting
+            if (nPending.get() > 0) {
+                if (objectsCache != null) {
+                    objectsCache.saveCache(waitingHandler, false);
+                }
+                nPending.set(0);
+            }
+        } finally {
+            saveLock.writeLock().unlock();
+        }
+    }
+}
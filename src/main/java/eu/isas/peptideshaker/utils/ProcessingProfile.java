@@ -0,0 +1,439 @@
+package eu.isas.peptideshaker.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * This class records the time and memory used by the different stages of the
+ * processing of a project. Stages are recorded one after the other, starting a
+ * stage ends the previous one.
+ *
+ * @author Marc Vaudel
+ */
+public class ProcessingProfile {
+
+    /**
+     * The stages recorded so far.
+     */
+    private ArrayList<Stage> stages = new ArrayList<Stage>();
+    /**
+     * The stage currently running, null if none.
+     */
+    private Stage currentStage = null;
+    /**
+     * The allocated bytes per thread id when the current stage was started.
+     */
+    private HashMap<Long, Long> threadAllocatedBytes = new HashMap<Long, Long>();
+
+    /**
+     * Constructor.
+     */
+    public ProcessingProfile() {
+    }
+
+    /**
+     * Starts recording a new stage. The previous stage, if any, is ended.
+     *
+     * @param name the name of the stage
+     */
+    public synchronized void startStage(String name) {
+        startStage(name, -1);
+    }
+
+    /**
+     * Starts recording a new stage. The previous stage, if any, is ended.
+     *
+     * @param name the name of the stage
+     * @param nItems the number of items processed in this stage, -1 if not
+     * relevant
+     */
+    public synchronized void startStage(String name, long nItems) {
+        endStage();
+        currentStage = new Stage(name, nItems);
+        currentStage.wallTime = System.nanoTime();
+        currentStage.cpuTime = getProcessCpuTime();
+        currentStage.gcCount = getGcCount();
+        currentStage.gcTime = getGcTime();
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP && memoryPool.isValid()) {
+                memoryPool.resetPeakUsage();
+            }
+        }
+        threadAllocatedBytes.clear();
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (sunThreadMXBean.isThreadAllocatedMemorySupported() && sunThreadMXBean.isThreadAllocatedMemoryEnabled()) {
+                for (long threadId : threadMXBean.getAllThreadIds()) {
+                    long allocated = sunThreadMXBean.getThreadAllocatedBytes(threadId);
+                    if (allocated >= 0) {
+                        threadAllocatedBytes.put(threadId, allocated);
+                    }
+                }
+            } else {
+                currentStage.allocatedBytes = -1;
+            }
+        } else {
+            currentStage.allocatedBytes = -1;
+        }
+    }
+
+    /**
+     * Ends the stage currently recorded. Nothing is done if no stage is
+     * running.
+     */
+    public synchronized void endStage() {
+        if (currentStage == null) {
+            return;
+        }
+        currentStage.wallTime = System.nanoTime() - currentStage.wallTime;
+        long cpuTime = getProcessCpuTime();
+        if (cpuTime >= 0 && currentStage.cpuTime >= 0) {
+            currentStage.cpuTime = cpuTime - currentStage.cpuTime;
+        } else {
+            currentStage.cpuTime = -1;
+        }
+        currentStage.gcCount = getGcCount() - currentStage.gcCount;
+        currentStage.gcTime = getGcTime() - currentStage.gcTime;
+        long peakHeap = 0;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP && memoryPool.isValid()) {
+                peakHeap += memoryPool.getPeakUsage().getUsed();
+            }
+        }
+        currentStage.peakHeap = peakHeap;
+        if (currentStage.allocatedBytes >= 0) {
+            // note that the threads which terminated during the stage are not accounted for
+            com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long allocatedBytes = 0;
+            for (long threadId : sunThreadMXBean.getAllThreadIds()) {
+                long allocated = sunThreadMXBean.getThreadAllocatedBytes(threadId);
+                if (allocated >= 0) {
+                    Long startAllocated = threadAllocatedBytes.get(threadId);
+                    if (startAllocated != null) {
+                        allocated -= startAllocated;
+                    }
+                    allocatedBytes += allocated;
+                }
+            }
+            currentStage.allocatedBytes = allocatedBytes;
+        }
+        threadAllocatedBytes.clear();
+        stages.add(currentStage);
+        currentStage = null;
+    }
+
+    /**
+     * Returns the stages recorded so far.
+     *
+     * @return the stages recorded so far
+     */
+    public synchronized ArrayList<Stage> getStages() {
+        return new ArrayList<Stage>(stages);
+    }
+
+    /**
+     * Clears the stages recorded.
+     */
+    public synchronized void clear() {
+        stages.clear();
+        currentStage = null;
+        threadAllocatedBytes.clear();
+    }
+
+    /**
+     * Returns the total wall time of the recorded stages in nanoseconds.
+     *
+     * @return the total wall time of the recorded stages
+     */
+    public synchronized long getTotalWallTime() {
+        long result = 0;
+        for (Stage stage : stages) {
+            result += stage.getWallTime();
+        }
+        return result;
+    }
+
+    /**
+     * Writes the profile to the given file. The profile is written in the
+     * JSON format if the file name ends with .json, in the CSV format
+     * otherwise.
+     *
+     * @param destinationFile the file where to write the profile
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeProfile(File destinationFile) throws IOException {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(destinationFile));
+        try {
+            if (destinationFile.getName().toLowerCase().endsWith(".json")) {
+                bw.write(toJson());
+            } else {
+                bw.write(toCsv());
+            }
+        } finally {
+            bw.close();
+        }
+    }
+
+    /**
+     * Returns the profile in the JSON format.
+     *
+     * @return the profile in the JSON format
+     */
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{").append(System.getProperty("line.separator"));
+        json.append("  \"totalWallTimeMs\": ").append(getTotalWallTime() / 1000000).append(",").append(System.getProperty("line.separator"));
+        json.append("  \"stages\": [").append(System.getProperty("line.separator"));
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            json.append("    {");
+            json.append("\"name\": \"").append(escapeJson(stage.getName())).append("\", ");
+            json.append("\"wallTimeMs\": ").append(stage.getWallTime() / 1000000).append(", ");
+            json.append("\"cpuTimeMs\": ").append(stage.getCpuTime() < 0 ? -1 : stage.getCpuTime() / 1000000).append(", ");
+            json.append("\"allocatedBytes\": ").append(stage.getAllocatedBytes()).append(", ");
+            json.append("\"peakHeapBytes\": ").append(stage.getPeakHeap()).append(", ");
+            json.append("\"gcCount\": ").append(stage.getGcCount()).append(", ");
+            json.append("\"gcTimeMs\": ").append(stage.getGcTime()).append(", ");
+            json.append("\"nItems\": ").append(stage.getnItems());
+            json.append("}");
+            if (i < stages.size() - 1) {
+                json.append(",");
+            }
+            json.append(System.getProperty("line.separator"));
+        }
+        json.append("  ]").append(System.getProperty("line.separator"));
+        json.append("}").append(System.getProperty("line.separator"));
+        return json.toString();
+    }
+
+    /**
+     * Returns the profile in the CSV format.
+     *
+     * @return the profile in the CSV format
+     */
+    public synchronized String toCsv() {
+        StringBuilder csv = new StringBuilder();
+        csv.append("stage,wall_time_ms,cpu_time_ms,allocated_bytes,peak_heap_bytes,gc_count,gc_time_ms,n_items").append(System.getProperty("line.separator"));
+        for (Stage stage : stages) {
+            csv.append("\"").append(stage.getName().replace("\"", "\"\"")).append("\",");
+            csv.append(stage.getWallTime() / 1000000).append(",");
+            csv.append(stage.getCpuTime() < 0 ? -1 : stage.getCpuTime() / 1000000).append(",");
+            csv.append(stage.getAllocatedBytes()).append(",");
+            csv.append(stage.getPeakHeap()).append(",");
+            csv.append(stage.getGcCount()).append(",");
+            csv.append(stage.getGcTime()).append(",");
+            csv.append(stage.getnItems()).append(System.getProperty("line.separator"));
+        }
+        return csv.toString();
+    }
+
+    /**
+     * Escapes a string for use in JSON.
+     *
+     * @param text the text to escape
+     *
+     * @return the escaped text
+     */
+    private static String escapeJson(String text) {
+        StringBuilder result = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < ' ') {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns the CPU time used by the process in nanoseconds, -1 if not
+     * available.
+     *
+     * @return the CPU time used by the process
+     */
+    private static long getProcessCpuTime() {
+        OperatingSystemMXBean operatingSystemMXBean = ManagementFactory.getOperatingSystemMXBean();
+        if (operatingSystemMXBean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) operatingSystemMXBean).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of garbage collections since the start of the
+     * virtual machine.
+     *
+     * @return the number of garbage collections
+     */
+    private static long getGcCount() {
+        long result = 0;
+        for (GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            long count = garbageCollector.getCollectionCount();
+            if (count > 0) {
+                result += count;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the time spent in garbage collection in milliseconds since the
+     * start of the virtual machine.
+     *
+     * @return the time spent in garbage collection
+     */
+    private static long getGcTime() {
+        long result = 0;
+        for (GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            long time = garbageCollector.getCollectionTime();
+            if (time > 0) {
+                result += time;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The resources used by a processing stage.
+     *
+     * @author Marc Vaudel
+     */
+    public static class Stage {
+
+        /**
+         * The name of the stage.
+         */
+        private String name;
+        /**
+         * The number of items processed, -1 if not relevant.
+         */
+        private long nItems;
+        /**
+         * The wall time in nanoseconds.
+         */
+        private long wallTime;
+        /**
+         * The CPU time of the process in nanoseconds, -1 if not available.
+         */
+        private long cpuTime;
+        /**
+         * The bytes allocated by the threads alive at the end of the stage, -1
+         * if not available.
+         */
+        private long allocatedBytes = 0;
+        /**
+         * The peak heap usage in bytes.
+         */
+        private long peakHeap;
+        /**
+         * The number of garbage collections.
+         */
+        private long gcCount;
+        /**
+         * The time spent in garbage collection in milliseconds.
+         */
+        private long gcTime;
+
+        /**
+         * Constructor.
+         *
+         * @param name the name of the stage
+         * @param nItems the number of items processed, -1 if not relevant
+         */
+        public Stage(String name, long nItems) {
+            this.name = name;
+            this.nItems = nItems;
+        }
+
+        /**
+         * Returns the name of the stage.
+         *
+         * @return the name of the stage
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of items processed, -1 if not relevant.
+         *
+         * @return the number of items processed
+         */
+        public long getnItems() {
+            return nItems;
+        }
+
+        /**
+         * Returns the wall time in nanoseconds.
+         *
+         * @return the wall time
+         */
+        public long getWallTime() {
+            return wallTime;
+        }
+
+        /**
+         * Returns the CPU time of the process in nanoseconds, -1 if not
+         * available.
+         *
+         * @return the CPU time of the process
+         */
+        public long getCpuTime() {
+            return cpuTime;
+        }
+
+        /**
+         * Returns the bytes allocated by the threads alive at the end of the
+         * stage, -1 if not available.
+         *
+         * @return the bytes allocated
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * Returns the peak heap usage in bytes.
+         *
+         * @return the peak heap usage
+         */
+        public long getPeakHeap() {
+            return peakHeap;
+        }
+
+        /**
+         * Returns the number of garbage collections.
+         *
+         * @return the number of garbage collections
+         */
+        public long getGcCount() {
+            return gcCount;
+        }
+
+        /**
+         * Returns the time spent in garbage collection in milliseconds.
+         *
+         * @return the time spent in garbage collection
+         */
+        public long getGcTime() {
+            return gcTime;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.exceptions.ExceptionHandler;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.PeptideShaker;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loader of the spectrum files of a project. The spectrum files are
+ * registered when the project is opened but only loaded in the spectrum
+ * factory when a spectrum is first needed, or in the background when
+ * prefetching is enabled. Every file has its own lock so that loading a file
+ * does not block the requests for the other files.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumFileLoader {
+
+    /**
+     * The instance of the loader.
+     */
+    private static SpectrumFileLoader instance = null;
+    /**
+     * The spectrum factory.
+     */
+    private final SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+    /**
+     * The registered spectrum files indexed by name.
+     */
+    private final HashMap<String, File> spectrumFiles = new HashMap<String, File>();
+    /**
+     * The names of the registered spectrum files in the order of
+     * registration.
+     */
+    private final ArrayList<String> spectrumFileNames = new ArrayList<String>();
+    /**
+     * The thread loading the spectrum files in the background, null if none.
+     */
+    private Thread prefetchThread = null;
+    /**
+     * The locks of the spectrum files indexed by name.
+     */
+    private final HashMap<String, Object> fileLocks = new HashMap<String, Object>();
+    /**
+     * The number of spectrum files being loaded on demand, the prefetching
+     * waits until it is back to zero before loading the next file.
+     */
+    private final AtomicInteger nOnDemand = new AtomicInteger(0);
+    /**
+     * Monitor used to notify the prefetching thread that the on demand
+     * loading is done.
+     */
+    private final Object onDemandMonitor = new Object();
+
+    /**
+     * Constructor.
+     */
+    private SpectrumFileLoader() {
+    }
+
+    /**
+     * Returns the instance of the loader.
+     *
+     * @return the instance of the loader
+     */
+    public static synchronized SpectrumFileLoader getInstance() {
+        if (instance == null) {
+            instance = new SpectrumFileLoader();
+        }
+        return instance;
+    }
+
+    /**
+     * Registers a spectrum file. The file will be loaded when a spectrum is
+     * first needed.
+     *
+     * @param spectrumFile the spectrum file
+     */
+    public synchronized void registerSpectrumFile(File spectrumFile) {
+        String fileName = spectrumFile.getName();
+        if (spectrumFiles.put(fileName, spectrumFile) == null) {
+            spectrumFileNames.add(fileName);
+        }
+    }
+
+    /**
+     * Indicates whether a spectrum file is registered.
+     *
+     * @param spectrumFileName the name of the spectrum file
+     *
+     * @return a boolean indicating whether a spectrum file is registered
+     */
+    public synchronized boolean isRegistered(String spectrumFileName) {
+        return spectrumFiles.containsKey(spectrumFileName);
+    }
+
+    /**
+     * Loads the given spectrum file in the spectrum factory if it is
+     * registered and not loaded yet. Only the file is locked, the prefetching
+     * pauses until the file is loaded.
+     *
+     * @param spectrumFileName the name of the spectrum file
+     * @param waitingHandler a waiting handler displaying progress to the user.
+     * Can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     */
+    public void loadSpectrumFile(String spectrumFileName, WaitingHandler waitingHandler) throws IOException {
+        if (spectrumFactory.fileLoaded(spectrumFileName)) {
+            return;
+        }
+        nOnDemand.incrementAndGet();
+        try {
+            loadFile(spectrumFileName, waitingHandler);
+        } finally {
+            synchronized (onDemandMonitor) {
+                nOnDemand.decrementAndGet();
+                onDemandMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Loads the given spectrum file in the spectrum factory under the lock of
+     * the file if it is registered and not loaded yet.
+     *
+     * @param spectrumFileName the name of the spectrum file
+     * @param waitingHandler a waiting handler displaying progress to the user.
+     * Can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     */
+    private void loadFile(String spectrumFileName, WaitingHandler waitingHandler) throws IOException {
+        File spectrumFile;
+        Object fileLock;
+        synchronized (this) {
+            spectrumFile = spectrumFiles.get(spectrumFileName);
+            if (spectrumFile == null) {
+                return;
+            }
+            fileLock = fileLocks.get(spectrumFileName);
+            if (fileLock == null) {
+                fileLock = new Object();
+                fileLocks.put(spectrumFileName, fileLock);
+            }
+        }
+        synchronized (fileLock) {
+            if (!spectrumFactory.fileLoaded(spectrumFileName)) {
+                SpectrumIndexStore spectrumIndexStore = SpectrumIndexStore.getDefaultStore(PeptideShaker.getUserPreferencesFolder());
+                spectrumIndexStore.restoreIndex(spectrumFile);
+                spectrumFactory.addSpectra(spectrumFile, waitingHandler);
+                spectrumIndexStore.storeIndex(spectrumFile);
+            }
+        }
+    }
+
+    /**
+     * Loads the spectrum file containing the given spectrum if it is not
+     * loaded yet.
+     *
+     * @param spectrumKey the key of the spectrum
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     */
+    public void loadSpectrumFileOfKey(String spectrumKey) throws IOException {
+        loadSpectrumFile(Spectrum.getSpectrumFile(spectrumKey), null);
+    }
+
+    /**
+     * Loads all registered spectrum files which are not loaded yet.
+     *
+     * @param waitingHandler a waiting handler displaying progress to the user.
+     * Can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     */
+    public void loadAllSpectrumFiles(WaitingHandler waitingHandler) throws IOException {
+        for (String spectrumFileName : getSpectrumFileNames()) {
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return;
+            }
+            loadSpectrumFile(spectrumFileName, waitingHandler);
+        }
+    }
+
+    /**
+     * Indicates whether all registered spectrum files are loaded.
+     *
+     * @return a boolean indicating whether all registered spectrum files are
+     * loaded
+     */
+    public boolean allLoaded() {
+        for (String spectrumFileName : getSpectrumFileNames()) {
+            if (!spectrumFactory.fileLoaded(spectrumFileName)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the names of the spectrum files of the project, i.e. the
+     * registered spectrum files, loaded or not, followed by the files loaded
+     * in the spectrum factory without registration.
+     *
+     * @return the names of the spectrum files of the project
+     */
+    public synchronized ArrayList<String> getProjectSpectrumFileNames() {
+        ArrayList<String> result = new ArrayList<String>(spectrumFileNames);
+        for (String spectrumFileName : spectrumFactory.getMgfFileNames()) {
+            if (!spectrumFiles.containsKey(spectrumFileName)) {
+                result.add(spectrumFileName);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a copy of the names of the registered spectrum files.
+     *
+     * @return the names of the registered spectrum files
+     */
+    private synchronized ArrayList<String> getSpectrumFileNames() {
+        return new ArrayList<String>(spectrumFileNames);
+    }
+
+    /**
+     * Starts loading the registered spectrum files in a background thread.
+     * Spectrum files requested in the meantime are loaded by the requesting
+     * thread without waiting for the file being prefetched, and the
+     * prefetching does not start a new file before these requests are
+     * completed.
+     *
+     * @param exceptionHandler the handler of the exceptions
+     */
+    public synchronized void startPrefetch(final ExceptionHandler exceptionHandler) {
+        if (prefetchThread != null && prefetchThread.isAlive()) {
+            return;
+        }
+        prefetchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (String spectrumFileName : getSpectrumFileNames()) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    try {
+                        synchronized (onDemandMonitor) {
+                            while (nOnDemand.get() > 0) {
+                                onDemandMonitor.wait();
+                            }
+                        }
+                        loadFile(spectrumFileName, null);
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (Exception e) {
+                        exceptionHandler.catchException(e);
+                        return;
+                    }
+                }
+            }
+        }, "Spectrum prefetch");
+        prefetchThread.setDaemon(true);
+        prefetchThread.start();
+    }
+
+    /**
+     * Stops the background loading of the spectrum files after the file
+     * being loaded.
+     */
+    public synchronized void stopPrefetch() {
+        if (prefetchThread != null) {
+            prefetchThread.interrupt();
+            prefetchThread = null;
+        }
+    }
+
+    /**
+     * Stops the prefetching and unregisters all spectrum files.
+     */
+    public synchronized void clear() {
+        stopPrefetch();
+        spectrumFiles.clear();
+        spectrumFileNames.clear();
+        fileLocks.clear();
+    }
+}
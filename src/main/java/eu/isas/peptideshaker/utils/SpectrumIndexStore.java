@@ -0,0 +1,345 @@
+package eu.isas.peptideshaker.utils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+/**
+ * Store keeping a copy of the spectrum file indexes outside of the spectrum
+ * folders. The spectrum factory writes its index next to every spectrum file
+ * and rebuilds it by scanning the whole file whenever it is missing, e.g. when
+ * the spectrum folder is cleaned or when the spectra are copied without their
+ * index. The store keeps a copy of these indexes validated against the size,
+ * the last modification date and a checksum of the beginning and the end of
+ * the spectrum file, and puts it back in place before the spectra are loaded.
+ * The least recently used indexes are removed when the store gets bigger than
+ * its maximal size, and the indexes not used for longer than the maximal age
+ * are removed.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumIndexStore {
+
+    /**
+     * The extension of the spectrum index files written by the spectrum
+     * factory.
+     */
+    public static final String INDEX_EXTENSION = ".cui";
+    /**
+     * The extension of the stored indexes.
+     */
+    public static final String STORE_EXTENSION = ".psi";
+    /**
+     * The name of the default store folder in the user preferences folder.
+     */
+    public static final String DEFAULT_FOLDER_NAME = "spectrum_indexes";
+    /**
+     * The magic number written at the beginning of the stored indexes.
+     */
+    private static final int MAGIC = 0x50534931;
+    /**
+     * The version of the stored index format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The number of bytes used for the checksum at the beginning and at the
+     * end of the spectrum file.
+     */
+    private static final int CHECKSUM_LENGTH = 1024 * 1024;
+    /**
+     * The default maximal size of the store in bytes.
+     */
+    public static final long DEFAULT_MAX_SIZE = 1024L * 1024 * 1024;
+    /**
+     * The default maximal time in milliseconds an index is kept without being
+     * used.
+     */
+    public static final long DEFAULT_MAX_AGE = 90L * 24 * 60 * 60 * 1000;
+    /**
+     * The time in milliseconds after which temporary files left by an
+     * interrupted copy are deleted.
+     */
+    private static final long TEMP_FILES_MAX_AGE = 24L * 60 * 60 * 1000;
+    /**
+     * The folder where the indexes are stored.
+     */
+    private final File folder;
+    /**
+     * The maximal size of the store in bytes.
+     */
+    private final long maxSize;
+    /**
+     * The maximal time in milliseconds an index is kept without being used.
+     */
+    private final long maxAge;
+
+    /**
+     * Constructor using the default maximal size and age.
+     *
+     * @param folder the folder where the indexes are stored
+     */
+    public SpectrumIndexStore(File folder) {
+        this(folder, DEFAULT_MAX_SIZE, DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param folder the folder where the indexes are stored
+     * @param maxSize the maximal size of the store in bytes
+     * @param maxAge the maximal time in milliseconds an index is kept without
+     * being used
+     */
+    public SpectrumIndexStore(File folder, long maxSize, long maxAge) {
+        this.folder = folder;
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Returns a store in the default folder, i.e. the spectrum_indexes
+     * folder of the user preferences folder.
+     *
+     * @param userPreferencesFolder the user preferences folder
+     *
+     * @return a store in the default folder
+     */
+    public static SpectrumIndexStore getDefaultStore(String userPreferencesFolder) {
+        return new SpectrumIndexStore(new File(userPreferencesFolder, DEFAULT_FOLDER_NAME));
+    }
+
+    /**
+     * Returns the index file written by the spectrum factory for the given
+     * spectrum file.
+     *
+     * @param spectrumFile the spectrum file
+     *
+     * @return the index file of the spectrum file
+     */
+    public static File getIndexFile(File spectrumFile) {
+        return new File(spectrumFile.getParentFile(), spectrumFile.getName() + INDEX_EXTENSION);
+    }
+
+    /**
+     * Returns the stored copy of the index of the given spectrum file. The
+     * size and last modification date of the spectrum file are part of the
+     * name so that different versions of a file do not overwrite each other.
+     *
+     * @param spectrumFile the spectrum file
+     *
+     * @return the stored copy of the index
+     */
+    private File getStoredFile(File spectrumFile) {
+        return new File(folder, spectrumFile.getName() + "_" + spectrumFile.length() + "_" + spectrumFile.lastModified() + STORE_EXTENSION);
+    }
+
+    /**
+     * Puts the stored index of the given spectrum file next to it if the
+     * index is missing and the stored copy is valid for this file. Errors are
+     * not thrown, the spectrum factory will simply rebuild the index.
+     *
+     * @param spectrumFile the spectrum file
+     *
+     * @return a boolean indicating whether an index was restored
+     */
+    public boolean restoreIndex(File spectrumFile) {
+        File indexFile = getIndexFile(spectrumFile);
+        File storedFile = getStoredFile(spectrumFile);
+        if (indexFile.exists() || !storedFile.exists() || !spectrumFile.getParentFile().canWrite()) {
+            return false;
+        }
+        File tempFile = new File(indexFile.getParentFile(), indexFile.getName() + "_temp");
+        try {
+            FileInputStream fileInputStream = new FileInputStream(storedFile);
+            try {
+                DataInputStream dataInputStream = new DataInputStream(fileInputStream);
+                if (dataInputStream.readInt() != MAGIC
+                        || dataInputStream.readInt() != VERSION
+                        || dataInputStream.readLong() != spectrumFile.length()
+                        || dataInputStream.readLong() != spectrumFile.lastModified()
+                        || dataInputStream.readLong() != getChecksum(spectrumFile)) {
+                    storedFile.delete();
+                    return false;
+                }
+                FileChannel input = fileInputStream.getChannel();
+                FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+                try {
+                    FileChannel output = fileOutputStream.getChannel();
+                    long position = input.position(), size = input.size();
+                    while (position < size) {
+                        position += input.transferTo(position, size - position, output);
+                    }
+                } finally {
+                    fileOutputStream.close();
+                }
+            } finally {
+                fileInputStream.close();
+            }
+            if (!tempFile.renameTo(indexFile)) {
+                return false;
+            }
+            // the modification date of the stored copy marks its last use
+            storedFile.setLastModified(System.currentTimeMillis());
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Stores a copy of the index of the given spectrum file if it is not
+     * stored already. Errors are not thrown, the index will only not be
+     * available for restoring.
+     *
+     * @param spectrumFile the spectrum file
+     *
+     * @return a boolean indicating whether the index was stored
+     */
+    public boolean storeIndex(File spectrumFile) {
+        File indexFile = getIndexFile(spectrumFile);
+        File storedFile = getStoredFile(spectrumFile);
+        if (!indexFile.exists() || indexFile.lastModified() < spectrumFile.lastModified() || storedFile.exists()) {
+            return false;
+        }
+        try {
+            if (!folder.exists() && !folder.mkdirs()) {
+                return false;
+            }
+            File tempFile = new File(folder, storedFile.getName() + "_temp");
+            FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+            try {
+                DataOutputStream dataOutputStream = new DataOutputStream(fileOutputStream);
+                dataOutputStream.writeInt(MAGIC);
+                dataOutputStream.writeInt(VERSION);
+                dataOutputStream.writeLong(spectrumFile.length());
+                dataOutputStream.writeLong(spectrumFile.lastModified());
+                dataOutputStream.writeLong(getChecksum(spectrumFile));
+                dataOutputStream.flush();
+                FileInputStream fileInputStream = new FileInputStream(indexFile);
+                try {
+                    FileChannel input = fileInputStream.getChannel();
+                    FileChannel output = fileOutputStream.getChannel();
+                    long position = 0, size = input.size();
+                    while (position < size) {
+                        position += input.transferTo(position, size - position, output);
+                    }
+                } finally {
+                    fileInputStream.close();
+                }
+            } finally {
+                fileOutputStream.close();
+            }
+            if (!tempFile.renameTo(storedFile)) {
+                return false;
+            }
+            cleanUp();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Removes the indexes not used for longer than the maximal age, and then
+     * the least recently used indexes until the store is not bigger than its
+     * maximal size. Temporary files left by interrupted copies are removed as
+     * well.
+     */
+    public synchronized void cleanUp() {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        ArrayList<File> storedFiles = new ArrayList<File>(files.length);
+        long totalSize = 0;
+        for (File file : files) {
+            long age = now - file.lastModified();
+            if (file.getName().endsWith(STORE_EXTENSION)) {
+                if (age > maxAge) {
+                    file.delete();
+                } else {
+                    storedFiles.add(file);
+                    totalSize += file.length();
+                }
+            } else if (file.getName().endsWith("_temp") && age > TEMP_FILES_MAX_AGE) {
+                file.delete();
+            }
+        }
+        if (totalSize > maxSize) {
+            Collections.sort(storedFiles, new Comparator<File>() {
+                @Override
+                public int compare(File o1, File o2) {
+                    long date1 = o1.lastModified(), date2 = o2.lastModified();
+                    return date1 < date2 ? -1 : date1 == date2 ? 0 : 1;
+                }
+            });
+            for (File file : storedFiles) {
+                if (totalSize <= maxSize) {
+                    break;
+                }
+                long length = file.length();
+                if (file.delete()) {
+                    totalSize -= length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a checksum of the beginning and of the end of the given file.
+     * The two regions are memory mapped so that the checksum is obtained
+     * without scanning the file.
+     *
+     * @param file the file
+     *
+     * @return the checksum
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public static long getChecksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            long headLength = Math.min(size, CHECKSUM_LENGTH);
+            updateChecksum(crc, channel.map(FileChannel.MapMode.READ_ONLY, 0, headLength));
+            long tailStart = Math.max(headLength, size - CHECKSUM_LENGTH);
+            if (tailStart < size) {
+                updateChecksum(crc, channel.map(FileChannel.MapMode.READ_ONLY, tailStart, size - tailStart));
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Adds the content of the given buffer to the checksum.
+     *
+     * @param crc the checksum
+     * @param buffer the buffer
+     */
+    private static void updateChecksum(CRC32 crc, MappedByteBuffer buffer) {
+        byte[] bytes = new byte[8192];
+        while (buffer.hasRemaining()) {
+            int length = Math.min(bytes.length, buffer.remaining());
+            buffer.get(bytes, 0, length);
+            crc.update(bytes, 0, length);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package eu.isas.peptideshaker.validation;
 
+import com.compomics.util.db.ObjectsCache;
 import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.ShotgunProtocol;
 import com.compomics.util.experiment.biology.Peptide;
@@ -26,6 +27,7 @@ import com.compomics.util.math.statistics.distributions.NonSymmetricalNormalDist
 import com.compomics.util.preferences.IdMatchValidationPreferences;
 import com.compomics.util.preferences.IdentificationParameters;
 import com.compomics.util.preferences.ProcessingPreferences;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.preferences.ValidationQCPreferences;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.filtering.AssumptionFilter;
@@ -43,11 +45,14 @@ import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyResults;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
 import eu.isas.peptideshaker.utils.Metrics;
+import eu.isas.peptideshaker.utils.ParameterWriteBuffer;
+import eu.isas.peptideshaker.utils.SpectrumFileLoader;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -81,6 +86,20 @@ public class MatchesValidator {
      * The protein sequence factory.
      */
     private SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+    /**
+     * The maximal share of hits between the previous and the current
+     * thresholds for which the matches are validated incrementally.
+     */
+    public static final double MAX_INCREMENTAL_SHARE = 0.5;
+    /**
+     * The objects cache of the identification where the parameters of the
+     * matches are updated before being saved in batches, null if not set.
+     */
+    private ObjectsCache objectsCache = null;
+    /**
+     * The number of parameter updates between two saves of the objects cache.
+     */
+    private int batchSize = ParameterWriteBuffer.DEFAULT_BATCH_SIZE;
 
     /**
      * Constructor.
@@ -242,6 +261,10 @@ public class MatchesValidator {
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
         parameters.add(psParameter);
         ValidationQCPreferences validationQCPreferences = identificationParameters.getIdValidationPreferences().getValidationQCPreferences();
+        ParameterWriteBuffer writeBuffer = new ParameterWriteBuffer(identification, objectsCache, batchSize);
+
+        // the precursors are needed by the quality control, the spectrum files of opened projects are loaded on demand
+        SpectrumFileLoader.getInstance().loadAllSpectrumFiles(waitingHandler);
 
         if (waitingHandler != null) {
             waitingHandler.setWaitingText("Match Validation and Quality Control. Please Wait...");
@@ -269,7 +292,7 @@ public class MatchesValidator {
 
             ArrayList<PsmValidatorRunnable> psmRunnables = new ArrayList<PsmValidatorRunnable>(processingPreferences.getnThreads());
             for (int i = 1; i <= processingPreferences.getnThreads() && waitingHandler != null && !waitingHandler.isRunCanceled(); i++) {
-                PsmValidatorRunnable runnable = new PsmValidatorRunnable(psmIterator, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler, null, inputMap, false);
+                PsmValidatorRunnable runnable = new PsmValidatorRunnable(psmIterator, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler, null, inputMap, false, false, writeBuffer);
                 pool.submit(runnable);
                 psmRunnables.add(runnable);
             }
@@ -320,7 +343,7 @@ public class MatchesValidator {
             psmIterator = identification.getPsmIterator(spectrumFileName, spectrumKeys, parameters, false, waitingHandler);
 
             for (int i = 1; i <= processingPreferences.getnThreads() && waitingHandler != null && !waitingHandler.isRunCanceled(); i++) {
-                PsmValidatorRunnable runnable = new PsmValidatorRunnable(psmIterator, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler, precursorMzDeviations, inputMap, true);
+                PsmValidatorRunnable runnable = new PsmValidatorRunnable(psmIterator, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler, precursorMzDeviations, inputMap, true, false, writeBuffer);
                 pool.submit(runnable);
             }
             if (waitingHandler != null && waitingHandler.isRunCanceled()) {
@@ -332,6 +355,7 @@ public class MatchesValidator {
                 throw new InterruptedException("PSM validation timed out. Please contact the developers.");
             }
         }
+        writeBuffer.flush(null);
 
         // validate the peptides
         pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
@@ -340,7 +364,7 @@ public class MatchesValidator {
         PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(parameters, false, parameters, waitingHandler);
 
         for (int i = 1; i <= processingPreferences.getnThreads() && waitingHandler != null && !waitingHandler.isRunCanceled(); i++) {
-            PeptideValidatorRunnable runnable = new PeptideValidatorRunnable(peptideMatchesIterator, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler, metrics);
+            PeptideValidatorRunnable runnable = new PeptideValidatorRunnable(peptideMatchesIterator, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler, metrics, writeBuffer);
             pool.submit(runnable);
             peptideRunnables.add(runnable);
         }
@@ -352,6 +376,7 @@ public class MatchesValidator {
         if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
             throw new InterruptedException("PSM validation timed out. Please contact the developers.");
         }
+        writeBuffer.flush(null);
 
         HashMap<String, Integer> validatedTotalPeptidesPerFraction = new HashMap<String, Integer>();
         ArrayList<Double> validatedPeptideLengths = new ArrayList<Double>();
@@ -379,7 +404,7 @@ public class MatchesValidator {
         ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(parameters, true, parameters, false, parameters, waitingHandler);
         ArrayList<ProteinValidatorRunnable> proteinRunnables = new ArrayList<ProteinValidatorRunnable>(processingPreferences.getnThreads());
         for (int i = 1; i <= processingPreferences.getnThreads() && waitingHandler != null && !waitingHandler.isRunCanceled(); i++) {
-            ProteinValidatorRunnable runnable = new ProteinValidatorRunnable(proteinMatchesIterator, identification, identificationFeaturesGenerator, metrics, shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler, validationQCPreferences);
+            ProteinValidatorRunnable runnable = new ProteinValidatorRunnable(proteinMatchesIterator, identification, identificationFeaturesGenerator, metrics, shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler, validationQCPreferences, writeBuffer);
             pool.submit(runnable);
             proteinRunnables.add(runnable);
         }
@@ -391,6 +416,7 @@ public class MatchesValidator {
         if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
             throw new InterruptedException("PSM validation timed out. Please contact the developers.");
         }
+        writeBuffer.flush(null);
 
         double totalSpectrumCountingMass = 0;
         for (ProteinValidatorRunnable runnable : proteinRunnables) {
@@ -399,6 +425,404 @@ public class MatchesValidator {
         metrics.setTotalSpectrumCountingMass(totalSpectrumCountingMass);
     }
 
+    /**
+     * Validates incrementally the identification matches of an identification
+     * object after a change of the thresholds. Only the matches whose score
+     * or confidence lies between the thresholds used at the last validation
+     * and the current thresholds are validated again, together with the
+     * peptides and proteins depending on them, and the metrics are updated
+     * accordingly. The size of the score intervals is estimated on the sorted
+     * scores of the target/decoy maps and, if the share of hits to validate
+     * again is too large or if the change of threshold can affect other
+     * matches, nothing is done and false is returned so that the whole
+     * identification can be validated instead. The length distribution of the
+     * validated peptides is not updated.
+     *
+     * @param identification the identification class containing the matches to
+     * validate
+     * @param metrics the metrics of the project
+     * @param inputMap the target decoy map of all search engine scores
+     * @param waitingHandler a waiting handler displaying progress to the user
+     * and allowing cancelling the process
+     * @param exceptionHandler a handler for exceptions
+     * @param identificationFeaturesGenerator an identification features
+     * generator computing information about the identification matches
+     * @param shotgunProtocol information about the protocol
+     * @param identificationParameters the identification parameters
+     * @param processingPreferences the processing preferences
+     * @param validatedResults the target/decoy results used at the last
+     * validation indexed by target/decoy map
+     *
+     * @return a boolean indicating whether the matches could be validated
+     * incrementally
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping the peptides to the proteins.
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database.
+     * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
+     * whenever an error occurred while reading an mzML file.
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database.
+     */
+    public boolean validateIdentificationsIncrementally(Identification identification, Metrics metrics, InputMap inputMap,
+            WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ProcessingPreferences processingPreferences,
+            HashMap<TargetDecoyMap, TargetDecoyResults> validatedResults)
+            throws SQLException, IOException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
+
+        ValidationQCPreferences validationQCPreferences = identificationParameters.getIdValidationPreferences().getValidationQCPreferences();
+
+        // the precursors are needed by the quality control, the spectrum files of opened projects are loaded on demand
+        SpectrumFileLoader.getInstance().loadAllSpectrumFiles(waitingHandler);
+
+        // find the score intervals between the previous and the current thresholds
+        ArrayList<TargetDecoyMap> psmMaps = psmMap.getTargetDecoyMaps();
+        ArrayList<TargetDecoyMap> targetDecoyMaps = new ArrayList<TargetDecoyMap>(psmMaps);
+        for (String mapKey : peptideMap.getKeys()) {
+            targetDecoyMaps.add(peptideMap.getTargetDecoyMap(mapKey));
+        }
+        targetDecoyMaps.add(proteinMap.getTargetDecoyMap());
+
+        HashMap<TargetDecoyMap, ThresholdWindow> windows = new HashMap<TargetDecoyMap, ThresholdWindow>();
+        int nHits = 0, nHitsInWindows = 0;
+        for (TargetDecoyMap targetDecoyMap : targetDecoyMaps) {
+            TargetDecoyResults previousResults = validatedResults.get(targetDecoyMap);
+            if (previousResults == null) {
+                return false;
+            }
+            TargetDecoyResults currentResults = targetDecoyMap.getTargetDecoyResults();
+            nHits += targetDecoyMap.getnHits(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            if (previousResults.noValidated() != currentResults.noValidated()) {
+                return false;
+            }
+            if (!currentResults.noValidated()) {
+                double resolution = targetDecoyMap.getResolution();
+                if (validationQCPreferences.isFirstDecoy()) {
+                    boolean previousEnoughHits = targetDecoyMap.getnTargetOnly() > 100.0 / previousResults.getFdrLimit();
+                    boolean currentEnoughHits = targetDecoyMap.getnTargetOnly() > 100.0 / currentResults.getFdrLimit();
+                    if (previousEnoughHits != currentEnoughHits) {
+                        return false;
+                    }
+                }
+                double margin = validationQCPreferences.getConfidenceMargin() * resolution;
+                ThresholdWindow window = new ThresholdWindow(previousResults, currentResults, margin);
+                if (!window.isEmpty()) {
+                    windows.put(targetDecoyMap, window);
+                    nHitsInWindows += targetDecoyMap.getnHits(window.getMinScore(), window.getMaxScore());
+                }
+            }
+        }
+        if (windows.isEmpty()) {
+            return true;
+        }
+        if (nHitsInWindows > MAX_INCREMENTAL_SHARE * nHits) {
+            return false;
+        }
+
+        boolean psmMapsChanged = false;
+        for (TargetDecoyMap targetDecoyMap : psmMaps) {
+            if (windows.containsKey(targetDecoyMap)) {
+                psmMapsChanged = true;
+                break;
+            }
+        }
+        if (psmMapsChanged) {
+            // the distribution of the precursor m/z deviations cannot be updated incrementally
+            for (Filter filter : validationQCPreferences.getPsmFilters()) {
+                PsmFilter psmFilter = (PsmFilter) filter;
+                if (psmFilter.getAssumptionFilter().getPrecursorMzErrorType() == IonMatch.MzErrorType.Statistical) {
+                    return false;
+                }
+            }
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setWaitingText("Match Validation and Quality Control. Please Wait...");
+        }
+
+        PSParameter psParameter = new PSParameter();
+        ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+        parameters.add(psParameter);
+        ExecutorService pool;
+        ParameterWriteBuffer writeBuffer = new ParameterWriteBuffer(identification, objectsCache, batchSize);
+        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+        HashMap<String, ArrayList<String>> proteinKeysMap = identification.getProteinMap();
+
+        // find the spectrum matches in the score intervals and the peptides which can be affected
+        HashMap<String, ArrayList<String>> spectrumCandidates = new HashMap<String, ArrayList<String>>();
+        HashSet<String> affectedPeptides = new HashSet<String>();
+        if (psmMapsChanged) {
+            for (String spectrumFileName : identification.getSpectrumFiles()) {
+                identification.loadSpectrumMatchParameters(spectrumFileName, psParameter, null);
+                ArrayList<String> spectrumKeys = new ArrayList<String>();
+                for (String spectrumKey : identification.getSpectrumIdentification(spectrumFileName)) {
+                    PSParameter spectrumParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+                    ThresholdWindow window = windows.get(psmMap.getTargetDecoyMap(new Integer(spectrumParameter.getSpecificMapKey()), spectrumFileName));
+                    if (window != null && window.contains(spectrumParameter.getPsmProbabilityScore(), spectrumParameter.getPsmConfidence())) {
+                        spectrumKeys.add(spectrumKey);
+                    }
+                }
+                if (!spectrumKeys.isEmpty()) {
+                    spectrumCandidates.put(spectrumFileName, spectrumKeys);
+                    identification.loadSpectrumMatches(spectrumKeys, null);
+                    for (String spectrumKey : spectrumKeys) {
+                        PeptideAssumption peptideAssumption = identification.getSpectrumMatch(spectrumKey).getBestPeptideAssumption();
+                        if (peptideAssumption != null) {
+                            affectedPeptides.add(peptideAssumption.getPeptide().getMatchingKey(sequenceMatchingPreferences));
+                        }
+                    }
+                }
+            }
+        }
+
+        // find the peptides in the score intervals
+        HashSet<String> peptideCandidates = new HashSet<String>();
+        boolean peptideMapsChanged = false;
+        for (String mapKey : peptideMap.getKeys()) {
+            if (windows.containsKey(peptideMap.getTargetDecoyMap(mapKey))) {
+                peptideMapsChanged = true;
+                break;
+            }
+        }
+        if (peptideMapsChanged) {
+            identification.loadPeptideMatchParameters(psParameter, null);
+            for (String peptideKey : identification.getPeptideIdentification()) {
+                PSParameter peptideParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+                ThresholdWindow window = windows.get(peptideMap.getTargetDecoyMap(peptideMap.getCorrectedKey(peptideParameter.getSpecificMapKey())));
+                if (window != null && window.contains(peptideParameter.getPeptideProbabilityScore(), peptideParameter.getPeptideConfidence())) {
+                    peptideCandidates.add(peptideKey);
+                }
+            }
+        }
+        affectedPeptides.addAll(peptideCandidates);
+
+        // find the proteins in the score interval
+        HashSet<String> proteinCandidates = new HashSet<String>();
+        TargetDecoyMap proteinTargetDecoyMap = proteinMap.getTargetDecoyMap();
+        ThresholdWindow proteinWindow = windows.get(proteinTargetDecoyMap);
+        if (proteinWindow != null) {
+            identification.loadProteinMatchParameters(psParameter, null);
+            for (String proteinKey : identification.getProteinIdentification()) {
+                PSParameter proteinParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+                if (proteinWindow.contains(proteinParameter.getProteinProbabilityScore(), proteinParameter.getProteinConfidence())) {
+                    proteinCandidates.add(proteinKey);
+                }
+            }
+        }
+
+        // store the spectrum counting contribution of the proteins which can be affected before their peptides and spectra are validated again
+        HashSet<String> affectedProteins = new HashSet<String>(proteinCandidates);
+        for (String peptideKey : affectedPeptides) {
+            addProteinKeys(identification, proteinKeysMap, sequenceMatchingPreferences, peptideKey, affectedProteins);
+        }
+        HashMap<String, Double> previousContributions = new HashMap<String, Double>(affectedProteins.size());
+        if (!affectedProteins.isEmpty()) {
+            ArrayList<String> affectedProteinKeys = new ArrayList<String>(affectedProteins);
+            identification.loadProteinMatchParameters(affectedProteinKeys, psParameter, null);
+            for (String proteinKey : affectedProteinKeys) {
+                PSParameter proteinParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+                if (!ProteinMatch.isDecoy(proteinKey) && proteinParameter.getMatchValidationLevel().isValidated()) {
+                    double spectrumCounting = identificationFeaturesGenerator.getSpectrumCounting(proteinKey);
+                    double molecularWeight = sequenceFactory.computeMolecularWeight(identification.getProteinMatch(proteinKey).getMainMatch());
+                    previousContributions.put(proteinKey, molecularWeight * spectrumCounting);
+                }
+            }
+        }
+
+        // validate the spectrum matches in the score intervals
+        for (String spectrumFileName : identification.getSpectrumFiles()) {
+
+            ArrayList<String> spectrumKeys = spectrumCandidates.get(spectrumFileName);
+            if (spectrumKeys == null) {
+                continue;
+            }
+            if (waitingHandler != null) {
+                waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+                waitingHandler.resetSecondaryProgressCounter();
+                waitingHandler.setMaxSecondaryProgressCounter(spectrumKeys.size());
+            }
+
+            pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+            PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, spectrumKeys, parameters, false, waitingHandler);
+            ArrayList<PsmValidatorRunnable> psmRunnables = new ArrayList<PsmValidatorRunnable>(processingPreferences.getnThreads());
+            for (int i = 1; i <= processingPreferences.getnThreads() && waitingHandler != null && !waitingHandler.isRunCanceled(); i++) {
+                PsmValidatorRunnable runnable = new PsmValidatorRunnable(psmIterator, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler, null, inputMap, true, true, writeBuffer);
+                pool.submit(runnable);
+                psmRunnables.add(runnable);
+            }
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                pool.shutdownNow();
+                return true;
+            }
+            pool.shutdown();
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("PSM validation timed out. Please contact the developers.");
+            }
+
+            for (PsmValidatorRunnable runnable : psmRunnables) {
+                peptideCandidates.addAll(runnable.getChangedPeptideKeys());
+            }
+        }
+        writeBuffer.flush(null);
+
+        // validate the peptides in the score intervals and the peptides of the spectrum matches which changed
+        if (!peptideCandidates.isEmpty()) {
+
+            ArrayList<String> peptideKeys = new ArrayList<String>(peptideCandidates);
+            identification.loadPeptideMatchParameters(peptideKeys, psParameter, null);
+
+            // remove the contribution of the previously validated peptides
+            HashMap<String, Integer> totalPeptidesPerFraction = metrics.getTotalPeptidesPerFraction();
+            if (totalPeptidesPerFraction == null) {
+                totalPeptidesPerFraction = new HashMap<String, Integer>();
+            } else {
+                totalPeptidesPerFraction = new HashMap<String, Integer>(totalPeptidesPerFraction);
+            }
+            for (String peptideKey : peptideKeys) {
+                PSParameter peptideParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+                if (peptideParameter.getMatchValidationLevel().isValidated()) {
+                    for (String fraction : peptideParameter.getFractions()) {
+                        Integer nValidated = totalPeptidesPerFraction.get(fraction);
+                        if (nValidated != null && nValidated > 0) {
+                            totalPeptidesPerFraction.put(fraction, nValidated - 1);
+                        }
+                    }
+                }
+                identificationFeaturesGenerator.clearValidationFeatures(peptideKey);
+            }
+
+            if (waitingHandler != null) {
+                waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+                waitingHandler.resetSecondaryProgressCounter();
+                waitingHandler.setMaxSecondaryProgressCounter(peptideKeys.size());
+            }
+
+            pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+            PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(peptideKeys, parameters, false, parameters, waitingHandler);
+            ArrayList<PeptideValidatorRunnable> peptideRunnables = new ArrayList<PeptideValidatorRunnable>(processingPreferences.getnThreads());
+            for (int i = 1; i <= processingPreferences.getnThreads() && waitingHandler != null && !waitingHandler.isRunCanceled(); i++) {
+                PeptideValidatorRunnable runnable = new PeptideValidatorRunnable(peptideMatchesIterator, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler, metrics, writeBuffer);
+                pool.submit(runnable);
+                peptideRunnables.add(runnable);
+            }
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                pool.shutdownNow();
+                return true;
+            }
+            pool.shutdown();
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("Peptide validation timed out. Please contact the developers.");
+            }
+            writeBuffer.flush(null);
+
+            // add the contribution of the validated peptides
+            for (PeptideValidatorRunnable runnable : peptideRunnables) {
+                HashMap<String, Integer> threadValidatedTotalPeptidesPerFraction = runnable.getValidatedTotalPeptidesPerFraction();
+                for (String fraction : threadValidatedTotalPeptidesPerFraction.keySet()) {
+                    Integer nValidated = totalPeptidesPerFraction.get(fraction);
+                    if (nValidated == null) {
+                        nValidated = 0;
+                    }
+                    nValidated += threadValidatedTotalPeptidesPerFraction.get(fraction);
+                    totalPeptidesPerFraction.put(fraction, nValidated);
+                }
+            }
+            metrics.setTotalPeptidesPerFraction(totalPeptidesPerFraction);
+
+            // get the proteins of the peptides validated again
+            for (String peptideKey : peptideKeys) {
+                addProteinKeys(identification, proteinKeysMap, sequenceMatchingPreferences, peptideKey, proteinCandidates);
+            }
+        }
+
+        // validate the proteins in the score interval and the proteins of the peptides validated again
+        if (!proteinCandidates.isEmpty()) {
+
+            ArrayList<String> proteinKeys = new ArrayList<String>(proteinCandidates);
+
+            // remove the contribution of the previously validated proteins, as stored before the validation of their peptides and spectra
+            Double totalSpectrumCountingMass = metrics.getTotalSpectrumCountingMass();
+            if (totalSpectrumCountingMass == null) {
+                totalSpectrumCountingMass = 0.0;
+            }
+            for (String proteinKey : proteinKeys) {
+                Double previousContribution = previousContributions.get(proteinKey);
+                if (previousContribution != null) {
+                    totalSpectrumCountingMass -= previousContribution;
+                }
+                identificationFeaturesGenerator.clearValidationFeatures(proteinKey);
+            }
+
+            if (waitingHandler != null) {
+                waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+                waitingHandler.resetSecondaryProgressCounter();
+                waitingHandler.setMaxSecondaryProgressCounter(proteinKeys.size());
+            }
+
+            pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+            ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(proteinKeys, parameters, true, parameters, false, parameters, waitingHandler);
+            ArrayList<ProteinValidatorRunnable> proteinRunnables = new ArrayList<ProteinValidatorRunnable>(processingPreferences.getnThreads());
+            for (int i = 1; i <= processingPreferences.getnThreads() && waitingHandler != null && !waitingHandler.isRunCanceled(); i++) {
+                ProteinValidatorRunnable runnable = new ProteinValidatorRunnable(proteinMatchesIterator, identification, identificationFeaturesGenerator, metrics, shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler, validationQCPreferences, writeBuffer);
+                pool.submit(runnable);
+                proteinRunnables.add(runnable);
+            }
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                pool.shutdownNow();
+                return true;
+            }
+            pool.shutdown();
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("Protein validation timed out. Please contact the developers.");
+            }
+            writeBuffer.flush(null);
+
+            // add the contribution of the validated proteins
+            for (ProteinValidatorRunnable runnable : proteinRunnables) {
+                totalSpectrumCountingMass += runnable.getTotalSpectrumCountingMass();
+            }
+            metrics.setTotalSpectrumCountingMass(totalSpectrumCountingMass);
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds the keys of the protein matches of the given peptide to the given
+     * set.
+     *
+     * @param identification the identification object
+     * @param proteinKeysMap the keys of the protein matches indexed by
+     * accession
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param peptideKey the key of the peptide match
+     * @param proteinKeys the set where to add the keys of the protein matches
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the database.
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database.
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database.
+     */
+    private static void addProteinKeys(Identification identification, HashMap<String, ArrayList<String>> proteinKeysMap, SequenceMatchingPreferences sequenceMatchingPreferences,
+            String peptideKey, HashSet<String> proteinKeys) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
+        if (peptideMatch != null) {
+            for (String accession : peptideMatch.getTheoreticPeptide().getParentProteins(sequenceMatchingPreferences)) {
+                ArrayList<String> accessionProteinKeys = proteinKeysMap.get(accession);
+                if (accessionProteinKeys != null) {
+                    proteinKeys.addAll(accessionProteinKeys);
+                }
+            }
+        }
+    }
+
     /**
      * Updates the validation status of a protein match. If the match was
      * manually validated nothing will be changed.
@@ -463,6 +887,8 @@ public class MatchesValidator {
      * @param shotgunProtocol information about the protocol
      * @param identificationParameters the identification parameters
      *
+     * @return the parameter of the protein match
+     *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file.
      * @throws InterruptedException exception thrown whenever a threading issue
@@ -474,10 +900,55 @@ public class MatchesValidator {
      * @throws ClassNotFoundException exception thrown whenever an error
      * occurred while deserializing an object from the database.
      */
-    public static void updateProteinMatchValidationLevel(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+    public static PSParameter updateProteinMatchValidationLevel(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, TargetDecoyMap targetDecoyMap, double scoreThreshold, double nTargetLimit,
+            double confidenceThreshold, boolean noValidated, String proteinKey)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+        PSParameter psParameter = validateProteinMatch(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters,
+                targetDecoyMap, scoreThreshold, nTargetLimit, confidenceThreshold, noValidated, proteinKey);
+        if (!psParameter.isManualValidation()) {
+            identification.updateProteinMatchParameter(proteinKey, psParameter);
+        }
+        return psParameter;
+    }
+
+    /**
+     * Sets the validation status of a protein match in its parameter without
+     * saving the parameter in the identification. If the match was manually
+     * validated nothing will be changed.
+     *
+     * @param identification the identification object
+     * @param targetDecoyMap the protein level target/decoy map
+     * @param scoreThreshold the validation score doubtfulThreshold
+     * @param confidenceThreshold the confidence doubtfulThreshold after which a
+     * match should be considered as confident
+     * @param noValidated boolean indicating whether no validation was actually
+     * conducted
+     * @param nTargetLimit the limit in number of target hits before the first
+     * decoy hit
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param proteinKey the key of the protein match of interest
+     * @param shotgunProtocol information about the protocol
+     * @param identificationParameters the identification parameters
+     *
+     * @return the parameter of the protein match
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping the peptides to the proteins.
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database.
+     * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
+     * whenever an error occurred while reading an mzML file.
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database.
+     */
+    private static PSParameter validateProteinMatch(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, TargetDecoyMap targetDecoyMap, double scoreThreshold, double nTargetLimit,
-            double confidenceThreshold, boolean noValidated,
-            String proteinKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+            double confidenceThreshold, boolean noValidated, String proteinKey)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
         SequenceFactory sequenceFactory = SequenceFactory.getInstance();
         PSParameter psParameter = new PSParameter();
@@ -547,9 +1018,9 @@ public class MatchesValidator {
             } else {
                 psParameter.setMatchValidationLevel(MatchValidationLevel.none);
             }
-
-            identification.updateProteinMatchParameter(proteinKey, psParameter);
         }
+
+        return psParameter;
     }
 
     /**
@@ -564,6 +1035,42 @@ public class MatchesValidator {
      * @param identificationParameters the identification parameters
      * @param peptideKey the key of the peptide match of interest
      *
+     * @return the parameter of the peptide match
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping the peptides to the proteins.
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database.
+     * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
+     * whenever an error occurred while reading an mzML file.
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database.
+     */
+    public static PSParameter updatePeptideMatchValidationLevel(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpecificMap peptideMap, String peptideKey)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+        PSParameter psParameter = validatePeptideMatch(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideMap, peptideKey);
+        identification.updatePeptideMatchParameter(peptideKey, psParameter);
+        return psParameter;
+    }
+
+    /**
+     * Sets the validation status of a peptide match in its parameter without
+     * saving the parameter in the identification. If the match was manually
+     * validated nothing will be changed.
+     *
+     * @param identification the identification object
+     * @param peptideMap the peptide level target/decoy scoring map
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param shotgunProtocol information about the protocol
+     * @param identificationParameters the identification parameters
+     * @param peptideKey the key of the peptide match of interest
+     *
+     * @return the parameter of the peptide match
+     *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file.
      * @throws InterruptedException exception thrown whenever a threading issue
@@ -575,7 +1082,7 @@ public class MatchesValidator {
      * @throws ClassNotFoundException exception thrown whenever an error
      * occurred while deserializing an object from the database.
      */
-    public static void updatePeptideMatchValidationLevel(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+    private static PSParameter validatePeptideMatch(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpecificMap peptideMap, String peptideKey)
             throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
@@ -656,7 +1163,7 @@ public class MatchesValidator {
             psParameter.setMatchValidationLevel(MatchValidationLevel.none);
         }
 
-        identification.updatePeptideMatchParameter(peptideKey, psParameter);
+        return psParameter;
     }
 
     /**
@@ -675,6 +1182,8 @@ public class MatchesValidator {
      * compare this psm to
      * @param applyQCFilters if true quality control filters will be used
      *
+     * @return the parameter of the spectrum match
+     *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file.
      * @throws InterruptedException exception thrown whenever a threading issue
@@ -686,12 +1195,54 @@ public class MatchesValidator {
      * @throws ClassNotFoundException exception thrown whenever an error
      * occurred while deserializing an object from the database.
      */
-    public static void updateSpectrumMatchValidationLevel(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+    public static PSParameter updateSpectrumMatchValidationLevel(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator,
-            PsmSpecificMap psmMap, String spectrumKey, ArrayList<Double> precursorMzDeviations, boolean applyQCFilters) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+            PsmSpecificMap psmMap, String spectrumKey, ArrayList<Double> precursorMzDeviations, boolean applyQCFilters)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
-        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
-        PSParameter psParameter = new PSParameter();
+        PSParameter psParameter = validateSpectrumMatch(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters,
+                peptideSpectrumAnnotator, psmMap, spectrumKey, precursorMzDeviations, applyQCFilters);
+        identification.updateSpectrumMatchParameter(spectrumKey, psParameter);
+
+        return psParameter;
+    }
+
+    /**
+     * Estimates the validation status of a spectrum match without saving it.
+     * If the match was manually validated nothing will be changed.
+     *
+     * @param identification the identification object
+     * @param psmMap the PSM level target/decoy scoring map
+     * @param shotgunProtocol information about the protocol
+     * @param identificationParameters the identification parameters
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param spectrumKey the key of the spectrum match of interest
+     * @param peptideSpectrumAnnotator a spectrum annotator, can be null
+     * @param precursorMzDeviations list of the precursor m/z deviations to
+     * compare this psm to
+     * @param applyQCFilters if true quality control filters will be used
+     *
+     * @return the parameter of the spectrum match
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading a file.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping the peptides to the proteins.
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database.
+     * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
+     * whenever an error occurred while reading an mzML file.
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database.
+     */
+    private static PSParameter validateSpectrumMatch(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator,
+            PsmSpecificMap psmMap, String spectrumKey, ArrayList<Double> precursorMzDeviations, boolean applyQCFilters)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        PSParameter psParameter = new PSParameter();
         psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
         psParameter.resetQcResults();
         ValidationQCPreferences validationQCPreferences = identificationParameters.getIdValidationPreferences().getValidationQCPreferences();
@@ -791,7 +1342,7 @@ public class MatchesValidator {
             psParameter.setMatchValidationLevel(MatchValidationLevel.none);
         }
 
-        identification.updateSpectrumMatchParameter(spectrumKey, psParameter);
+        return psParameter;
     }
 
     /**
@@ -1036,8 +1587,10 @@ public class MatchesValidator {
      * validate
      * @param metrics if provided fraction information and found modifications
      * will be saved while iterating the matches
-     * @param identificationParameters the identification parameters
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler a handler for exceptions
+     * @param identificationParameters the identification parameters
+     * @param processingPreferences the processing preferences
      *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file.
@@ -1048,80 +1601,68 @@ public class MatchesValidator {
      * @throws ClassNotFoundException exception thrown whenever an error
      * occurred while deserializing an object from the database.
      */
-    public void fillPeptideMaps(Identification identification, Metrics metrics, WaitingHandler waitingHandler,
-            IdentificationParameters identificationParameters) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+    public void fillPeptideMaps(Identification identification, Metrics metrics, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler,
+            IdentificationParameters identificationParameters, ProcessingPreferences processingPreferences) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
         waitingHandler.setWaitingText("Filling Peptide Maps. Please Wait...");
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getPeptideIdentification().size() * 2);
 
-        ArrayList<String> foundModifications = new ArrayList<String>();
-        HashMap<String, ArrayList<String>> fractionPsmMatches = new HashMap<String, ArrayList<String>>();
-
-        PSParameter psParameter = new PSParameter();
         PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(null, false, null, waitingHandler);
 
-        while (peptideMatchesIterator.hasNext()) {
+        ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+        ArrayList<PeptideMapFillerRunnable> runnables = new ArrayList<PeptideMapFillerRunnable>(processingPreferences.getnThreads());
+        for (int i = 1; i <= processingPreferences.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
+            PeptideMapFillerRunnable runnable = new PeptideMapFillerRunnable(peptideMatchesIterator, identification, identificationParameters, waitingHandler, exceptionHandler);
+            pool.submit(runnable);
+            runnables.add(runnable);
+        }
+        if (waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return;
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Peptide map filling timed out. Please contact the developers.");
+        }
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
+
+        ArrayList<String> foundModifications = new ArrayList<String>();
+        HashMap<String, HashMap<String, ArrayList<String>>> psmMatchesPerFraction = new HashMap<String, HashMap<String, ArrayList<String>>>();
+
+        for (PeptideMapFillerRunnable runnable : runnables) {
 
-            PeptideMatch peptideMatch = peptideMatchesIterator.next();
-            String peptideKey = peptideMatch.getKey();
+            peptideMap.addAll(runnable.getThreadPeptideMap());
 
-            for (String modification : Peptide.getModificationFamily(peptideKey)) {
+            for (String modification : runnable.getFoundModifications()) {
                 if (!foundModifications.contains(modification)) {
                     foundModifications.add(modification);
                 }
             }
 
-            double probaScore = 1;
-            HashMap<String, Double> fractionScores = new HashMap<String, Double>();
-
-            // get the fraction scores
-            identification.loadSpectrumMatchParameters(peptideMatch.getSpectrumMatches(), psParameter, null);
-            for (String spectrumKey : peptideMatch.getSpectrumMatches()) {
-                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
-                probaScore = probaScore * psParameter.getPsmProbability();
-                String fraction = Spectrum.getSpectrumFile(spectrumKey);
-
-                if (!fractionScores.containsKey(fraction)) {
-                    fractionScores.put(fraction, 1.0);
-                }
-
-                fractionScores.put(fraction, fractionScores.get(fraction) * psParameter.getPsmProbability());
-
-                if (!fractionPsmMatches.containsKey(fraction + "_" + peptideKey)) {
-                    ArrayList<String> spectrumMatches = new ArrayList<String>(1);
-                    spectrumMatches.add(spectrumKey);
-                    fractionPsmMatches.put(fraction + "_" + peptideKey, spectrumMatches);
+            HashMap<String, HashMap<String, ArrayList<String>>> threadPsmMatches = runnable.getPsmMatchesPerFraction();
+            for (String fraction : threadPsmMatches.keySet()) {
+                HashMap<String, ArrayList<String>> fractionMatches = psmMatchesPerFraction.get(fraction);
+                if (fractionMatches == null) {
+                    psmMatchesPerFraction.put(fraction, threadPsmMatches.get(fraction));
                 } else {
-                    fractionPsmMatches.get(fraction + "_" + peptideKey).add(spectrumKey);
+                    // a peptide is processed by a single thread, keys cannot overlap
+                    fractionMatches.putAll(threadPsmMatches.get(fraction));
                 }
             }
-
-            psParameter = new PSParameter();
-            psParameter.setPeptideProbabilityScore(probaScore);
-            psParameter.setSpecificMapKey(peptideMap.getKey(peptideMatch));
-
-            // set the fraction scores
-            for (String fractionName : fractionScores.keySet()) {
-                psParameter.setFractionScore(fractionName, fractionScores.get(fractionName));
-            }
-
-            identification.addPeptideMatchParameter(peptideKey, psParameter);
-            peptideMap.addPoint(psParameter.getPeptideProbabilityScore(), peptideMatch, identificationParameters.getSequenceMatchingPreferences());
-
-            waitingHandler.increaseSecondaryProgressCounter();
-
-            if (waitingHandler.isRunCanceled()) {
-                return;
-            }
         }
 
+        // the threads find the modifications in any order
+        Collections.sort(foundModifications);
+
         waitingHandler.setSecondaryProgressCounterIndeterminate(true);
 
         if (metrics != null) {
             // set the fraction psm matches
-            metrics.setFractionPsmMatches(fractionPsmMatches);
+            metrics.setPsmMatchesPerFraction(psmMatchesPerFraction);
             // set the ptms
             metrics.setFoundModifications(foundModifications);
         }
@@ -1134,6 +1675,8 @@ public class MatchesValidator {
      * @param identification the identification class containing the matches to
      * validate
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler a handler for exceptions
+     * @param processingPreferences the processing preferences
      *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file.
@@ -1144,44 +1687,35 @@ public class MatchesValidator {
      * @throws ClassNotFoundException exception thrown whenever an error
      * occurred while deserializing an object from the database.
      */
-    public void attachPeptideProbabilities(Identification identification, WaitingHandler waitingHandler)
-            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+    public void attachPeptideProbabilities(Identification identification, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler,
+            ProcessingPreferences processingPreferences) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
         waitingHandler.setWaitingText("Attaching Peptide Probabilities. Please Wait...");
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getPeptideIdentification().size());
 
-        PSParameter psParameter = new PSParameter();
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-        parameters.add(psParameter);
+        parameters.add(new PSParameter());
         PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(parameters, false, parameters, waitingHandler);
+        ParameterWriteBuffer writeBuffer = new ParameterWriteBuffer(identification, objectsCache, batchSize);
 
-        while (peptideMatchesIterator.hasNext()) {
-
-            PeptideMatch peptideMatch = peptideMatchesIterator.next();
-            String peptideKey = peptideMatch.getKey();
-            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
-
-            if (sequenceFactory.concatenatedTargetDecoy()) {
-                psParameter.setPeptideProbability(peptideMap.getProbability(psParameter.getSpecificMapKey(), psParameter.getPeptideProbabilityScore()));
-            } else {
-                psParameter.setPeptideProbability(1.0);
-            }
-            for (String fraction : psParameter.getFractions()) {
-                if (sequenceFactory.concatenatedTargetDecoy()) {
-                    psParameter.setFractionPEP(fraction, peptideMap.getProbability(psParameter.getSpecificMapKey(), psParameter.getFractionScore(fraction)));
-                } else {
-                    psParameter.setFractionPEP(fraction, 1.0);
-                }
-            }
-
-            identification.updatePeptideMatchParameter(peptideKey, psParameter);
-            waitingHandler.increaseSecondaryProgressCounter();
-
-            if (waitingHandler.isRunCanceled()) {
-                return;
-            }
+        ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+        for (int i = 1; i <= processingPreferences.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
+            PeptideProbabilitiesRunnable runnable = new PeptideProbabilitiesRunnable(peptideMatchesIterator, identification, waitingHandler, exceptionHandler, writeBuffer);
+            pool.submit(runnable);
+        }
+        if (waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return;
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Peptide probabilities attachment timed out. Please contact the developers.");
+        }
+        writeBuffer.flush(null);
+        if (waitingHandler.isRunCanceled()) {
+            return;
         }
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(true);
@@ -1193,11 +1727,14 @@ public class MatchesValidator {
      * @param identification the identification class containing the matches to
      * validate
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler a handler for exceptions
+     * @param processingPreferences the processing preferences
      *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file.
      */
-    public void fillProteinMap(Identification identification, WaitingHandler waitingHandler) throws Exception {
+    public void fillProteinMap(Identification identification, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler,
+            ProcessingPreferences processingPreferences) throws Exception {
 
         waitingHandler.setWaitingText("Filling Protein Map. Please Wait...");
 
@@ -1206,53 +1743,36 @@ public class MatchesValidator {
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(max);
 
-        PSParameter psParameter = new PSParameter();
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-        parameters.add(psParameter);
+        parameters.add(new PSParameter());
         ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(null, true, parameters, false, parameters, waitingHandler);
 
-        while (proteinMatchesIterator.hasNext()) {
-
-            ProteinMatch proteinMatch = proteinMatchesIterator.next();
-            String proteinKey = proteinMatch.getKey();
-
-            waitingHandler.increaseSecondaryProgressCounter();
-            if (waitingHandler.isRunCanceled()) {
-                return;
-            }
-
-            HashMap<String, Double> fractionScores = new HashMap<String, Double>();
-            double probaScore = 1;
-
-            if (proteinMatch == null) {
-                throw new IllegalArgumentException("Protein match " + proteinKey + " not found.");
-            }
-
-            // get the fraction scores
-            for (String peptideKey : proteinMatch.getPeptideMatchesKeys()) {
-
-                psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
-                probaScore = probaScore * psParameter.getPeptideProbability();
-
-                for (String fraction : psParameter.getFractions()) {
-                    if (!fractionScores.containsKey(fraction)) {
-                        fractionScores.put(fraction, 1.0);
-                    }
-
-                    fractionScores.put(fraction, fractionScores.get(fraction) * psParameter.getFractionPEP(fraction));
-                }
-            }
-
-            psParameter = new PSParameter();
-            psParameter.setProteinProbabilityScore(probaScore);
-
-            // set the fraction scores
-            for (String fractionName : fractionScores.keySet()) {
-                psParameter.setFractionScore(fractionName, fractionScores.get(fractionName));
-            }
+        ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+        ArrayList<ProteinMapFillerRunnable> runnables = new ArrayList<ProteinMapFillerRunnable>(processingPreferences.getnThreads());
+        for (int i = 1; i <= processingPreferences.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
+            ProteinMapFillerRunnable runnable = new ProteinMapFillerRunnable(proteinMatchesIterator, identification, waitingHandler, exceptionHandler);
+            pool.submit(runnable);
+            runnables.add(runnable);
+        }
+        if (waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return;
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Protein map filling timed out. Please contact the developers.");
+        }
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
 
-            identification.addProteinMatchParameter(proteinKey, psParameter);
-            proteinMap.addPoint(psParameter.getProteinProbabilityScore(), proteinMatch.isDecoy());
+        int nProteins = 0;
+        for (ProteinMapFillerRunnable runnable : runnables) {
+            proteinMap.addAll(runnable.getThreadProteinMap());
+            nProteins += runnable.getnProteins();
+        }
+        if (nProteins < max) {
+            throw new IllegalArgumentException((max - nProteins) + " protein matches not found.");
         }
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(true);
@@ -1265,6 +1785,7 @@ public class MatchesValidator {
      * validate
      * @param metrics if provided fraction information
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler a handler for exceptions
      * @param processingPreferences the processing preferences
      *
      * @throws SQLException exception thrown whenever an error occurred while
@@ -1278,7 +1799,7 @@ public class MatchesValidator {
      * occurred while retrieving the match or when an error is encountered while
      * reading the FASTA file
      */
-    public void attachProteinProbabilities(Identification identification, Metrics metrics, WaitingHandler waitingHandler,
+    public void attachProteinProbabilities(Identification identification, Metrics metrics, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler,
             ProcessingPreferences processingPreferences) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
         waitingHandler.setWaitingText("Attaching Protein Probabilities. Please Wait...");
@@ -1286,55 +1807,48 @@ public class MatchesValidator {
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getProteinIdentification().size());
 
-        HashMap<String, ArrayList<Double>> fractionMW = new HashMap<String, ArrayList<Double>>();
-
-        PSParameter psParameter = new PSParameter();
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-        parameters.add(psParameter);
+        parameters.add(new PSParameter());
         ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(parameters, true, parameters, true, parameters, waitingHandler);
+        ParameterWriteBuffer writeBuffer = new ParameterWriteBuffer(identification, objectsCache, batchSize);
 
-        while (proteinMatchesIterator.hasNext()) {
-
-            ProteinMatch proteinMatch = proteinMatchesIterator.next();
-            String proteinKey = proteinMatch.getKey();
-            Double proteinMW = sequenceFactory.computeMolecularWeight(proteinMatch.getMainMatch());
-
-            psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
-            if (sequenceFactory.concatenatedTargetDecoy()) {
-                double proteinProbability = proteinMap.getProbability(psParameter.getProteinProbabilityScore());
-                psParameter.setProteinProbability(proteinProbability);
-            } else {
-                psParameter.setProteinProbability(1.0);
-            }
-
-            for (String fraction : psParameter.getFractions()) {
-                if (sequenceFactory.concatenatedTargetDecoy()) {
-                    psParameter.setFractionPEP(fraction, proteinMap.getProbability(psParameter.getFractionScore(fraction)));
-                } else {
-                    psParameter.setFractionPEP(fraction, 1.0);
-                }
+        ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+        ArrayList<ProteinProbabilitiesRunnable> runnables = new ArrayList<ProteinProbabilitiesRunnable>(processingPreferences.getnThreads());
+        for (int i = 1; i <= processingPreferences.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
+            ProteinProbabilitiesRunnable runnable = new ProteinProbabilitiesRunnable(proteinMatchesIterator, identification, waitingHandler, exceptionHandler, processingPreferences.getProteinConfidenceMwPlots(), writeBuffer);
+            pool.submit(runnable);
+            runnables.add(runnable);
+        }
+        if (waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return;
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Protein probabilities attachment timed out. Please contact the developers.");
+        }
+        writeBuffer.flush(null);
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
 
-                // set the fraction molecular weights
-                if (!proteinMatch.isDecoy() && psParameter.getFractionConfidence(fraction) > processingPreferences.getProteinConfidenceMwPlots()) {
-                    if (fractionMW.containsKey(fraction)) {
-                        fractionMW.get(fraction).add(proteinMW);
+        if (metrics != null) {
+            HashMap<String, ArrayList<Double>> fractionMW = new HashMap<String, ArrayList<Double>>();
+            for (ProteinProbabilitiesRunnable runnable : runnables) {
+                HashMap<String, ArrayList<Double>> threadFractionMW = runnable.getFractionMW();
+                for (String fraction : threadFractionMW.keySet()) {
+                    ArrayList<Double> mw = fractionMW.get(fraction);
+                    if (mw == null) {
+                        fractionMW.put(fraction, threadFractionMW.get(fraction));
                     } else {
-                        ArrayList<Double> mw = new ArrayList<Double>();
-                        mw.add(proteinMW);
-                        fractionMW.put(fraction, mw);
+                        mw.addAll(threadFractionMW.get(fraction));
                     }
                 }
             }
-
-            identification.updateProteinMatchParameter(proteinKey, psParameter);
-            waitingHandler.increaseSecondaryProgressCounter();
-
-            if (waitingHandler.isRunCanceled()) {
-                return;
+            // the threads process the proteins in any order
+            for (ArrayList<Double> mw : fractionMW.values()) {
+                Collections.sort(mw);
             }
-        }
-
-        if (metrics != null) {
             // set the observed fractional molecular weights per fraction
             metrics.setObservedFractionalMassesAll(fractionMW);
         }
@@ -1396,6 +1910,41 @@ public class MatchesValidator {
         this.proteinMap = proteinMap;
     }
 
+    /**
+     * Sets the objects cache of the identification. When set, the parameters
+     * of the matches are updated in the cache and saved in batches.
+     *
+     * @param objectsCache the objects cache of the identification
+     */
+    public void setObjectsCache(ObjectsCache objectsCache) {
+        this.objectsCache = objectsCache;
+    }
+
+    /**
+     * Returns the number of parameter updates between two saves of the
+     * objects cache.
+     *
+     * @return the number of parameter updates between two saves of the
+     * objects cache
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of parameter updates between two saves of the objects
+     * cache.
+     *
+     * @param batchSize the number of parameter updates between two saves of
+     * the objects cache
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size should be strictly positive, " + batchSize + " found.");
+        }
+        this.batchSize = batchSize;
+    }
+
     /**
      * Sets the default matches quality control filters.
      *
@@ -1499,7 +2048,21 @@ public class MatchesValidator {
          * If true, quality control filters will be applied to the matches.
          */
         private boolean applyQCFilters;
+        /**
+         * If true, the matches were validated before and only the changes
+         * are reported to the input map.
+         */
+        private boolean incremental;
+        /**
+         * The keys of the peptides of the spectrum matches whose validation
+         * level changed.
+         */
+        private HashSet<String> changedPeptideKeys = new HashSet<String>();
 
+        /**
+         * The buffer where the parameters of the matches are updated.
+         */
+        private ParameterWriteBuffer writeBuffer;
         /**
          * Constructor.
          *
@@ -1519,9 +2082,15 @@ public class MatchesValidator {
          * will be stored in the input map
          * @param applyQCFilters boolean indicating whether quality control
          * filters should be used
+         * @param incremental boolean indicating whether the matches were
+         * validated before, in which case only the changes of validation are
+         * reported to the input map
+         * @param writeBuffer the buffer where the parameters of the matches
+         * are updated
          */
         public PsmValidatorRunnable(PsmIterator psmIterator, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, ShotgunProtocol shotgunProtocol,
-                IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, ArrayList<Double> precursorMzDeviations, InputMap inputMap, boolean applyQCFilters) {
+                IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, ArrayList<Double> precursorMzDeviations, InputMap inputMap,
+                boolean applyQCFilters, boolean incremental, ParameterWriteBuffer writeBuffer) {
             this.psmIterator = psmIterator;
             this.identification = identification;
             this.identificationFeaturesGenerator = identificationFeaturesGenerator;
@@ -1532,6 +2101,8 @@ public class MatchesValidator {
             this.precursorMzDeviations = precursorMzDeviations;
             this.inputMap = inputMap;
             this.applyQCFilters = applyQCFilters;
+            this.incremental = incremental;
+            this.writeBuffer = writeBuffer;
         }
 
         @Override
@@ -1543,15 +2114,25 @@ public class MatchesValidator {
 
                         String spectrumKey = spectrumMatch.getKey();
 
-                        updateSpectrumMatchValidationLevel(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator, psmMap, spectrumKey, precursorMzDeviations, applyQCFilters);
+                        MatchValidationLevel previousValidationLevel = null;
+                        if (incremental) {
+                            PSParameter previousParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, new PSParameter());
+                            previousValidationLevel = previousParameter.getMatchValidationLevel();
+                        }
+
+                        PSParameter psParameter = validateSpectrumMatch(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters,
+                                peptideSpectrumAnnotator, psmMap, spectrumKey, precursorMzDeviations, applyQCFilters);
+                        writeBuffer.updateSpectrumMatchParameter(spectrumKey, psParameter);
+                        MatchValidationLevel validationLevel = psParameter.getMatchValidationLevel();
+                        PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
 
-                        // Update search engine agreement
-                        PSParameter psParameter = new PSParameter();
-                        psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+                        if (incremental && validationLevel != previousValidationLevel && peptideAssumption != null) {
+                            changedPeptideKeys.add(peptideAssumption.getPeptide().getMatchingKey(identificationParameters.getSequenceMatchingPreferences()));
+                        }
 
-                        if (psParameter.getMatchValidationLevel().isValidated()) {
+                        // Update search engine agreement
 
-                            PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+                        if (validationLevel.isValidated()) {
 
                             if (peptideAssumption != null) {
 
@@ -1559,40 +2140,12 @@ public class MatchesValidator {
                                 double precursorMzError = peptideAssumption.getDeltaMass(precursorMz, shotgunProtocol.isMs1ResolutionPpm());
                                 threadPrecursorMzDeviations.add(precursorMzError);
 
-                                if (inputMap != null) {
-
-                                    Peptide bestPeptide = peptideAssumption.getPeptide();
-                                    ArrayList<Integer> agreementAdvocates = new ArrayList<Integer>();
-
-                                    HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
-                                    for (int advocateId : assumptions.keySet()) {
-                                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = assumptions.get(advocateId);
-                                        if (advocateAssumptions != null) {
-                                            ArrayList<Double> eValues = new ArrayList<Double>(advocateAssumptions.keySet());
-                                            Collections.sort(eValues);
-                                            for (SpectrumIdentificationAssumption firstHit : advocateAssumptions.get(eValues.get(0))) {
-                                                if (firstHit instanceof PeptideAssumption) {
-                                                    Peptide advocatePeptide = ((PeptideAssumption) firstHit).getPeptide();
-                                                    if (bestPeptide.isSameSequenceAndModificationStatus(advocatePeptide, identificationParameters.getSequenceMatchingPreferences())) {
-                                                        agreementAdvocates.add(advocateId);
-                                                        break;
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    }
-
-                                    boolean unique = agreementAdvocates.size() == 1;
-
-                                    String spectrumFileName = Spectrum.getSpectrumFile(spectrumKey);
-
-                                    for (int advocateId : agreementAdvocates) {
-                                        inputMap.addAdvocateContribution(advocateId, spectrumFileName, unique);
-                                    }
-
-                                    inputMap.addAdvocateContribution(Advocate.peptideShaker.getIndex(), spectrumFileName, agreementAdvocates.isEmpty());
+                                if (inputMap != null && (!incremental || !previousValidationLevel.isValidated())) {
+                                    updateAdvocateContributions(spectrumKey, peptideAssumption.getPeptide(), true);
                                 }
                             }
+                        } else if (incremental && previousValidationLevel.isValidated() && peptideAssumption != null && inputMap != null) {
+                            updateAdvocateContributions(spectrumKey, peptideAssumption.getPeptide(), false);
                         }
                     }
                     if (waitingHandler != null) {
@@ -1605,6 +2158,75 @@ public class MatchesValidator {
             }
         }
 
+        /**
+         * Adds or removes the contributions of the search engines agreeing
+         * with the best peptide of a spectrum match to the input map.
+         *
+         * @param spectrumKey the key of the spectrum match
+         * @param bestPeptide the best peptide of the spectrum match
+         * @param add if true the contributions are added, removed otherwise
+         *
+         * @throws SQLException exception thrown whenever an error occurred
+         * while interacting with the database
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading or writing a file
+         * @throws ClassNotFoundException exception thrown whenever an error
+         * occurred while deserializing an object from the database
+         * @throws InterruptedException exception thrown whenever a threading
+         * error occurred while interacting with the database
+         */
+        private void updateAdvocateContributions(String spectrumKey, Peptide bestPeptide, boolean add) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+            ArrayList<Integer> agreementAdvocates = new ArrayList<Integer>();
+
+            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
+            for (int advocateId : assumptions.keySet()) {
+                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = assumptions.get(advocateId);
+                if (advocateAssumptions != null) {
+                    ArrayList<Double> eValues = new ArrayList<Double>(advocateAssumptions.keySet());
+                    Collections.sort(eValues);
+                    for (SpectrumIdentificationAssumption firstHit : advocateAssumptions.get(eValues.get(0))) {
+                        if (firstHit instanceof PeptideAssumption) {
+                            Peptide advocatePeptide = ((PeptideAssumption) firstHit).getPeptide();
+                            if (bestPeptide.isSameSequenceAndModificationStatus(advocatePeptide, identificationParameters.getSequenceMatchingPreferences())) {
+                                agreementAdvocates.add(advocateId);
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+
+            boolean unique = agreementAdvocates.size() == 1;
+
+            String spectrumFileName = Spectrum.getSpectrumFile(spectrumKey);
+
+            for (int advocateId : agreementAdvocates) {
+                if (add) {
+                    inputMap.addAdvocateContribution(advocateId, spectrumFileName, unique);
+                } else {
+                    inputMap.removeAdvocateContribution(advocateId, spectrumFileName, unique);
+                }
+            }
+
+            if (add) {
+                inputMap.addAdvocateContribution(Advocate.peptideShaker.getIndex(), spectrumFileName, agreementAdvocates.isEmpty());
+            } else {
+                inputMap.removeAdvocateContribution(Advocate.peptideShaker.getIndex(), spectrumFileName, agreementAdvocates.isEmpty());
+            }
+        }
+
+        /**
+         * Returns the keys of the peptides of the spectrum matches whose
+         * validation level changed. Only filled in incremental mode.
+         *
+         * @return the keys of the peptides of the spectrum matches whose
+         * validation level changed
+         */
+        public HashSet<String> getChangedPeptideKeys() {
+            return changedPeptideKeys;
+        }
+
         /**
          * Returns the precursor m/z deviations of the validated PSMs.
          *
@@ -1664,6 +2286,10 @@ public class MatchesValidator {
          */
         private Metrics metrics;
 
+        /**
+         * The buffer where the parameters of the matches are updated.
+         */
+        private ParameterWriteBuffer writeBuffer;
         /**
          * Constructor.
          *
@@ -1682,9 +2308,11 @@ public class MatchesValidator {
          * @param validatedTotalPeptidesPerFraction map used to store the number
          * of validated peptides per fraction
          * @param metrics the object used to store metrics on the project
+         * @param writeBuffer the buffer where the parameters of the matches
+         * are updated
          */
         public PeptideValidatorRunnable(PeptideMatchesIterator peptideMatchesIterator, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, ShotgunProtocol shotgunProtocol,
-                IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, Metrics metrics) {
+                IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, Metrics metrics, ParameterWriteBuffer writeBuffer) {
             this.peptideMatchesIterator = peptideMatchesIterator;
             this.identification = identification;
             this.identificationFeaturesGenerator = identificationFeaturesGenerator;
@@ -1693,6 +2321,7 @@ public class MatchesValidator {
             this.waitingHandler = waitingHandler;
             this.exceptionHandler = exceptionHandler;
             this.metrics = metrics;
+            this.writeBuffer = writeBuffer;
         }
 
         @Override
@@ -1706,11 +2335,10 @@ public class MatchesValidator {
 
                         String peptideKey = peptideMatch.getKey();
 
-                        updatePeptideMatchValidationLevel(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideMap, peptideKey);
+                        PSParameter psParameter = validatePeptideMatch(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters,
+                                peptideMap, peptideKey);
 
                         // set the fraction details
-                        PSParameter psParameter = new PSParameter();
-                        psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
 
                         if (psParameter.getMatchValidationLevel().isValidated()) {
                             double length = Peptide.getSequence(peptideKey).length();
@@ -1725,8 +2353,8 @@ public class MatchesValidator {
 
                             ArrayList<Double> precursorIntensities = new ArrayList<Double>();
 
-                            if (metrics.getFractionPsmMatches().get(fraction + "_" + peptideKey) != null) {
-                                ArrayList<String> spectrumKeys = metrics.getFractionPsmMatches().get(fraction + "_" + peptideKey);
+                            ArrayList<String> spectrumKeys = metrics.getFractionPsmMatches(fraction, peptideKey);
+                            if (spectrumKeys != null) {
 
                                 for (String spectrumKey : spectrumKeys) {
 
@@ -1768,7 +2396,7 @@ public class MatchesValidator {
                         psParameter.setFractionValidatedSpectra(validatedPsmsPerFraction);
                         psParameter.setPrecursorIntensityPerFraction(precursorIntensitesPerFractionPeptideLevel);
 
-                        identification.updatePeptideMatchParameter(peptideKey, psParameter);
+                        writeBuffer.updatePeptideMatchParameter(peptideKey, psParameter);
                         if (waitingHandler != null) {
                             waitingHandler.increaseSecondaryProgressCounter();
                         }
@@ -1850,6 +2478,10 @@ public class MatchesValidator {
          */
         private Metrics metrics;
 
+        /**
+         * The buffer where the parameters of the matches are updated.
+         */
+        private ParameterWriteBuffer writeBuffer;
         /**
          * Constructor.
          *
@@ -1865,9 +2497,11 @@ public class MatchesValidator {
          * canceling the process
          * @param exceptionHandler handler for exceptions
          * @param validationQCPreferences the validation QC preferences
+         * @param writeBuffer the buffer where the parameters of the matches
+         * are updated
          */
         public ProteinValidatorRunnable(ProteinMatchesIterator proteinMatchesIterator, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, Metrics metrics, ShotgunProtocol shotgunProtocol,
-                IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, ValidationQCPreferences validationQCPreferences) {
+                IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, ValidationQCPreferences validationQCPreferences, ParameterWriteBuffer writeBuffer) {
             this.proteinMatchesIterator = proteinMatchesIterator;
             this.identification = identification;
             this.identificationFeaturesGenerator = identificationFeaturesGenerator;
@@ -1877,6 +2511,7 @@ public class MatchesValidator {
             this.waitingHandler = waitingHandler;
             this.exceptionHandler = exceptionHandler;
             this.validationQCPreferences = validationQCPreferences;
+            this.writeBuffer = writeBuffer;
         }
 
         @Override
@@ -1903,12 +2538,10 @@ public class MatchesValidator {
                     if (proteinMatch != null) {
 
                         String proteinKey = proteinMatch.getKey();
-                        updateProteinMatchValidationLevel(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters,
+                        PSParameter psParameter = validateProteinMatch(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters,
                                 targetDecoyMap, proteinThreshold, nTargetLimit, proteinConfidentThreshold, noValidated, proteinKey);
 
                         // set the fraction details
-                        PSParameter psParameter = new PSParameter();
-                        psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
 
                         if (!proteinMatch.isDecoy() && psParameter.getMatchValidationLevel().isValidated()) {
                             double tempSpectrumCounting = identificationFeaturesGenerator.getSpectrumCounting(proteinKey);
@@ -1946,13 +2579,13 @@ public class MatchesValidator {
                                     }
                                 }
 
-                                if (psParameter2.getPrecursorIntensityPerFraction(fraction) != null) {
-                                    if (precursorIntensitesPerFractionProteinLevel.containsKey(fraction)) {
-                                        for (int i = 0; i < psParameter2.getPrecursorIntensityPerFraction(fraction).size(); i++) {
-                                            precursorIntensitesPerFractionProteinLevel.get(fraction).add(psParameter2.getPrecursorIntensityPerFraction(fraction).get(i));
-                                        }
+                                ArrayList<Double> peptideIntensities = psParameter2.getPrecursorIntensityPerFraction(fraction);
+                                if (peptideIntensities != null) {
+                                    ArrayList<Double> proteinIntensities = precursorIntensitesPerFractionProteinLevel.get(fraction);
+                                    if (proteinIntensities != null) {
+                                        proteinIntensities.addAll(peptideIntensities);
                                     } else {
-                                        precursorIntensitesPerFractionProteinLevel.put(fraction, psParameter2.getPrecursorIntensityPerFraction(fraction));
+                                        precursorIntensitesPerFractionProteinLevel.put(fraction, peptideIntensities);
                                     }
                                 }
 
@@ -1993,7 +2626,7 @@ public class MatchesValidator {
                             }
                         }
 
-                        identification.updateProteinMatchParameter(proteinKey, psParameter);
+                        writeBuffer.updateProteinMatchParameter(proteinKey, psParameter);
 
                         if (waitingHandler != null) {
                             waitingHandler.increaseSecondaryProgressCounter();
@@ -2048,4 +2681,595 @@ public class MatchesValidator {
         }
 
     }
+
+    /**
+     * Runnable filling the peptide specific map.
+     *
+     * @author Marc Vaudel
+     */
+    private class PeptideMapFillerRunnable implements Runnable {
+
+        /**
+         * An iterator for the peptide matches.
+         */
+        private PeptideMatchesIterator peptideMatchesIterator;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+        /**
+         * The peptide map filled by this thread.
+         */
+        private PeptideSpecificMap threadPeptideMap = new PeptideSpecificMap();
+        /**
+         * The modifications found by this thread.
+         */
+        private ArrayList<String> foundModifications = new ArrayList<String>();
+        /**
+         * The PSM matches per fraction per peptide found by this thread.
+         */
+        private HashMap<String, HashMap<String, ArrayList<String>>> psmMatchesPerFraction = new HashMap<String, HashMap<String, ArrayList<String>>>();
+
+        /**
+         * Constructor.
+         *
+         * @param peptideMatchesIterator a peptide matches iterator
+         * @param identification the identification containing the matches
+         * @param identificationParameters the identification parameters
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public PeptideMapFillerRunnable(PeptideMatchesIterator peptideMatchesIterator, Identification identification, IdentificationParameters identificationParameters,
+                WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.peptideMatchesIterator = peptideMatchesIterator;
+            this.identification = identification;
+            this.identificationParameters = identificationParameters;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                PSParameter psParameter = new PSParameter();
+
+                while (peptideMatchesIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+
+                    PeptideMatch peptideMatch = peptideMatchesIterator.next();
+
+                    if (peptideMatch != null) {
+
+                        String peptideKey = peptideMatch.getKey();
+
+                        for (String modification : Peptide.getModificationFamily(peptideKey)) {
+                            if (!foundModifications.contains(modification)) {
+                                foundModifications.add(modification);
+                            }
+                        }
+
+                        double probaScore = 1;
+                        HashMap<String, Double> fractionScores = new HashMap<String, Double>();
+
+                        // get the fraction scores
+                        identification.loadSpectrumMatchParameters(peptideMatch.getSpectrumMatches(), psParameter, null);
+                        for (String spectrumKey : peptideMatch.getSpectrumMatches()) {
+                            psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+                            double psmProbability = psParameter.getPsmProbability();
+                            probaScore = probaScore * psmProbability;
+                            String fraction = Spectrum.getSpectrumFile(spectrumKey);
+
+                            Double fractionScore = fractionScores.get(fraction);
+                            if (fractionScore == null) {
+                                fractionScore = 1.0;
+                            }
+                            fractionScores.put(fraction, fractionScore * psmProbability);
+
+                            HashMap<String, ArrayList<String>> fractionMatches = psmMatchesPerFraction.get(fraction);
+                            if (fractionMatches == null) {
+                                fractionMatches = new HashMap<String, ArrayList<String>>();
+                                psmMatchesPerFraction.put(fraction, fractionMatches);
+                            }
+                            ArrayList<String> spectrumMatches = fractionMatches.get(peptideKey);
+                            if (spectrumMatches == null) {
+                                spectrumMatches = new ArrayList<String>(1);
+                                fractionMatches.put(peptideKey, spectrumMatches);
+                            }
+                            spectrumMatches.add(spectrumKey);
+                        }
+
+                        psParameter = new PSParameter();
+                        psParameter.setPeptideProbabilityScore(probaScore);
+                        psParameter.setSpecificMapKey(threadPeptideMap.getKey(peptideMatch));
+
+                        // set the fraction scores
+                        for (String fractionName : fractionScores.keySet()) {
+                            psParameter.setFractionScore(fractionName, fractionScores.get(fractionName));
+                        }
+
+                        identification.addPeptideMatchParameter(peptideKey, psParameter);
+                        threadPeptideMap.addPoint(probaScore, peptideMatch, identificationParameters.getSequenceMatchingPreferences());
+
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+
+        /**
+         * Returns the peptide map filled by this thread.
+         *
+         * @return the peptide map filled by this thread
+         */
+        public PeptideSpecificMap getThreadPeptideMap() {
+            return threadPeptideMap;
+        }
+
+        /**
+         * Returns the modifications found by this thread.
+         *
+         * @return the modifications found by this thread
+         */
+        public ArrayList<String> getFoundModifications() {
+            return foundModifications;
+        }
+
+        /**
+         * Returns the PSM matches per fraction per peptide found by this
+         * thread.
+         *
+         * @return the PSM matches per fraction per peptide found by this thread
+         */
+        public HashMap<String, HashMap<String, ArrayList<String>>> getPsmMatchesPerFraction() {
+            return psmMatchesPerFraction;
+        }
+    }
+
+    /**
+     * Runnable attaching the peptide posterior error probabilities to the
+     * peptide matches.
+     *
+     * @author Marc Vaudel
+     */
+    private class PeptideProbabilitiesRunnable implements Runnable {
+
+        /**
+         * An iterator for the peptide matches.
+         */
+        private PeptideMatchesIterator peptideMatchesIterator;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+
+        /**
+         * The buffer where the parameters of the matches are updated.
+         */
+        private ParameterWriteBuffer writeBuffer;
+        /**
+         * Constructor.
+         *
+         * @param peptideMatchesIterator a peptide matches iterator
+         * @param identification the identification containing the matches
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         * @param writeBuffer the buffer where the parameters of the matches
+         * are updated
+         */
+        public PeptideProbabilitiesRunnable(PeptideMatchesIterator peptideMatchesIterator, Identification identification,
+                WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, ParameterWriteBuffer writeBuffer) {
+            this.peptideMatchesIterator = peptideMatchesIterator;
+            this.identification = identification;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+            this.writeBuffer = writeBuffer;
+        }
+
+        @Override
+        public void run() {
+            try {
+                PSParameter psParameter = new PSParameter();
+                boolean concatenatedTargetDecoy = sequenceFactory.concatenatedTargetDecoy();
+
+                while (peptideMatchesIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+
+                    PeptideMatch peptideMatch = peptideMatchesIterator.next();
+
+                    if (peptideMatch != null) {
+
+                        String peptideKey = peptideMatch.getKey();
+                        psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+
+                        if (concatenatedTargetDecoy) {
+                            psParameter.setPeptideProbability(peptideMap.getProbability(psParameter.getSpecificMapKey(), psParameter.getPeptideProbabilityScore()));
+                        } else {
+                            psParameter.setPeptideProbability(1.0);
+                        }
+                        for (String fraction : psParameter.getFractions()) {
+                            if (concatenatedTargetDecoy) {
+                                psParameter.setFractionPEP(fraction, peptideMap.getProbability(psParameter.getSpecificMapKey(), psParameter.getFractionScore(fraction)));
+                            } else {
+                                psParameter.setFractionPEP(fraction, 1.0);
+                            }
+                        }
+
+                        writeBuffer.updatePeptideMatchParameter(peptideKey, psParameter);
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+    }
+
+    /**
+     * Runnable filling the protein map.
+     *
+     * @author Marc Vaudel
+     */
+    private class ProteinMapFillerRunnable implements Runnable {
+
+        /**
+         * An iterator for the protein matches.
+         */
+        private ProteinMatchesIterator proteinMatchesIterator;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+        /**
+         * The protein map filled by this thread.
+         */
+        private ProteinMap threadProteinMap = new ProteinMap();
+        /**
+         * The number of protein matches processed by this thread.
+         */
+        private int nProteins = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param proteinMatchesIterator a protein matches iterator
+         * @param identification the identification containing the matches
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public ProteinMapFillerRunnable(ProteinMatchesIterator proteinMatchesIterator, Identification identification,
+                WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.proteinMatchesIterator = proteinMatchesIterator;
+            this.identification = identification;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                PSParameter psParameter = new PSParameter();
+
+                while (proteinMatchesIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+
+                    ProteinMatch proteinMatch = proteinMatchesIterator.next();
+
+                    if (proteinMatch != null) {
+
+                        String proteinKey = proteinMatch.getKey();
+
+                        HashMap<String, Double> fractionScores = new HashMap<String, Double>();
+                        double probaScore = 1;
+
+                        // get the fraction scores
+                        for (String peptideKey : proteinMatch.getPeptideMatchesKeys()) {
+
+                            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+                            probaScore = probaScore * psParameter.getPeptideProbability();
+
+                            for (String fraction : psParameter.getFractions()) {
+                                Double fractionScore = fractionScores.get(fraction);
+                                if (fractionScore == null) {
+                                    fractionScore = 1.0;
+                                }
+                                fractionScores.put(fraction, fractionScore * psParameter.getFractionPEP(fraction));
+                            }
+                        }
+
+                        psParameter = new PSParameter();
+                        psParameter.setProteinProbabilityScore(probaScore);
+
+                        // set the fraction scores
+                        for (String fractionName : fractionScores.keySet()) {
+                            psParameter.setFractionScore(fractionName, fractionScores.get(fractionName));
+                        }
+
+                        identification.addProteinMatchParameter(proteinKey, psParameter);
+                        threadProteinMap.addPoint(probaScore, proteinMatch.isDecoy());
+                        nProteins++;
+
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+
+        /**
+         * Returns the protein map filled by this thread.
+         *
+         * @return the protein map filled by this thread
+         */
+        public ProteinMap getThreadProteinMap() {
+            return threadProteinMap;
+        }
+
+        /**
+         * Returns the number of protein matches processed by this thread.
+         * Null matches returned by the iterator when exhausted by another
+         * thread are not counted.
+         *
+         * @return the number of protein matches processed by this thread
+         */
+        public int getnProteins() {
+            return nProteins;
+        }
+    }
+
+    /**
+     * Runnable attaching the protein posterior error probabilities to the
+     * protein matches.
+     *
+     * @author Marc Vaudel
+     */
+    private class ProteinProbabilitiesRunnable implements Runnable {
+
+        /**
+         * An iterator for the protein matches.
+         */
+        private ProteinMatchesIterator proteinMatchesIterator;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+        /**
+         * The confidence above which proteins are used for the molecular
+         * weight plots.
+         */
+        private double proteinConfidenceMwPlots;
+        /**
+         * The molecular weights of the proteins found by this thread per
+         * fraction.
+         */
+        private HashMap<String, ArrayList<Double>> fractionMW = new HashMap<String, ArrayList<Double>>();
+
+        /**
+         * The buffer where the parameters of the matches are updated.
+         */
+        private ParameterWriteBuffer writeBuffer;
+        /**
+         * Constructor.
+         *
+         * @param proteinMatchesIterator a protein matches iterator
+         * @param identification the identification containing the matches
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         * @param proteinConfidenceMwPlots the confidence above which proteins
+         * are used for the molecular weight plots
+         * @param writeBuffer the buffer where the parameters of the matches
+         * are updated
+         */
+        public ProteinProbabilitiesRunnable(ProteinMatchesIterator proteinMatchesIterator, Identification identification,
+                WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, double proteinConfidenceMwPlots, ParameterWriteBuffer writeBuffer) {
+            this.proteinMatchesIterator = proteinMatchesIterator;
+            this.identification = identification;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+            this.proteinConfidenceMwPlots = proteinConfidenceMwPlots;
+            this.writeBuffer = writeBuffer;
+        }
+
+        @Override
+        public void run() {
+            try {
+                PSParameter psParameter = new PSParameter();
+                boolean concatenatedTargetDecoy = sequenceFactory.concatenatedTargetDecoy();
+
+                while (proteinMatchesIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+
+                    ProteinMatch proteinMatch = proteinMatchesIterator.next();
+
+                    if (proteinMatch != null) {
+
+                        String proteinKey = proteinMatch.getKey();
+                        Double proteinMW = sequenceFactory.computeMolecularWeight(proteinMatch.getMainMatch());
+
+                        psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+                        if (concatenatedTargetDecoy) {
+                            double proteinProbability = proteinMap.getProbability(psParameter.getProteinProbabilityScore());
+                            psParameter.setProteinProbability(proteinProbability);
+                        } else {
+                            psParameter.setProteinProbability(1.0);
+                        }
+
+                        for (String fraction : psParameter.getFractions()) {
+                            if (concatenatedTargetDecoy) {
+                                psParameter.setFractionPEP(fraction, proteinMap.getProbability(psParameter.getFractionScore(fraction)));
+                            } else {
+                                psParameter.setFractionPEP(fraction, 1.0);
+                            }
+
+                            // set the fraction molecular weights
+                            if (!proteinMatch.isDecoy() && psParameter.getFractionConfidence(fraction) > proteinConfidenceMwPlots) {
+                                ArrayList<Double> mw = fractionMW.get(fraction);
+                                if (mw == null) {
+                                    mw = new ArrayList<Double>();
+                                    fractionMW.put(fraction, mw);
+                                }
+                                mw.add(proteinMW);
+                            }
+                        }
+
+                        writeBuffer.updateProteinMatchParameter(proteinKey, psParameter);
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+
+        /**
+         * Returns the molecular weights of the proteins found by this thread
+         * per fraction.
+         *
+         * @return the molecular weights of the proteins found by this thread
+         * per fraction
+         */
+        public HashMap<String, ArrayList<Double>> getFractionMW() {
+            return fractionMW;
+        }
+    }
+
+    /**
+     * The interval of scores and confidences where the validation level of
+     * the matches can change between two thresholds.
+     *
+     * @author Marc Vaudel
+     */
+    static class ThresholdWindow {
+
+        /**
+         * The lower bound of the score interval, exclusive.
+         */
+        private final double minScore;
+        /**
+         * The upper bound of the score interval, inclusive.
+         */
+        private final double maxScore;
+        /**
+         * The lower bound of the confidence interval, inclusive.
+         */
+        private final double minConfidence;
+        /**
+         * The upper bound of the confidence interval, exclusive.
+         */
+        private final double maxConfidence;
+
+        /**
+         * Constructor.
+         *
+         * @param previousResults the results used at the last validation
+         * @param currentResults the current results
+         * @param margin the confidence margin
+         */
+        public ThresholdWindow(TargetDecoyResults previousResults, TargetDecoyResults currentResults, double margin) {
+            this(previousResults.getScoreLimit(), currentResults.getScoreLimit(), previousResults.getConfidenceLimit(), currentResults.getConfidenceLimit(), margin);
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param previousScoreLimit the score limit used at the last
+         * validation
+         * @param currentScoreLimit the current score limit
+         * @param previousConfidenceLimit the confidence limit used at the last
+         * validation
+         * @param currentConfidenceLimit the current confidence limit
+         * @param margin the confidence margin
+         */
+        public ThresholdWindow(double previousScoreLimit, double currentScoreLimit, double previousConfidenceLimit, double currentConfidenceLimit, double margin) {
+            minScore = Math.min(previousScoreLimit, currentScoreLimit);
+            maxScore = Math.max(previousScoreLimit, currentScoreLimit);
+            double previousConfidence = Math.min(previousConfidenceLimit + margin, 100);
+            double currentConfidence = Math.min(currentConfidenceLimit + margin, 100);
+            minConfidence = Math.min(previousConfidence, currentConfidence);
+            maxConfidence = Math.max(previousConfidence, currentConfidence);
+        }
+
+        /**
+         * Indicates whether the validation level of the matches cannot change.
+         *
+         * @return a boolean indicating whether the validation level of the
+         * matches cannot change
+         */
+        public boolean isEmpty() {
+            return minScore == maxScore && minConfidence == maxConfidence;
+        }
+
+        /**
+         * Indicates whether the validation level of a match can change.
+         *
+         * @param score the probability score of the match
+         * @param confidence the confidence of the match
+         *
+         * @return a boolean indicating whether the validation level of the
+         * match can change
+         */
+        public boolean contains(double score, double confidence) {
+            return score > minScore && score <= maxScore || confidence >= minConfidence && confidence < maxConfidence;
+        }
+
+        /**
+         * Returns the lower bound of the score interval, exclusive.
+         *
+         * @return the lower bound of the score interval
+         */
+        public double getMinScore() {
+            return minScore;
+        }
+
+        /**
+         * Returns the upper bound of the score interval, inclusive.
+         *
+         * @return the upper bound of the score interval
+         */
+        public double getMaxScore() {
+            return maxScore;
+        }
+    }
 }
@@ -0,0 +1,165 @@
+package eu.isas.peptideshaker.myparameters;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the serialization of the PeptideShaker parameter.
+ *
+ * @author Marc Vaudel
+ */
+public class PSParameterTest extends TestCase {
+
+    /**
+     * Tests that a parameter serialized with the fraction maps of former
+     * versions is converted into fraction statistics when deserialized.
+     *
+     * @throws Exception thrown whenever an error occurred while serializing
+     * or deserializing the parameter
+     */
+    public void testLegacyFractionMaps() throws Exception {
+
+        HashMap<String, Double> fractionScore = new HashMap<String, Double>();
+        fractionScore.put("fraction1", 0.1);
+        fractionScore.put("fraction2", 0.2);
+        HashMap<String, Double> fractionPEP = new HashMap<String, Double>();
+        fractionPEP.put("fraction1", 0.01);
+        fractionPEP.put("fraction2", 0.02);
+        HashMap<String, Integer> validatedPeptidesPerFraction = new HashMap<String, Integer>();
+        validatedPeptidesPerFraction.put("fraction1", 3);
+        HashMap<String, Integer> validatedSpectraPerFraction = new HashMap<String, Integer>();
+        validatedSpectraPerFraction.put("fraction2", 5);
+        HashMap<String, ArrayList<Double>> precursorIntensityPerFraction = new HashMap<String, ArrayList<Double>>();
+        ArrayList<Double> intensities = new ArrayList<Double>();
+        intensities.add(100.0);
+        intensities.add(300.0);
+        precursorIntensityPerFraction.put("fraction1", intensities);
+
+        PSParameter legacyParameter = new PSParameter();
+        setField(legacyParameter, "fractionScore", fractionScore);
+        setField(legacyParameter, "fractionPEP", fractionPEP);
+        setField(legacyParameter, "validatedPeptidesPerFraction", validatedPeptidesPerFraction);
+        setField(legacyParameter, "validatedSpectraPerFraction", validatedSpectraPerFraction);
+        setField(legacyParameter, "precursorIntensityPerFraction", precursorIntensityPerFraction);
+
+        PSParameter psParameter = serializeAndDeserialize(legacyParameter);
+
+        Set<String> fractions = psParameter.getFractions();
+        Assert.assertEquals(2, fractions.size());
+        Assert.assertTrue(fractions.contains("fraction1"));
+        Assert.assertTrue(fractions.contains("fraction2"));
+        Assert.assertEquals(0.1, psParameter.getFractionScore("fraction1"), 0);
+        Assert.assertEquals(0.2, psParameter.getFractionScore("fraction2"), 0);
+        Assert.assertEquals(0.01, psParameter.getFractionPEP("fraction1"), 0);
+        Assert.assertEquals(0.02, psParameter.getFractionPEP("fraction2"), 0);
+        Assert.assertEquals(new Integer(3), psParameter.getFractionValidatedPeptides("fraction1"));
+        Assert.assertNull(psParameter.getFractionValidatedPeptides("fraction2"));
+        Assert.assertNull(psParameter.getFractionValidatedSpectra("fraction1"));
+        Assert.assertEquals(new Integer(5), psParameter.getFractionValidatedSpectra("fraction2"));
+        Assert.assertEquals(intensities, psParameter.getPrecursorIntensityPerFraction("fraction1"));
+        Assert.assertNull(psParameter.getPrecursorIntensityPerFraction("fraction2"));
+        Assert.assertEquals(400.0, psParameter.getPrecursorIntensitySummedPerFraction("fraction1"), 0);
+        Assert.assertEquals(200.0, psParameter.getPrecursorIntensityAveragePerFraction("fraction1"), 0);
+
+        Assert.assertNull(getField(psParameter, "fractionScore"));
+        Assert.assertNull(getField(psParameter, "fractionPEP"));
+        Assert.assertNull(getField(psParameter, "validatedPeptidesPerFraction"));
+        Assert.assertNull(getField(psParameter, "validatedSpectraPerFraction"));
+        Assert.assertNull(getField(psParameter, "precursorIntensityPerFraction"));
+
+        // the converted statistics must survive a new serialization
+        PSParameter reloadedParameter = serializeAndDeserialize(psParameter);
+        Assert.assertEquals(fractions, reloadedParameter.getFractions());
+        Assert.assertEquals(0.2, reloadedParameter.getFractionScore("fraction2"), 0);
+        Assert.assertEquals(new Integer(5), reloadedParameter.getFractionValidatedSpectra("fraction2"));
+        Assert.assertEquals(intensities, reloadedParameter.getPrecursorIntensityPerFraction("fraction1"));
+    }
+
+    /**
+     * Tests that the fractions of a match are updated when a score is set in
+     * a new fraction and cannot be modified by the caller.
+     */
+    public void testFractions() {
+
+        PSParameter psParameter = new PSParameter();
+        Assert.assertTrue(psParameter.getFractions().isEmpty());
+
+        psParameter.setFractionScore("fraction1", 0.1);
+        Set<String> fractions = psParameter.getFractions();
+        Assert.assertEquals(1, fractions.size());
+        Assert.assertSame(fractions, psParameter.getFractions());
+
+        psParameter.setFractionScore("fraction2", 0.2);
+        Assert.assertEquals(2, psParameter.getFractions().size());
+        Assert.assertEquals(1, fractions.size());
+
+        try {
+            psParameter.getFractions().add("fraction3");
+            fail("The fractions of a match should not be modifiable.");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Serializes and deserializes the given parameter.
+     *
+     * @param psParameter the parameter
+     *
+     * @return the deserialized parameter
+     *
+     * @throws Exception thrown whenever an error occurred while serializing
+     * or deserializing the parameter
+     */
+    private static PSParameter serializeAndDeserialize(PSParameter psParameter) throws Exception {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(byteArrayOutputStream);
+        out.writeObject(psParameter);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+        try {
+            return (PSParameter) in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Sets a private field of the given parameter.
+     *
+     * @param psParameter the parameter
+     * @param name the name of the field
+     * @param value the value to set
+     *
+     * @throws Exception thrown whenever the field could not be set
+     */
+    private static void setField(PSParameter psParameter, String name, Object value) throws Exception {
+        Field field = PSParameter.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(psParameter, value);
+    }
+
+    /**
+     * Returns the value of a private field of the given parameter.
+     *
+     * @param psParameter the parameter
+     * @param name the name of the field
+     *
+     * @return the value of the field
+     *
+     * @throws Exception thrown whenever the field could not be read
+     */
+    private static Object getField(PSParameter psParameter, String name) throws Exception {
+        Field field = PSParameter.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(psParameter);
+    }
+}
@@ -0,0 +1,216 @@
+package eu.isas.peptideshaker.protein_inference;
+
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the on-disk cache of the peptide to protein mapping.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideMappingCacheTest extends TestCase {
+
+    /**
+     * The number of sequences added to test the growth of the index, more
+     * than the number of sequences fitting in the initial index.
+     */
+    private static final int N_SEQUENCES = 40000;
+    /**
+     * The folder where the FASTA file and the cache are written.
+     */
+    private File folder;
+    /**
+     * The FASTA file.
+     */
+    private File fastaFile;
+    /**
+     * The sequence matching preferences.
+     */
+    private SequenceMatchingPreferences sequenceMatchingPreferences;
+
+    @Override
+    protected void setUp() throws Exception {
+        folder = File.createTempFile("peptide_mapping_cache", "");
+        folder.delete();
+        folder.mkdirs();
+        fastaFile = new File(folder, "test.fasta");
+        writeFasta(">P1\nPEPTIDEKPROTEIN\n");
+        sequenceMatchingPreferences = new SequenceMatchingPreferences();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(folder);
+    }
+
+    /**
+     * Tests that the sequences added are found and that the other sequences
+     * are not.
+     *
+     * @throws Exception thrown whenever an error occurred while using the
+     * cache
+     */
+    public void testHitAndMiss() throws Exception {
+        PeptideMappingCache peptideMappingCache = PeptideMappingCache.openCache(fastaFile, sequenceMatchingPreferences);
+        try {
+            Assert.assertNull(peptideMappingCache.getProteins("PEPTIDEK"));
+            Assert.assertEquals(0, peptideMappingCache.getnHits());
+
+            peptideMappingCache.addProteins("PEPTIDEK", getProteins("P1", "P2"));
+            peptideMappingCache.addProteins("PROTEIN", new ArrayList<String>());
+            Assert.assertEquals(2, peptideMappingCache.size());
+            Assert.assertEquals(2, peptideMappingCache.getnAdded());
+
+            Assert.assertEquals(getProteins("P1", "P2"), peptideMappingCache.getProteins("PEPTIDEK"));
+            Assert.assertEquals(new ArrayList<String>(), peptideMappingCache.getProteins("PROTEIN"));
+            Assert.assertNull(peptideMappingCache.getProteins("PEPTIDE"));
+            Assert.assertEquals(2, peptideMappingCache.getnHits());
+
+            // a sequence already in the cache is not added again
+            peptideMappingCache.addProteins("PEPTIDEK", getProteins("P3"));
+            Assert.assertEquals(2, peptideMappingCache.size());
+            Assert.assertEquals(getProteins("P1", "P2"), peptideMappingCache.getProteins("PEPTIDEK"));
+        } finally {
+            peptideMappingCache.close();
+        }
+    }
+
+    /**
+     * Tests that the sequences are found after the index was grown.
+     *
+     * @throws Exception thrown whenever an error occurred while using the
+     * cache
+     */
+    public void testGrowth() throws Exception {
+        PeptideMappingCache peptideMappingCache = PeptideMappingCache.openCache(fastaFile, sequenceMatchingPreferences);
+        try {
+            for (int i = 0; i < N_SEQUENCES; i++) {
+                peptideMappingCache.addProteins(getSequence(i), getProteins("P" + i));
+            }
+            Assert.assertEquals(N_SEQUENCES, peptideMappingCache.size());
+            for (int i = 0; i < N_SEQUENCES; i++) {
+                Assert.assertEquals(getProteins("P" + i), peptideMappingCache.getProteins(getSequence(i)));
+            }
+            Assert.assertNull(peptideMappingCache.getProteins(getSequence(N_SEQUENCES)));
+        } finally {
+            peptideMappingCache.close();
+        }
+    }
+
+    /**
+     * Tests that the sequences are found when the cache is opened again, that
+     * the cache cannot be opened twice at the same time, and that a new cache
+     * is used when the FASTA file changes.
+     *
+     * @throws Exception thrown whenever an error occurred while using the
+     * cache
+     */
+    public void testReopen() throws Exception {
+        PeptideMappingCache peptideMappingCache = PeptideMappingCache.openCache(fastaFile, sequenceMatchingPreferences);
+        try {
+            for (int i = 0; i < N_SEQUENCES; i++) {
+                peptideMappingCache.addProteins(getSequence(i), getProteins("P" + i));
+            }
+            try {
+                PeptideMappingCache.openCache(fastaFile, sequenceMatchingPreferences).close();
+                fail("The cache should not be opened twice at the same time.");
+            } catch (IOException e) {
+                // expected
+            }
+        } finally {
+            peptideMappingCache.close();
+        }
+
+        peptideMappingCache = PeptideMappingCache.openCache(fastaFile, sequenceMatchingPreferences);
+        try {
+            Assert.assertEquals(N_SEQUENCES, peptideMappingCache.size());
+            for (int i = 0; i < N_SEQUENCES; i++) {
+                Assert.assertEquals(getProteins("P" + i), peptideMappingCache.getProteins(getSequence(i)));
+            }
+            peptideMappingCache.addProteins(getSequence(N_SEQUENCES), getProteins("P" + N_SEQUENCES));
+        } finally {
+            peptideMappingCache.close();
+        }
+
+        writeFasta(">P1\nPEPTIDEKPROTEINS\n");
+        peptideMappingCache = PeptideMappingCache.openCache(fastaFile, sequenceMatchingPreferences);
+        try {
+            Assert.assertEquals(0, peptideMappingCache.size());
+            Assert.assertNull(peptideMappingCache.getProteins(getSequence(0)));
+        } finally {
+            peptideMappingCache.close();
+        }
+        File cacheFolder = new File(folder, fastaFile.getName() + PeptideMappingCache.FOLDER_SUFFIX);
+        Assert.assertEquals(2, cacheFolder.listFiles().length);
+    }
+
+    /**
+     * Returns a sequence unique to the given index.
+     *
+     * @param index the index
+     *
+     * @return a sequence unique to the given index
+     */
+    private static String getSequence(int index) {
+        StringBuilder sequence = new StringBuilder("PEP");
+        String aminoAcids = "ACDEFGHIKLMNPQRSTVWY";
+        int rest = index;
+        do {
+            sequence.append(aminoAcids.charAt(rest % aminoAcids.length()));
+            rest /= aminoAcids.length();
+        } while (rest > 0);
+        return sequence.append('K').toString();
+    }
+
+    /**
+     * Returns a list of the given accessions.
+     *
+     * @param accessions the accessions
+     *
+     * @return a list of the given accessions
+     */
+    private static ArrayList<String> getProteins(String... accessions) {
+        ArrayList<String> proteins = new ArrayList<String>(accessions.length);
+        for (String accession : accessions) {
+            proteins.add(accession);
+        }
+        return proteins;
+    }
+
+    /**
+     * Writes the given content to the FASTA file.
+     *
+     * @param content the content of the FASTA file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void writeFasta(String content) throws IOException {
+        FileWriter fileWriter = new FileWriter(fastaFile);
+        try {
+            fileWriter.write(content);
+        } finally {
+            fileWriter.close();
+        }
+    }
+
+    /**
+     * Deletes the given file or folder.
+     *
+     * @param file the file or folder to delete
+     */
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
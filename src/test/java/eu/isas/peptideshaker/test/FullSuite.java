@@ -1,6 +1,8 @@
 package eu.isas.peptideshaker.test;
 
+import eu.isas.peptideshaker.myparameters.PSParameterTest;
 import eu.isas.peptideshaker.pride.PrideWebServiceTest;
+import eu.isas.peptideshaker.protein_inference.PeptideMappingCacheTest;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -19,6 +21,8 @@ public class FullSuite extends TestCase {
     public static Test suite() {
         TestSuite ts = new TestSuite("Test suite for the PeptideShaker project.");
         ts.addTest(new TestSuite(PrideWebServiceTest.class));
+        ts.addTest(new TestSuite(PSParameterTest.class));
+        ts.addTest(new TestSuite(PeptideMappingCacheTest.class));
         return ts;
     }
 }